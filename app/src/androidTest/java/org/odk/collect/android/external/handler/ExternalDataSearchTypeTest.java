@@ -0,0 +1,50 @@
+// Copyright 2015 The Project Buendia Authors
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not
+// use this file except in compliance with the License.  You may obtain a copy
+// of the License at: http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distrib-
+// uted under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+// OR CONDITIONS OF ANY KIND, either express or implied.  See the License for
+// specific language governing permissions and limitations under the License.
+
+package org.odk.collect.android.external.handler;
+
+import junit.framework.TestCase;
+
+/** Tests for {@link ExternalDataSearchType#constructFullTextQuery}. */
+public class ExternalDataSearchTypeTest extends TestCase {
+    /** Tests that a single-word "contains" search isn't narrowed by the word-prefix index. */
+    public void testConstructFullTextQuery_SingleWordContainsFallsBackToLike() {
+        // WHEN a single word is searched for anywhere in a value
+        // THEN there is no full-text query, as the word may be in the middle of an indexed word
+        assertNull(ExternalDataSearchType.CONTAINS.constructFullTextQuery("bola"));
+        // AND the LIKE scan alone finds it
+        assertEquals("%bola%",
+            ExternalDataSearchType.CONTAINS.constructLikeArguments("bola", 1)[0]);
+    }
+
+    /** Tests that a single-word "endsWith" search isn't narrowed by the word-prefix index. */
+    public void testConstructFullTextQuery_SingleWordEndsFallsBackToLike() {
+        assertNull(ExternalDataSearchType.ENDS.constructFullTextQuery("bola"));
+    }
+
+    /** Tests that a multi-word "contains" search is narrowed by all but its first word. */
+    public void testConstructFullTextQuery_MultiWordContainsSkipsFirstWord() {
+        assertEquals("\"virus*\" \"dis*\"",
+            ExternalDataSearchType.CONTAINS.constructFullTextQuery("bola virus, dis"));
+    }
+
+    /** Tests that a "startsWith" search is narrowed by every word, including an "OR". */
+    public void testConstructFullTextQuery_StartsUsesEveryWord() {
+        assertEquals("\"fever*\" \"OR*\" \"rash*\"",
+            ExternalDataSearchType.STARTS.constructFullTextQuery("fever OR rash"));
+    }
+
+    /** Tests that values containing LIKE wildcards aren't narrowed by the index. */
+    public void testConstructFullTextQuery_WildcardsFallBackToLike() {
+        assertNull(ExternalDataSearchType.STARTS.constructFullTextQuery("fe%ver"));
+        assertNull(ExternalDataSearchType.STARTS.constructFullTextQuery("fe_ver"));
+    }
+}
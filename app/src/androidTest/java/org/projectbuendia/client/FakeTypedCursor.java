@@ -41,6 +41,11 @@ public class FakeTypedCursor<T> implements TypedCursor<T> {
         return mObjects[position];
     }
 
+    /** Returns {@code null}. */
+    @Override public String getString(int position, String column) {
+        return null;
+    }
+
     /** Returns {@code null}. */
     @Override public Uri getNotificationUri() {
         return null;
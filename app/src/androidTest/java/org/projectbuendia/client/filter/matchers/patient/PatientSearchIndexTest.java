@@ -0,0 +1,107 @@
+// Copyright 2015 The Project Buendia Authors
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not
+// use this file except in compliance with the License.  You may obtain a copy
+// of the License at: http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distrib-
+// uted under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+// OR CONDITIONS OF ANY KIND, either express or implied.  See the License for
+// specific language governing permissions and limitations under the License.
+
+package org.projectbuendia.client.filter.matchers.patient;
+
+import android.test.InstrumentationTestCase;
+
+import org.projectbuendia.client.FakeTypedCursor;
+import org.projectbuendia.client.filter.matchers.FilteredCursorWrapper;
+import org.projectbuendia.client.filter.matchers.MatchingFilterGroup;
+import org.projectbuendia.client.models.Patient;
+
+import java.util.Arrays;
+
+import static org.projectbuendia.client.filter.matchers.MatchingFilterGroup.FilterType.OR;
+
+/** Tests for {@link PatientSearchIndex}. */
+public class PatientSearchIndexTest extends InstrumentationTestCase {
+    private static final Patient[] PATIENTS = {
+        getPatient("uuid-1", "KT-101", "John", "Doe"),
+        getPatient("uuid-2", "KT-102", "Jane", "Doe"),
+        getPatient("uuid-3", "MB-17", "Mary Ann", "Smith"),
+        getPatient("uuid-4", null, "-", "-"),
+        getPatient("uuid-5", "KT-1010", "Johnny", "Appleseed"),
+    };
+
+    private PatientSearchIndex mIndex;
+    private FakeTypedCursor<Patient> mCursor;
+
+    @Override public void setUp() throws Exception {
+        super.setUp();
+        mCursor = new FakeTypedCursor<>(PATIENTS);
+        mIndex = new PatientSearchIndex();
+        mIndex.rebuild(mCursor);
+    }
+
+    /** Tests that name words are prefix-matched in any order. */
+    public void testSearch_matchesNamePrefixesInAnyOrder() {
+        assertPositions("doe jo", 0);
+        assertPositions("jo", 0, 4);
+        assertPositions("ann smi", 2);
+    }
+
+    /** Tests that IDs are matched anywhere, ignoring case. */
+    public void testSearch_matchesIdSubstrings() {
+        assertPositions("101", 0, 4);
+        assertPositions("kt-10", 0, 1, 4);
+    }
+
+    /** Tests that an em dash finds patients whose name is a hyphen. */
+    public void testSearch_matchesAnyDash() {
+        assertPositions("—", 3);
+    }
+
+    /** Tests that an empty query matches every patient. */
+    public void testSearch_emptyQueryMatchesAll() {
+        assertPositions("", 0, 1, 2, 3, 4);
+    }
+
+    /** Tests that the index agrees with {@link IdFilter} and {@link NameFilter}. */
+    public void testSearch_agreesWithFilters() {
+        MatchingFilterGroup<Patient> filter =
+            new MatchingFilterGroup<>(OR, new IdFilter(), new NameFilter());
+        for (String query : new String[] {"j", "JOHN D", "ks", "t-1", " ", "m a", "-", "x"}) {
+            FilteredCursorWrapper<Patient> expected =
+                new FilteredCursorWrapper<>(mCursor, filter, query);
+            FilteredCursorWrapper<Patient> actual =
+                new FilteredCursorWrapper<>(mCursor, mIndex.search(query));
+            assertEquals(query, expected.getCount(), actual.getCount());
+            for (int i = 0; i < expected.getCount(); i++) {
+                assertSame(query, expected.get(i), actual.get(i));
+            }
+        }
+    }
+
+    /** Tests that rebuilding picks up renamed patients. */
+    public void testRebuild_reflectsChangedNames() {
+        Patient[] patients = PATIENTS.clone();
+        patients[1] = getPatient("uuid-2", "KT-102", "Janet", "Roe");
+        mIndex.rebuild(new FakeTypedCursor<>(patients));
+        assertPositions("doe", 0);
+        assertPositions("roe", 1);
+    }
+
+    private void assertPositions(String query, int... expected) {
+        int[] actual = mIndex.search(query);
+        assertTrue(query + ": " + Arrays.toString(actual), Arrays.equals(expected, actual));
+    }
+
+    private static Patient getPatient(
+        String uuid, String id, String givenName, String familyName) {
+        return Patient.builder()
+            .setUuid(uuid)
+            .setId(id)
+            .setGivenName(givenName)
+            .setFamilyName(familyName)
+            .build();
+    }
+}
@@ -0,0 +1,122 @@
+// Copyright 2015 The Project Buendia Authors
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not
+// use this file except in compliance with the License.  You may obtain a copy
+// of the License at: http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distrib-
+// uted under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+// OR CONDITIONS OF ANY KIND, either express or implied.  See the License for
+// specific language governing permissions and limitations under the License.
+
+package org.projectbuendia.client.net;
+
+import android.test.InstrumentationTestCase;
+
+import com.android.volley.NoConnectionError;
+import com.android.volley.Response;
+
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+
+/** Tests for {@link TelemetryBuffer}. */
+public class TelemetryBufferTest extends InstrumentationTestCase {
+    @Mock private Server mMockServer;
+    @Mock private ScheduledExecutorService mMockExecutor;
+    private File mSpillFile;
+    private TelemetryBuffer mBuffer;
+
+    /** Whether the server accepts batches. */
+    private boolean mServerUp = true;
+    /** The events the server has accepted, in order. */
+    private final List<String> mSent = new ArrayList<>();
+    /** The dropped count sent with each accepted batch. */
+    private final List<Long> mDroppedCounts = new ArrayList<>();
+
+    @Override protected void setUp() throws Exception {
+        super.setUp();
+        MockitoAnnotations.initMocks(this);
+        mSpillFile = new File(
+            getInstrumentation().getTargetContext().getCacheDir(), "telemetry-test.txt");
+        mSpillFile.delete();
+        // The executor is a mock, so flushes happen only when the test calls flush().
+        mBuffer = new TelemetryBuffer(mMockServer, mSpillFile, mMockExecutor);
+        doAnswer(new Answer<Void>() {
+            @SuppressWarnings("unchecked")
+            @Override public Void answer(InvocationOnMock invocation) {
+                Object[] args = invocation.getArguments();
+                if (mServerUp) {
+                    mSent.addAll((List<String>) args[0]);
+                    mDroppedCounts.add((Long) args[1]);
+                    ((Response.Listener<Void>) args[2]).onResponse(null);
+                } else {
+                    ((Response.ErrorListener) args[3]).onErrorResponse(new NoConnectionError());
+                }
+                return null;
+            }
+        }).when(mMockServer).logBatchToServer(anyListOf(String.class), anyLong(),
+            any(Response.Listener.class), any(Response.ErrorListener.class));
+    }
+
+    @Override protected void tearDown() throws Exception {
+        mSpillFile.delete();
+        super.tearDown();
+    }
+
+    /** Tests that the oldest events are dropped when memory is full, and the drops reported. */
+    public void testLog_OverflowDropsOldestAndReportsCount() {
+        // GIVEN more events than fit in memory
+        int extra = 5;
+        logEvents(0, TelemetryBuffer.MEMORY_CAPACITY + extra);
+        // WHEN the buffer is flushed
+        mBuffer.flush();
+        // THEN the newest events are sent in order, in batches
+        assertEquals(TelemetryBuffer.MEMORY_CAPACITY, mSent.size());
+        assertTrue(mSent.get(0).endsWith(";n=" + extra));
+        assertEquals(TelemetryBuffer.MEMORY_CAPACITY
+            / TelemetryBuffer.MAX_ENTRIES_PER_REQUEST, mDroppedCounts.size());
+        // AND the first batch reports the dropped events, once
+        assertEquals(Long.valueOf(extra), mDroppedCounts.get(0));
+        assertEquals(Long.valueOf(0), mDroppedCounts.get(1));
+    }
+
+    /** Tests that events that couldn't be sent are spilled, then drained in order. */
+    public void testFlush_DrainsSpilledEventsAfterFailure() {
+        // GIVEN events that failed to send while the server was down
+        mServerUp = false;
+        logEvents(0, 3);
+        mBuffer.flush();
+        assertTrue(mSent.isEmpty());
+        assertTrue(mSpillFile.exists());
+        // WHEN more events are logged and the buffer is flushed with the server up
+        mServerUp = true;
+        logEvents(3, 2);
+        mBuffer.flush();
+        // THEN all the events are sent, oldest first, and the spill file is gone
+        assertEquals(5, mSent.size());
+        for (int i = 0; i < 5; i++) {
+            assertTrue(mSent.get(i).endsWith(";n=" + i));
+        }
+        assertEquals(Arrays.asList(0L), mDroppedCounts);
+        assertFalse(mSpillFile.exists());
+    }
+
+    private void logEvents(int first, int count) {
+        for (int i = first; i < first + count; i++) {
+            mBuffer.log(Arrays.asList("n", "" + i));
+        }
+    }
+}
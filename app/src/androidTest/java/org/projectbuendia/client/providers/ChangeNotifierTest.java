@@ -0,0 +1,86 @@
+// Copyright 2015 The Project Buendia Authors
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not
+// use this file except in compliance with the License.  You may obtain a copy
+// of the License at: http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distrib-
+// uted under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+// OR CONDITIONS OF ANY KIND, either express or implied.  See the License for
+// specific language governing permissions and limitations under the License.
+
+package org.projectbuendia.client.providers;
+
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.test.InstrumentationTestCase;
+import android.test.mock.MockContentResolver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/** Tests for {@link ChangeNotifier}. */
+public class ChangeNotifierTest extends InstrumentationTestCase {
+    private static final Uri PATIENTS = Contracts.Patients.CONTENT_URI;
+    private static final Uri OBSERVATIONS = Contracts.Observations.CONTENT_URI;
+
+    private final List<Uri> mNotified = Collections.synchronizedList(new ArrayList<Uri>());
+    private ChangeNotifier mNotifier;
+
+    @Override protected void setUp() throws Exception {
+        super.setUp();
+        mNotifier = new ChangeNotifier(new MockContentResolver() {
+            @Override public void notifyChange(
+                Uri uri, ContentObserver observer, boolean syncToNetwork) {
+                mNotified.add(uri);
+            }
+        });
+    }
+
+    /** Tests that changes are notified right away when no named transaction is open. */
+    public void testNotifyChange_NotifiesImmediatelyOutsideBatch() {
+        // WHEN a change is made outside a batch
+        mNotifier.notifyChange(PATIENTS);
+        // THEN it is notified right away
+        assertEquals(Arrays.asList(PATIENTS), mNotified);
+    }
+
+    /** Tests that changes made on another thread during a batch are held back and coalesced. */
+    public void testNotifyChange_HoldsBackChangesFromOtherThreads() throws Exception {
+        // GIVEN a batch begun on this thread
+        mNotifier.beginBatch();
+        // WHEN another thread makes several changes
+        Thread writer = new Thread() {
+            @Override public void run() {
+                for (int i = 0; i < 3; i++) {
+                    mNotifier.notifyChange(OBSERVATIONS);
+                    mNotifier.notifyChange(PATIENTS);
+                }
+            }
+        };
+        writer.start();
+        writer.join();
+        // THEN nothing is notified until the batch ends
+        assertTrue(mNotified.isEmpty());
+        mNotifier.endBatch();
+        // AND then each URI is notified once
+        assertEquals(Arrays.asList(OBSERVATIONS, PATIENTS), mNotified);
+    }
+
+    /** Tests that only the end of the outermost batch sends the notifications. */
+    public void testEndBatch_WaitsForOutermostBatch() {
+        // GIVEN nested batches with a change inside
+        mNotifier.beginBatch();
+        mNotifier.beginBatch();
+        mNotifier.notifyChange(PATIENTS);
+        // WHEN the inner batch ends
+        mNotifier.endBatch();
+        // THEN nothing is notified yet
+        assertTrue(mNotified.isEmpty());
+        // AND WHEN the outer batch ends, the change is notified
+        mNotifier.endBatch();
+        assertEquals(Arrays.asList(PATIENTS), mNotified);
+    }
+}
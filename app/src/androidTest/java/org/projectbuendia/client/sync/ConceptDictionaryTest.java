@@ -0,0 +1,85 @@
+// Copyright 2015 The Project Buendia Authors
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not
+// use this file except in compliance with the License.  You may obtain a copy
+// of the License at: http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distrib-
+// uted under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+// OR CONDITIONS OF ANY KIND, either express or implied.  See the License for
+// specific language governing permissions and limitations under the License.
+
+package org.projectbuendia.client.sync;
+
+import android.content.ContentValues;
+import android.test.ProviderTestCase2;
+
+import com.google.common.collect.ImmutableMap;
+
+import org.projectbuendia.client.json.ConceptType;
+import org.projectbuendia.client.json.JsonConcept;
+import org.projectbuendia.client.providers.BuendiaProvider;
+import org.projectbuendia.client.providers.Contracts;
+import org.projectbuendia.client.providers.Contracts.Concepts;
+
+/** Tests for {@link ConceptDictionary}. */
+public class ConceptDictionaryTest extends ProviderTestCase2<BuendiaProvider> {
+    private ConceptDictionary mDictionary;
+
+    public ConceptDictionaryTest() {
+        super(BuendiaProvider.class, Contracts.CONTENT_AUTHORITY);
+    }
+
+    @Override protected void setUp() throws Exception {
+        super.setUp();
+        mDictionary = new ConceptDictionary(getMockContentResolver());
+    }
+
+    /** Tests that a rebuild drops concepts that the server no longer has. */
+    public void testRebuild_DropsRemovedConcepts() {
+        // GIVEN a dictionary with concepts A and B, with names loaded for "en"
+        mDictionary.load("en");
+        mDictionary.rebuild(new JsonConcept[] {
+            newConcept("uuid-a", 1, ConceptType.NUMERIC, "Temperature"),
+            newConcept("uuid-b", 2, ConceptType.CODED, "Pain")});
+        assertEquals(ConceptType.NUMERIC, mDictionary.getType("uuid-a"));
+        // WHEN a later sync returns only concept B
+        mDictionary.rebuild(new JsonConcept[] {
+            newConcept("uuid-b", 2, ConceptType.CODED, "Pain")});
+        // THEN concept A is gone and concept B is still there
+        assertNull(mDictionary.getType("uuid-a"));
+        assertNull(mDictionary.getUuidForXformId(1));
+        assertNull(mDictionary.getName("uuid-a", "en"));
+        assertEquals(ConceptType.CODED, mDictionary.getType("uuid-b"));
+        assertEquals("uuid-b", mDictionary.getUuidForXformId(2));
+        assertEquals("Pain", mDictionary.getName("uuid-b", "en"));
+    }
+
+    /** Tests that clearing the dictionary makes it read the db again. */
+    public void testClear_ReloadsFromDb() {
+        // GIVEN a dictionary rebuilt with a concept that isn't in the db
+        mDictionary.rebuild(new JsonConcept[] {
+            newConcept("uuid-a", 1, ConceptType.NUMERIC, "Temperature")});
+        // AND a different concept in the db
+        ContentValues values = new ContentValues();
+        values.put(Concepts.UUID, "uuid-b");
+        values.put(Concepts.XFORM_ID, 2);
+        values.put(Concepts.CONCEPT_TYPE, ConceptType.CODED.name());
+        getMockContentResolver().insert(Concepts.CONTENT_URI, values);
+        // WHEN the dictionary is cleared
+        mDictionary.clear();
+        // THEN it has what's in the db
+        assertNull(mDictionary.getType("uuid-a"));
+        assertEquals(ConceptType.CODED, mDictionary.getType("uuid-b"));
+    }
+
+    private static JsonConcept newConcept(
+        String uuid, int xformId, ConceptType type, String englishName) {
+        JsonConcept concept = new JsonConcept();
+        concept.uuid = uuid;
+        concept.xform_id = xformId;
+        concept.type = type;
+        concept.names = ImmutableMap.of("en", englishName);
+        return concept;
+    }
+}
@@ -0,0 +1,231 @@
+// Copyright 2015 The Project Buendia Authors
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not
+// use this file except in compliance with the License.  You may obtain a copy
+// of the License at: http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distrib-
+// uted under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+// OR CONDITIONS OF ANY KIND, either express or implied.  See the License for
+// specific language governing permissions and limitations under the License.
+
+package org.projectbuendia.client.sync;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.test.ProviderTestCase2;
+
+import net.sqlcipher.database.SQLiteDatabase;
+
+import org.projectbuendia.client.providers.BuendiaProvider;
+import org.projectbuendia.client.providers.BulkWriter;
+import org.projectbuendia.client.providers.Contracts;
+import org.projectbuendia.client.providers.Contracts.LatestObservations;
+import org.projectbuendia.client.providers.Contracts.Observations;
+import org.projectbuendia.client.providers.Contracts.Table;
+import org.projectbuendia.client.providers.SQLiteDatabaseTransactionHelper;
+
+import java.io.File;
+
+/**
+ * Tests for {@link Database}'s migrations, its shared transactions, and the triggers that
+ * maintain latest_observations.
+ */
+public class DatabaseTest extends ProviderTestCase2<BuendiaProvider> {
+    private static final String PATIENT_UUID = "patient-uuid";
+    private static final String CONCEPT_UUID = "concept-uuid";
+
+    public DatabaseTest() {
+        super(BuendiaProvider.class, Contracts.CONTENT_AUTHORITY);
+    }
+
+    /** Tests that a newer observation becomes the latest one. */
+    public void testInsert_NewerObservationBecomesLatest() {
+        // GIVEN an observation
+        insertObservation("obs-1", 100, "a", false);
+        // WHEN a newer observation of the same concept is inserted
+        insertObservation("obs-2", 200, "b", false);
+        // THEN it is the latest observation
+        assertLatestObservation("obs-2", "b");
+    }
+
+    /** Tests that replacing the latest observation with an older time exposes the next one. */
+    public void testReplace_MovingLatestObservationBackExposesNextOne() {
+        // GIVEN two observations of the same concept
+        insertObservation("obs-1", 100, "a", false);
+        insertObservation("obs-2", 200, "b", false);
+        // WHEN sync replaces the later one with a version that is older than the other
+        insertObservation("obs-2", 50, "b", false);
+        // THEN the other observation is now the latest
+        assertLatestObservation("obs-1", "a");
+    }
+
+    /** Tests that replacing the latest observation with a voided version removes it. */
+    public void testReplace_VoidingLatestObservationExposesNextOne() {
+        // GIVEN two observations of the same concept
+        insertObservation("obs-1", 100, "a", false);
+        insertObservation("obs-2", 200, "b", false);
+        // WHEN sync replaces the later one with a voided version
+        insertObservation("obs-2", 200, "b", true);
+        // THEN the other observation is now the latest
+        assertLatestObservation("obs-1", "a");
+    }
+
+    /** Tests that a version 29 database, from before any migrations, upgrades to the latest. */
+    public void testUpgrade_FromVersion29() {
+        // GIVEN a version 29 database, which had no outbox, latest_observations or indexes
+        SQLiteDatabase.loadLibs(getContext());
+        File file = new File(getContext().getCacheDir(), "upgrade-test.db");
+        file.delete();
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(file, "", null);
+        try {
+            for (Table table : Table.values()) {
+                if (table != Table.OUTBOX && table != Table.LATEST_OBSERVATIONS) {
+                    db.execSQL("CREATE TABLE " + table
+                        + " (" + Database.SCHEMAS.get(table) + ");");
+                }
+            }
+            db.execSQL("INSERT INTO observations"
+                + " (uuid, patient_uuid, encounter_uuid, encounter_millis, concept_uuid, value)"
+                + " VALUES ('obs-1', '" + PATIENT_UUID + "', 'encounter-1', 100,"
+                + " '" + CONCEPT_UUID + "', 'a');");
+
+            // WHEN it is upgraded
+            new Database(getContext()).onUpgrade(db, 29, Database.DATABASE_VERSION);
+
+            // THEN the existing observation is the latest one, and every index exists
+            try (Cursor c = db.rawQuery("SELECT observation_uuid FROM latest_observations", null)) {
+                assertTrue(c.moveToFirst());
+                assertEquals("obs-1", c.getString(0));
+            }
+            for (String index : Database.INDEXES.keySet()) {
+                try (Cursor c = db.rawQuery("SELECT 1 FROM sqlite_master"
+                    + " WHERE type = 'index' AND name = ?", new String[] {index})) {
+                    assertEquals(index, 1, c.getCount());
+                }
+            }
+            // AND the outbox is usable
+            db.execSQL("INSERT INTO outbox (kind, rejected) VALUES ('ENCOUNTER', 0);");
+        } finally {
+            db.close();
+            file.delete();
+        }
+    }
+
+    /** Tests that rolling back a shared transaction undoes page writes made by joined threads. */
+    public void testRollbackSharedTransaction_UndoesWritesFromJoinedThreads() throws Exception {
+        // GIVEN a shared transaction
+        final SQLiteDatabaseTransactionHelper helper = getProvider().getDbTransactionHelper();
+        helper.startSharedTransaction("TEST_SAVEPOINT");
+        final boolean[] seenByWriter = new boolean[1];
+        try {
+            // WHEN a thread that joined it commits a page of writes
+            Thread writer = new Thread() {
+                @Override public void run() {
+                    helper.joinSharedTransaction();
+                    try {
+                        BulkWriter bulkWriter = getProvider().openBulkWriter();
+                        bulkWriter.begin();
+                        bulkWriter.upsert(Table.OBSERVATIONS,
+                            getObservationValues("obs-1", 100, "a", false));
+                        bulkWriter.commit();
+                        bulkWriter.close();
+                        seenByWriter[0] = countObservations() == 1;
+                    } finally {
+                        helper.leaveSharedTransaction();
+                    }
+                }
+            };
+            writer.start();
+            writer.join();
+            // AND the shared transaction is rolled back
+            helper.rollbackSharedTransaction();
+        } finally {
+            helper.releaseSharedTransaction();
+        }
+        // THEN the joined thread saw its own write, but the write is gone
+        assertTrue(seenByWriter[0]);
+        assertEquals(0, countObservations());
+    }
+
+    /** Tests that rolling back a shared transaction keeps writes from threads outside it. */
+    public void testRollbackSharedTransaction_KeepsWritesFromOtherThreads() throws Exception {
+        // GIVEN a shared transaction, with a write of its own
+        SQLiteDatabaseTransactionHelper helper = getProvider().getDbTransactionHelper();
+        helper.startSharedTransaction("TEST_SAVEPOINT");
+        try {
+            insertObservation("obs-1", 100, "a", false);
+            // WHEN a thread that didn't join it writes meanwhile
+            Thread writer = new Thread() {
+                @Override public void run() {
+                    insertObservation("obs-2", 200, "b", false);
+                }
+            };
+            writer.start();
+            writer.join();
+            // AND the shared transaction is rolled back
+            helper.rollbackSharedTransaction();
+        } finally {
+            helper.releaseSharedTransaction();
+        }
+        // THEN only the other thread's write remains
+        assertEquals(1, countObservations());
+        assertLatestObservation("obs-2", "b");
+    }
+
+    /** Tests that a joined thread can't write once the shared transaction has ended. */
+    public void testBeginWrite_FailsAfterSharedTransactionEnded() {
+        // GIVEN a thread that joined a shared transaction which has since ended
+        SQLiteDatabaseTransactionHelper helper = getProvider().getDbTransactionHelper();
+        helper.startSharedTransaction("TEST_SAVEPOINT");
+        helper.releaseSharedTransaction();
+        helper.joinSharedTransaction();
+        try {
+            // WHEN it writes
+            insertObservation("obs-1", 100, "a", false);
+            fail("Expected an IllegalStateException");
+        } catch (IllegalStateException e) {
+            // THEN the write fails
+        } finally {
+            helper.leaveSharedTransaction();
+        }
+        assertEquals(0, countObservations());
+    }
+
+    private int countObservations() {
+        try (Cursor c = getMockContentResolver().query(
+            Observations.CONTENT_URI, null, null, null, null)) {
+            return c.getCount();
+        }
+    }
+
+    private void insertObservation(String uuid, long millis, String value, boolean voided) {
+        getMockContentResolver().insert(
+            Observations.CONTENT_URI, getObservationValues(uuid, millis, value, voided));
+    }
+
+    private static ContentValues getObservationValues(
+        String uuid, long millis, String value, boolean voided) {
+        ContentValues values = new ContentValues();
+        values.put(Observations.UUID, uuid);
+        values.put(Observations.PATIENT_UUID, PATIENT_UUID);
+        values.put(Observations.ENCOUNTER_UUID, "encounter-" + uuid);
+        values.put(Observations.ENCOUNTER_MILLIS, millis);
+        values.put(Observations.CONCEPT_UUID, CONCEPT_UUID);
+        values.put(Observations.VALUE, value);
+        values.put(Observations.VOIDED, voided ? 1 : 0);
+        return values;
+    }
+
+    private void assertLatestObservation(String uuid, String value) {
+        try (Cursor c = getMockContentResolver().query(
+            LatestObservations.CONTENT_URI, null,
+            LatestObservations.PATIENT_UUID + " = ? AND " + LatestObservations.CONCEPT_UUID + " = ?",
+            new String[] {PATIENT_UUID, CONCEPT_UUID}, null)) {
+            assertEquals(1, c.getCount());
+            c.moveToFirst();
+            assertEquals(uuid, c.getString(c.getColumnIndex(LatestObservations.OBSERVATION_UUID)));
+            assertEquals(value, c.getString(c.getColumnIndex(LatestObservations.VALUE)));
+        }
+    }
+}
@@ -0,0 +1,209 @@
+// Copyright 2015 The Project Buendia Authors
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not
+// use this file except in compliance with the License.  You may obtain a copy
+// of the License at: http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distrib-
+// uted under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+// OR CONDITIONS OF ANY KIND, either express or implied.  See the License for
+// specific language governing permissions and limitations under the License.
+
+package org.projectbuendia.client.sync;
+
+import android.database.Cursor;
+import android.test.ProviderTestCase2;
+
+import com.android.volley.NetworkResponse;
+import com.android.volley.NoConnectionError;
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+import com.google.gson.GsonBuilder;
+
+import org.joda.time.DateTime;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.projectbuendia.client.events.data.EncounterAddFailedEvent;
+import org.projectbuendia.client.json.JsonEncounter;
+import org.projectbuendia.client.json.Serializers;
+import org.projectbuendia.client.models.Encounter;
+import org.projectbuendia.client.models.Encounter.Observation;
+import org.projectbuendia.client.models.Patient;
+import org.projectbuendia.client.net.Server;
+import org.projectbuendia.client.providers.BuendiaProvider;
+import org.projectbuendia.client.providers.Contracts;
+import org.projectbuendia.client.providers.Contracts.Observations;
+import org.projectbuendia.client.providers.Contracts.OutboxItems;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import de.greenrobot.event.EventBus;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/** Tests for {@link Outbox}. */
+public class OutboxTest extends ProviderTestCase2<BuendiaProvider> {
+    private static final String PATIENT_UUID = "patient-uuid";
+    private static final String ORDER_UUID = "order-uuid";
+    private static final DateTime TIME = new DateTime(2015, 3, 1, 10, 0);
+
+    @Mock private Server mMockServer;
+    private Outbox mOutbox;
+    private final List<Object> mEvents = new ArrayList<>();
+    private final Object mSubscriber = new Object() {
+        @SuppressWarnings("unused") // Called by reflection from EventBus.
+        public void onEvent(EncounterAddFailedEvent event) {
+            mEvents.add(event);
+        }
+    };
+
+    public OutboxTest() {
+        super(BuendiaProvider.class, Contracts.CONTENT_AUTHORITY);
+    }
+
+    @Override protected void setUp() throws Exception {
+        super.setUp();
+        MockitoAnnotations.initMocks(this);
+        GsonBuilder gsonBuilder = new GsonBuilder();
+        Serializers.registerTo(gsonBuilder);
+        mOutbox = new Outbox(
+            getMockContentResolver(), mMockServer, null /* connectionDetails */,
+            gsonBuilder.create());
+        EventBus.getDefault().register(mSubscriber);
+    }
+
+    @Override protected void tearDown() throws Exception {
+        EventBus.getDefault().unregister(mSubscriber);
+        super.tearDown();
+    }
+
+    /** Tests that encounters queued close together are still sent one at a time, unchanged. */
+    public void testFlush_SendsEachEncounterSeparately() {
+        // GIVEN two encounters for the same patient, a minute apart
+        respondToEncounters(null);
+        mOutbox.addEncounter(createEncounter(TIME, "concept-1"));
+        mOutbox.addEncounter(createEncounter(TIME.plusMinutes(1), "concept-2"));
+        // WHEN the outbox is flushed
+        mOutbox.flush();
+        // THEN each encounter is sent in its own request, with its own time
+        List<Encounter> sent = captureSentEncounters(2);
+        assertEquals(TIME, sent.get(0).timestamp);
+        assertEquals(TIME.plusMinutes(1), sent.get(1).timestamp);
+        assertEquals(0, countItems(null));
+    }
+
+    /** Tests that repeated executions of the same order are each sent. */
+    public void testFlush_SendsEveryOrderExecution() {
+        // GIVEN two executions of the same order
+        respondToEncounters(null);
+        mOutbox.addEncounter(createOrderExecution(TIME));
+        mOutbox.addEncounter(createOrderExecution(TIME));
+        // WHEN the outbox is flushed
+        mOutbox.flush();
+        // THEN both executions reach the server
+        for (Encounter encounter : captureSentEncounters(2)) {
+            assertEquals(1, encounter.orderUuids.length);
+            assertEquals(ORDER_UUID, encounter.orderUuids[0]);
+        }
+    }
+
+    /** Tests that an encounter that can't be sent for now stays queued for a retry. */
+    public void testFlush_KeepsEncounterAfterTemporaryFailure() {
+        // GIVEN a server that can't be reached
+        respondToEncounters(new NoConnectionError());
+        mOutbox.addEncounter(createEncounter(TIME, "concept-1"));
+        // WHEN the outbox is flushed twice
+        mOutbox.flush();
+        mOutbox.flush();
+        // THEN the encounter is tried once, then waits for its backoff, still queued
+        captureSentEncounters(1);
+        assertEquals(1, countItems(OutboxItems.ATTEMPTS + " = 1 AND "
+            + OutboxItems.REJECTED + " = 0 AND "
+            + OutboxItems.NEXT_ATTEMPT_MILLIS + " > " + System.currentTimeMillis()));
+        assertTrue(mEvents.isEmpty());
+    }
+
+    /** Tests that a rejected encounter is kept and reported, and doesn't block the queue. */
+    public void testFlush_KeepsAndReportsRejectedEncounter() {
+        // GIVEN a server that rejects encounters
+        respondToEncounters(new VolleyError(new NetworkResponse(
+            400, new byte[0], Collections.<String, String>emptyMap(), false)));
+        String localUuid = mOutbox.addEncounter(createEncounter(TIME, "concept-1"));
+        // WHEN the outbox is flushed
+        mOutbox.flush();
+        // THEN the encounter is set aside, its observations are kept, and the UI is told
+        assertEquals(1, countItems(OutboxItems.REJECTED + " = 1"));
+        assertEquals(1, countObservations(localUuid));
+        assertEquals(1, mEvents.size());
+
+        // AND WHEN another encounter is queued and the server accepts it
+        respondToEncounters(null);
+        mOutbox.addEncounter(createEncounter(TIME.plusMinutes(5), "concept-2"));
+        mOutbox.flush();
+        // THEN it is sent, and the rejected one is not sent again
+        List<Encounter> sent = captureSentEncounters(2);
+        assertEquals(TIME.plusMinutes(5), sent.get(1).timestamp);
+        assertEquals(1, countItems(null));
+    }
+
+    private Encounter createEncounter(DateTime time, String conceptUuid) {
+        return new Encounter(PATIENT_UUID, null, time,
+            new Observation[] {new Observation(conceptUuid, "1", Observation.Type.NON_DATE)},
+            new String[0]);
+    }
+
+    private Encounter createOrderExecution(DateTime time) {
+        return new Encounter(PATIENT_UUID, null, time,
+            new Observation[0], new String[] {ORDER_UUID});
+    }
+
+    /** Makes the server answer addEncounter with a new UUID, or fail with the given error. */
+    @SuppressWarnings("unchecked")
+    private void respondToEncounters(final VolleyError error) {
+        doAnswer(new Answer<Void>() {
+            @Override public Void answer(InvocationOnMock invocation) {
+                Object[] args = invocation.getArguments();
+                if (error != null) {
+                    ((Response.ErrorListener) args[3]).onErrorResponse(error);
+                } else {
+                    JsonEncounter result = new JsonEncounter();
+                    result.uuid = "server-" + System.nanoTime();
+                    ((Response.Listener<JsonEncounter>) args[2]).onResponse(result);
+                }
+                return null;
+            }
+        }).when(mMockServer).addEncounter(any(Patient.class), any(Encounter.class),
+            any(Response.Listener.class), any(Response.ErrorListener.class));
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Encounter> captureSentEncounters(int count) {
+        ArgumentCaptor<Encounter> captor = ArgumentCaptor.forClass(Encounter.class);
+        verify(mMockServer, times(count)).addEncounter(any(Patient.class), captor.capture(),
+            any(Response.Listener.class), any(Response.ErrorListener.class));
+        return captor.getAllValues();
+    }
+
+    private int countItems(String selection) {
+        try (Cursor c = getMockContentResolver().query(
+            OutboxItems.CONTENT_URI, null, selection, null, null)) {
+            return c.getCount();
+        }
+    }
+
+    private int countObservations(String encounterUuid) {
+        try (Cursor c = getMockContentResolver().query(
+            Observations.CONTENT_URI, null, Observations.ENCOUNTER_UUID + " = ?",
+            new String[] {encounterUuid}, null)) {
+            return c.getCount();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+// Copyright 2015 The Project Buendia Authors
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not
+// use this file except in compliance with the License.  You may obtain a copy
+// of the License at: http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distrib-
+// uted under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+// OR CONDITIONS OF ANY KIND, either express or implied.  See the License for
+// specific language governing permissions and limitations under the License.
+
+package org.projectbuendia.client.ui;
+
+import android.test.InstrumentationTestCase;
+
+import com.google.common.base.Charsets;
+
+import org.joda.time.DateTime;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/** Tests for {@link XformInstance}. */
+public class XformInstanceTest extends InstrumentationTestCase {
+    private static final String ENCOUNTER =
+        "<encounter>"
+            + "<encounter.encounter_datetime>2015-03-04T05:06:07.000Z"
+            + "</encounter.encounter_datetime>"
+            + "</encounter>";
+    private static final String TEMPERATURE =
+        "<temperature openmrs_concept=\"5088^Temperature (C)^99DCT\" openmrs_datatype=\"NM\">"
+            + "<value>37.5</value>"
+            + "</temperature>";
+    private static final String PAIN =
+        "<pain openmrs_concept=\"1125^Pain^99DCT\" openmrs_datatype=\"CWE\">"
+            + "<value>1065^Yes^99DCT</value>"
+            + "</pain>";
+
+    private File mFile;
+
+    @Override protected void setUp() throws Exception {
+        super.setUp();
+        mFile = new File(getInstrumentation().getTargetContext().getCacheDir(),
+            "xform-instance-test.xml");
+    }
+
+    @Override protected void tearDown() throws Exception {
+        mFile.delete();
+        super.tearDown();
+    }
+
+    /** Tests that the encounter time is read from the encounter group. */
+    public void testRead_EncounterDatetime() throws Exception {
+        XformInstance instance = read("<form>" + ENCOUNTER + "</form>");
+        assertEquals(new DateTime("2015-03-04T05:06:07.000Z").getMillis(),
+            instance.encounterTime.getMillis());
+        assertTrue(instance.answers.isEmpty());
+    }
+
+    /** Tests that uncoded answers keep their value and coded answers become concept IDs. */
+    public void testRead_CodedAndUncodedAnswers() throws Exception {
+        XformInstance instance = read(
+            "<form>" + ENCOUNTER + "<obs>" + TEMPERATURE + PAIN + "</obs></form>");
+        assertEquals(2, instance.answers.size());
+        assertAnswer(instance.answers.get(0), 5088, "37.5", false);
+        assertAnswer(instance.answers.get(1), 1125, "1065", true);
+    }
+
+    /** Tests that questions left empty produce no answers. */
+    public void testRead_EmptyValueIsSkipped() throws Exception {
+        XformInstance instance = read("<form>" + ENCOUNTER + "<obs>"
+            + "<weight openmrs_concept=\"5089^Weight (kg)^99DCT\" openmrs_datatype=\"NM\">"
+            + "<value/></weight>"
+            + "<cough openmrs_concept=\"143264^Cough^99DCT\" openmrs_datatype=\"CWE\">"
+            + "<value>  </value></cough>"
+            + TEMPERATURE + "</obs></form>");
+        assertEquals(1, instance.answers.size());
+        assertAnswer(instance.answers.get(0), 5088, "37.5", false);
+    }
+
+    /** Tests that questions nested in extra groups are still read. */
+    public void testRead_ExtraNesting() throws Exception {
+        XformInstance instance = read("<form>" + ENCOUNTER
+            + "<obs><vitals><section>" + TEMPERATURE + "</section></vitals>"
+            + PAIN + "</obs></form>");
+        assertNotNull(instance.encounterTime);
+        assertEquals(2, instance.answers.size());
+        assertAnswer(instance.answers.get(0), 5088, "37.5", false);
+        assertAnswer(instance.answers.get(1), 1125, "1065", true);
+    }
+
+    /** Tests that a malformed instance is still returned for submission, with no answers. */
+    public void testRead_MalformedXml() throws Exception {
+        String xml = "<form>" + ENCOUNTER + "<obs>" + TEMPERATURE + "</form>";
+        XformInstance instance = read(xml);
+        assertEquals(xml, instance.xml);
+        assertNull(instance.encounterTime);
+        assertTrue(instance.answers.isEmpty());
+    }
+
+    private XformInstance read(String xml) throws IOException {
+        FileOutputStream out = new FileOutputStream(mFile);
+        try {
+            out.write(xml.getBytes(Charsets.UTF_8));
+        } finally {
+            out.close();
+        }
+        return XformInstance.read(mFile.getPath());
+    }
+
+    private static void assertAnswer(
+        XformInstance.Answer answer, int conceptId, String value, boolean coded) {
+        assertEquals(conceptId, answer.conceptId);
+        assertEquals(value, answer.value);
+        assertEquals(coded, answer.coded);
+    }
+}
@@ -16,6 +16,7 @@ import android.test.AndroidTestCase;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 
+import org.joda.time.LocalDate;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.projectbuendia.client.R;
@@ -27,6 +28,7 @@ import org.projectbuendia.client.events.SubmitXformSucceededEvent;
 import org.projectbuendia.client.events.data.ItemFetchedEvent;
 import org.projectbuendia.client.json.ConceptType;
 import org.projectbuendia.client.models.AppModel;
+import org.projectbuendia.client.models.Chart;
 import org.projectbuendia.client.models.ConceptUuids;
 import org.projectbuendia.client.models.Encounter;
 import org.projectbuendia.client.models.Obs;
@@ -39,10 +41,13 @@ import org.projectbuendia.client.ui.chart.PatientChartController.MinimalHandler;
 import org.projectbuendia.client.ui.chart.PatientChartController.OdkResultSender;
 
 import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
 import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -65,6 +70,7 @@ public final class PatientChartControllerTest extends AndroidTestCase {
     private FakeEventBus mFakeCrudEventBus;
     private FakeEventBus mFakeGlobalEventBus;
     private FakeHandler mFakeHandler;
+    private FakeExecutor mFakeExecutor;
 
     /** Tests that suspend() unregisters from the event bus. */
     public void testSuspend_UnregistersFromEventBus() {
@@ -93,16 +99,13 @@ public final class PatientChartControllerTest extends AndroidTestCase {
             ImmutableMap.of(OBS_1.conceptUuid, OBS_1);
         when(mMockChartHelper.getObservations(PATIENT_UUID_1))
             .thenReturn(allObservations);
-        when(mMockChartHelper.getLatestObservations(PATIENT_UUID_1))
-            .thenReturn(recentObservations);
         // GIVEN controller is initialized
         mController.init();
         // WHEN that patient's details are loaded
         Patient patient = Patient.builder().build();
         mFakeCrudEventBus.post(new ItemFetchedEvent<>(patient));
-        // TODO: When the handler UI updating hack in PatientChartController is removed, this can
-        // also be removed.
-        mFakeHandler.runUntilEmpty();
+        // AND the background load completes
+        runPendingTasks();
         // THEN the controller puts observations on the UI
         verify(mMockUi).updateTilesAndGrid(
             null, recentObservations, allObservations, ImmutableList.<Order> of(), null, null);
@@ -111,6 +114,45 @@ public final class PatientChartControllerTest extends AndroidTestCase {
         verify(mMockUi).updatePregnancyAndIvStatusUi(recentObservations);
     }
 
+    /** Tests that the latest observations are derived without querying the rows again. */
+    public void testPatientDetailsLoaded_QueriesObservationsOnce() {
+        // GIVEN controller is initialized
+        mController.init();
+        // WHEN that patient's details are loaded
+        mFakeCrudEventBus.post(new ItemFetchedEvent<>(Patient.builder().build()));
+        runPendingTasks();
+        // THEN observations are queried once, and the latest observations are not queried
+        verify(mMockChartHelper).getObservations(PATIENT_UUID_1);
+        verify(mMockChartHelper, never()).getLatestObservations(PATIENT_UUID_1);
+    }
+
+    /** Tests that an observation load finishing after suspend() doesn't touch the UI. */
+    public void testObservationsLoadedAfterSuspend_AreDiscarded() {
+        // GIVEN controller is initialized and has started loading observations
+        mController.init();
+        mFakeCrudEventBus.post(new ItemFetchedEvent<>(Patient.builder().build()));
+        // WHEN the controller is suspended before the load completes
+        mController.suspend();
+        runPendingTasks();
+        // THEN the loaded observations are not shown
+        verify(mMockUi, never()).updateTilesAndGrid(
+            any(Chart.class), any(Map.class), any(List.class), any(List.class),
+            any(LocalDate.class), any(LocalDate.class));
+    }
+
+    /** Tests that only the newest of several overlapping observation loads is shown. */
+    public void testOverlappingObservationLoads_OnlyNewestIsShown() {
+        // GIVEN controller is initialized
+        mController.init();
+        // WHEN two loads are started before either completes
+        mController.updatePatientObsUi(0);
+        mController.updatePatientObsUi(0);
+        runPendingTasks();
+        // THEN the UI is updated only once, and the superseded load never queries
+        verify(mMockUi).updateEbolaPcrTestResultUi(any(Map.class));
+        verify(mMockChartHelper).getObservations(PATIENT_UUID_1);
+    }
+
     /** Tests that the UI is given updated patient data when patient data is fetched. */
     public void testPatientDetailsLoaded_UpdatesUi() {
         // GIVEN controller is initialized
@@ -244,9 +286,6 @@ public final class PatientChartControllerTest extends AndroidTestCase {
         // WHEN an xform submits successfully
         mFakeGlobalEventBus.post(new SubmitXformSucceededEvent());
         // THEN the controller hides the submission dialog
-        // TODO: When the handler UI updating hack in PatientChartController is removed, this can
-        // also be removed.
-        mFakeHandler.runUntilEmpty();
         verify(mMockUi).showFormSubmissionDialog(false);
     }
 
@@ -257,6 +296,10 @@ public final class PatientChartControllerTest extends AndroidTestCase {
         mFakeCrudEventBus = new FakeEventBus();
         mFakeGlobalEventBus = new FakeEventBus();
         mFakeHandler = new FakeHandler();
+        mFakeExecutor = new FakeExecutor();
+        // The controller looks up its charts on construction; supply a single placeholder chart.
+        when(mMockChartHelper.getCharts(AppModel.CHART_UUID))
+            .thenReturn(Arrays.asList((Chart) null));
         mController = new PatientChartController(
             mMockAppModel,
             mFakeGlobalEventBus,
@@ -267,7 +310,16 @@ public final class PatientChartControllerTest extends AndroidTestCase {
             mMockChartHelper,
             null,
             mMockSyncManager,
-            mFakeHandler);
+            mFakeHandler,
+            mFakeExecutor);
+    }
+
+    /** Runs background and main-thread tasks until neither has anything left to do. */
+    private void runPendingTasks() {
+        while (!mFakeExecutor.isEmpty() || !mFakeHandler.isEmpty()) {
+            mFakeExecutor.runUntilEmpty();
+            mFakeHandler.runUntilEmpty();
+        }
     }
 
     private final class FakeHandler implements MinimalHandler {
@@ -283,5 +335,27 @@ public final class PatientChartControllerTest extends AndroidTestCase {
                 runnable.run();
             }
         }
+
+        public boolean isEmpty() {
+            return mTasks.isEmpty();
+        }
+    }
+
+    private final class FakeExecutor implements Executor {
+        private final ArrayDeque<Runnable> mTasks = new ArrayDeque<>();
+
+        @Override public void execute(Runnable runnable) {
+            mTasks.add(runnable);
+        }
+
+        public void runUntilEmpty() {
+            while (!mTasks.isEmpty()) {
+                mTasks.pop().run();
+            }
+        }
+
+        public boolean isEmpty() {
+            return mTasks.isEmpty();
+        }
     }
 }
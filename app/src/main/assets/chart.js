@@ -64,3 +64,28 @@ function getPoints(pointGroups) {
   }
   return Array.prototype.concat.apply([], pointArrays);
 }
+
+// Updates already-rendered tiles and grid cells in place, so that a few changed values can be
+// shown without reloading the page (which would lose its scroll position).  Each patch is an
+// [elementId, html] pair, where html renders the replacement <td> for that element.  Returns
+// false if any element was not found, in which case the caller should reload the whole page.
+function patchElements(patches) {
+  for (var i = 0; i < patches.length; i++) {
+    var target = document.getElementById(patches[i][0]);
+    if (!target) return false;
+    var holder = document.createElement('tr');  // parses the <td> in a table row context
+    holder.innerHTML = patches[i][1];
+    var source = holder.getElementsByTagName('td')[0];
+    if (!source) return false;
+    target.className = source.className;
+    target.setAttribute('style', source.getAttribute('style') || '');
+    target.setAttribute('onclick', source.getAttribute('onclick') || '');
+    // freezeHeader wraps the contents of every cell in the grid in a <div>; keep it that way.
+    var wrap = $(target).parents('#grid').length > 0;
+    target.innerHTML = wrap ? '<div>' + source.innerHTML + '</div>' : source.innerHTML;
+  }
+  if (patches.length > 0) {
+    $(window).trigger('resize');  // let freezeHeader match the new column widths
+  }
+  return true;
+}
@@ -22,7 +22,13 @@ import org.odk.collect.android.application.Collect;
 import org.projectbuendia.client.diagnostics.HealthMonitor;
 import org.projectbuendia.client.net.OpenMrsConnectionDetails;
 import org.projectbuendia.client.net.Server;
+import org.projectbuendia.client.net.TelemetryBuffer;
+import org.projectbuendia.client.sync.ChartDataHelper;
+import org.projectbuendia.client.sync.ConceptDictionary;
+import org.projectbuendia.client.sync.Outbox;
+import org.projectbuendia.client.sync.SyncMetrics;
 import org.projectbuendia.client.user.UserManager;
+import org.projectbuendia.client.utils.LocaleSelector;
 
 import javax.inject.Inject;
 
@@ -36,11 +42,21 @@ public class App extends Application {
     private static UserManager sUserManager;
     private static Server sServer;
     private static OpenMrsConnectionDetails sConnectionDetails;
+    private static AppSettings sSettings;
+    private static ConceptDictionary sConceptDictionary;
+    private static Outbox sOutbox;
+    private static TelemetryBuffer sTelemetryBuffer;
+    private static SyncMetrics sSyncMetrics;
     private ObjectGraph mObjectGraph;
     @Inject UserManager mUserManager;
     @Inject OpenMrsConnectionDetails mOpenMrsConnectionDetails;
     @Inject Server mServer;
     @Inject HealthMonitor mHealthMonitor;
+    @Inject AppSettings mSettings;
+    @Inject ConceptDictionary mConceptDictionary;
+    @Inject Outbox mOutbox;
+    @Inject TelemetryBuffer mTelemetryBuffer;
+    @Inject SyncMetrics mSyncMetrics;
 
     public static synchronized App getInstance() {
         return sInstance;
@@ -58,6 +74,26 @@ public class App extends Application {
         return sConnectionDetails;
     }
 
+    public static synchronized AppSettings getSettings() {
+        return sSettings;
+    }
+
+    public static synchronized ConceptDictionary getConceptDictionary() {
+        return sConceptDictionary;
+    }
+
+    public static synchronized Outbox getOutbox() {
+        return sOutbox;
+    }
+
+    public static synchronized TelemetryBuffer getTelemetryBuffer() {
+        return sTelemetryBuffer;
+    }
+
+    public static synchronized SyncMetrics getSyncMetrics() {
+        return sSyncMetrics;
+    }
+
     @Override public void onCreate() {
         Collect.onCreate(this);
         super.onCreate();
@@ -80,8 +116,22 @@ public class App extends Application {
             sUserManager = mUserManager; // TODO: Remove when Daggered.
             sConnectionDetails = mOpenMrsConnectionDetails; // TODO: Remove when Daggered.
             sServer = mServer; // TODO: Remove when Daggered.
+            sSettings = mSettings; // TODO: Remove when Daggered.
+            sConceptDictionary = mConceptDictionary; // TODO: Remove when Daggered.
+            sOutbox = mOutbox; // TODO: Remove when Daggered.
+            sTelemetryBuffer = mTelemetryBuffer; // TODO: Remove when Daggered.
+            sSyncMetrics = mSyncMetrics; // TODO: Remove when Daggered.
         }
 
+        // Charts are localized to English for now (see ChartDataHelper); also warm up the
+        // user's own locale so that switching to it later doesn't stall.
+        mConceptDictionary.preload(
+            ChartDataHelper.ENGLISH_LOCALE, LocaleSelector.getCurrentLocale().getLanguage());
+
+        // Send anything that was still queued when the app last stopped.
+        mOutbox.flushSoon();
+        mTelemetryBuffer.start();
+
         mHealthMonitor.start();
     }
 
@@ -15,13 +15,21 @@ import android.app.Application;
 import android.content.ContentResolver;
 import android.preference.PreferenceManager;
 
+import com.google.gson.Gson;
+
 import org.projectbuendia.client.diagnostics.DiagnosticsModule;
 import org.projectbuendia.client.events.EventsModule;
 import org.projectbuendia.client.models.AppModelModule;
 import org.projectbuendia.client.net.NetModule;
+import org.projectbuendia.client.net.OpenMrsConnectionDetails;
+import org.projectbuendia.client.net.Server;
+import org.projectbuendia.client.net.TelemetryBuffer;
 import org.projectbuendia.client.sync.ChartDataHelper;
+import org.projectbuendia.client.sync.ConceptDictionary;
+import org.projectbuendia.client.sync.Outbox;
 import org.projectbuendia.client.sync.SyncAccountService;
 import org.projectbuendia.client.sync.SyncManager;
+import org.projectbuendia.client.sync.SyncMetrics;
 import org.projectbuendia.client.ui.BaseActivity;
 import org.projectbuendia.client.ui.SettingsActivity;
 import org.projectbuendia.client.ui.UpdateNotificationController;
@@ -41,6 +49,8 @@ import org.projectbuendia.client.updater.UpdateModule;
 import org.projectbuendia.client.user.UserModule;
 import org.projectbuendia.client.utils.UtilsModule;
 
+import java.io.File;
+
 import javax.inject.Singleton;
 
 import dagger.Module;
@@ -111,7 +121,29 @@ public final class AppModule {
     }
 
     @Provides
-    @Singleton ChartDataHelper provideLocalizedChartHelper(ContentResolver contentResolver) {
-        return new ChartDataHelper(contentResolver);
+    @Singleton ConceptDictionary provideConceptDictionary(ContentResolver contentResolver) {
+        return new ConceptDictionary(contentResolver);
+    }
+
+    @Provides
+    @Singleton Outbox provideOutbox(ContentResolver contentResolver, Server server,
+                                    OpenMrsConnectionDetails connectionDetails, Gson gson) {
+        return new Outbox(contentResolver, server, connectionDetails, gson);
+    }
+
+    @Provides
+    @Singleton TelemetryBuffer provideTelemetryBuffer(Application app, Server server) {
+        return new TelemetryBuffer(server, new File(app.getFilesDir(), "telemetry_spill.txt"));
+    }
+
+    @Provides
+    @Singleton SyncMetrics provideSyncMetrics(Application app) {
+        return new SyncMetrics(new File(app.getFilesDir(), "sync_metrics.csv"));
+    }
+
+    @Provides
+    @Singleton ChartDataHelper provideLocalizedChartHelper(
+        ContentResolver contentResolver, ConceptDictionary conceptDictionary) {
+        return new ChartDataHelper(contentResolver, conceptDictionary);
     }
 }
@@ -84,6 +84,15 @@ public class AppSettings {
         mSharedPreferences.edit().putBoolean("sync_account_initialized", value).commit();
     }
 
+    /**
+     * Gets the flag controlling whether incremental sync phases fetch the next page from the
+     * server while the current page is still being written to the database.
+     */
+    public boolean getPipelinedSync() {
+        return mSharedPreferences.getBoolean("pipelined_sync",
+            mResources.getBoolean(R.bool.pipelined_sync_default));
+    }
+
     /** Gets the flag controlling whether to assume no wifi means no network. */
     public boolean getRequireWifi() {
         return mSharedPreferences.getBoolean("require_wifi",
@@ -16,17 +16,16 @@ import android.net.Uri;
 
 import org.projectbuendia.client.models.TypedCursor;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.List;
 
 /**
  * Provides a wrapper over a {@link TypedCursor}, providing a filtered view of the cursor using
- * a specified {@link MatchingFilter}.
+ * a specified {@link MatchingFilter}, or a list of positions that have already been found.
  */
 public class FilteredCursorWrapper<T> implements TypedCursor<T> {
     private final TypedCursor<T> mCursor;
-    private final List<Integer> mIndices;
+    private final int[] mPositions;
 
     /**
      * Applies the given {@link MatchingFilter} to the given {@link TypedCursor}, given a particular
@@ -35,15 +34,26 @@ public class FilteredCursorWrapper<T> implements TypedCursor<T> {
     public FilteredCursorWrapper(
         TypedCursor<T> cursor, MatchingFilter<T> filter, CharSequence constraint) {
         mCursor = cursor;
-        mIndices = new ArrayList<Integer>();
 
         int count = cursor.getCount();
+        int[] positions = new int[count];
+        int n = 0;
         for (int i = 0; i < count; i++) {
             T obj = cursor.get(i);
             if (filter.matches(obj, constraint)) {
-                mIndices.add(i);
+                positions[n++] = i;
             }
         }
+        mPositions = Arrays.copyOf(positions, n);
+    }
+
+    /**
+     * Shows only the given positions of the given {@link TypedCursor}, e.g. the results of a
+     * search in a {@link org.projectbuendia.client.filter.matchers.patient.PatientSearchIndex}.
+     */
+    public FilteredCursorWrapper(TypedCursor<T> cursor, int[] positions) {
+        mCursor = cursor;
+        mPositions = positions;
     }
 
     @Override public Uri getNotificationUri() {
@@ -82,10 +92,14 @@ public class FilteredCursorWrapper<T> implements TypedCursor<T> {
     }
 
     @Override public int getCount() {
-        return mIndices.size();
+        return mPositions.length;
     }
 
     @Override public T get(int position) {
-        return mCursor.get(mIndices.get(position));
+        return mCursor.get(mPositions[position]);
+    }
+
+    @Override public String getString(int position, String column) {
+        return mCursor.getString(mPositions[position], column);
     }
 }
@@ -0,0 +1,215 @@
+// Copyright 2015 The Project Buendia Authors
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not
+// use this file except in compliance with the License.  You may obtain a copy
+// of the License at: http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distrib-
+// uted under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+// OR CONDITIONS OF ANY KIND, either express or implied.  See the License for
+// specific language governing permissions and limitations under the License.
+
+package org.projectbuendia.client.filter.matchers.patient;
+
+import org.projectbuendia.client.models.Patient;
+import org.projectbuendia.client.models.TypedCursor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * An in-memory index over the patients in a {@link TypedCursor}, for searching as the user types.
+ * <p>
+ * A search matches the same patients as {@link IdFilter} or {@link NameFilter}, but instead of
+ * loading and tokenizing every patient for every keystroke, the lowercased name words and ID
+ * suffixes of all patients are kept in sorted arrays, so that each search term is a binary
+ * search for a range of keys.  When the index is rebuilt for a new cursor (e.g. after a sync),
+ * the keys of patients whose names and IDs haven't changed are reused.
+ */
+public final class PatientSearchIndex {
+    private static final Pattern DASH_REGEX = Pattern.compile("^\\p{Pd}*$");
+
+    /** The search keys of one patient, cached across rebuilds by patient UUID. */
+    private static final class Keys {
+        final String id;
+        final String givenName;
+        final String familyName;
+        final String[] nameWords;
+        final String[] idSuffixes;  // empty if the ID is null
+        final boolean hasDashWord;
+
+        Keys(Patient patient) {
+            id = patient.id;
+            givenName = patient.givenName;
+            familyName = patient.familyName;
+
+            // Split the same way as NameFilter, so that the two always agree.
+            String fullName = (givenName == null ? "" : givenName)
+                + " " + (familyName == null ? "" : familyName);
+            nameWords = fullName.toLowerCase().split(" ");
+            boolean dash = false;
+            for (String word : nameWords) {
+                dash = dash || isDash(word);
+            }
+            hasDashWord = dash;
+
+            if (id == null) {
+                idSuffixes = new String[0];
+            } else {
+                String lowerId = id.toLowerCase();
+                idSuffixes = new String[Math.max(1, lowerId.length())];
+                idSuffixes[0] = lowerId;
+                for (int i = 1; i < lowerId.length(); i++) {
+                    idSuffixes[i] = lowerId.substring(i);
+                }
+            }
+        }
+
+        boolean isCurrent(Patient patient) {
+            return equal(id, patient.id) && equal(givenName, patient.givenName)
+                && equal(familyName, patient.familyName);
+        }
+    }
+
+    /** A search key and the cursor position of the patient it belongs to. */
+    private static final class Entry implements Comparable<Entry> {
+        final String key;
+        final int position;
+
+        Entry(String key, int position) {
+            this.key = key;
+            this.position = position;
+        }
+
+        @Override public int compareTo(Entry other) {
+            return key.compareTo(other.key);
+        }
+    }
+
+    private Map<String, Keys> mKeysByUuid = new HashMap<>();
+    private int mCount;
+    private String[] mNameKeys = new String[0];
+    private int[] mNamePositions = new int[0];
+    private String[] mIdKeys = new String[0];
+    private int[] mIdPositions = new int[0];
+    private BitSet mDashWordPositions = new BitSet();
+
+    /** Indexes the patients in {@code patients}, replacing whatever was indexed before. */
+    public void rebuild(TypedCursor<Patient> patients) {
+        Map<String, Keys> keysByUuid = new HashMap<>();
+        List<Entry> nameEntries = new ArrayList<>();
+        List<Entry> idEntries = new ArrayList<>();
+        BitSet dashWordPositions = new BitSet();
+
+        int count = patients.getCount();
+        for (int i = 0; i < count; i++) {
+            Patient patient = patients.get(i);
+            if (patient == null) continue;
+            Keys keys = patient.uuid == null ? null : mKeysByUuid.get(patient.uuid);
+            if (keys == null || !keys.isCurrent(patient)) {
+                keys = new Keys(patient);
+            }
+            if (patient.uuid != null) {
+                keysByUuid.put(patient.uuid, keys);
+            }
+            for (String word : keys.nameWords) {
+                nameEntries.add(new Entry(word, i));
+            }
+            for (String suffix : keys.idSuffixes) {
+                idEntries.add(new Entry(suffix, i));
+            }
+            if (keys.hasDashWord) {
+                dashWordPositions.set(i);
+            }
+        }
+
+        Collections.sort(nameEntries);
+        Collections.sort(idEntries);
+        mNameKeys = new String[nameEntries.size()];
+        mNamePositions = new int[nameEntries.size()];
+        unzip(nameEntries, mNameKeys, mNamePositions);
+        mIdKeys = new String[idEntries.size()];
+        mIdPositions = new int[idEntries.size()];
+        unzip(idEntries, mIdKeys, mIdPositions);
+        mDashWordPositions = dashWordPositions;
+        mKeysByUuid = keysByUuid;
+        mCount = count;
+    }
+
+    /**
+     * Returns the cursor positions, in ascending order, of the patients whose ID contains
+     * {@code constraint} or whose name words are prefixed by all the words in {@code constraint}.
+     */
+    public int[] search(CharSequence constraint) {
+        String query = constraint.toString().toLowerCase();
+
+        // ID matches: the query is a prefix of some suffix of the ID.
+        BitSet matches = findPrefixed(mIdKeys, mIdPositions, query);
+
+        // Name matches: every term is a prefix of some word of the name.
+        BitSet nameMatches = null;
+        for (String term : query.split(" ")) {
+            BitSet termMatches = findPrefixed(mNameKeys, mNamePositions, term);
+            if (isDash(term)) {
+                // Any kind of dash matches any other, as in NameFilter.
+                termMatches.or(mDashWordPositions);
+            }
+            if (nameMatches == null) {
+                nameMatches = termMatches;
+            } else {
+                nameMatches.and(termMatches);
+            }
+        }
+        if (nameMatches == null) {
+            // No terms at all, so every patient matches.
+            nameMatches = new BitSet();
+            nameMatches.set(0, mCount);
+        }
+        matches.or(nameMatches);
+
+        int[] positions = new int[matches.cardinality()];
+        int n = 0;
+        for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+            positions[n++] = i;
+        }
+        return positions;
+    }
+
+    /** Returns the positions of all the entries whose keys start with {@code prefix}. */
+    private static BitSet findPrefixed(String[] keys, int[] positions, String prefix) {
+        BitSet result = new BitSet();
+        int i = Arrays.binarySearch(keys, prefix);
+        if (i < 0) {
+            i = -i - 1;
+        } else {
+            // Back up over duplicate keys, as binarySearch may land on any of them.
+            while (i > 0 && keys[i - 1].equals(prefix)) i--;
+        }
+        for (; i < keys.length && keys[i].startsWith(prefix); i++) {
+            result.set(positions[i]);
+        }
+        return result;
+    }
+
+    private static void unzip(List<Entry> entries, String[] keys, int[] positions) {
+        for (int i = 0; i < keys.length; i++) {
+            Entry entry = entries.get(i);
+            keys[i] = entry.key;
+            positions[i] = entry.position;
+        }
+    }
+
+    private static boolean isDash(String str) {
+        return DASH_REGEX.matcher(str).matches();
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
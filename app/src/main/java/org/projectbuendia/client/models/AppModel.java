@@ -93,6 +93,7 @@ public class AppModel {
         ContentValues values = new ContentValues();
         values.put(Contracts.Observations.VOIDED,1);
         mContentResolver.update(Contracts.Observations.CONTENT_URI, values, conditions, new String[]{voidObs.Uuid});
+        mContentResolver.notifyChange(Contracts.LatestObservations.CONTENT_URI, null, false);
         mTaskFactory.voidObsTask(bus, voidObs).execute();
     }
 
@@ -125,10 +126,9 @@ public class AppModel {
         // https://github.com/projectbuendia/client/issues/7
         FetchTypedCursorAsyncTask<Patient> task = new FetchTypedCursorAsyncTask<>(
             Contracts.Patients.CONTENT_URI,
-            // The projection must contain an "_id" column for the ListAdapter as well as all
-            // the columns used in Patient.Loader.fromCursor().
-            null, //new String[] {"rowid as _id", Patients.UUID, Patients.ID, Patients.GIVEN_NAME,
-                //Patients.FAMILY_NAME, Patients.BIRTHDATE, Patients.GENDER, Patients.LOCATION_UUID},
+            // Only the columns that Patient.Loader reads.  The patient lists are grouped by
+            // location, which they can do by scanning the location_uuid column in order.
+            mLoaderSet.patientLoader.getProjection(), Contracts.Patients.LOCATION_UUID,
             Patient.class, mContentResolver,
             filter, constraint, mLoaderSet.patientLoader, bus);
         task.execute();
@@ -291,6 +291,7 @@ public class AppModel {
 
         private final Uri mContentUri;
         private final String[] mProjection;
+        private final String mSortOrder;
         private final Class<T> mClazz;
         private final ContentResolver mContentResolver;
         private final SimpleSelectionFilter mFilter;
@@ -301,6 +302,7 @@ public class AppModel {
         public FetchTypedCursorAsyncTask(
             Uri contentUri,
             String[] projection,
+            String sortOrder,
             Class<T> clazz,
             ContentResolver contentResolver,
             SimpleSelectionFilter<T> filter,
@@ -309,6 +311,7 @@ public class AppModel {
             CrudEventBus bus) {
             mContentUri = contentUri;
             mProjection = projection;
+            mSortOrder = sortOrder;
             mClazz = clazz;
             mContentResolver = contentResolver;
             mFilter = filter;
@@ -325,7 +328,7 @@ public class AppModel {
                     mProjection,
                     mFilter.getSelectionString(),
                     mFilter.getSelectionArgs(mConstraint),
-                    null);
+                    mSortOrder);
 
                 return new TypedCursorWithLoader<>(cursor, mLoader);
             } catch (Exception e) {
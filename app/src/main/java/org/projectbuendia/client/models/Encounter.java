@@ -202,12 +202,14 @@ public class Encounter extends Base<String> {
                 cursor.getColumnIndex(Observations.ENCOUNTER_UUID));
             final long millis = cursor.getLong(
                 cursor.getColumnIndex(Observations.ENCOUNTER_MILLIS));
+            final int valueColumn = cursor.getColumnIndex(Observations.VALUE);
+            final int conceptUuidColumn = cursor.getColumnIndex(Observations.CONCEPT_UUID);
             List<Observation> observations = new ArrayList<>();
             cursor.move(-1);
             while (cursor.moveToNext()) {
-                String value = cursor.getString(cursor.getColumnIndex(Observations.VALUE));
+                String value = cursor.getString(valueColumn);
                 observations.add(new Observation(
-                    cursor.getString(cursor.getColumnIndex(Observations.CONCEPT_UUID)),
+                    cursor.getString(conceptUuidColumn),
                     value, Observation.estimatedTypeFor(value)
                 ));
             }
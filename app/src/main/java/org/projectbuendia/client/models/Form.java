@@ -12,6 +12,7 @@
 package org.projectbuendia.client.models;
 
 import android.content.ContentValues;
+import android.database.Cursor;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -58,4 +59,18 @@ public final class Form extends Base<String> implements Comparable<Form> {
         cv.put(Contracts.Forms.VERSION, version);
         return cv;
     }
+
+    /** A {@link RowMapper} that loads {@link Form}s. */
+    public static class Loader extends RowMapper<Form> {
+        public Loader() {
+            super(Contracts.Forms.UUID, Contracts.Forms.NAME, Contracts.Forms.VERSION);
+        }
+
+        @Override protected Form map(Cursor cursor, int[] columns) {
+            return new Form(
+                getString(cursor, columns[0]),
+                getString(cursor, columns[1]),
+                getString(cursor, columns[2]));
+        }
+    }
 }
@@ -14,7 +14,6 @@ package org.projectbuendia.client.models;
 import android.database.Cursor;
 
 import org.projectbuendia.client.providers.Contracts;
-import org.projectbuendia.client.utils.Utils;
 
 import javax.annotation.concurrent.Immutable;
 
@@ -47,14 +46,21 @@ public final class Location extends Base<String> {
         return name;
     }
 
-    /** An {@link CursorLoader} that converts {@link Location}s. */
-    public static class Loader implements CursorLoader<Location> {
-        @Override public Location fromCursor(Cursor cursor) {
+    /** A {@link RowMapper} that converts {@link Location}s. */
+    public static class Loader extends RowMapper<Location> {
+        public Loader() {
+            super(Contracts.LocalizedLocations.UUID,
+                Contracts.LocalizedLocations.PARENT_UUID,
+                Contracts.LocalizedLocations.NAME,
+                Contracts.LocalizedLocations.PATIENT_COUNT);
+        }
+
+        @Override protected Location map(Cursor cursor, int[] columns) {
             return new Location(
-                Utils.getString(cursor, Contracts.LocalizedLocations.UUID),
-                Utils.getString(cursor, Contracts.LocalizedLocations.PARENT_UUID),
-                Utils.getString(cursor, Contracts.LocalizedLocations.NAME),
-                Utils.getLong(cursor, Contracts.LocalizedLocations.PATIENT_COUNT));
+                getString(cursor, columns[0]),
+                getString(cursor, columns[1]),
+                getString(cursor, columns[2]),
+                getLong(cursor, columns[3]));
         }
     }
 }
@@ -23,6 +23,7 @@ import org.projectbuendia.client.json.JsonOrder;
 import org.projectbuendia.client.providers.Contracts;
 import org.projectbuendia.client.utils.Utils;
 
+import java.util.Objects;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -135,6 +136,23 @@ public final class Order extends Base<String> implements Comparable<Order> {
         return result;
     }
 
+    @Override public boolean equals(Object other) {
+        if (other instanceof Order) {
+            Order o = (Order) other;
+            return Objects.equals(uuid, o.uuid)
+                && Objects.equals(patientUuid, o.patientUuid)
+                && Objects.equals(instructions, o.instructions)
+                && Objects.equals(start, o.start)
+                && Objects.equals(stop, o.stop);
+        } else {
+            return false;
+        }
+    }
+
+    @Override public int hashCode() {
+        return Objects.hash(uuid, start, instructions);
+    }
+
     public JSONObject toJson() throws JSONException {
         JSONObject json = new JSONObject();
         json.put("patient_uuid", patientUuid);
@@ -155,17 +173,23 @@ public final class Order extends Base<String> implements Comparable<Order> {
         return cv;
     }
 
-    /** An {@link CursorLoader} that reads a Cursor and creates an {@link Order}. */
-    @Immutable
-    public static class Loader implements CursorLoader<Order> {
-        @Override public Order fromCursor(Cursor cursor) {
+    /** A {@link RowMapper} that reads a Cursor and creates an {@link Order}. */
+    public static class Loader extends RowMapper<Order> {
+        public Loader() {
+            super(Contracts.Orders.UUID,
+                Contracts.Orders.PATIENT_UUID,
+                Contracts.Orders.INSTRUCTIONS,
+                Contracts.Orders.START_MILLIS,
+                Contracts.Orders.STOP_MILLIS);
+        }
+
+        @Override protected Order map(Cursor cursor, int[] columns) {
             return new Order(
-                cursor.getString(cursor.getColumnIndex(Contracts.Orders.UUID)),
-                cursor.getString(cursor.getColumnIndex(Contracts.Orders.PATIENT_UUID)),
-                cursor.getString(cursor.getColumnIndex(Contracts.Orders.INSTRUCTIONS)),
-                cursor.getLong(cursor.getColumnIndex(Contracts.Orders.START_MILLIS)),
-                cursor.getLong(cursor.getColumnIndex(Contracts.Orders.STOP_MILLIS))
-            );
+                getString(cursor, columns[0], ""),
+                getString(cursor, columns[1]),
+                getString(cursor, columns[2], ""),
+                getLong(cursor, columns[3]),
+                getLong(cursor, columns[4]));
         }
     }
 }
@@ -141,18 +141,27 @@ public final class Patient extends Base<String> implements Comparable<Patient> {
         this.locationUuid = builder.mLocationUuid;
     }
 
-    /** An {@link CursorLoader} that loads {@link Patient}s. */
-    @Immutable
-    public static class Loader implements CursorLoader<Patient> {
-        @Override public Patient fromCursor(Cursor cursor) {
+    /** A {@link RowMapper} that loads {@link Patient}s. */
+    public static class Loader extends RowMapper<Patient> {
+        public Loader() {
+            super(Contracts.Patients.UUID,
+                Contracts.Patients.ID,
+                Contracts.Patients.GIVEN_NAME,
+                Contracts.Patients.FAMILY_NAME,
+                Contracts.Patients.BIRTHDATE,
+                Contracts.Patients.GENDER,
+                Contracts.Patients.LOCATION_UUID);
+        }
+
+        @Override protected Patient map(Cursor cursor, int[] columns) {
             return builder()
-                .setUuid(Utils.getString(cursor, Contracts.Patients.UUID))
-                .setId(Utils.getString(cursor, Contracts.Patients.ID))
-                .setGivenName(Utils.getString(cursor, Contracts.Patients.GIVEN_NAME))
-                .setFamilyName(Utils.getString(cursor, Contracts.Patients.FAMILY_NAME))
-                .setBirthdate(Utils.getLocalDate(cursor, Contracts.Patients.BIRTHDATE))
-                .setGender(getGenderFromString(Utils.getString(cursor, Contracts.Patients.GENDER)))
-                .setLocationUuid(Utils.getString(cursor, Contracts.Patients.LOCATION_UUID))
+                .setUuid(getString(cursor, columns[0]))
+                .setId(getString(cursor, columns[1]))
+                .setGivenName(getString(cursor, columns[2]))
+                .setFamilyName(getString(cursor, columns[3]))
+                .setBirthdate(getLocalDate(cursor, columns[4]))
+                .setGender(getGenderFromString(getString(cursor, columns[5])))
+                .setLocationUuid(getString(cursor, columns[6]))
                 .build();
         }
 
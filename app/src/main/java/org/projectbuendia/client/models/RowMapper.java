@@ -0,0 +1,142 @@
+// Copyright 2015 The Project Buendia Authors
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not
+// use this file except in compliance with the License.  You may obtain a copy
+// of the License at: http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distrib-
+// uted under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+// OR CONDITIONS OF ANY KIND, either express or implied.  See the License for
+// specific language governing permissions and limitations under the License.
+
+package org.projectbuendia.client.models;
+
+import android.database.Cursor;
+
+import org.joda.time.LocalDate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+/**
+ * A {@link CursorLoader} that reads a fixed list of columns, looking up where those columns are
+ * in a cursor only once per column layout instead of once per row.
+ * <p>
+ * Subclasses pass their columns to the constructor and implement {@link #map(Cursor, int[])},
+ * which receives the cursor index of each column in the same order.  Querying with
+ * {@link #getProjection()} keeps the cursor down to just those columns, but any cursor that
+ * contains them will do.
+ * <p>
+ * A RowMapper may be shared between threads; the only state it keeps is the most recently
+ * resolved column layout, which is replaced atomically.  It keeps the layout's column names but
+ * not the cursor itself, so a cached mapper doesn't keep a closed cursor alive, and a new cursor
+ * from the same query reuses the lookup.
+ * <p>
+ * The models' loaders and ChartDataHelper's readers use RowMappers.  Readers that know their
+ * projection (the sync phases, the outbox and the user store) read by position or look their
+ * columns up once before their loops instead, and single-row lookups read by name.
+ */
+public abstract class RowMapper<T> implements CursorLoader<T> {
+    private final String[] mColumns;
+    private volatile Binding mLastBinding;
+
+    protected RowMapper(String... columns) {
+        mColumns = columns;
+    }
+
+    /** Returns the columns that this mapper reads, for use as a query projection. */
+    public String[] getProjection() {
+        return mColumns.clone();
+    }
+
+    /**
+     * Constructs a model from the current row, given the cursor index of each column passed
+     * to the constructor, in the same order.
+     */
+    protected abstract T map(Cursor cursor, int[] columnIndices);
+
+    /**
+     * Maps the current row.  This checks the cursor's column layout on every call, so code that
+     * reads many rows should use {@link #mapAll} or {@link #bindTo} instead.
+     */
+    @Override public T fromCursor(Cursor cursor) {
+        return map(cursor, resolve(cursor));
+    }
+
+    /**
+     * Returns a loader that maps rows of the given cursor using column indices looked up once,
+     * for callers that map a cursor's rows one at a time (e.g. TypedCursorWithLoader).
+     */
+    public CursorLoader<T> bindTo(Cursor cursor) {
+        final int[] indices = resolve(cursor);
+        return new CursorLoader<T>() {
+            @Override public T fromCursor(Cursor cursor) {
+                return map(cursor, indices);
+            }
+        };
+    }
+
+    /** Maps all the rows after the cursor's current position, leaving it after the last row. */
+    public List<T> mapAll(Cursor cursor) {
+        int[] indices = resolve(cursor);
+        List<T> results = new ArrayList<>(Math.max(cursor.getCount(), 0));
+        while (cursor.moveToNext()) {
+            results.add(map(cursor, indices));
+        }
+        return results;
+    }
+
+    /** Looks up the index of each column in the given cursor, reusing the last lookup if any. */
+    public int[] resolve(Cursor cursor) {
+        Binding binding = mLastBinding;
+        String[] columnNames = cursor.getColumnNames();
+        // A cursor returns the same array every time, so the identity check usually suffices.
+        if (binding != null && binding.columnNames == columnNames) {
+            return binding.indices;
+        }
+        if (binding != null && Arrays.equals(binding.columnNames, columnNames)) {
+            // Same layout from another cursor; remember its array for the identity check.
+            binding = new Binding(columnNames, binding.indices);
+            mLastBinding = binding;
+        } else {
+            int[] indices = new int[mColumns.length];
+            for (int i = 0; i < mColumns.length; i++) {
+                indices[i] = cursor.getColumnIndexOrThrow(mColumns[i]);
+            }
+            binding = new Binding(columnNames, indices);
+            mLastBinding = binding;
+        }
+        return binding.indices;
+    }
+
+    protected static @Nullable String getString(Cursor c, int index) {
+        return c.isNull(index) ? null : c.getString(index);
+    }
+
+    protected static String getString(Cursor c, int index, String defaultValue) {
+        return c.isNull(index) ? defaultValue : c.getString(index);
+    }
+
+    protected static @Nullable Long getLong(Cursor c, int index) {
+        // The cast is needed to keep the result from being unboxed; see Utils.getLong().
+        return c.isNull(index) ? null : (Long) c.getLong(index);
+    }
+
+    protected static @Nullable LocalDate getLocalDate(Cursor c, int index) {
+        return c.isNull(index) ? null : new LocalDate(c.getString(index));
+    }
+
+    /** A cursor's column names together with the indices of this mapper's columns among them. */
+    private static final class Binding {
+        final String[] columnNames;
+        final int[] indices;
+
+        Binding(String[] columnNames, int[] indices) {
+            this.columnNames = columnNames;
+            this.indices = indices;
+        }
+    }
+}
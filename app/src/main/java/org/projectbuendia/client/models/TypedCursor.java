@@ -14,6 +14,8 @@ package org.projectbuendia.client.models;
 import android.database.Cursor;
 import android.net.Uri;
 
+import javax.annotation.Nullable;
+
 /**
  * A {@link Cursor}-like data structure that exposes a type-safe interface.
  * <p/>
@@ -31,6 +33,13 @@ public interface TypedCursor<T> extends Iterable<T>, Observable {
      */
     T get(int position);
 
+    /**
+     * Returns the value of a column at the specified position without loading the whole item, or
+     * {@code null} if the position is invalid, the column is absent, or the value is null.  This
+     * is much cheaper than {@link #get} when only one or two fields are needed from every row.
+     */
+    @Nullable String getString(int position, String column);
+
     /** Returns the URI for which notifications are received. */
     Uri getNotificationUri();
 }
@@ -14,7 +14,7 @@ package org.projectbuendia.client.models;
 import android.database.ContentObserver;
 import android.database.Cursor;
 import android.net.Uri;
-import android.util.SparseArray;
+import android.util.LruCache;
 
 import java.util.Iterator;
 
@@ -29,18 +29,29 @@ import java.util.Iterator;
  * provide a mechanism to access {@link Cursor#registerDataSetObserver}). This is because the
  * associated {@link Cursor#requery} and {@link Cursor#deactivate} methods have been deprecated. It
  * does, however, pass along {@link ContentObserver} callbacks.
+ * <p/>
+ * <p>Only the most recently used {@link #MAX_CACHED_ITEMS} items are kept; others are loaded
+ * again from the cursor if needed, so that a long list doesn't hold on to an object per row.
  */
 class TypedCursorWithLoader<T, U extends CursorLoader<T>> implements TypedCursor<T> {
 
-    private final U mLoader;
+    /** The number of loaded items to keep, a few screens' worth of list items. */
+    static final int MAX_CACHED_ITEMS = 200;
+
+    private final CursorLoader<T> mLoader;
     private final Cursor mCursor;
 
-    private final SparseArray<T> mLoadedItems;
+    private final LruCache<Integer, T> mLoadedItems;
 
     public TypedCursorWithLoader(Cursor cursor, U loader) {
-        mLoader = loader;
+        this(cursor, loader, MAX_CACHED_ITEMS);
+    }
+
+    public TypedCursorWithLoader(Cursor cursor, U loader, int maxCachedItems) {
+        // Items are loaded one row at a time, so a RowMapper looks up its columns just once.
+        mLoader = loader instanceof RowMapper ? ((RowMapper<T>) loader).bindTo(cursor) : loader;
         mCursor = cursor;
-        mLoadedItems = new SparseArray<>();
+        mLoadedItems = new LruCache<>(maxCachedItems);
     }
 
     /**
@@ -79,6 +90,22 @@ class TypedCursorWithLoader<T, U extends CursorLoader<T>> implements TypedCursor
         return convertedItem;
     }
 
+    @Override public String getString(int position, String column) {
+        if (mCursor.isClosed()) {
+            return null;
+        }
+
+        int index = mCursor.getColumnIndex(column);
+        int originalPosition = mCursor.getPosition();
+        if (index < 0 || !mCursor.moveToPosition(position)) {
+            return null;
+        }
+
+        String value = mCursor.isNull(index) ? null : mCursor.getString(index);
+        mCursor.moveToPosition(originalPosition);
+        return value;
+    }
+
     @Override public Uri getNotificationUri() {
         return mCursor.isClosed() ? null : mCursor.getNotificationUri();
     }
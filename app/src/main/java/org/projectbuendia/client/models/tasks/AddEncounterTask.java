@@ -12,12 +12,8 @@
 package org.projectbuendia.client.models.tasks;
 
 import android.content.ContentResolver;
-import android.content.ContentValues;
 import android.os.AsyncTask;
 
-import com.android.volley.VolleyError;
-import com.android.volley.toolbox.RequestFuture;
-
 import org.projectbuendia.client.events.CrudEventBus;
 import org.projectbuendia.client.events.data.EncounterAddFailedEvent;
 import org.projectbuendia.client.events.data.ItemCreatedEvent;
@@ -27,15 +23,13 @@ import org.projectbuendia.client.filter.db.encounter.EncounterUuidFilter;
 import org.projectbuendia.client.models.Encounter;
 import org.projectbuendia.client.models.Patient;
 import org.projectbuendia.client.models.LoaderSet;
-import org.projectbuendia.client.net.Server;
-import org.projectbuendia.client.json.JsonEncounter;
 import org.projectbuendia.client.providers.Contracts.Observations;
+import org.projectbuendia.client.sync.Outbox;
 import org.projectbuendia.client.utils.Logger;
 
-import java.util.concurrent.ExecutionException;
-
 /**
- * An {@link AsyncTask} that adds a patient encounter to the server.
+ * An {@link AsyncTask} that adds a patient encounter, queuing it in the {@link Outbox} to be
+ * sent to the server and caching its observations locally.
  * <p/>
  * <p>If the operation succeeds, a {@link ItemCreatedEvent} is posted on the given
  * {@link CrudEventBus} with the added encounter. If the operation fails, a
@@ -55,7 +49,7 @@ public class AddEncounterTask extends AsyncTask<Void, Void, EncounterAddFailedEv
 
     private final TaskFactory mTaskFactory;
     private final LoaderSet mLoaderSet;
-    private final Server mServer;
+    private final Outbox mOutbox;
     private final ContentResolver mContentResolver;
     private final Patient mPatient;
     private final Encounter mEncounter;
@@ -67,7 +61,7 @@ public class AddEncounterTask extends AsyncTask<Void, Void, EncounterAddFailedEv
     public AddEncounterTask(
         TaskFactory taskFactory,
         LoaderSet loaderSet,
-        Server server,
+        Outbox outbox,
         ContentResolver contentResolver,
         Patient patient,
         Encounter encounter,
@@ -75,7 +69,7 @@ public class AddEncounterTask extends AsyncTask<Void, Void, EncounterAddFailedEv
     ) {
         mTaskFactory = taskFactory;
         mLoaderSet = loaderSet;
-        mServer = server;
+        mOutbox = outbox;
         mContentResolver = contentResolver;
         mPatient = patient;
         mEncounter = encounter;
@@ -83,58 +77,12 @@ public class AddEncounterTask extends AsyncTask<Void, Void, EncounterAddFailedEv
     }
 
     @Override protected EncounterAddFailedEvent doInBackground(Void... params) {
-        RequestFuture<JsonEncounter> future = RequestFuture.newFuture();
-
-        mServer.addEncounter(mPatient, mEncounter, future, future);
-        JsonEncounter jsonEncounter;
-        try {
-            jsonEncounter = future.get();
-        } catch (InterruptedException e) {
-            return new EncounterAddFailedEvent(EncounterAddFailedEvent.Reason.INTERRUPTED, e);
-        } catch (ExecutionException e) {
-            LOG.e(e, "Server error while adding encounter");
-
-            EncounterAddFailedEvent.Reason reason =
-                EncounterAddFailedEvent.Reason.UNKNOWN_SERVER_ERROR;
-            if (e.getCause() != null) {
-                String errorMessage = e.getCause().getMessage();
-                if (errorMessage.contains("failed to validate")) {
-                    reason = EncounterAddFailedEvent.Reason.FAILED_TO_VALIDATE;
-                } else if (errorMessage.contains("Privileges required")) {
-                    reason = EncounterAddFailedEvent.Reason.FAILED_TO_AUTHENTICATE;
-                }
-            }
-            LOG.e("Error response: %s", ((VolleyError) e.getCause()).networkResponse);
-
-            return new EncounterAddFailedEvent(reason, (VolleyError) e.getCause());
+        // The outbox sends the encounter to the server when it can; until the next sync,
+        // the chart shows the locally cached copy of its observations.
+        mUuid = mOutbox.addEncounter(mEncounter);
+        if (mEncounter.observations.length == 0 && mEncounter.orderUuids.length == 0) {
+            LOG.w("Queued an encounter that contains no observations.");
         }
-
-        if (jsonEncounter.uuid == null) {
-            LOG.e(
-                "Although the server reported an encounter successfully added, it did not "
-                    + "return a UUID for that encounter. This indicates a server error.");
-
-            return new EncounterAddFailedEvent(
-                EncounterAddFailedEvent.Reason.FAILED_TO_SAVE_ON_SERVER, null /*exception*/);
-        }
-
-        Encounter encounter = Encounter.fromJson(mPatient.uuid, jsonEncounter);
-        ContentValues[] values = encounter.toContentValuesArray();
-        if (values.length > 0) {
-            int inserted = mContentResolver.bulkInsert(Observations.CONTENT_URI, values);
-
-            if (inserted != values.length) {
-                LOG.w("Inserted %d observations for encounter. Expected: %d",
-                    inserted, encounter.observations.length);
-                return new EncounterAddFailedEvent(
-                    EncounterAddFailedEvent.Reason.INVALID_NUMBER_OF_OBSERVATIONS_SAVED,
-                    null /*exception*/);
-            }
-        } else {
-            LOG.w("Encounter was sent to the server but contained no observations.");
-        }
-
-        mUuid = jsonEncounter.uuid;
         return null;
     }
 
@@ -12,11 +12,8 @@
 package org.projectbuendia.client.models.tasks;
 
 import android.content.ContentResolver;
-import android.net.Uri;
 import android.os.AsyncTask;
 
-import com.android.volley.toolbox.RequestFuture;
-
 import org.projectbuendia.client.events.CrudEventBus;
 import org.projectbuendia.client.events.data.ItemCreatedEvent;
 import org.projectbuendia.client.events.data.ItemFetchFailedEvent;
@@ -24,17 +21,15 @@ import org.projectbuendia.client.events.data.ItemFetchedEvent;
 import org.projectbuendia.client.events.data.ItemUpdatedEvent;
 import org.projectbuendia.client.events.data.OrderSaveFailedEvent;
 import org.projectbuendia.client.filter.db.patient.UuidFilter;
-import org.projectbuendia.client.json.JsonOrder;
 import org.projectbuendia.client.models.LoaderSet;
 import org.projectbuendia.client.models.Order;
-import org.projectbuendia.client.net.Server;
 import org.projectbuendia.client.providers.Contracts;
+import org.projectbuendia.client.sync.Outbox;
 import org.projectbuendia.client.utils.Logger;
 
-import java.util.concurrent.ExecutionException;
-
 /**
- * An {@link AsyncTask} that adds an order, both on the server and in the local store.
+ * An {@link AsyncTask} that adds or edits an order in the local store, queuing the change in
+ * the {@link Outbox} to be sent to the server.
  * <p/>
  * <p>If the operation succeeds, a {@link ItemCreatedEvent} is posted on the
  * given {@link CrudEventBus} with the added order. If the operation fails, an
@@ -46,7 +41,7 @@ public class SaveOrderTask extends AsyncTask<Void, Void, OrderSaveFailedEvent> {
 
     private final TaskFactory mTaskFactory;
     private final LoaderSet mLoaderSet;
-    private final Server mServer;
+    private final Outbox mOutbox;
     private final ContentResolver mContentResolver;
     private final Order mOrder;
     private final CrudEventBus mBus;
@@ -57,13 +52,13 @@ public class SaveOrderTask extends AsyncTask<Void, Void, OrderSaveFailedEvent> {
     public SaveOrderTask(
         TaskFactory taskFactory,
         LoaderSet loaderSet,
-        Server server,
+        Outbox outbox,
         ContentResolver contentResolver,
         Order order,
         CrudEventBus bus) {
         mTaskFactory = taskFactory;
         mLoaderSet = loaderSet;
-        mServer = server;
+        mOutbox = outbox;
         mContentResolver = contentResolver;
         mOrder = order;
         mBus = bus;
@@ -84,25 +79,8 @@ public class SaveOrderTask extends AsyncTask<Void, Void, OrderSaveFailedEvent> {
     }
 
     @Override protected OrderSaveFailedEvent doInBackground(Void... params) {
-        RequestFuture<JsonOrder> future = RequestFuture.newFuture();
-        mServer.saveOrder(mOrder, future, future);
-        JsonOrder json;
-        try {
-            json = future.get();
-        } catch (InterruptedException e) {
-            return new OrderSaveFailedEvent(OrderSaveFailedEvent.Reason.INTERRUPTED, e);
-        } catch (ExecutionException e) {
-            return new OrderSaveFailedEvent(OrderSaveFailedEvent.Reason.UNKNOWN_SERVER_ERROR, e);
-        }
-
-        // insert() is implemented as insert or replace, so we use it for both adding and updating.
-        Uri uri = mContentResolver.insert(
-            Contracts.Orders.CONTENT_URI, Order.fromJson(json).toContentValues());
-        if (uri == null || uri.equals(Uri.EMPTY)) {
-            return new OrderSaveFailedEvent(OrderSaveFailedEvent.Reason.CLIENT_ERROR, null);
-        }
-
-        mUuid = json.uuid;
+        // A new order is stored under a temporary UUID until the server assigns one.
+        mUuid = mOutbox.saveOrder(mOrder);
         return null;  // no error means success
     }
 
@@ -27,6 +27,7 @@ import org.projectbuendia.client.models.CursorLoader;
 import org.projectbuendia.client.models.LoaderSet;
 import org.projectbuendia.client.models.VoidObs;
 import org.projectbuendia.client.net.Server;
+import org.projectbuendia.client.sync.Outbox;
 
 /**
  * An assisted injection factory that creates {@link AsyncTask}s for performing {@link AppModel}
@@ -35,13 +36,15 @@ import org.projectbuendia.client.net.Server;
 public class TaskFactory {
     private final LoaderSet mLoaderSet;
     private final Server mServer;
+    private final Outbox mOutbox;
     private final ContentResolver mContentResolver;
 
     /** Creates a new {@link TaskFactory}. */
     public TaskFactory(
-        LoaderSet loaderSet, Server server, ContentResolver contentResolver) {
+        LoaderSet loaderSet, Server server, Outbox outbox, ContentResolver contentResolver) {
         mLoaderSet = loaderSet;
         mServer = server;
+        mOutbox = outbox;
         mContentResolver = contentResolver;
     }
 
@@ -58,7 +61,7 @@ public class TaskFactory {
 
     public VoidObsTask voidObsTask(CrudEventBus bus, VoidObs voidObs) {
         return new VoidObsTask(
-                this, mLoaderSet, mServer, mContentResolver, voidObs, bus);
+                this, mLoaderSet, mOutbox, mContentResolver, voidObs, bus);
     }
 
     /** Creates a new {@link UpdatePatientTask}. */
@@ -72,19 +75,19 @@ public class TaskFactory {
     public AddEncounterTask newAddEncounterTask(
         Patient patient, Encounter encounter, CrudEventBus bus) {
         return new AddEncounterTask(
-            this, mLoaderSet, mServer, mContentResolver, patient, encounter, bus);
+            this, mLoaderSet, mOutbox, mContentResolver, patient, encounter, bus);
     }
 
     /** Creates a new {@link SaveOrderTask}. */
     public SaveOrderTask newSaveOrderTask(Order order, CrudEventBus bus) {
-        return new SaveOrderTask(this, mLoaderSet, mServer, mContentResolver, order, bus);
+        return new SaveOrderTask(this, mLoaderSet, mOutbox, mContentResolver, order, bus);
     }
 
     // DO NOT SUBMIT: work out why there's two of these.
     public VoidObsTask newVoidObsAsyncTask(
             VoidObs obs, CrudEventBus bus) {
         return new VoidObsTask(
-                this, mLoaderSet, mServer, mContentResolver, obs, bus);
+                this, mLoaderSet, mOutbox, mContentResolver, obs, bus);
     }
 
     /** Creates a new {@link DeleteOrderTask}. */
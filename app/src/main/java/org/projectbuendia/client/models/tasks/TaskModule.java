@@ -15,6 +15,7 @@ import android.content.ContentResolver;
 
 import org.projectbuendia.client.models.LoaderSet;
 import org.projectbuendia.client.net.Server;
+import org.projectbuendia.client.sync.Outbox;
 
 import javax.inject.Singleton;
 
@@ -27,8 +28,9 @@ public class TaskModule {
     @Provides
     @Singleton TaskFactory provideAppAsyncTaskFactory(
         Server server,
+        Outbox outbox,
         ContentResolver contentResolver,
         LoaderSet loaderSet) {
-        return new TaskFactory(loaderSet, server, contentResolver);
+        return new TaskFactory(loaderSet, server, outbox, contentResolver);
     }
 }
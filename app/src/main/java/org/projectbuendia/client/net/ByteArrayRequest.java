@@ -0,0 +1,58 @@
+// Copyright 2015 The Project Buendia Authors
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not
+// use this file except in compliance with the License.  You may obtain a copy
+// of the License at: http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distrib-
+// uted under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+// OR CONDITIONS OF ANY KIND, either express or implied.  See the License for
+// specific language governing permissions and limitations under the License.
+
+package org.projectbuendia.client.net;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.toolbox.HttpHeaderParser;
+
+import java.util.Map;
+
+/**
+ * A GET {@link Request} whose response body is delivered as raw bytes, without being decoded
+ * into a {@link String} or parsed.  This lets the caller decode large JSON responses
+ * incrementally with a {@link com.google.gson.stream.JsonReader} instead of building the
+ * whole object tree in memory, as {@link GsonRequest} does.
+ */
+public class ByteArrayRequest extends Request<byte[]> {
+    private final Map<String, String> mHeaders;
+    private final Response.Listener<byte[]> mListener;
+
+    /**
+     * Makes a GET request and returns the unparsed response body.
+     * @param url           URL of the request to make
+     * @param headers       Map of request headers
+     * @param listener      a {@link Response.Listener} that handles successful requests
+     * @param errorListener a {@link Response.ErrorListener} that handles failed requests
+     */
+    public ByteArrayRequest(String url, Map<String, String> headers,
+                            Response.Listener<byte[]> listener,
+                            Response.ErrorListener errorListener) {
+        super(Method.GET, url, errorListener);
+        mHeaders = headers;
+        mListener = listener;
+    }
+
+    @Override public Map<String, String> getHeaders() throws AuthFailureError {
+        return mHeaders != null ? mHeaders : super.getHeaders();
+    }
+
+    @Override protected void deliverResponse(byte[] response) {
+        mListener.onResponse(response);
+    }
+
+    @Override protected Response<byte[]> parseNetworkResponse(NetworkResponse response) {
+        return Response.success(response.data, HttpHeaderParser.parseCacheHeaders(response));
+    }
+}
@@ -20,11 +20,13 @@ import android.support.annotation.Nullable;
 
 import com.android.volley.Response;
 import com.android.volley.VolleyError;
+import com.android.volley.toolbox.RequestFuture;
 import com.google.common.base.Preconditions;
 
 import org.odk.collect.android.application.Collect;
 import org.odk.collect.android.provider.FormsProviderAPI;
 import org.odk.collect.android.tasks.DiskSyncTask;
+import org.odk.collect.android.utilities.FormDefCache;
 import org.projectbuendia.client.App;
 import org.projectbuendia.client.events.FetchXformFailedEvent;
 import org.projectbuendia.client.events.FetchXformSucceededEvent;
@@ -33,6 +35,12 @@ import org.projectbuendia.client.utils.Logger;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import de.greenrobot.event.EventBus;
 
@@ -48,6 +56,15 @@ public class OdkXformSyncTask extends AsyncTask<OpenMrsXformIndexEntry, Void, Vo
 
     private static final Logger LOG = Logger.create();
 
+    /** The most xforms downloaded at once by {@link #cacheXforms}. */
+    private static final int MAX_CONCURRENT_FETCHES = 2;
+
+    /** How long to wait for an xform; allows for the request's own timeout and one retry. */
+    private static final long FETCH_TIMEOUT_MS = 3 * Common.REQUEST_TIMEOUT_MS_MEDIUM;
+
+    private static final ExecutorService sFetchExecutor =
+        Executors.newFixedThreadPool(MAX_CONCURRENT_FETCHES);
+
     @Nullable
     private final FormWrittenListener mFormWrittenListener;
 
@@ -64,43 +81,12 @@ public class OdkXformSyncTask extends AsyncTask<OpenMrsXformIndexEntry, Void, Vo
         for (final OpenMrsXformIndexEntry formInfo : formInfos) {
             final File proposedPath = formInfo.makeFileForForm();
 
-            // Check if the uuid already exists in the database.
-            Cursor cursor = null;
-            boolean isNew;
             final boolean usersHaveChanged = App.getUserManager().isDirty();
-            try {
-                cursor = getCursorForFormFile(proposedPath, new String[] {
-                    FormsProviderAPI.FormsColumns.DATE
-                });
-                boolean isInDatabase = cursor.getCount() > 0;
-                if (isInDatabase) {
-                    if (cursor.getCount() != 1) {
-                        LOG.e("Saw " + cursor.getCount() + " rows for " + proposedPath.getPath());
-                        // In a fail-fast environment we would crash here, but we will keep going
-                        // to lead the code more robust to errors in the field.
-                    }
-                    Preconditions.checkArgument(cursor.getColumnCount() == 1);
-                    cursor.moveToNext();
-                    long existingTimestamp = cursor.getLong(0);
-                    isNew = (existingTimestamp < formInfo.dateChanged);
-
-                    if (isNew || usersHaveChanged) {
-                        LOG.i("Form " + formInfo.uuid + " requires an update."
-                            + " (Local creation date: " + existingTimestamp
-                            + ", (Latest version: " + formInfo.dateChanged + ")"
-                            + ", (Invalidated by UserManager: " + usersHaveChanged + ")");
-                    }
-                } else {
-                    LOG.i("Form " + formInfo.uuid + " not found in database.");
-                    isNew = true;
-                }
-            } finally {
-                if (cursor != null) {
-                    cursor.close();
-                }
+            if (usersHaveChanged) {
+                LOG.i("Form " + formInfo.uuid + " requires an update; users have changed.");
             }
 
-            if (!isNew && !usersHaveChanged) {
+            if (!usersHaveChanged && isCachedFormCurrent(formInfo, proposedPath)) {
                 LOG.i("Using form " + formInfo.uuid + " from local cache.");
                 if (mFormWrittenListener != null) {
                     mFormWrittenListener.formWritten(proposedPath, formInfo.uuid);
@@ -115,6 +101,90 @@ public class OdkXformSyncTask extends AsyncTask<OpenMrsXformIndexEntry, Void, Vo
         return null;
     }
 
+    /**
+     * Brings the local copies of the given xforms up to date, returning immediately.  Forms
+     * whose cached copy is at least as new as the server's are skipped; the rest are downloaded
+     * a few at a time on a small pool of worker threads, so that a form sync doesn't flood the
+     * network (or the server) with one request per form all at once.  Each form's parsed
+     * {@link org.javarosa.core.model.FormDef} is then built and cached on the same threads, so
+     * that ODK can open the form without parsing its xml.
+     */
+    public static void cacheXforms(List<OpenMrsXformIndexEntry> formInfos) {
+        final boolean usersHaveChanged = App.getUserManager().isDirty();
+        for (final OpenMrsXformIndexEntry formInfo : formInfos) {
+            sFetchExecutor.execute(new Runnable() {
+                @Override public void run() {
+                    cacheXform(formInfo, usersHaveChanged);
+                }
+            });
+        }
+    }
+
+    /** Downloads and stores one xform if needed; runs on a fetch worker thread. */
+    private static void cacheXform(OpenMrsXformIndexEntry formInfo, boolean usersHaveChanged) {
+        File proposedPath = formInfo.makeFileForForm();
+        if (!usersHaveChanged && isCachedFormCurrent(formInfo, proposedPath)) {
+            LOG.i("Form " + formInfo.uuid + " is unchanged; keeping cached copy.");
+            FormDefCache.warm(proposedPath);
+            return;
+        }
+
+        LOG.i("fetching form " + formInfo.uuid);
+        RequestFuture<String> future = RequestFuture.newFuture();
+        new OpenMrsXformsConnection(App.getConnectionDetails())
+            .getXform(formInfo.uuid, future, future);
+        String form;
+        try {
+            form = future.get(FETCH_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException | ExecutionException | TimeoutException e) {
+            LOG.e(e, "failed to fetch form " + formInfo.uuid);
+            EventBus.getDefault().post(new FetchXformFailedEvent(
+                FetchXformFailedEvent.Reason.SERVER_FAILED_TO_FETCH, e));
+            return;
+        }
+        if (writeFormToDb(form, proposedPath) != null) {
+            EventBus.getDefault().post(new FetchXformSucceededEvent());
+            App.getUserManager().setDirty(false);
+            // Parse the form now, so that opening it later needn't.
+            FormDefCache.warm(proposedPath);
+        }
+    }
+
+    /**
+     * Returns true if the form is in ODK's db and on disk, and the copy there is no older than
+     * the latest version on the server.
+     */
+    private static boolean isCachedFormCurrent(OpenMrsXformIndexEntry formInfo, File path) {
+        if (!path.exists()) {
+            LOG.i("Form " + formInfo.uuid + " not found on disk.");
+            return false;
+        }
+        Cursor cursor = getCursorForFormFile(path, new String[] {
+            FormsProviderAPI.FormsColumns.DATE
+        });
+        try {
+            if (!cursor.moveToFirst()) {
+                LOG.i("Form " + formInfo.uuid + " not found in database.");
+                return false;
+            }
+            if (cursor.getCount() != 1) {
+                LOG.e("Saw " + cursor.getCount() + " rows for " + path.getPath());
+                // In a fail-fast environment we would crash here, but we will keep going
+                // to lead the code more robust to errors in the field.
+            }
+            long existingTimestamp = cursor.getLong(0);
+            if (existingTimestamp < formInfo.dateChanged) {
+                LOG.i("Form " + formInfo.uuid + " is out of date."
+                    + " (Local creation date: " + existingTimestamp
+                    + ", (Latest version: " + formInfo.dateChanged + ")");
+                return false;
+            }
+            return true;
+        } finally {
+            cursor.close();
+        }
+    }
+
     /**
      * Fetches the requested xform from the server and adds it into db.
      * @param uuid      UUID of the form to be fetched
@@ -160,6 +230,64 @@ public class OdkXformSyncTask extends AsyncTask<OpenMrsXformIndexEntry, Void, Vo
                 selectionArgs, FormsProviderAPI.FormsColumns._ID + " DESC");
     }
 
+    /**
+     * Writes an xform into ODK's forms directory and registers it in ODK's db, replacing any
+     * existing copy.  Returns the path written, or null if the form couldn't be stored.
+     */
+    private static @Nullable File writeFormToDb(String form, File proposedPath) {
+        // Write file into OpenMRS forms directory.
+        if (!writeStringToFile(form, proposedPath)) {
+            // we failed to load it, just skip for now
+            return null;
+        }
+
+        // do the equivalent of DownloadFormsTask.findExistingOrCreateNewUri() or
+        // DiskSyncTask step 4 to insert the file into the database
+        ContentValues cv;
+        try {
+            cv = DiskSyncTask.buildContentValues(proposedPath);
+        } catch (IllegalArgumentException e) {
+            // yuck, but this is what it throws on a bad parse
+            LOG.e(e, "Failed to parse: " + proposedPath);
+            return null;
+        }
+
+        // insert into content provider
+        try {
+            ContentResolver contentResolver =
+                Collect.getInstance().getApplication().getContentResolver();
+            // Always replace existing forms.
+            cv.put(FormsProviderAPI.SQL_INSERT_OR_REPLACE, true);
+            contentResolver.insert(FormsProviderAPI.FormsColumns.CONTENT_URI, cv);
+        } catch (SQLException e) {
+            LOG.i(e, "failed to insert fetched file");
+        }
+        return proposedPath;
+    }
+
+    private static boolean writeStringToFile(String response, File proposedPath) {
+        //Create OKD dirs if necessary
+        Collect.getInstance().createODKDirs();
+
+        FileWriter writer = null;
+        try {
+            writer = new FileWriter(proposedPath);
+            writer.write(response);
+            return true;
+        } catch (IOException e) {
+            LOG.e(e, "failed to write downloaded xform to ODK forms directory");
+            return false;
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    LOG.e(e, "failed to close writer into ODK directory");
+                }
+            }
+        }
+    }
+
     private static class FormToWrite {
         public final String form;
         public final File path;
@@ -185,36 +313,7 @@ public class OdkXformSyncTask extends AsyncTask<OpenMrsXformIndexEntry, Void, Vo
         @Override protected File doInBackground(FormToWrite[] params) {
             Preconditions.checkArgument(params.length != 0);
 
-            String form = params[0].form;
-            File proposedPath = params[0].path;
-            // Write file into OpenMRS forms directory.
-            if (!writeStringToFile(form, proposedPath)) {
-                // we failed to load it, just skip for now
-                return null;
-            }
-
-            // do the equivalent of DownloadFormsTask.findExistingOrCreateNewUri() or
-            // DiskSyncTask step 4 to insert the file into the database
-            ContentValues cv;
-            try {
-                cv = DiskSyncTask.buildContentValues(proposedPath);
-            } catch (IllegalArgumentException e) {
-                // yuck, but this is what it throws on a bad parse
-                LOG.e(e, "Failed to parse: " + proposedPath);
-                return null;
-            }
-
-            // insert into content provider
-            try {
-                ContentResolver contentResolver =
-                    Collect.getInstance().getApplication().getContentResolver();
-                // Always replace existing forms.
-                cv.put(FormsProviderAPI.SQL_INSERT_OR_REPLACE, true);
-                contentResolver.insert(FormsProviderAPI.FormsColumns.CONTENT_URI, cv);
-            } catch (SQLException e) {
-                LOG.i(e, "failed to insert fetched file");
-            }
-            return proposedPath;
+            return writeFormToDb(params[0].form, params[0].path);
         }
 
         @Override protected void onPostExecute(File path) {
@@ -226,28 +325,5 @@ public class OdkXformSyncTask extends AsyncTask<OpenMrsXformIndexEntry, Void, Vo
 
             App.getUserManager().setDirty(false);
         }
-
-        private static boolean writeStringToFile(String response, File proposedPath) {
-            //Create OKD dirs if necessary
-            Collect.getInstance().createODKDirs();
-
-            FileWriter writer = null;
-            try {
-                writer = new FileWriter(proposedPath);
-                writer.write(response);
-                return true;
-            } catch (IOException e) {
-                LOG.e(e, "failed to write downloaded xform to ODK forms directory");
-                return false;
-            } finally {
-                if (writer != null) {
-                    try {
-                        writer.close();
-                    } catch (IOException e) {
-                        LOG.e(e, "failed to close writer into ODK directory");
-                    }
-                }
-            }
-        }
     }
 }
@@ -12,11 +12,13 @@
 package org.projectbuendia.client.net;
 
 import android.support.annotation.Nullable;
+import android.util.Base64;
 
 import com.android.volley.DefaultRetryPolicy;
 import com.android.volley.Request;
 import com.android.volley.Response;
 import com.android.volley.VolleyError;
+import com.google.common.base.Charsets;
 import com.google.common.base.Joiner;
 import com.google.gson.Gson;
 import com.google.gson.JsonSyntaxException;
@@ -24,7 +26,6 @@ import com.google.gson.JsonSyntaxException;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
-import org.projectbuendia.client.App;
 import org.projectbuendia.client.models.ConceptUuids;
 import org.projectbuendia.client.models.Encounter;
 import org.projectbuendia.client.models.Order;
@@ -40,9 +41,12 @@ import org.projectbuendia.client.json.JsonUser;
 import org.projectbuendia.client.utils.Logger;
 import org.projectbuendia.client.utils.Utils;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.zip.GZIPOutputStream;
 
 /** Implementation of {@link Server} that sends RPC's to OpenMRS. */
 public class OpenMrsServer implements Server {
@@ -69,36 +73,49 @@ public class OpenMrsServer implements Server {
         mGson = gson;
     }
 
-    @Override public void logToServer(List<String> pairs) {
+    @Override public void logBatchToServer(
+        List<String> entries,
+        long droppedCount,
+        final Response.Listener<Void> successListener,
+        Response.ErrorListener errorListener) {
         // To avoid filling the server logs with big messy stack traces, let's make a dummy
         // request that succeeds.  We assume "Pulse" will always be present on the server.
         // Conveniently, extra data after ";" in the URL is included in request logs, but
         // ignored by the REST resource handler, which just returns the "Pulse" concept.
+        // The entries go in one gzipped, URL-safe base64 param, one entry per line.
         final String urlPath = "/concepts/" + ConceptUuids.PULSE_UUID;
         List<String> params = new ArrayList<>();
         params.add("time=" + (new Date().getTime()));
-        JsonUser user = App.getUserManager().getActiveUser();
-        if (user != null) {
-            params.add("user_id=" + user.id);
-            if (user.isGuestUser()) {
-                params.add("guest_user=1");
-            }
-        }
-        for (int i = 0; i + 1 < pairs.size(); i += 2) {
-            params.add(Utils.urlEncode(pairs.get(i)) + "=" + Utils.urlEncode(pairs.get(i + 1)));
+        params.add("count=" + entries.size());
+        if (droppedCount > 0) {
+            params.add("dropped=" + droppedCount);
         }
+        params.add("batch=" + gzipToBase64(Joiner.on("\n").join(entries)));
 
-        LOG.i("Logging to server: %s", params);
+        LOG.i("Logging %d events to server", entries.size());
         OpenMrsJsonRequest request = mRequestFactory.newOpenMrsJsonRequest(
             mConnectionDetails, urlPath + ";" + Joiner.on(";").join(params), null,
             new Response.Listener<JSONObject>() {
                 @Override public void onResponse(JSONObject response) {
+                    successListener.onResponse(null);
                 }
-            }, null);
+            }, errorListener);
         request.setRetryPolicy(new DefaultRetryPolicy(Common.REQUEST_TIMEOUT_MS_SHORT, 0, 1));
         mConnectionDetails.getVolley().addToRequestQueue(request);
     }
 
+    /** Compresses a string and encodes it so it can go in a URL without escaping. */
+    private static String gzipToBase64(String text) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+            gzip.write(text.getBytes(Charsets.UTF_8));
+        } catch (IOException e) {
+            throw new AssertionError(e);  // writing to a byte array never fails
+        }
+        return Base64.encodeToString(
+            bytes.toByteArray(), Base64.URL_SAFE | Base64.NO_WRAP | Base64.NO_PADDING);
+    }
+
     @Override public void addPatient(
         PatientDelta patientDelta,
         final Response.Listener<JsonPatient> successListener,
@@ -263,6 +280,7 @@ public class OpenMrsServer implements Server {
     }
 
     @Override public void deleteObservation(String Uuid,
+                                         final Response.Listener<Void> successListener,
                                          final Response.ErrorListener errorListener) {
         OpenMrsJsonRequest request = mRequestFactory.newOpenMrsJsonRequest(
             mConnectionDetails,
@@ -272,6 +290,7 @@ public class OpenMrsServer implements Server {
             new Response.Listener<JSONObject>() {
                 @Override public void onResponse(JSONObject response) {
                     LOG.i("Voided observation");
+                    successListener.onResponse(null);
                 }
             },
             wrapErrorListener(errorListener));
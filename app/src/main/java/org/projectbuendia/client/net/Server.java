@@ -47,12 +47,16 @@ public interface Server {
     public static final String OBSERVATION_ANSWER_UUID = "answer_uuid";
 
     /**
-     * Logs an event by sending a dummy request to the server.  (The server logs
+     * Logs a batch of events by sending a dummy request to the server.  (The server logs
      * can then be scanned later to produce analytics for the client app.)
-     * @param pairs An even number of arguments providing key-value pairs of
-     *              arbitrary data to record with the event.
+     * @param entries      Events, each a ";"-separated list of URL-encoded "key=value" params.
+     * @param droppedCount The number of events that were discarded without being sent.
      */
-    void logToServer(List<String> pairs);
+    void logBatchToServer(
+        List<String> entries,
+        long droppedCount,
+        Response.Listener<Void> successListener,
+        Response.ErrorListener errorListener);
 
     /** Adds a patient. */
     void addPatient(
@@ -93,6 +97,7 @@ public interface Server {
      */
     void deleteObservation(
             String Uuid,
+            Response.Listener<Void> successListener,
             Response.ErrorListener errorListener);
 
     /**
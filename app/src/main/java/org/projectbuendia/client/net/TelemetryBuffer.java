@@ -0,0 +1,251 @@
+// Copyright 2015 The Project Buendia Authors
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not
+// use this file except in compliance with the License.  You may obtain a copy
+// of the License at: http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distrib-
+// uted under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+// OR CONDITIONS OF ANY KIND, either express or implied.  See the License for
+// specific language governing permissions and limitations under the License.
+
+package org.projectbuendia.client.net;
+
+import com.android.volley.toolbox.RequestFuture;
+import com.google.common.base.Charsets;
+
+import org.projectbuendia.client.App;
+import org.projectbuendia.client.json.JsonUser;
+import org.projectbuendia.client.user.UserManager;
+import org.projectbuendia.client.utils.Logger;
+import org.projectbuendia.client.utils.Utils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects the events passed to {@link Utils#logUserAction} and {@link Utils#logEvent} and
+ * sends them to the server in batches, instead of making one request per event.
+ * <p>
+ * Events wait in a fixed-size in-memory ring, which is flushed on a timer or as soon as it is
+ * half full.  Events that can't be sent (e.g. because the server is unreachable) are spilled
+ * to a file and sent with the next successful flush.  Both the ring and the spill file are
+ * bounded; when either is full, the oldest events are dropped and counted, and the number
+ * dropped is reported to the server with the next batch.
+ */
+public class TelemetryBuffer {
+    private static final Logger LOG = Logger.create();
+
+    /** The most events held in memory; beyond this, the oldest are dropped. */
+    static final int MEMORY_CAPACITY = 200;
+
+    /** A flush starts as soon as this many events are waiting in memory. */
+    private static final int FLUSH_THRESHOLD = MEMORY_CAPACITY / 2;
+
+    /** How often to flush, however few events are waiting. */
+    private static final long FLUSH_INTERVAL_MILLIS = 60 * 1000;
+
+    /** The most events in one request. */
+    static final int MAX_ENTRIES_PER_REQUEST = 50;
+
+    /** The most characters of events (before compression) in one request, to bound URL length. */
+    private static final int MAX_CHARS_PER_REQUEST = 16000;
+
+    /** The most events kept in the spill file; beyond this, the oldest are dropped. */
+    private static final int MAX_SPILLED_ENTRIES = 5000;
+
+    private final Server mServer;
+    private final File mSpillFile;
+    private final ScheduledExecutorService mExecutor;
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override public void run() {
+            flush();
+        }
+    };
+
+    // Guarded by this.
+    private final ArrayDeque<String> mEntries = new ArrayDeque<>(MEMORY_CAPACITY);
+    private boolean mFlushQueued;
+
+    /** Drops that haven't yet been reported to the server. */
+    private final AtomicLong mUnreportedDropCount = new AtomicLong();
+
+    public TelemetryBuffer(Server server, File spillFile) {
+        this(server, spillFile, Executors.newSingleThreadScheduledExecutor());
+    }
+
+    /** Creates a buffer that flushes on the given executor, which tests can stub out. */
+    TelemetryBuffer(Server server, File spillFile, ScheduledExecutorService executor) {
+        mServer = server;
+        mSpillFile = spillFile;
+        mExecutor = executor;
+    }
+
+    /** Starts flushing on a timer.  Events logged before this are held until the first flush. */
+    public void start() {
+        mExecutor.scheduleWithFixedDelay(
+            mFlushRunnable, 0, FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Records an event to be sent with the next batch.  Never blocks on I/O.
+     * @param pairs An even number of items providing key-value pairs of
+     *              arbitrary data to record with the event.
+     */
+    public void log(List<String> pairs) {
+        String entry = formatEntry(pairs);
+        synchronized (this) {
+            if (mEntries.size() >= MEMORY_CAPACITY) {
+                mEntries.removeFirst();
+                mUnreportedDropCount.incrementAndGet();
+            }
+            mEntries.addLast(entry);
+            if (mEntries.size() >= FLUSH_THRESHOLD && !mFlushQueued) {
+                mFlushQueued = true;
+                mExecutor.execute(mFlushRunnable);
+            }
+        }
+    }
+
+    /** Formats an event as ";"-separated URL-encoded params, stamped with the time and user. */
+    private static String formatEntry(List<String> pairs) {
+        StringBuilder entry = new StringBuilder("time=").append(System.currentTimeMillis());
+        UserManager userManager = App.getUserManager();
+        JsonUser user = userManager == null ? null : userManager.getActiveUser();
+        if (user != null) {
+            entry.append(";user_id=").append(Utils.urlEncode(user.id));
+            if (user.isGuestUser()) {
+                entry.append(";guest_user=1");
+            }
+        }
+        for (int i = 0; i + 1 < pairs.size(); i += 2) {
+            entry.append(';').append(Utils.urlEncode(pairs.get(i)))
+                .append('=').append(Utils.urlEncode(pairs.get(i + 1)));
+        }
+        return entry.toString();
+    }
+
+    /**
+     * Sends everything spilled and everything in memory.  Runs only on the executor thread,
+     * except in tests.
+     */
+    void flush() {
+        List<String> memoryEntries;
+        synchronized (this) {
+            mFlushQueued = false;
+            memoryEntries = new ArrayList<>(mEntries);
+            mEntries.clear();
+        }
+        List<String> pending = readSpillFile();
+        boolean hadSpill = !pending.isEmpty();
+        pending.addAll(memoryEntries);
+        if (pending.isEmpty()) return;
+
+        int sent = 0;
+        try {
+            while (sent < pending.size()) {
+                int end = getBatchEnd(pending, sent);
+                send(pending.subList(sent, end));
+                sent = end;
+            }
+        } catch (IOException e) {
+            LOG.w("Failed to send events to server; %d kept for later: %s",
+                pending.size() - sent, e.getMessage());
+        }
+        if (sent < pending.size() || hadSpill) {
+            writeSpillFile(pending.subList(sent, pending.size()));
+        }
+    }
+
+    /** Returns the end of the batch that starts at the given index. */
+    private static int getBatchEnd(List<String> entries, int start) {
+        int end = start;
+        int chars = 0;
+        while (end < entries.size() && end - start < MAX_ENTRIES_PER_REQUEST) {
+            chars += entries.get(end).length() + 1;
+            if (chars > MAX_CHARS_PER_REQUEST && end > start) break;
+            end++;
+        }
+        return end;
+    }
+
+    private void send(List<String> batch) throws IOException {
+        long dropped = mUnreportedDropCount.getAndSet(0);
+        RequestFuture<Void> future = RequestFuture.newFuture();
+        mServer.logBatchToServer(batch, dropped, future, future);
+        try {
+            future.get(2 * Common.REQUEST_TIMEOUT_MS_SHORT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException | ExecutionException | TimeoutException e) {
+            mUnreportedDropCount.addAndGet(dropped);
+            throw new IOException(e);
+        }
+    }
+
+    private List<String> readSpillFile() {
+        List<String> entries = new ArrayList<>();
+        if (!mSpillFile.exists()) return entries;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+            new FileInputStream(mSpillFile), Charsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty()) {
+                    entries.add(line);
+                }
+            }
+        } catch (IOException e) {
+            LOG.w(e, "Failed to read spilled events; discarding them");
+            mUnreportedDropCount.addAndGet(entries.size());
+            entries.clear();
+            mSpillFile.delete();
+        }
+        return entries;
+    }
+
+    /** Replaces the spill file with the given entries, keeping only the newest if too many. */
+    private void writeSpillFile(List<String> entries) {
+        if (entries.isEmpty()) {
+            mSpillFile.delete();
+            return;
+        }
+        int excess = entries.size() - MAX_SPILLED_ENTRIES;
+        if (excess > 0) {
+            mUnreportedDropCount.addAndGet(excess);
+            entries = entries.subList(excess, entries.size());
+        }
+        File temp = new File(mSpillFile.getPath() + ".tmp");
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+            new FileOutputStream(temp), Charsets.UTF_8))) {
+            for (String entry : entries) {
+                writer.write(entry);
+                writer.write('\n');
+            }
+        } catch (IOException e) {
+            LOG.w(e, "Failed to spill %d events to disk; discarding them", entries.size());
+            mUnreportedDropCount.addAndGet(entries.size());
+            temp.delete();
+            return;
+        }
+        if (!temp.renameTo(mSpillFile)) {
+            LOG.w("Failed to replace %s; discarding %d events", mSpillFile, entries.size());
+            mUnreportedDropCount.addAndGet(entries.size());
+            temp.delete();
+            mSpillFile.delete();
+        }
+    }
+}
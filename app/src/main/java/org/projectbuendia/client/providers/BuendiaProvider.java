@@ -11,18 +11,137 @@
 
 package org.projectbuendia.client.providers;
 
+import android.content.ContentValues;
+import android.net.Uri;
+
+import net.sqlcipher.database.SQLiteDatabase;
+
 import org.projectbuendia.client.sync.Database;
 import org.projectbuendia.client.providers.Contracts.Table;
 
+import java.util.EnumMap;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
 /** A {@link DelegatingProvider} for MSF record info such as patients and locations. */
 public class BuendiaProvider extends DelegatingProvider<Database> {
 
+    /** The URI that observers of each table listen on, for {@link BulkWriter#notifyChanges}. */
+    private static final Map<Table, Uri> TABLE_URIS = new EnumMap<>(Table.class);
+    static {
+        TABLE_URIS.put(Table.CHART_ITEMS, Contracts.ChartItems.CONTENT_URI);
+        TABLE_URIS.put(Table.CONCEPTS, Contracts.Concepts.CONTENT_URI);
+        TABLE_URIS.put(Table.CONCEPT_NAMES, Contracts.ConceptNames.CONTENT_URI);
+        TABLE_URIS.put(Table.FORMS, Contracts.Forms.CONTENT_URI);
+        TABLE_URIS.put(Table.LOCATIONS, Contracts.Locations.CONTENT_URI);
+        TABLE_URIS.put(Table.LOCATION_NAMES, Contracts.LocationNames.CONTENT_URI);
+        TABLE_URIS.put(Table.OBSERVATIONS, Contracts.Observations.CONTENT_URI);
+        TABLE_URIS.put(Table.LATEST_OBSERVATIONS, Contracts.LatestObservations.CONTENT_URI);
+        TABLE_URIS.put(Table.ORDERS, Contracts.Orders.CONTENT_URI);
+        TABLE_URIS.put(Table.OUTBOX, Contracts.OutboxItems.CONTENT_URI);
+        TABLE_URIS.put(Table.PATIENTS, Contracts.Patients.CONTENT_URI);
+        TABLE_URIS.put(Table.USERS, Contracts.Users.CONTENT_URI);
+        TABLE_URIS.put(Table.MISC, Contracts.Misc.CONTENT_URI);
+        TABLE_URIS.put(Table.SYNC_TOKENS, Contracts.SyncTokens.CONTENT_URI);
+    }
+
+    /** Returns the group content URI for a table, or null if it has none. */
+    static @Nullable Uri getContentUri(Table table) {
+        return TABLE_URIS.get(table);
+    }
+
     /**
      * Provides an {@link SQLiteDatabaseTransactionHelper} for beginning and ending savepoints
-     * (nested transactions).
+     * (nested transactions) on the same connection that this provider writes through.
      */
     public SQLiteDatabaseTransactionHelper getDbTransactionHelper() {
-        return new SQLiteDatabaseTransactionHelper(getDatabaseHelper());
+        return new SQLiteDatabaseTransactionHelper(mDatabaseHelper, mChangeNotifier);
+    }
+
+    /**
+     * Returns the writable database that this provider's delegates write to, for sync code that
+     * writes rows directly instead of going through {@link #applyBatch}.
+     */
+    public SQLiteDatabase getWritableDatabase() {
+        return mDatabaseHelper.getWritableDatabase();
+    }
+
+    /**
+     * Returns a {@link BulkWriter} for writing synced rows directly into this provider's tables.
+     * The caller must close it.
+     */
+    public BulkWriter openBulkWriter() {
+        return new BulkWriter(mDatabaseHelper, mChangeNotifier);
+    }
+
+    // Each write holds the database's write lock, so that it can't land inside a savepoint
+    // that another thread has open, and is recorded so that it can be made again if it went
+    // into a sync's shared transaction that then fails (see Database#onWrite).
+
+    @Override public Uri insert(final Uri uri, final ContentValues values) {
+        mDatabaseHelper.beginWrite();
+        try {
+            Uri result = super.insert(uri, values);
+            final ContentValues copy = new ContentValues(values);
+            mDatabaseHelper.onWrite(new Runnable() {
+                @Override public void run() {
+                    BuendiaProvider.super.insert(uri, copy);
+                }
+            });
+            return result;
+        } finally {
+            mDatabaseHelper.endWrite();
+        }
+    }
+
+    @Override public int bulkInsert(final Uri uri, final ContentValues[] values) {
+        mDatabaseHelper.beginWrite();
+        try {
+            int result = super.bulkInsert(uri, values);
+            final ContentValues[] copy = values.clone();
+            mDatabaseHelper.onWrite(new Runnable() {
+                @Override public void run() {
+                    BuendiaProvider.super.bulkInsert(uri, copy);
+                }
+            });
+            return result;
+        } finally {
+            mDatabaseHelper.endWrite();
+        }
+    }
+
+    @Override public int delete(
+        final Uri uri, final String selection, final String[] selectionArgs) {
+        mDatabaseHelper.beginWrite();
+        try {
+            int result = super.delete(uri, selection, selectionArgs);
+            mDatabaseHelper.onWrite(new Runnable() {
+                @Override public void run() {
+                    BuendiaProvider.super.delete(uri, selection, selectionArgs);
+                }
+            });
+            return result;
+        } finally {
+            mDatabaseHelper.endWrite();
+        }
+    }
+
+    @Override public int update(final Uri uri, final ContentValues values,
+        final String selection, final String[] selectionArgs) {
+        mDatabaseHelper.beginWrite();
+        try {
+            int result = super.update(uri, values, selection, selectionArgs);
+            final ContentValues copy = new ContentValues(values);
+            mDatabaseHelper.onWrite(new Runnable() {
+                @Override public void run() {
+                    BuendiaProvider.super.update(uri, copy, selection, selectionArgs);
+                }
+            });
+            return result;
+        } finally {
+            mDatabaseHelper.endWrite();
+        }
     }
 
     @Override protected Database getDatabaseHelper() {
@@ -69,11 +188,21 @@ public class BuendiaProvider extends DelegatingProvider<Database> {
             new GroupProviderDelegate(
                 Contracts.Observations.GROUP_CONTENT_TYPE,
                 Table.OBSERVATIONS));
+        registry.registerDelegate(
+            Contracts.LatestObservations.CONTENT_URI.getPath(),
+            new GroupProviderDelegate(
+                Contracts.LatestObservations.GROUP_CONTENT_TYPE,
+                Table.LATEST_OBSERVATIONS));
         registry.registerDelegate(
             Contracts.Orders.CONTENT_URI.getPath(),
             new GroupProviderDelegate(
                 Contracts.Orders.GROUP_CONTENT_TYPE,
                 Table.ORDERS));
+        registry.registerDelegate(
+            Contracts.OutboxItems.CONTENT_URI.getPath(),
+            new GroupProviderDelegate(
+                Contracts.OutboxItems.GROUP_CONTENT_TYPE,
+                Table.OUTBOX));
         registry.registerDelegate(
             Contracts.Patients.CONTENT_URI.getPath(),
             new GroupProviderDelegate(
@@ -0,0 +1,186 @@
+// Copyright 2015 The Project Buendia Authors
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not
+// use this file except in compliance with the License.  You may obtain a copy
+// of the License at: http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distrib-
+// uted under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+// OR CONDITIONS OF ANY KIND, either express or implied.  See the License for
+// specific language governing permissions and limitations under the License.
+
+package org.projectbuendia.client.providers;
+
+import android.content.ContentValues;
+import android.net.Uri;
+
+import net.sqlcipher.database.SQLiteDatabase;
+import net.sqlcipher.database.SQLiteStatement;
+
+import org.projectbuendia.client.providers.Contracts.Table;
+import org.projectbuendia.client.sync.Database;
+
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes rows straight into the tables behind {@link BuendiaProvider}, for use by sync only.
+ * <p>
+ * Going through {@link BuendiaProvider#applyBatch} costs a URI match, a delegate lookup and a
+ * change notification for every row.  A BulkWriter instead compiles one upsert statement and
+ * one delete statement per table, rebinds them for each row, and remembers which tables it has
+ * touched so that {@link #notifyChanges} can send a single notification per table at the end
+ * of a sync phase.  Get one from {@link BuendiaProvider#openBulkWriter()} and {@link #close}
+ * it when done.
+ */
+public class BulkWriter {
+    private static final String SAVEPOINT_NAME = "BULK_WRITE_SAVEPOINT";
+
+    private final Database mDbHelper;
+    private final SQLiteDatabase mDb;
+    private final ChangeNotifier mChangeNotifier;
+    private final Map<Table, Upsert> mUpserts = new EnumMap<>(Table.class);
+    private final Map<String, SQLiteStatement> mDeletes = new HashMap<>();
+    private final Set<Table> mChangedTables = EnumSet.noneOf(Table.class);
+
+    /** A compiled "INSERT OR REPLACE" statement for a particular set of columns. */
+    private static class Upsert {
+        final Set<String> columnSet;
+        final String[] columns;
+        final SQLiteStatement statement;
+
+        Upsert(SQLiteDatabase db, Table table, Set<String> columnSet) {
+            this.columnSet = columnSet;
+            this.columns = columnSet.toArray(new String[columnSet.size()]);
+            StringBuilder sql = new StringBuilder("INSERT OR REPLACE INTO ")
+                .append(table.name).append(" (");
+            for (int i = 0; i < columns.length; i++) {
+                sql.append(i > 0 ? "," : "").append(columns[i]);
+            }
+            sql.append(") VALUES (");
+            for (int i = 0; i < columns.length; i++) {
+                sql.append(i > 0 ? ",?" : "?");
+            }
+            sql.append(')');
+            this.statement = db.compileStatement(sql.toString());
+        }
+    }
+
+    BulkWriter(Database dbHelper, ChangeNotifier changeNotifier) {
+        mDbHelper = dbHelper;
+        mDb = dbHelper.getWritableDatabase();
+        mChangeNotifier = changeNotifier;
+    }
+
+    /**
+     * Opens a savepoint; writes are committed by {@link #commit()}.  Inside a shared transaction
+     * (see {@link Database#beginSharedTransaction}), the savepoint is nested in it, so the
+     * writes are only committed for good when the shared transaction is.  No other thread can
+     * write in the meantime.
+     */
+    public void begin() {
+        mDbHelper.beginSavepoint(SAVEPOINT_NAME);
+    }
+
+    /** Commits the writes made since {@link #begin()}. */
+    public void commit() {
+        mDbHelper.releaseSavepoint(SAVEPOINT_NAME);
+    }
+
+    /** Discards the writes made since {@link #begin()}. */
+    public void abort() {
+        try {
+            mDbHelper.rollbackToSavepoint(SAVEPOINT_NAME);
+        } finally {
+            mDbHelper.releaseSavepoint(SAVEPOINT_NAME);
+        }
+    }
+
+    /**
+     * Inserts or replaces a row.  The statement is compiled for the first row's set of columns
+     * and reused for as long as later rows for the same table have the same columns.
+     */
+    public void upsert(Table table, ContentValues values) {
+        Upsert upsert = mUpserts.get(table);
+        if (upsert == null || !upsert.columnSet.equals(values.keySet())) {
+            if (upsert != null) {
+                upsert.statement.close();
+            }
+            upsert = new Upsert(mDb, table, new HashSet<>(values.keySet()));
+            mUpserts.put(table, upsert);
+        }
+        upsert.statement.clearBindings();
+        for (int i = 0; i < upsert.columns.length; i++) {
+            bind(upsert.statement, i + 1, values.get(upsert.columns[i]));
+        }
+        upsert.statement.executeInsert();
+        mChangedTables.add(table);
+    }
+
+    /** Deletes the rows whose {@code keyColumn} equals {@code key}. */
+    public void delete(Table table, String keyColumn, String key) {
+        String sql = "DELETE FROM " + table.name + " WHERE " + keyColumn + " = ?";
+        SQLiteStatement statement = mDeletes.get(sql);
+        if (statement == null) {
+            statement = mDb.compileStatement(sql);
+            mDeletes.put(sql, statement);
+        }
+        statement.clearBindings();
+        bind(statement, 1, key);
+        statement.execute();
+        mChangedTables.add(table);
+    }
+
+    /** Deletes all the rows in a table. */
+    public void deleteAll(Table table) {
+        mDb.delete(table.name, null, null);
+        mChangedTables.add(table);
+    }
+
+    /**
+     * Sends one change notification for each table written to since the last call, and
+     * forgets about them.  Inside a named transaction, the notifications are further held back
+     * until it is released.
+     */
+    public void notifyChanges() {
+        for (Table table : mChangedTables) {
+            Uri uri = BuendiaProvider.getContentUri(table);
+            if (uri != null) {
+                mChangeNotifier.notifyChange(uri);
+            }
+        }
+        mChangedTables.clear();
+    }
+
+    /** Releases the compiled statements. */
+    public void close() {
+        for (Upsert upsert : mUpserts.values()) {
+            upsert.statement.close();
+        }
+        for (SQLiteStatement statement : mDeletes.values()) {
+            statement.close();
+        }
+        mUpserts.clear();
+        mDeletes.clear();
+    }
+
+    private static void bind(SQLiteStatement statement, int index, Object value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else if (value instanceof String) {
+            statement.bindString(index, (String) value);
+        } else if (value instanceof Long || value instanceof Integer) {
+            statement.bindLong(index, ((Number) value).longValue());
+        } else if (value instanceof Double || value instanceof Float) {
+            statement.bindDouble(index, ((Number) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            statement.bindLong(index, (Boolean) value ? 1 : 0);
+        } else {
+            statement.bindString(index, value.toString());
+        }
+    }
+}
@@ -0,0 +1,77 @@
+// Copyright 2015 The Project Buendia Authors
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not
+// use this file except in compliance with the License.  You may obtain a copy
+// of the License at: http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distrib-
+// uted under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+// OR CONDITIONS OF ANY KIND, either express or implied.  See the License for
+// specific language governing permissions and limitations under the License.
+
+package org.projectbuendia.client.providers;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Sends the change notifications for a {@link DelegatingProvider}.
+ * <p>
+ * While a named transaction (see {@link SQLiteDatabaseTransactionHelper}) is open on the
+ * provider's database, notifications are held back and deduplicated, and each changed URI is
+ * notified just once when the outermost named transaction is released.  This applies to writes
+ * made on any thread: a sync writes from several worker threads at once, and every write made
+ * on the database's single connection while the transaction is open becomes part of it, so
+ * observers couldn't see the change (through the read-only connection) any earlier anyway.
+ */
+public class ChangeNotifier {
+    private final ContentResolver mResolver;
+
+    /** How deeply named transactions are nested; 0 if none is open.  Guarded by this. */
+    private int mDepth;
+    /** The URIs held back while a named transaction is open.  Guarded by this. */
+    private final Set<Uri> mPendingUris = new LinkedHashSet<>();
+
+    ChangeNotifier(ContentResolver resolver) {
+        mResolver = resolver;
+    }
+
+    /** Notifies observers of {@code uri} now, or, if a named transaction is open, when it ends. */
+    public void notifyChange(Uri uri) {
+        synchronized (this) {
+            if (mDepth > 0) {
+                mPendingUris.add(uri);
+                return;
+            }
+        }
+        mResolver.notifyChange(uri, null, false);
+    }
+
+    /** Starts holding back notifications; called when a named transaction is started. */
+    void beginBatch() {
+        synchronized (this) {
+            mDepth++;
+        }
+    }
+
+    /**
+     * Called when a named transaction is released; if it was the outermost one, sends one
+     * notification for each URI changed while it was open.
+     */
+    void endBatch() {
+        List<Uri> uris;
+        synchronized (this) {
+            if (mDepth == 0 || --mDepth > 0) return;
+            uris = new ArrayList<>(mPendingUris);
+            mPendingUris.clear();
+        }
+        for (Uri uri : uris) {
+            mResolver.notifyChange(uri, null, false);
+        }
+    }
+}
@@ -32,8 +32,10 @@ public class Contracts {
         LOCATION_NAMES("location_names"),
         LOCATIONS("locations"),
         MISC("misc"),
+        LATEST_OBSERVATIONS("latest_observations"),
         OBSERVATIONS("observations"),
         ORDERS("orders"),
+        OUTBOX("outbox"),
         PATIENTS("patients"),
         USERS("users"),
         SYNC_TOKENS("sync_tokens");
@@ -178,6 +180,22 @@ public class Contracts {
         String VOIDED = "voided";
     }
 
+    /**
+     * The latest non-voided observation for each patient and concept.  This table is maintained
+     * by database triggers whenever the observations table changes, so it is read-only here.
+     */
+    public interface LatestObservations {
+        Uri CONTENT_URI = buildContentUri("latest-observations");
+        String GROUP_CONTENT_TYPE = buildGroupType("latest-observation");
+        String ITEM_CONTENT_TYPE = buildItemType("latest-observation");
+
+        String PATIENT_UUID = "patient_uuid";
+        String CONCEPT_UUID = "concept_uuid";
+        String ENCOUNTER_MILLIS = "encounter_millis";  // milliseconds since epoch
+        String VALUE = "value";  // concept value or order UUID
+        String OBSERVATION_UUID = "observation_uuid";  // null for locally cached observations
+    }
+
     public interface Orders {
         Uri CONTENT_URI = buildContentUri("orders");
         String GROUP_CONTENT_TYPE = buildGroupType("order");
@@ -190,6 +208,33 @@ public class Contracts {
         String STOP_MILLIS = "stop_millis";  // milliseconds since epoch
     }
 
+    /**
+     * Writes made on this tablet that have not yet been accepted by the server.  Unlike the
+     * other tables, this is not a cache of server data, so it survives clearing the database.
+     */
+    public interface OutboxItems {
+        Uri CONTENT_URI = buildContentUri("outbox");
+        String GROUP_CONTENT_TYPE = buildGroupType("outbox-item");
+        String ITEM_CONTENT_TYPE = buildItemType("outbox-item");
+
+        String ID = "id";  // increases in the order that items were queued
+        String KIND = "kind";  // "ENCOUNTER", "ORDER", "VOID_OBS", or "XFORM"
+        String PATIENT_UUID = "patient_uuid";
+        /**
+         * The UUID under which the write is shown locally until the server accepts it: the
+         * encounter UUID of its temporary observations, the UUID of the order, or the UUID of
+         * the voided observation.
+         */
+        String LOCAL_UUID = "local_uuid";
+        String PAYLOAD = "payload";  // the write itself, as JSON
+        String CREATED_MILLIS = "created_millis";  // milliseconds since epoch
+        String ATTEMPTS = "attempts";  // number of failed attempts to send it so far
+        String NEXT_ATTEMPT_MILLIS = "next_attempt_millis";  // milliseconds since epoch
+        String LAST_ERROR = "last_error";
+        /** 1 if the server refused the write; it is kept, but no longer sent. */
+        String REJECTED = "rejected";
+    }
+
     public interface Patients {
         Uri CONTENT_URI = buildContentUri("patients");
         String GROUP_CONTENT_TYPE = buildGroupType("patient");
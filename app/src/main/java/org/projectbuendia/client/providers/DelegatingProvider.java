@@ -19,17 +19,23 @@ import android.net.Uri;
 
 import net.sqlcipher.database.SQLiteOpenHelper;
 
-/** A {@link ContentProvider} that delegates responsibility to {@link ProviderDelegate}s. */
+/**
+ * A {@link ContentProvider} that delegates responsibility to {@link ProviderDelegate}s.  Writes
+ * send their change notifications through a {@link ChangeNotifier}, which holds them back while
+ * a named transaction is open.
+ */
 abstract class DelegatingProvider<T extends SQLiteOpenHelper> extends ContentProvider {
 
     private ProviderDelegateRegistry<T> mRegistry;
     protected ContentResolver mContentResolver;
+    protected ChangeNotifier mChangeNotifier;
     protected T mDatabaseHelper;
 
     @Override public boolean onCreate() {
         mRegistry = getRegistry();
         mDatabaseHelper = getDatabaseHelper();
         mContentResolver = getContext().getContentResolver();
+        mChangeNotifier = new ChangeNotifier(mContentResolver);
 
         return true;
     }
@@ -53,22 +59,22 @@ abstract class DelegatingProvider<T extends SQLiteOpenHelper> extends ContentPro
 
     @Override public Uri insert(Uri uri, ContentValues values) {
         return mRegistry.getDelegate(uri)
-            .insert(mDatabaseHelper, mContentResolver, uri, values);
+            .insert(mDatabaseHelper, mChangeNotifier, uri, values);
     }
 
     @Override public int bulkInsert(Uri uri, ContentValues[] values) {
         return mRegistry.getDelegate(uri)
-            .bulkInsert(mDatabaseHelper, mContentResolver, uri, values);
+            .bulkInsert(mDatabaseHelper, mChangeNotifier, uri, values);
     }
 
     @Override public int delete(Uri uri, String selection, String[] selectionArgs) {
         return mRegistry.getDelegate(uri)
-            .delete(mDatabaseHelper, mContentResolver, uri, selection, selectionArgs);
+            .delete(mDatabaseHelper, mChangeNotifier, uri, selection, selectionArgs);
     }
 
     @Override public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
         return mRegistry.getDelegate(uri)
             .update(
-                mDatabaseHelper, mContentResolver, uri, values, selection, selectionArgs);
+                mDatabaseHelper, mChangeNotifier, uri, values, selection, selectionArgs);
     }
 }
@@ -52,22 +52,22 @@ class GroupProviderDelegate implements ProviderDelegate<Database> {
     }
 
     @Override public Uri insert(
-        Database dbHelper, ContentResolver contentResolver, Uri uri,
+        Database dbHelper, ChangeNotifier notifier, Uri uri,
         ContentValues values) {
         long id = dbHelper.getWritableDatabase().replaceOrThrow(mTable.name, null, values);
-        contentResolver.notifyChange(uri, null, false);
+        notifier.notifyChange(uri);
         return uri.buildUpon().appendPath(Long.toString(id)).build();
     }
 
     @Override public int bulkInsert(
-        Database dbHelper, ContentResolver contentResolver, Uri uri,
+        Database dbHelper, ChangeNotifier notifier, Uri uri,
         ContentValues[] allValues) {
         if (allValues.length == 0) {
             return 0;
         }
         final SQLiteDatabase db = dbHelper.getWritableDatabase();
         SQLiteDatabaseTransactionHelper dbTransactionHelper =
-            new SQLiteDatabaseTransactionHelper(dbHelper);
+            new SQLiteDatabaseTransactionHelper(dbHelper, notifier);
 
         ContentValues first = allValues[0];
         String[] columns = first.keySet().toArray(new String[first.size()]);
@@ -102,7 +102,7 @@ class GroupProviderDelegate implements ProviderDelegate<Database> {
             statement.close();
         }
         dbTransactionHelper.releaseNamedTransaction(BULK_INSERT_SAVEPOINT);
-        contentResolver.notifyChange(uri, null, false);
+        notifier.notifyChange(uri);
         return allValues.length;
     }
 
@@ -135,22 +135,22 @@ class GroupProviderDelegate implements ProviderDelegate<Database> {
     }
 
     @Override public int delete(
-        Database dbHelper, ContentResolver contentResolver, Uri uri,
+        Database dbHelper, ChangeNotifier notifier, Uri uri,
         String selection, String[] selectionArgs) {
         int count = new QueryBuilder(mTable)
             .where(selection, selectionArgs)
             .delete(dbHelper.getWritableDatabase());
-        contentResolver.notifyChange(uri, null, false);
+        notifier.notifyChange(uri);
         return count;
     }
 
     @Override public int update(
-        Database dbHelper, ContentResolver contentResolver, Uri uri,
+        Database dbHelper, ChangeNotifier notifier, Uri uri,
         ContentValues values, String selection, String[] selectionArgs) {
         int count = new QueryBuilder(mTable)
             .where(selection, selectionArgs)
             .update(dbHelper.getWritableDatabase(), values);
-        contentResolver.notifyChange(uri, null, false);
+        notifier.notifyChange(uri);
         return count;
     }
 }
@@ -11,7 +11,6 @@
 
 package org.projectbuendia.client.providers;
 
-import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.net.Uri;
 
@@ -32,7 +31,7 @@ public class InsertableItemProviderDelegate extends ItemProviderDelegate {
     }
 
     @Override public Uri insert(
-        Database dbHelper, ContentResolver contentResolver, Uri uri,
+        Database dbHelper, ChangeNotifier notifier, Uri uri,
         ContentValues values) {
         // Perform an upsert operation, updating only the columns specified in values.
         int done = 0;
@@ -46,7 +45,7 @@ public class InsertableItemProviderDelegate extends ItemProviderDelegate {
             dbHelper.getWritableDatabase().insertWithOnConflict(
                 mTable.name, null, values, SQLiteDatabase.CONFLICT_IGNORE);
         }
-        contentResolver.notifyChange(uri, null, false);
+        notifier.notifyChange(uri);
         return getPrefixUriBuilder(uri).appendPath(uri.getLastPathSegment()).build();
     }
 
@@ -55,37 +55,37 @@ public class ItemProviderDelegate implements ProviderDelegate<Database> {
     }
 
     @Override public Uri insert(
-        Database dbHelper, ContentResolver contentResolver, Uri uri,
+        Database dbHelper, ChangeNotifier notifier, Uri uri,
         ContentValues values) {
         throw new UnsupportedOperationException("Insert is not supported for URI '" + uri + "'.");
     }
 
     @Override public int bulkInsert(
-        Database dbHelper, ContentResolver contentResolver, Uri uri,
+        Database dbHelper, ChangeNotifier notifier, Uri uri,
         ContentValues[] allValues) {
         throw new UnsupportedOperationException(
             "Bulk insert is not supported for URI '" + uri + "'.");
     }
 
     @Override public int delete(
-        Database dbHelper, ContentResolver contentResolver, Uri uri,
+        Database dbHelper, ChangeNotifier notifier, Uri uri,
         String selection, String[] selectionArgs) {
         int count = new QueryBuilder(mTable)
             .where(mIdColumn + "=?", uri.getLastPathSegment())
             .where(selection, selectionArgs)
             .delete(dbHelper.getWritableDatabase());
-        contentResolver.notifyChange(uri, null, false);
+        notifier.notifyChange(uri);
         return count;
     }
 
     @Override public int update(
-        Database dbHelper, ContentResolver contentResolver, Uri uri,
+        Database dbHelper, ChangeNotifier notifier, Uri uri,
         ContentValues values, String selection, String[] selectionArgs) {
         int count = new QueryBuilder(mTable)
             .where(mIdColumn + "=?", uri.getLastPathSegment())
             .where(selection, selectionArgs)
             .update(dbHelper.getWritableDatabase(), values);
-        contentResolver.notifyChange(uri, null, false);
+        notifier.notifyChange(uri);
         return count;
     }
 }
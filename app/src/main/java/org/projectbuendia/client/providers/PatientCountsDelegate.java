@@ -42,26 +42,26 @@ public class PatientCountsDelegate implements ProviderDelegate<Database> {
     }
 
     @Override public Uri insert(
-        Database dbHelper, ContentResolver contentResolver, Uri uri,
+        Database dbHelper, ChangeNotifier notifier, Uri uri,
         ContentValues values) {
         throw new UnsupportedOperationException("Insert is not supported for URI '" + uri + "'.");
     }
 
     @Override public int bulkInsert(
-        Database dbHelper, ContentResolver contentResolver, Uri uri,
+        Database dbHelper, ChangeNotifier notifier, Uri uri,
         ContentValues[] values) {
         throw new UnsupportedOperationException(
             "Bulk insert is not supported for URI '" + uri + "'.");
     }
 
     @Override public int delete(
-        Database dbHelper, ContentResolver contentResolver, Uri uri, String selection,
+        Database dbHelper, ChangeNotifier notifier, Uri uri, String selection,
         String[] selectionArgs) {
         throw new UnsupportedOperationException("Delete is not supported for URI '" + uri + "'.");
     }
 
     @Override public int update(
-        Database dbHelper, ContentResolver contentResolver, Uri uri,
+        Database dbHelper, ChangeNotifier notifier, Uri uri,
         ContentValues values, String selection, String[] selectionArgs) {
         throw new UnsupportedOperationException("Update is not supported for URI '" + uri + "'.");
     }
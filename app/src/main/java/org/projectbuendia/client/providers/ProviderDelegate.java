@@ -40,21 +40,21 @@ public interface ProviderDelegate<T extends SQLiteOpenHelper> {
      * @see ContentProvider#insert
      */
     Uri insert(
-        T dbHelper, ContentResolver contentResolver, Uri uri, ContentValues values);
+        T dbHelper, ChangeNotifier notifier, Uri uri, ContentValues values);
 
     /**
      * Handles a bulk insert request.
      * @see ContentProvider#bulkInsert
      */
     int bulkInsert(
-        T dbHelper, ContentResolver contentResolver, Uri uri, ContentValues[] values);
+        T dbHelper, ChangeNotifier notifier, Uri uri, ContentValues[] values);
 
     /**
      * Handles a delete request.
      * @see ContentProvider#delete
      */
     public int delete(
-        T dbHelper, ContentResolver contentResolver, Uri uri, String selection,
+        T dbHelper, ChangeNotifier notifier, Uri uri, String selection,
         String[] selectionArgs);
 
     /**
@@ -62,6 +62,6 @@ public interface ProviderDelegate<T extends SQLiteOpenHelper> {
      * @see ContentProvider#update
      */
     int update(
-        T dbHelper, ContentResolver contentResolver, Uri uri, ContentValues values,
+        T dbHelper, ChangeNotifier notifier, Uri uri, ContentValues values,
         String selection, String[] selectionArgs);
 }
@@ -11,28 +11,28 @@
 
 package org.projectbuendia.client.providers;
 
-import net.sqlcipher.database.SQLiteStatement;
-
 import org.projectbuendia.client.sync.Database;
 
-/** Provides helper functions for dealing with savepoints in SQLite databases. */
+/**
+ * Provides helper functions for dealing with savepoints in SQLite databases.  Savepoints are
+ * opened on the same writable connection that the provider writes through (see
+ * {@link Database#beginSavepoint}).  While a savepoint is open, the provider's change
+ * notifications are held back and sent when the outermost savepoint is released (see
+ * {@link ChangeNotifier}).
+ */
 public final class SQLiteDatabaseTransactionHelper { // @nolint
     private final Database mDbHelper;
-
-    /** Closes the database resources in use by this object. */
-    public void close() {
-        mDbHelper.getWritableDatabase().close();
-    }
+    private final ChangeNotifier mChangeNotifier;
+    private volatile Database.SharedTransaction mSharedTransaction;
 
     /**
-     * Starts a named transaction by creating a savepoint with the given name.
+     * Starts a named transaction by creating a savepoint with the given name.  No other thread
+     * can write until it is released.
      * @see <a>http://www.sqlite.org/lang_savepoint.html</a>.
      */
     public void startNamedTransaction(String savepointName) {
-        SQLiteStatement statement =
-            mDbHelper.getWritableDatabase().compileStatement("SAVEPOINT " + savepointName);
-        statement.execute();
-        statement.close();
+        mDbHelper.beginSavepoint(savepointName);
+        mChangeNotifier.beginBatch();
     }
 
     /**
@@ -40,10 +40,7 @@ public final class SQLiteDatabaseTransactionHelper { // @nolint
      * @see <a>http://www.sqlite.org/lang_savepoint.html</a>.
      */
     public void rollbackNamedTransaction(String savepointName) {
-        SQLiteStatement statement =
-            mDbHelper.getWritableDatabase().compileStatement("ROLLBACK TO " + savepointName);
-        statement.execute();
-        statement.close();
+        mDbHelper.rollbackToSavepoint(savepointName);
     }
 
     /**
@@ -53,14 +50,55 @@ public final class SQLiteDatabaseTransactionHelper { // @nolint
      * @see <a>http://www.sqlite.org/lang_savepoint.html</a>.
      */
     public void releaseNamedTransaction(String savepointName) {
-        SQLiteStatement statement =
-            mDbHelper.getWritableDatabase().compileStatement("RELEASE " + savepointName);
-        statement.execute();
-        statement.close();
+        try {
+            mDbHelper.releaseSavepoint(savepointName);
+        } finally {
+            mChangeNotifier.endBatch();
+        }
+    }
+
+    /**
+     * Starts a named transaction that, unlike {@link #startNamedTransaction}, doesn't keep other
+     * threads from writing: everything written through the provider until
+     * {@link #releaseSharedTransaction} is part of it.  Threads doing work for the caller should
+     * {@link #joinSharedTransaction} it, so that their queries see its uncommitted writes.
+     */
+    public void startSharedTransaction(String savepointName) {
+        mSharedTransaction = mDbHelper.beginSharedTransaction(savepointName);
+        mChangeNotifier.beginBatch();
+    }
+
+    /** Discards everything written during the shared transaction. */
+    public void rollbackSharedTransaction() {
+        mDbHelper.rollbackSharedTransaction(mSharedTransaction);
+    }
+
+    /** Ends the shared transaction, committing the writes that weren't rolled back. */
+    public void releaseSharedTransaction() {
+        try {
+            mDbHelper.endSharedTransaction(mSharedTransaction);
+        } finally {
+            mChangeNotifier.endBatch();
+        }
+    }
+
+    /**
+     * Makes the current thread part of the shared transaction until it calls
+     * {@link #leaveSharedTransaction}.  Its writes through the provider will fail once the
+     * transaction has ended.
+     */
+    public void joinSharedTransaction() {
+        mDbHelper.joinSharedTransaction(mSharedTransaction);
+    }
+
+    /** Undoes {@link #joinSharedTransaction} for the current thread. */
+    public void leaveSharedTransaction() {
+        mDbHelper.leaveSharedTransaction();
     }
 
-    SQLiteDatabaseTransactionHelper(Database dbHelper) {
+    SQLiteDatabaseTransactionHelper(Database dbHelper, ChangeNotifier changeNotifier) {
         mDbHelper = dbHelper;
+        mChangeNotifier = changeNotifier;
     }
 
 }
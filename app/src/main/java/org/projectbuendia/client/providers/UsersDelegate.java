@@ -44,41 +44,41 @@ class UsersDelegate implements ProviderDelegate<Database> {
     }
 
     @Override public int bulkInsert(
-        Database dbHelper, ContentResolver contentResolver, Uri uri,
+        Database dbHelper, ChangeNotifier notifier, Uri uri,
         ContentValues[] values) {
         // TODO: optimise this.
         for (ContentValues value : values) {
-            insert(dbHelper, contentResolver, uri, value);
+            insert(dbHelper, notifier, uri, value);
         }
         return values.length;
     }
 
     @Override public Uri insert(
-        Database dbHelper, ContentResolver contentResolver, Uri uri,
+        Database dbHelper, ChangeNotifier notifier, Uri uri,
         ContentValues values) {
         long id = dbHelper.getWritableDatabase()
             .replaceOrThrow(Table.USERS.name, null, values);
-        contentResolver.notifyChange(uri, null, false);
+        notifier.notifyChange(uri);
         return uri.buildUpon().appendPath(Long.toString(id)).build();
     }
 
     @Override public int delete(
-        Database dbHelper, ContentResolver contentResolver, Uri uri,
+        Database dbHelper, ChangeNotifier notifier, Uri uri,
         String selection, String[] selectionArgs) {
         int count = new QueryBuilder(Table.USERS)
             .where(selection, selectionArgs)
             .delete(dbHelper.getWritableDatabase());
-        contentResolver.notifyChange(uri, null, false);
+        notifier.notifyChange(uri);
         return count;
     }
 
     @Override public int update(
-        Database dbHelper, ContentResolver contentResolver, Uri uri,
+        Database dbHelper, ChangeNotifier notifier, Uri uri,
         ContentValues values, String selection, String[] selectionArgs) {
         int count = new QueryBuilder(Table.USERS)
             .where(selection, selectionArgs)
             .update(dbHelper.getWritableDatabase(), values);
-        contentResolver.notifyChange(uri, null, false);
+        notifier.notifyChange(uri);
         return count;
     }
 }
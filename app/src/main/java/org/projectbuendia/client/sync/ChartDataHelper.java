@@ -16,6 +16,7 @@ import android.database.Cursor;
 
 import com.google.common.collect.ImmutableSet;
 
+import org.projectbuendia.client.App;
 import org.projectbuendia.client.json.ConceptType;
 import org.projectbuendia.client.models.Chart;
 import org.projectbuendia.client.models.ChartItem;
@@ -25,14 +26,13 @@ import org.projectbuendia.client.models.Form;
 import org.projectbuendia.client.models.Obs;
 import org.projectbuendia.client.models.ObsRow;
 import org.projectbuendia.client.models.Order;
+import org.projectbuendia.client.models.RowMapper;
 import org.projectbuendia.client.providers.Contracts;
 import org.projectbuendia.client.providers.Contracts.ChartItems;
-import org.projectbuendia.client.providers.Contracts.ConceptNames;
-import org.projectbuendia.client.providers.Contracts.Concepts;
+import org.projectbuendia.client.providers.Contracts.LatestObservations;
 import org.projectbuendia.client.providers.Contracts.Observations;
 import org.projectbuendia.client.providers.Contracts.Orders;
 import org.projectbuendia.client.utils.Logger;
-import org.projectbuendia.client.utils.Utils;
 
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -63,69 +63,34 @@ public class ChartDataHelper {
     private final ContentResolver mContentResolver;
 
     private static final Logger LOG = Logger.create();
+    private static final Order.Loader ORDER_LOADER = new Order.Loader();
+    private static final Form.Loader FORM_LOADER = new Form.Loader();
+    private static final ChartItemRowMapper CHART_ITEM_ROW_MAPPER = new ChartItemRowMapper();
 
-    /** When non-null, sConceptNames and sConceptTypes contain valid data for this locale. */
-    private static Object sLoadingLock = new Object();
-    private static String sLoadedLocale;
-
-    private static Map<String, String> sConceptNames;
-    private static Map<String, ConceptType> sConceptTypes;
+    private final ConceptDictionary mConcepts;
 
     public ChartDataHelper(ContentResolver contentResolver) {
-        mContentResolver = checkNotNull(contentResolver);
+        this(contentResolver, App.getConceptDictionary());
     }
 
-    /** Marks in-memory concept data out of date.  Call this when concepts change in the app db. */
-    public static void invalidateLoadedConceptData() {
-        sLoadedLocale = null;
+    public ChartDataHelper(ContentResolver contentResolver, ConceptDictionary concepts) {
+        mContentResolver = checkNotNull(contentResolver);
+        mConcepts = checkNotNull(concepts);
     }
 
-    /** Loads concept names and types from the app db into HashMaps in memory. */
+    /** Ensures that concept names and types for the given locale are loaded into memory. */
     public void loadConceptData(String locale) {
-        synchronized (sLoadingLock) {
-            if (!locale.equals(sLoadedLocale)) {
-                sConceptNames = new HashMap<>();
-                try (Cursor c = mContentResolver.query(
-                    ConceptNames.CONTENT_URI, new String[] {ConceptNames.CONCEPT_UUID, ConceptNames.NAME},
-                    ConceptNames.LOCALE + " = ?", new String[] {locale}, null)) {
-                    while (c.moveToNext()) {
-                        sConceptNames.put(c.getString(0), c.getString(1));
-                    }
-                }
-                sConceptTypes = new HashMap<>();
-                try (Cursor c = mContentResolver.query(
-                    Concepts.CONTENT_URI, new String[] {Concepts.UUID, Concepts.CONCEPT_TYPE},
-                    null, null, null)) {
-                    while (c.moveToNext()) {
-                        try {
-                            sConceptTypes.put(c.getString(0), ConceptType.valueOf(c.getString(1)));
-                        } catch (IllegalArgumentException e) { /* bad concept type name */ }
-                    }
-                }
-                // Special case: we know this is a date even if it's not in any forms or charts.
-                sConceptTypes.put(ConceptUuids.ADMISSION_DATE_UUID, ConceptType.DATE);
-                sLoadedLocale = locale;
-            }
-        }
+        mConcepts.load(locale);
     }
 
     /** Gets all the orders for a given patient. */
     public List<Order> getOrders(String patientUuid) {
-        Cursor c = mContentResolver.query(
-            Orders.CONTENT_URI, null,
+        try (Cursor c = mContentResolver.query(
+            Orders.CONTENT_URI, ORDER_LOADER.getProjection(),
             Orders.PATIENT_UUID + " = ?", new String[] {patientUuid},
-            Orders.START_MILLIS);
-        List<Order> orders = new ArrayList<>();
-        while (c.moveToNext()) {
-            orders.add(new Order(
-                Utils.getString(c, Orders.UUID, ""),
-                patientUuid,
-                Utils.getString(c, Orders.INSTRUCTIONS, ""),
-                Utils.getLong(c, Orders.START_MILLIS, null),
-                Utils.getLong(c, Orders.STOP_MILLIS, null)));
+            Orders.START_MILLIS)) {
+            return ORDER_LOADER.mapAll(c);
         }
-        c.close();
-        return orders;
     }
 
     /** Gets all observations for a given patient from the local cache, localized to English. */
@@ -134,70 +99,37 @@ public class ChartDataHelper {
         return getObservations(patientUuid, ENGLISH_LOCALE);
     }
 
-    private Obs obsFromCursor(Cursor c) {
-        long millis = c.getLong(c.getColumnIndex(Observations.ENCOUNTER_MILLIS));
-        String conceptUuid = c.getString(c.getColumnIndex(Observations.CONCEPT_UUID));
-        ConceptType conceptType = sConceptTypes.get(conceptUuid);
-        String value = c.getString(c.getColumnIndex(Observations.VALUE));
-        String localizedValue = value;
-        if (ConceptType.CODED.equals(conceptType)) {
-            localizedValue = sConceptNames.get(value);
-        }
-        return new Obs(millis, conceptUuid, conceptType, value, localizedValue);
-    }
-
-    private @Nullable ObsRow obsrowFromCursor(Cursor c) {
-        String uuid = c.getString(c.getColumnIndex(Observations.UUID));
-        long millis = c.getLong(c.getColumnIndex(Observations.ENCOUNTER_MILLIS));
-        String conceptUuid = c.getString(c.getColumnIndex(Observations.CONCEPT_UUID));
-        ConceptType conceptType = sConceptTypes.get(conceptUuid);
-        String value = c.getString(c.getColumnIndex(Observations.VALUE));
-        String localizedValue = value;
-        if (ConceptType.CODED.equals(conceptType)) {
-            localizedValue = sConceptNames.get(value);
-        }
-        String conceptName = sConceptNames.get(conceptUuid);
-        if (conceptName == null){
-            return null;
-        }
-        else {
-            return new ObsRow(uuid, millis, conceptName, value, localizedValue);
-        }
-    }
-
-
     /** Gets all observations for a given patient, localized for a given locale. */
     // TODO/cleanup: Consider returning a SortedSet<Obs> or a Map<String, SortedSet<ObsPoint>>.
     public List<Obs> getObservations(String patientUuid, String locale) {
         loadConceptData(locale);
-        List<Obs> results = new ArrayList<>();
+        ObsMapper mapper = new ObsMapper(locale);
         try (Cursor c = mContentResolver.query(
-            Observations.CONTENT_URI, null,
+            Observations.CONTENT_URI, mapper.getProjection(),
             Observations.PATIENT_UUID + " = ? and "
                     + Observations.VOIDED + " IS NOT ?",
             new String[] {patientUuid,"1"},null)) {
-            while (c.moveToNext()) {
-                results.add(obsFromCursor(c));
-            }
+            return mapper.mapAll(c);
         }
-        return results;
     }
 
     public ArrayList<ObsRow> getPatientObservationsByConcept(String patientUuid, String conceptUuid) {
         loadConceptData(ENGLISH_LOCALE);
         ArrayList<ObsRow> results = new ArrayList<>();
+        ObsRowMapper mapper = new ObsRowMapper(ENGLISH_LOCALE);
         try (
                 Cursor c = mContentResolver.query(
                 Observations.CONTENT_URI,
-                null,
+                mapper.getProjection(),
                 Observations.VOIDED + " IS NOT ? and "
                         + Observations.PATIENT_UUID + " = ? and "
                         + Observations.CONCEPT_UUID + " = ?",
                 new String[] {"1",patientUuid,conceptUuid},
                 Observations.ENCOUNTER_MILLIS + " ASC"
         )) {
+            int[] columns = mapper.resolve(c);
             while (c.moveToNext()) {
-                ObsRow row = obsrowFromCursor(c);
+                ObsRow row = mapper.map(c, columns);
                 if (row !=null){results.add(row);}
             }
         }
@@ -215,10 +147,12 @@ public class ChartDataHelper {
         String[] values = new String[]{"1",patientUuid, startMillis,stopMillis};
         String order = Observations.ENCOUNTER_MILLIS + " ASC";
 
-        try(Cursor c = mContentResolver.query(Observations.CONTENT_URI,null,conditions,values, order))
+        ObsRowMapper mapper = new ObsRowMapper(ENGLISH_LOCALE);
+        try(Cursor c = mContentResolver.query(Observations.CONTENT_URI, mapper.getProjection(), conditions, values, order))
         {
+            int[] columns = mapper.resolve(c);
             while (c.moveToNext()) {
-                ObsRow row = obsrowFromCursor(c);
+                ObsRow row = mapper.map(c, columns);
                 if (row !=null){results.add(row);}
             }
         }
@@ -237,10 +171,12 @@ public class ChartDataHelper {
         String[] values = new String[]{"1",patientUuid, conceptUuid, StartMillis,StopMillis};
         String order = Observations.ENCOUNTER_MILLIS + " ASC";
 
-        try(Cursor c = mContentResolver.query(Observations.CONTENT_URI,null,conditions,values, order))
+        ObsRowMapper mapper = new ObsRowMapper(ENGLISH_LOCALE);
+        try(Cursor c = mContentResolver.query(Observations.CONTENT_URI, mapper.getProjection(), conditions, values, order))
         {
+            int[] columns = mapper.resolve(c);
             while (c.moveToNext()) {
-                ObsRow row = obsrowFromCursor(c);
+                ObsRow row = mapper.map(c, columns);
                 if (row !=null){results.add(row);}
             }
         }
@@ -256,10 +192,28 @@ public class ChartDataHelper {
     /** Gets the latest observation of each concept for a given patient from the app db. */
     // TODO/cleanup: Have this return a Map<String, ObsPoint>.
     public Map<String, Obs> getLatestObservations(String patientUuid, String locale) {
+        loadConceptData(locale);
         Map<String, Obs> result = new HashMap<>();
-        for (Obs obs : getObservations(patientUuid, locale)) {
-            Obs existing = result.get(obs.conceptUuid);
-            if (existing == null || obs.time.isAfter(existing.time)) {
+        ObsMapper mapper = new ObsMapper(locale);
+        try (Cursor c = mContentResolver.query(
+            LatestObservations.CONTENT_URI, mapper.getProjection(),
+            LatestObservations.PATIENT_UUID + " = ?", new String[] {patientUuid}, null)) {
+            for (Obs obs : mapper.mapAll(c)) {
+                result.put(obs.conceptUuid, obs);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Picks out the latest observation of each concept from a list that has already been loaded,
+     * so that callers holding all of a patient's observations don't have to query for them again.
+     */
+    public static Map<String, Obs> getLatestObservations(List<Obs> observations) {
+        Map<String, Obs> result = new HashMap<>();
+        for (Obs obs : observations) {
+            Obs latest = result.get(obs.conceptUuid);
+            if (latest == null || !obs.time.isBefore(latest.time)) {
                 result.put(obs.conceptUuid, obs);
             }
         }
@@ -271,17 +225,15 @@ public class ChartDataHelper {
     public Map<String, Obs> getLatestObservationsForConcept(
         String conceptUuid, String locale) {
         loadConceptData(locale);
+        ObsMapper mapper = new ObsMapper(locale);
         try (Cursor c = mContentResolver.query(
-            Observations.CONTENT_URI, null,
-                Observations.VOIDED + " IS NOT ? and "
-                    + Observations.CONCEPT_UUID + " = ?",
-                new String[] {"1",conceptUuid},
-            Observations.ENCOUNTER_MILLIS + " DESC")) {
+            LatestObservations.CONTENT_URI, null,
+            LatestObservations.CONCEPT_UUID + " = ?", new String[] {conceptUuid}, null)) {
             Map<String, Obs> result = new HashMap<>();
+            int[] columns = mapper.resolve(c);
+            int patientUuidColumn = c.getColumnIndex(LatestObservations.PATIENT_UUID);
             while (c.moveToNext()) {
-                String patientUuid = Utils.getString(c, Observations.PATIENT_UUID);
-                if (result.containsKey(patientUuid)) continue;
-                result.put(patientUuid, obsFromCursor(c));
+                result.put(c.getString(patientUuidColumn), mapper.map(c, columns));
             }
             return result;
         }
@@ -294,57 +246,59 @@ public class ChartDataHelper {
         List<Chart> Charts = new ArrayList<>();
         Chart currentChart = null;
 
+        List<ChartItemRow> rows;
         try (Cursor c = mContentResolver.query(
-            ChartItems.CONTENT_URI, null,
+            ChartItems.CONTENT_URI, CHART_ITEM_ROW_MAPPER.getProjection(),
             ChartItems.CHART_UUID + " = ?", new String[] {uuid}, "weight")) {
-            while (c.moveToNext()) {
-                Long rowid = Utils.getLong(c, ChartItems.ROWID);
-                Long parentRowid = Utils.getLong(c, ChartItems.PARENT_ROWID);
-                String label = Utils.getString(c, ChartItems.LABEL, "");
-                if (parentRowid == null) {
-                    // Add a section.
-                    String SectionType = Utils.getString(c, ChartItems.SECTION_TYPE);
-                    if (SectionType != null) {
-                        switch (SectionType) {
-                            case "CHART_DIVIDER":
-                                if ((currentChart != null) &&
-                                    ((currentChart.tileGroups.size() != 0)
-                                    || (currentChart.rowGroups.size() != 0))) {
-                                    Charts.add(currentChart);
-                                }
-                                break;
-                            case "TILE_ROW":
-                                ChartSection tileGroup = new ChartSection(label);
-                                currentChart.tileGroups.add(tileGroup);
-                                tileGroupsById.put(rowid, tileGroup);
-                                break;
-                            case "GRID_SECTION":
-                                ChartSection rowGroup = new ChartSection(label);
-                                currentChart.rowGroups.add(rowGroup);
-                                rowGroupsById.put(rowid, rowGroup);
-                                break;
-                        }
+            rows = CHART_ITEM_ROW_MAPPER.mapAll(c);
+        }
+        for (ChartItemRow row : rows) {
+            Long rowid = row.rowid;
+            Long parentRowid = row.parentRowid;
+            String label = row.label;
+            if (parentRowid == null) {
+                // Add a section.
+                String SectionType = row.sectionType;
+                if (SectionType != null) {
+                    switch (SectionType) {
+                        case "CHART_DIVIDER":
+                            if ((currentChart != null) &&
+                                ((currentChart.tileGroups.size() != 0)
+                                || (currentChart.rowGroups.size() != 0))) {
+                                Charts.add(currentChart);
+                            }
+                            break;
+                        case "TILE_ROW":
+                            ChartSection tileGroup = new ChartSection(label);
+                            currentChart.tileGroups.add(tileGroup);
+                            tileGroupsById.put(rowid, tileGroup);
+                            break;
+                        case "GRID_SECTION":
+                            ChartSection rowGroup = new ChartSection(label);
+                            currentChart.rowGroups.add(rowGroup);
+                            rowGroupsById.put(rowid, rowGroup);
+                            break;
                     }
+                }
+            } else {
+                // Add a tile to its tile group or a grid row to its row group.
+                ChartSection section = tileGroupsById.containsKey(parentRowid)
+                    ? tileGroupsById.get(parentRowid) : rowGroupsById.get(parentRowid);
+                if (section != null) {
+                    ChartItem item = new ChartItem(label,
+                        row.type,
+                        row.required,
+                        row.conceptUuids.split(","),
+                        row.format,
+                        row.captionFormat,
+                        row.cssClass,
+                        row.cssStyle,
+                        row.script);
+                    section.items.add(item);
                 } else {
-                    // Add a tile to its tile group or a grid row to its row group.
-                    ChartSection section = tileGroupsById.containsKey(parentRowid)
-                        ? tileGroupsById.get(parentRowid) : rowGroupsById.get(parentRowid);
-                    if (section != null) {
-                        ChartItem item = new ChartItem(label,
-                            Utils.getString(c, ChartItems.TYPE),
-                            Utils.getLong(c, ChartItems.REQUIRED, 0L) > 0L,
-                            Utils.getString(c, ChartItems.CONCEPT_UUIDS, "").split(","),
-                            Utils.getString(c, ChartItems.FORMAT),
-                            Utils.getString(c, ChartItems.CAPTION_FORMAT),
-                            Utils.getString(c, ChartItems.CSS_CLASS),
-                            Utils.getString(c, ChartItems.CSS_STYLE),
-                            Utils.getString(c, ChartItems.SCRIPT));
-                        section.items.add(item);
-                    } else {
-                        String type = Utils.getString(c, ChartItems.TYPE);
-                        if ((type != null) && (type.equals("CHART_DIVIDER"))) {
-                            currentChart = new Chart(uuid, label);
-                        }
+                    String type = row.type;
+                    if ((type != null) && (type.equals("CHART_DIVIDER"))) {
+                        currentChart = new Chart(uuid, label);
                     }
                 }
             }
@@ -354,21 +308,108 @@ public class ChartDataHelper {
     }
 
     public List<Form> getForms() {
-        Cursor cursor = mContentResolver.query(
-            Contracts.Forms.CONTENT_URI, null, null, null, null);
         SortedSet<Form> forms = new TreeSet<>();
-        try {
-            while (cursor.moveToNext()) {
-                forms.add(new Form(
-                    Utils.getString(cursor, Contracts.Forms.UUID),
-                    Utils.getString(cursor, Contracts.Forms.NAME),
-                    Utils.getString(cursor, Contracts.Forms.VERSION)));
-            }
-        } finally {
-            cursor.close();
+        try (Cursor cursor = mContentResolver.query(
+            Contracts.Forms.CONTENT_URI, FORM_LOADER.getProjection(), null, null, null)) {
+            forms.addAll(FORM_LOADER.mapAll(cursor));
         }
         List<Form> sortedForms = new ArrayList<>();
         sortedForms.addAll(forms);
         return sortedForms;
     }
+
+    /** Reads observations (or latest observations) into {@link Obs}, localized to a locale. */
+    private class ObsMapper extends RowMapper<Obs> {
+        private final String mLocale;
+
+        ObsMapper(String locale) {
+            // The same column names are used in both Observations and LatestObservations.
+            super(Observations.ENCOUNTER_MILLIS, Observations.CONCEPT_UUID, Observations.VALUE);
+            mLocale = locale;
+        }
+
+        @Override protected Obs map(Cursor c, int[] columns) {
+            long millis = c.getLong(columns[0]);
+            String conceptUuid = c.getString(columns[1]);
+            ConceptType conceptType = mConcepts.getType(conceptUuid);
+            String value = c.getString(columns[2]);
+            String localizedValue = value;
+            if (ConceptType.CODED.equals(conceptType)) {
+                localizedValue = mConcepts.getName(value, mLocale);
+            }
+            return new Obs(millis, conceptUuid, conceptType, value, localizedValue);
+        }
+    }
+
+    /** Reads observations into {@link ObsRow}s, yielding null for concepts with no name. */
+    private class ObsRowMapper extends RowMapper<ObsRow> {
+        private final String mLocale;
+
+        ObsRowMapper(String locale) {
+            super(Observations.UUID, Observations.ENCOUNTER_MILLIS,
+                Observations.CONCEPT_UUID, Observations.VALUE);
+            mLocale = locale;
+        }
+
+        @Override protected @Nullable ObsRow map(Cursor c, int[] columns) {
+            String uuid = c.getString(columns[0]);
+            long millis = c.getLong(columns[1]);
+            String conceptUuid = c.getString(columns[2]);
+            ConceptType conceptType = mConcepts.getType(conceptUuid);
+            String value = c.getString(columns[3]);
+            String localizedValue = value;
+            if (ConceptType.CODED.equals(conceptType)) {
+                localizedValue = mConcepts.getName(value, mLocale);
+            }
+            String conceptName = mConcepts.getName(conceptUuid, mLocale);
+            if (conceptName == null){
+                return null;
+            }
+            else {
+                return new ObsRow(uuid, millis, conceptName, value, localizedValue);
+            }
+        }
+    }
+
+    /** The columns of a chart_items row, as read by {@link #getCharts}. */
+    private static class ChartItemRow {
+        Long rowid;
+        Long parentRowid;
+        String label;
+        String sectionType;
+        String type;
+        boolean required;
+        String conceptUuids;
+        String format;
+        String captionFormat;
+        String cssClass;
+        String cssStyle;
+        String script;
+    }
+
+    private static class ChartItemRowMapper extends RowMapper<ChartItemRow> {
+        ChartItemRowMapper() {
+            super(ChartItems.ROWID, ChartItems.PARENT_ROWID, ChartItems.LABEL,
+                ChartItems.SECTION_TYPE, ChartItems.TYPE, ChartItems.REQUIRED,
+                ChartItems.CONCEPT_UUIDS, ChartItems.FORMAT, ChartItems.CAPTION_FORMAT,
+                ChartItems.CSS_CLASS, ChartItems.CSS_STYLE, ChartItems.SCRIPT);
+        }
+
+        @Override protected ChartItemRow map(Cursor c, int[] columns) {
+            ChartItemRow row = new ChartItemRow();
+            row.rowid = getLong(c, columns[0]);
+            row.parentRowid = getLong(c, columns[1]);
+            row.label = getString(c, columns[2], "");
+            row.sectionType = getString(c, columns[3]);
+            row.type = getString(c, columns[4]);
+            row.required = !c.isNull(columns[5]) && c.getLong(columns[5]) > 0L;
+            row.conceptUuids = getString(c, columns[6], "");
+            row.format = getString(c, columns[7]);
+            row.captionFormat = getString(c, columns[8]);
+            row.cssClass = getString(c, columns[9]);
+            row.cssStyle = getString(c, columns[10]);
+            row.script = getString(c, columns[11]);
+            return row;
+        }
+    }
 }
@@ -0,0 +1,224 @@
+// Copyright 2015 The Project Buendia Authors
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not
+// use this file except in compliance with the License.  You may obtain a copy
+// of the License at: http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distrib-
+// uted under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+// OR CONDITIONS OF ANY KIND, either express or implied.  See the License for
+// specific language governing permissions and limitations under the License.
+
+package org.projectbuendia.client.sync;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.os.AsyncTask;
+
+import org.projectbuendia.client.json.ConceptType;
+import org.projectbuendia.client.json.JsonConcept;
+import org.projectbuendia.client.models.ConceptUuids;
+import org.projectbuendia.client.providers.Contracts.ConceptNames;
+import org.projectbuendia.client.providers.Contracts.Concepts;
+import org.projectbuendia.client.utils.Logger;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nullable;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An in-memory copy of the concept types, xform IDs and localized concept names in the app db,
+ * shared by the whole process.  Names are loaded one locale at a time, the first time a locale is asked
+ * for, and any number of locales can be held at once.  After a locale is loaded, lookups never
+ * block.  The concepts sync phase fetches every concept, so it {@link #rebuild rebuilds} the
+ * dictionary from the fetched concepts, swapping in new maps so that concepts the server no
+ * longer has are dropped and a sync never forces a reload from the db.  {@link #clear} empties
+ * the dictionary when the db is cleared.
+ */
+public class ConceptDictionary {
+    private static final Logger LOG = Logger.create();
+
+    private final ContentResolver mContentResolver;
+    private final Object mLoadingLock = new Object();
+
+    // The maps below are never changed once lookups can see them, only replaced, while holding
+    // mLoadingLock.
+
+    /** Concept types and xform IDs, or null if not loaded yet. */
+    private volatile Types mTypes;
+
+    /** Concept names, keyed by locale and then by concept UUID.  Holds only loaded locales. */
+    private final Map<String, Map<String, String>> mNamesByLocale = new ConcurrentHashMap<>();
+
+    public ConceptDictionary(ContentResolver contentResolver) {
+        mContentResolver = checkNotNull(contentResolver);
+    }
+
+    /** Loads the concept types and the names for the given locales on a background thread. */
+    public void preload(final String... locales) {
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override public void run() {
+                try {
+                    for (String locale : locales) {
+                        load(locale);
+                    }
+                } catch (RuntimeException e) {
+                    // Not fatal: anything not loaded here is loaded on first use instead.
+                    LOG.w(e, "Failed to preload concept data");
+                }
+            }
+        });
+    }
+
+    /** Ensures that the concept types and the names for the given locale are in memory. */
+    public void load(String locale) {
+        getNames(locale);
+    }
+
+    /** Returns the type of a concept, or null if the concept is unknown. */
+    public @Nullable ConceptType getType(@Nullable String conceptUuid) {
+        if (conceptUuid == null) return null;
+        return getTypes().typesByUuid.get(conceptUuid);
+    }
+
+    /** Returns the UUID of the concept with the given xform ID, or null if there is none. */
+    public @Nullable String getUuidForXformId(int xformId) {
+        return getTypes().uuidsByXformId.get(xformId);
+    }
+
+    /** Returns the name of a concept in the given locale, or null if it has no such name. */
+    public @Nullable String getName(@Nullable String conceptUuid, String locale) {
+        if (conceptUuid == null) return null;
+        return getNames(locale).get(conceptUuid);
+    }
+
+    /**
+     * Replaces the dictionary's contents with the given concepts, as just written to the app db
+     * by a sync of all concepts.  Names are kept only for the locales already loaded; other
+     * locales are read from the db when they are first asked for.
+     */
+    public void rebuild(JsonConcept[] concepts) {
+        synchronized (mLoadingLock) {
+            Map<String, ConceptType> types = new HashMap<>();
+            Map<Integer, String> uuids = new HashMap<>();
+            Map<String, Map<String, String>> namesByLocale = new HashMap<>();
+            for (String locale : mNamesByLocale.keySet()) {
+                namesByLocale.put(locale, new HashMap<String, String>());
+            }
+            for (JsonConcept concept : concepts) {
+                if (concept.uuid == null) continue;
+                if (concept.type != null) {
+                    types.put(concept.uuid, concept.type);
+                }
+                if (concept.xform_id != null) {
+                    uuids.put(concept.xform_id, concept.uuid);
+                }
+                for (Map.Entry<String, String> entry : concept.names.entrySet()) {
+                    Map<String, String> names = namesByLocale.get(entry.getKey());
+                    if (names != null && entry.getValue() != null) {
+                        names.put(concept.uuid, entry.getValue());
+                    }
+                }
+            }
+            addSpecialTypes(types);
+            mTypes = new Types(types, uuids);
+            mNamesByLocale.putAll(namesByLocale);
+            LOG.i("Rebuilt concept dictionary with %d concepts", types.size());
+        }
+    }
+
+    /** Forgets everything, so that it is all read again from the db when next needed. */
+    public void clear() {
+        synchronized (mLoadingLock) {
+            mTypes = null;
+            mNamesByLocale.clear();
+        }
+    }
+
+    private Map<String, String> getNames(String locale) {
+        Map<String, String> names = mNamesByLocale.get(locale);
+        if (names == null) {
+            names = loadNames(locale);
+        }
+        getTypes();
+        return names;
+    }
+
+    private Types getTypes() {
+        Types types = mTypes;
+        return types != null ? types : loadTypes();
+    }
+
+    private Map<String, String> loadNames(String locale) {
+        synchronized (mLoadingLock) {
+            Map<String, String> names = mNamesByLocale.get(locale);
+            if (names != null) {
+                return names;  // loaded by another thread while we waited for the lock
+            }
+            names = new HashMap<>();
+            try (Cursor c = mContentResolver.query(
+                ConceptNames.CONTENT_URI,
+                new String[] {ConceptNames.CONCEPT_UUID, ConceptNames.NAME},
+                ConceptNames.LOCALE + " = ?", new String[] {locale}, null)) {
+                while (c.moveToNext()) {
+                    String uuid = c.getString(0);
+                    String name = c.getString(1);
+                    if (uuid != null && name != null) {
+                        names.put(uuid, name);
+                    }
+                }
+            }
+            mNamesByLocale.put(locale, names);
+            LOG.i("Loaded %d concept names for locale %s", names.size(), locale);
+            return names;
+        }
+    }
+
+    private Types loadTypes() {
+        synchronized (mLoadingLock) {
+            if (mTypes != null) return mTypes;
+            Map<String, ConceptType> types = new HashMap<>();
+            Map<Integer, String> uuids = new HashMap<>();
+            try (Cursor c = mContentResolver.query(
+                Concepts.CONTENT_URI,
+                new String[] {Concepts.UUID, Concepts.CONCEPT_TYPE, Concepts.XFORM_ID},
+                null, null, null)) {
+                while (c.moveToNext()) {
+                    String uuid = c.getString(0);
+                    if (uuid == null) continue;
+                    if (!c.isNull(2)) {
+                        uuids.put(c.getInt(2), uuid);
+                    }
+                    try {
+                        types.put(uuid, ConceptType.valueOf(c.getString(1)));
+                    } catch (IllegalArgumentException | NullPointerException e) {
+                        /* missing or bad concept type name */
+                    }
+                }
+            }
+            addSpecialTypes(types);
+            mTypes = new Types(types, uuids);
+            return mTypes;
+        }
+    }
+
+    private static void addSpecialTypes(Map<String, ConceptType> types) {
+        // Special case: we know this is a date even if it's not in any forms or charts.
+        types.put(ConceptUuids.ADMISSION_DATE_UUID, ConceptType.DATE);
+    }
+
+    /** Concept types and xform IDs, which are loaded and replaced together. */
+    private static final class Types {
+        final Map<String, ConceptType> typesByUuid;
+        final Map<Integer, String> uuidsByXformId;
+
+        Types(Map<String, ConceptType> typesByUuid, Map<Integer, String> uuidsByXformId) {
+            this.typesByUuid = typesByUuid;
+            this.uuidsByXformId = uuidsByXformId;
+        }
+    }
+}
@@ -16,14 +16,22 @@ import android.content.Context;
 import net.sqlcipher.database.SQLiteDatabase;
 import net.sqlcipher.database.SQLiteException;
 import net.sqlcipher.database.SQLiteOpenHelper;
+import net.sqlcipher.database.SQLiteStatement;
 
 import org.projectbuendia.client.BuildConfig;
 import org.projectbuendia.client.providers.Contracts.Table;
 import org.projectbuendia.client.utils.Logger;
 
 import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Schema definition for the app's database, which contains patient attributes,
@@ -34,13 +42,54 @@ public class Database extends SQLiteOpenHelper {
     private static final Logger LOG = Logger.create();
 
     /** Schema version. */
-    public static final int DATABASE_VERSION = 29;
+    public static final int DATABASE_VERSION = 34;
 
     /** Filename for SQLite file. */
     public static final String DATABASE_FILENAME = "buendia.db";
 
+    /**
+     * Whether the encryption password has been checked against the database file.  The check
+     * opens the file and derives the key, which is slow, so it is only done once per process.
+     */
+    private static volatile boolean sPasswordChecked = false;
+
     File file;
 
+    /**
+     * A read-only connection used for queries, opened on first use and kept open.  With the
+     * database in WAL mode, queries on this connection read the last committed state and
+     * never wait for the writable connection, even while a sync holds a long transaction.
+     */
+    private SQLiteDatabase mReadOnlyDatabase;
+
+    /**
+     * Serializes writes on the writable connection.  Savepoints are raw SAVEPOINT statements
+     * (which the connection's own transaction tracking doesn't see), and they can't interleave
+     * on one connection, so a thread holds this lock from opening a savepoint until releasing
+     * it.  Each write made through the provider holds it too, so that no write lands inside
+     * another thread's savepoint and is lost if that savepoint is rolled back.  The one
+     * exception is a {@link SharedTransaction}, which holds the lock only while starting and
+     * ending, so that other threads' writes go into it meanwhile.
+     */
+    private final ReentrantLock mWriteLock = new ReentrantLock();
+
+    /** The open shared transaction, or null.  Only changed while holding mWriteLock. */
+    private volatile SharedTransaction mSharedTransaction;
+
+    /** The shared transaction that each thread has started or joined. */
+    private final ThreadLocal<SharedTransaction> mJoinedTransaction = new ThreadLocal<>();
+
+    /**
+     * For each savepoint the thread has open, the number of outside writes (see
+     * {@link #onWrite}) recorded when it was opened, or -1 if none were being recorded.
+     */
+    private final ThreadLocal<Deque<Integer>> mOutsideWriteMarks =
+        new ThreadLocal<Deque<Integer>>() {
+            @Override protected Deque<Integer> initialValue() {
+                return new ArrayDeque<>();
+            }
+        };
+
     /*
      * This deserves a brief comment on security. Patient data encrypted by a hardcoded key
      * might seem like security by obscurity. It is.
@@ -79,6 +128,18 @@ public class Database extends SQLiteOpenHelper {
 
     // For descriptions of these tables and the meanings of their columns, see Contracts.java.
     static {
+        SCHEMAS.put(Table.OUTBOX, ""
+            + "id INTEGER PRIMARY KEY AUTOINCREMENT,"
+            + "kind TEXT NOT NULL,"
+            + "patient_uuid TEXT,"
+            + "local_uuid TEXT,"
+            + "payload TEXT,"
+            + "created_millis INTEGER,"
+            + "attempts INTEGER NOT NULL DEFAULT 0,"
+            + "next_attempt_millis INTEGER NOT NULL DEFAULT 0,"
+            + "last_error TEXT,"
+            + "rejected INTEGER NOT NULL DEFAULT 0");
+
         SCHEMAS.put(Table.PATIENTS, ""
             + "uuid TEXT PRIMARY KEY NOT NULL,"
             + "id TEXT,"
@@ -128,6 +189,15 @@ public class Database extends SQLiteOpenHelper {
             + "voided INTEGER,"
             + "UNIQUE (patient_uuid, encounter_uuid, concept_uuid)");
 
+        // Derived from observations by the triggers in TRIGGERS; never written directly.
+        SCHEMAS.put(Table.LATEST_OBSERVATIONS, ""
+            + "patient_uuid TEXT NOT NULL,"
+            + "concept_uuid TEXT NOT NULL,"
+            + "encounter_millis INTEGER,"
+            + "value STRING,"
+            + "observation_uuid TEXT,"
+            + "PRIMARY KEY (patient_uuid, concept_uuid)");
+
         SCHEMAS.put(Table.ORDERS, ""
             + "uuid TEXT PRIMARY KEY NOT NULL,"
             + "patient_uuid TEXT,"
@@ -166,21 +236,174 @@ public class Database extends SQLiteOpenHelper {
             + "sync_token TEXT NOT NULL");
     }
 
+    /**
+     * A map of secondary indexes, keyed by index name.  The values should be
+     * strings that take the place of X in a "CREATE INDEX foo ON X" statement.
+     */
+    static final Map<String, String> INDEXES = new LinkedHashMap<>();
+
+    static {
+        // Chart queries: all of a patient's observations, optionally for one concept, in time
+        // order.  Also covers the "latest value per patient per concept" GROUP BY in ConceptFilter.
+        INDEXES.put("observations_patient_concept_millis",
+            "observations (patient_uuid, concept_uuid, encounter_millis)");
+        // Chart queries for a patient's observations within a time range.
+        INDEXES.put("observations_patient_millis",
+            "observations (patient_uuid, encounter_millis)");
+        // The latest observation of a concept across all patients.
+        INDEXES.put("observations_concept_millis",
+            "observations (concept_uuid, encounter_millis)");
+        // Patient lists and counts for a location.
+        INDEXES.put("patients_location", "patients (location_uuid)");
+        // A patient's orders, in start order.
+        INDEXES.put("orders_patient_start", "orders (patient_uuid, start_millis)");
+        // Patients whose latest value for a concept is a given value (see ConceptFilter).
+        INDEXES.put("latest_observations_concept_value",
+            "latest_observations (concept_uuid, value)");
+    }
+
+    /** SQL that fills latest_observations from scratch. */
+    private static final String FILL_LATEST_OBSERVATIONS = ""
+        // SQLite takes the bare columns from the row that has the maximum.
+        + "INSERT OR REPLACE INTO latest_observations"
+        + " (patient_uuid, concept_uuid, encounter_millis, value, observation_uuid)"
+        + " SELECT patient_uuid, concept_uuid, MAX(encounter_millis), value, uuid"
+        + " FROM observations WHERE voided IS NOT 1"
+        + " GROUP BY patient_uuid, concept_uuid;";
+
+    /** SQL that replaces the latest_observations row for one patient and concept. */
+    private static final String RECOMPUTE_LATEST_OBSERVATION = ""
+        + "DELETE FROM latest_observations"
+        + "    WHERE patient_uuid = %1$s.patient_uuid AND concept_uuid = %1$s.concept_uuid;"
+        + "INSERT INTO latest_observations"
+        + "    (patient_uuid, concept_uuid, encounter_millis, value, observation_uuid)"
+        + "    SELECT patient_uuid, concept_uuid, encounter_millis, value, uuid"
+        + "    FROM observations"
+        + "    WHERE patient_uuid = %1$s.patient_uuid AND concept_uuid = %1$s.concept_uuid"
+        + "        AND voided IS NOT 1"
+        + "    ORDER BY encounter_millis DESC LIMIT 1;";
+
+    /**
+     * A map of triggers, keyed by trigger name.  The values should be strings
+     * that take the place of X in a "CREATE TRIGGER foo X" statement.
+     * <p>
+     * These keep latest_observations up to date however observations are
+     * written: by sync, by submitted encounters and forms, or by voiding.
+     * Sync writes observations with INSERT OR REPLACE, whose implicit delete
+     * only fires the delete trigger because {@link #onOpen} turns on
+     * recursive triggers.
+     */
+    static final Map<String, String> TRIGGERS = new LinkedHashMap<>();
+
+    static {
+        // A new observation only needs to be compared against the current latest one.
+        TRIGGERS.put("latest_observations_on_insert", ""
+            + "AFTER INSERT ON observations WHEN NEW.voided IS NOT 1 BEGIN"
+            + "    INSERT OR REPLACE INTO latest_observations"
+            + "        (patient_uuid, concept_uuid, encounter_millis, value, observation_uuid)"
+            + "        SELECT NEW.patient_uuid, NEW.concept_uuid, NEW.encounter_millis,"
+            + "            NEW.value, NEW.uuid"
+            + "        WHERE NOT EXISTS (SELECT 1 FROM latest_observations"
+            + "            WHERE patient_uuid = NEW.patient_uuid"
+            + "            AND concept_uuid = NEW.concept_uuid"
+            + "            AND encounter_millis > NEW.encounter_millis);"
+            + "END");
+        // Removing or changing an observation may expose an older one, so look it up again.
+        TRIGGERS.put("latest_observations_on_delete", ""
+            + "AFTER DELETE ON observations BEGIN "
+            + String.format(RECOMPUTE_LATEST_OBSERVATION, "OLD")
+            + " END");
+        TRIGGERS.put("latest_observations_on_update", ""
+            + "AFTER UPDATE ON observations BEGIN "
+            + String.format(RECOMPUTE_LATEST_OBSERVATION, "OLD")
+            + String.format(RECOMPUTE_LATEST_OBSERVATION, "NEW")
+            + " END");
+    }
+
+    /**
+     * Schema migrations, keyed by the version they upgrade from.  Each entry is a list of SQL
+     * statements that upgrade the schema from that version to the next one without losing
+     * data.  When a step is missing from the chain between the old and new versions, the
+     * database is cleared instead, and the next sync repopulates it.
+     */
+    static final Map<Integer, String[]> MIGRATIONS = new HashMap<>();
+
+    static {
+        // The indexes as they were in version 30.  Later indexes, like the one on
+        // latest_observations, are on tables that don't exist yet at this point.
+        MIGRATIONS.put(29, new String[] {
+            "CREATE INDEX IF NOT EXISTS observations_patient_concept_millis"
+                + " ON observations (patient_uuid, concept_uuid, encounter_millis);",
+            "CREATE INDEX IF NOT EXISTS observations_patient_millis"
+                + " ON observations (patient_uuid, encounter_millis);",
+            "CREATE INDEX IF NOT EXISTS observations_concept_millis"
+                + " ON observations (concept_uuid, encounter_millis);",
+            "CREATE INDEX IF NOT EXISTS patients_location ON patients (location_uuid);",
+            "CREATE INDEX IF NOT EXISTS orders_patient_start"
+                + " ON orders (patient_uuid, start_millis);"
+        });
+        MIGRATIONS.put(30, concat(
+            new String[] {
+                "CREATE TABLE IF NOT EXISTS " + Table.LATEST_OBSERVATIONS
+                    + " (" + SCHEMAS.get(Table.LATEST_OBSERVATIONS) + ");",
+                FILL_LATEST_OBSERVATIONS
+            },
+            getCreateIndexStatements(),
+            getCreateTriggerStatements()));
+        MIGRATIONS.put(31, new String[] {
+            // The outbox as it was in version 32; later migrations add to it.
+            "CREATE TABLE IF NOT EXISTS " + Table.OUTBOX + " ("
+                + "id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                + "kind TEXT NOT NULL,"
+                + "patient_uuid TEXT,"
+                + "local_uuid TEXT,"
+                + "payload TEXT,"
+                + "created_millis INTEGER,"
+                + "attempts INTEGER NOT NULL DEFAULT 0,"
+                + "next_attempt_millis INTEGER NOT NULL DEFAULT 0,"
+                + "last_error TEXT);"
+        });
+        MIGRATIONS.put(32, new String[] {
+            "ALTER TABLE " + Table.OUTBOX + " ADD COLUMN rejected INTEGER NOT NULL DEFAULT 0;"
+        });
+        // Observations replaced by sync before recursive triggers were turned on could leave
+        // stale rows behind, so rebuild the table from scratch.
+        MIGRATIONS.put(33, new String[] {
+            "DELETE FROM latest_observations;",
+            FILL_LATEST_OBSERVATIONS
+        });
+    }
+
     public Database(Context context) {
         super(context, DATABASE_FILENAME, null, DATABASE_VERSION);
         file = context.getDatabasePath(DATABASE_FILENAME);
     }
 
     @Override public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // This database is only a cache of data on the server, so its upgrade
-        // policy is to discard all the data and start over.
-        clear(db);
+        // This database is only a cache of data on the server, so if there's no
+        // migration path, its upgrade policy is to discard all the data and start over.
+        for (int version = oldVersion; version < newVersion; version++) {
+            if (!MIGRATIONS.containsKey(version)) {
+                LOG.i("No migration from version %d; clearing database.", version);
+                clear(db);
+                return;
+            }
+        }
+        for (int version = oldVersion; version < newVersion; version++) {
+            LOG.i("Migrating database from version %d to %d", version, version + 1);
+            for (String statement : MIGRATIONS.get(version)) {
+                db.execSQL(statement);
+            }
+        }
     }
 
     public void clear(SQLiteDatabase db) {
         LOG.i("Clearing database.");
         for (Table table : Table.values()) {
-            db.execSQL("DROP TABLE IF EXISTS " + table);
+            // The outbox holds writes that exist nowhere else, so it is never discarded.
+            if (table != Table.OUTBOX) {
+                db.execSQL("DROP TABLE IF EXISTS " + table);
+            }
         }
         onCreate(db);
     }
@@ -188,34 +411,275 @@ public class Database extends SQLiteOpenHelper {
     @Override public void onCreate(SQLiteDatabase db) {
         LOG.i("Initializing database");
         for (Table table : Table.values()) {
-            db.execSQL("CREATE TABLE " + table + " (" + SCHEMAS.get(table) + ");");
+            db.execSQL("CREATE TABLE IF NOT EXISTS " + table + " (" + SCHEMAS.get(table) + ");");
+        }
+        for (String statement : getCreateIndexStatements()) {
+            db.execSQL(statement);
+        }
+        for (String statement : getCreateTriggerStatements()) {
+            db.execSQL(statement);
         }
     }
 
+    private static String[] getCreateTriggerStatements() {
+        String[] statements = new String[TRIGGERS.size()];
+        int i = 0;
+        for (Map.Entry<String, String> entry : TRIGGERS.entrySet()) {
+            statements[i++] = "CREATE TRIGGER IF NOT EXISTS "
+                + entry.getKey() + " " + entry.getValue() + ";";
+        }
+        return statements;
+    }
+
+    private static String[] concat(String[]... arrays) {
+        List<String> result = new ArrayList<>();
+        for (String[] array : arrays) {
+            Collections.addAll(result, array);
+        }
+        return result.toArray(new String[result.size()]);
+    }
+
+    private static String[] getCreateIndexStatements() {
+        String[] statements = new String[INDEXES.size()];
+        int i = 0;
+        for (Map.Entry<String, String> entry : INDEXES.entrySet()) {
+            statements[i++] = "CREATE INDEX IF NOT EXISTS "
+                + entry.getKey() + " ON " + entry.getValue() + ";";
+        }
+        return statements;
+    }
+
     public void clear() {
         // Never call zero-argument clear() from onUpgrade, as getWritableDatabase
         // can trigger onUpgrade, leading to endless recursion.
         clear(getWritableDatabase());
     }
 
+    @Override public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        // Lets the read-only connection read while the writable connection is in a transaction.
+        db.rawExecSQL("PRAGMA journal_mode = WAL;");
+        // Makes the rows removed by INSERT OR REPLACE fire delete triggers, which the
+        // latest_observations triggers rely on.
+        db.rawExecSQL("PRAGMA recursive_triggers = ON;");
+    }
+
     private void deleteDatabaseIfPasswordIncorrect() {
-        try {
-            getWritableDatabase(ENCRYPTION_PASSWORD);
-        } catch (SQLiteException e) {
-            if (e.getMessage().contains("encrypt")) {
-                // Incorrect or missing encryption password; delete the database and start over.
-                file.delete();
+        if (sPasswordChecked) return;
+        synchronized (Database.class) {
+            if (sPasswordChecked) return;
+            try {
+                getWritableDatabase(ENCRYPTION_PASSWORD);
+            } catch (SQLiteException e) {
+                if (e.getMessage().contains("encrypt")) {
+                    // Incorrect or missing encryption password; delete the database and start over.
+                    file.delete();
+                }
             }
+            sPasswordChecked = true;
         }
     }
 
+    /** Returns the single writable connection, opening it if necessary. */
     public SQLiteDatabase getWritableDatabase() {
         deleteDatabaseIfPasswordIncorrect();
         return getWritableDatabase(ENCRYPTION_PASSWORD);
     }
 
+    /**
+     * Returns a connection for queries.  This is the read-only connection, except on a thread
+     * that is in the middle of a transaction, has a savepoint open, or has started or joined a
+     * shared transaction, which gets the writable connection so that it can see the
+     * uncommitted changes it is working with.
+     */
     public SQLiteDatabase getReadableDatabase() {
-        deleteDatabaseIfPasswordIncorrect();
-        return getReadableDatabase(ENCRYPTION_PASSWORD);
+        SQLiteDatabase writable = getWritableDatabase();
+        if (writable.isDbLockedByCurrentThread() || mWriteLock.isHeldByCurrentThread()
+            || mJoinedTransaction.get() != null) {
+            return writable;
+        }
+        synchronized (this) {
+            if (mReadOnlyDatabase == null || !mReadOnlyDatabase.isOpen()) {
+                // Opened after the writable connection, which creates or upgrades the schema.
+                mReadOnlyDatabase = SQLiteDatabase.openDatabase(
+                    file.getPath(), ENCRYPTION_PASSWORD, null, SQLiteDatabase.OPEN_READONLY);
+            }
+            return mReadOnlyDatabase;
+        }
+    }
+
+    /**
+     * Waits until no other thread is writing, then prevents other threads from writing until
+     * {@link #endWrite}.  Calls may be nested.  Throws IllegalStateException if this thread
+     * joined a shared transaction that has since been rolled back or ended, as its writes would
+     * no longer be part of that transaction.
+     */
+    public void beginWrite() {
+        mWriteLock.lock();
+        SharedTransaction joined = mJoinedTransaction.get();
+        if (joined != null && joined.mEnded) {
+            mWriteLock.unlock();
+            throw new IllegalStateException("Shared transaction "
+                + joined.mSavepointName + " has already been rolled back or ended");
+        }
+    }
+
+    /** Lets other threads write again after {@link #beginWrite}. */
+    public void endWrite() {
+        mWriteLock.unlock();
+    }
+
+    /**
+     * Opens a savepoint, nested inside any savepoint or shared transaction already open.  No
+     * other thread can write until it is released with {@link #releaseSavepoint}.
+     * @see <a>http://www.sqlite.org/lang_savepoint.html</a>.
+     */
+    public void beginSavepoint(String name) {
+        beginWrite();
+        try {
+            execute("SAVEPOINT " + name);
+        } catch (RuntimeException e) {
+            endWrite();
+            throw e;
+        }
+        SharedTransaction shared = mSharedTransaction;
+        mOutsideWriteMarks.get().push(shared != null && mJoinedTransaction.get() != shared
+            ? shared.mOutsideWrites.size() : -1);
+    }
+
+    /** Discards the writes made since a savepoint opened by {@link #beginSavepoint}. */
+    public void rollbackToSavepoint(String name) {
+        execute("ROLLBACK TO " + name);
+        int mark = mOutsideWriteMarks.get().peek();
+        if (mark >= 0) {
+            List<Runnable> writes = mSharedTransaction.mOutsideWrites;
+            writes.subList(mark, writes.size()).clear();
+        }
+    }
+
+    /** Releases a savepoint opened by {@link #beginSavepoint}, keeping its writes. */
+    public void releaseSavepoint(String name) {
+        try {
+            execute("RELEASE " + name);
+        } finally {
+            mOutsideWriteMarks.get().pop();
+            endWrite();
+        }
+    }
+
+    /**
+     * Records a write that the current thread has just made, before it calls {@link #endWrite}.
+     * If the write went into a shared transaction that the thread hasn't joined, {@code redo}
+     * is kept until the transaction ends, and run again if the transaction is rolled back:
+     * the writer didn't ask for its write to depend on the transaction's outcome.
+     */
+    public void onWrite(Runnable redo) {
+        SharedTransaction shared = mSharedTransaction;
+        if (shared != null && mJoinedTransaction.get() != shared) {
+            shared.mOutsideWrites.add(redo);
+        }
+    }
+
+    /**
+     * Starts a shared transaction by opening a savepoint on the writable connection.  Unlike
+     * {@link #beginSavepoint}, this doesn't keep other threads from writing: every write made
+     * on the connection until {@link #endSharedTransaction} is part of the transaction, and
+     * savepoints opened meanwhile are nested inside it.  Other threads can
+     * {@link #joinSharedTransaction join} it to read its uncommitted writes.  Writes from
+     * threads that haven't joined it survive a rollback (see {@link #onWrite}).
+     */
+    public SharedTransaction beginSharedTransaction(String name) {
+        beginWrite();
+        try {
+            if (mSharedTransaction != null) {
+                throw new IllegalStateException("Shared transaction "
+                    + mSharedTransaction.mSavepointName + " is already open");
+            }
+            execute("SAVEPOINT " + name);
+            mSharedTransaction = new SharedTransaction(name);
+            mJoinedTransaction.set(mSharedTransaction);
+            return mSharedTransaction;
+        } finally {
+            endWrite();
+        }
+    }
+
+    /**
+     * Discards every write made during a shared transaction by the threads that joined it, then
+     * makes again the writes that other threads made meanwhile, in their original order.  The
+     * transaction stays open until {@link #endSharedTransaction}, but the threads that joined
+     * it can't write any more, so that a phase that is slow to stop can't sneak in writes.
+     */
+    public void rollbackSharedTransaction(SharedTransaction transaction) {
+        mWriteLock.lock();
+        try {
+            execute("ROLLBACK TO " + transaction.mSavepointName);
+            for (Runnable redo : transaction.mOutsideWrites) {
+                try {
+                    redo.run();
+                } catch (RuntimeException e) {
+                    LOG.e(e, "Failed to redo a write after rolling back %s",
+                        transaction.mSavepointName);
+                }
+            }
+        } finally {
+            transaction.mEnded = true;
+            endWrite();
+        }
+    }
+
+    /** Ends a shared transaction, committing the writes that weren't rolled back. */
+    public void endSharedTransaction(SharedTransaction transaction) {
+        mWriteLock.lock();
+        try {
+            execute("RELEASE " + transaction.mSavepointName);
+        } finally {
+            transaction.mEnded = true;
+            mSharedTransaction = null;
+            mJoinedTransaction.remove();
+            endWrite();
+        }
+    }
+
+    /**
+     * Lets the current thread read a shared transaction's uncommitted writes, until it calls
+     * {@link #leaveSharedTransaction}.
+     */
+    public void joinSharedTransaction(SharedTransaction transaction) {
+        mJoinedTransaction.set(transaction);
+    }
+
+    /** Undoes {@link #joinSharedTransaction} for the current thread. */
+    public void leaveSharedTransaction() {
+        mJoinedTransaction.remove();
+    }
+
+    private void execute(String sql) {
+        SQLiteStatement statement = getWritableDatabase().compileStatement(sql);
+        try {
+            statement.execute();
+        } finally {
+            statement.close();
+        }
+    }
+
+    /** A transaction started by {@link #beginSharedTransaction}. */
+    public static final class SharedTransaction {
+        private final String mSavepointName;
+        private volatile boolean mEnded;
+        /** Writes made by threads that haven't joined it.  Guarded by mWriteLock. */
+        private final List<Runnable> mOutsideWrites = new ArrayList<>();
+
+        private SharedTransaction(String savepointName) {
+            mSavepointName = savepointName;
+        }
+    }
+
+    @Override public synchronized void close() {
+        if (mReadOnlyDatabase != null) {
+            mReadOnlyDatabase.close();
+            mReadOnlyDatabase = null;
+        }
+        super.close();
     }
 }
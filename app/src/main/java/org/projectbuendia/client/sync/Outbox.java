@@ -0,0 +1,562 @@
+// Copyright 2015 The Project Buendia Authors
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not
+// use this file except in compliance with the License.  You may obtain a copy
+// of the License at: http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distrib-
+// uted under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+// OR CONDITIONS OF ANY KIND, either express or implied.  See the License for
+// specific language governing permissions and limitations under the License.
+
+package org.projectbuendia.client.sync;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.android.volley.NetworkResponse;
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.RequestFuture;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.projectbuendia.client.events.SubmitXformFailedEvent;
+import org.projectbuendia.client.events.data.EncounterAddFailedEvent;
+import org.projectbuendia.client.events.data.OrderSaveFailedEvent;
+import org.projectbuendia.client.events.data.VoidObsFailedEvent;
+import org.projectbuendia.client.json.JsonEncounter;
+import org.projectbuendia.client.json.JsonOrder;
+import org.projectbuendia.client.models.Encounter;
+import org.projectbuendia.client.models.Order;
+import org.projectbuendia.client.models.Patient;
+import org.projectbuendia.client.net.OpenMrsConnectionDetails;
+import org.projectbuendia.client.net.OpenMrsXformsConnection;
+import org.projectbuendia.client.net.Server;
+import org.projectbuendia.client.providers.Contracts.LatestObservations;
+import org.projectbuendia.client.providers.Contracts.Observations;
+import org.projectbuendia.client.providers.Contracts.Orders;
+import org.projectbuendia.client.providers.Contracts.OutboxItems;
+import org.projectbuendia.client.utils.Logger;
+
+import java.net.HttpURLConnection;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import de.greenrobot.event.EventBus;
+
+/**
+ * A durable queue of writes to the server: new encounters, new or edited orders, voided
+ * observations and submitted xforms.  Queuing a write stores it in the outbox table and applies
+ * it to the local tables at once, so it shows up in the chart without waiting for the network.
+ * A single background thread then sends the queued writes in the order they were made.
+ * <p>
+ * A write that fails because the server can't be reached (or fails in a way that might be
+ * temporary) stays at the head of the queue and is retried with exponential backoff.  A write
+ * that the server rejects outright is marked as rejected and set aside, so that it no longer
+ * holds up the queue; it stays in the outbox along with its local copy, so that no clinical
+ * data is lost, and the same failure event that the UI got before the outbox existed is posted.
+ * Each queued write is sent as its own request, exactly as it was made: the server's API takes
+ * one encounter, order, void or xform per request, and merging queued encounters into one would
+ * change what the server records.  So a burst of writes is not fewer requests than before; what
+ * the outbox saves is that the user no longer waits for any of them, and that a burst is sent in
+ * one pass after {@link #FLUSH_DELAY_MILLIS} rather than as each write is made.
+ */
+public class Outbox {
+    private static final Logger LOG = Logger.create();
+
+    /** How long to wait after a write is queued before sending, so that bursts go together. */
+    private static final long FLUSH_DELAY_MILLIS = 5000;
+
+    /** How long to wait before the first retry; each further failure doubles the wait. */
+    private static final long INITIAL_BACKOFF_MILLIS = 15000;
+
+    /** The longest wait between retries. */
+    private static final long MAX_BACKOFF_MILLIS = 10 * 60 * 1000;
+
+    private static final String[] ITEM_PROJECTION = {
+        OutboxItems.ID, OutboxItems.KIND, OutboxItems.PATIENT_UUID, OutboxItems.LOCAL_UUID,
+        OutboxItems.PAYLOAD, OutboxItems.ATTEMPTS, OutboxItems.NEXT_ATTEMPT_MILLIS
+    };
+
+    enum Kind {
+        ENCOUNTER,
+        ORDER,
+        VOID_OBS,
+        XFORM
+    }
+
+    private final ContentResolver mContentResolver;
+    private final Server mServer;
+    private final OpenMrsConnectionDetails mConnectionDetails;
+    private final Gson mGson;
+    private final ScheduledExecutorService mExecutor =
+        Executors.newSingleThreadScheduledExecutor();
+
+    /**
+     * Held while changing queued items, so that the flush thread never commits the result of
+     * a send over an item that was changed while the request was in flight.
+     */
+    private final Object mItemsLock = new Object();
+
+    // Guarded by this.
+    private ScheduledFuture<?> mScheduledFlush;
+    private long mScheduledFlushMillis;
+
+    public Outbox(ContentResolver contentResolver, Server server,
+                  OpenMrsConnectionDetails connectionDetails, Gson gson) {
+        mContentResolver = contentResolver;
+        mServer = server;
+        mConnectionDetails = connectionDetails;
+        mGson = gson;
+    }
+
+    /**
+     * Queues a new encounter and adds its observations to the local cache right away.
+     * @return the encounter UUID under which the observations are cached until the next sync
+     */
+    public String addEncounter(Encounter encounter) {
+        String localUuid = UUID.randomUUID().toString();
+        synchronized (mItemsLock) {
+            insertItem(Kind.ENCOUNTER, encounter.patientUuid, localUuid, mGson.toJson(encounter));
+        }
+        ContentValues[] values = new Encounter(
+            encounter.patientUuid, localUuid, encounter.timestamp,
+            encounter.observations, encounter.orderUuids).toContentValuesArray();
+        if (values.length > 0) {
+            mContentResolver.bulkInsert(Observations.CONTENT_URI, values);
+            mContentResolver.notifyChange(LatestObservations.CONTENT_URI, null, false);
+        }
+        scheduleFlush(FLUSH_DELAY_MILLIS);
+        return localUuid;
+    }
+
+    /**
+     * Queues a new or edited order and writes it to the local cache right away.  Saving an
+     * order that is still waiting in the queue replaces the queued version.
+     * @return the UUID under which the order is stored locally; for a new order, this is a
+     *     temporary UUID that is replaced once the server has assigned one
+     */
+    public String saveOrder(Order order) {
+        String localUuid = order.uuid != null ? order.uuid : UUID.randomUUID().toString();
+        synchronized (mItemsLock) {
+            Long pendingId = null;
+            String serverUuid = order.uuid;
+            try (Cursor c = mContentResolver.query(
+                OutboxItems.CONTENT_URI, new String[] {OutboxItems.ID, OutboxItems.PAYLOAD},
+                OutboxItems.KIND + " = ? AND " + OutboxItems.LOCAL_UUID + " = ?",
+                new String[] {Kind.ORDER.name(), localUuid}, null)) {
+                if (c.moveToNext()) {
+                    pendingId = c.getLong(0);
+                    // A queued order that the server hasn't created yet must still be sent
+                    // as a creation, even though the UI now knows it by its temporary UUID.
+                    serverUuid = mGson.fromJson(c.getString(1), Order.class).uuid;
+                }
+            }
+            String payload = mGson.toJson(withUuid(order, serverUuid));
+            if (pendingId != null) {
+                ContentValues values = new ContentValues();
+                values.put(OutboxItems.PAYLOAD, payload);
+                values.put(OutboxItems.REJECTED, 0);  // an edit deserves another try
+                updateItem(pendingId, values);
+            } else {
+                insertItem(Kind.ORDER, order.patientUuid, localUuid, payload);
+            }
+        }
+        // insert() is implemented as insert or replace, so it handles both adds and edits.
+        mContentResolver.insert(Orders.CONTENT_URI, withUuid(order, localUuid).toContentValues());
+        scheduleFlush(FLUSH_DELAY_MILLIS);
+        return localUuid;
+    }
+
+    /** Queues the voiding of an observation and removes it from the local cache right away. */
+    public void voidObservation(String observationUuid) {
+        synchronized (mItemsLock) {
+            try (Cursor c = mContentResolver.query(
+                OutboxItems.CONTENT_URI, new String[] {OutboxItems.ID},
+                OutboxItems.KIND + " = ? AND " + OutboxItems.LOCAL_UUID + " = ?",
+                new String[] {Kind.VOID_OBS.name(), observationUuid}, null)) {
+                if (!c.moveToNext()) {
+                    insertItem(Kind.VOID_OBS, null, observationUuid, null);
+                }
+            }
+        }
+        mContentResolver.delete(
+            Observations.CONTENT_URI.buildUpon().appendPath(observationUuid).build(), null, null);
+        mContentResolver.notifyChange(LatestObservations.CONTENT_URI, null, false);
+        scheduleFlush(FLUSH_DELAY_MILLIS);
+    }
+
+    /**
+     * Queues a completed xform instance for submission.  The caller is responsible for caching
+     * the observations it contains, under the returned encounter UUID.
+     * @return the encounter UUID to use for the locally cached observations
+     */
+    public String submitXform(@Nullable String patientUuid, String xml) {
+        String localUuid = UUID.randomUUID().toString();
+        JSONObject payload = new JSONObject();
+        try {
+            payload.put("xml", xml);
+        } catch (JSONException e) {
+            throw new IllegalArgumentException("Unable to serialize the xform instance", e);
+        }
+        synchronized (mItemsLock) {
+            insertItem(Kind.XFORM, patientUuid, localUuid, payload.toString());
+        }
+        scheduleFlush(FLUSH_DELAY_MILLIS);
+        return localUuid;
+    }
+
+    /** Starts sending any queued writes now, e.g. ones left over from a previous run. */
+    public void flushSoon() {
+        scheduleFlush(0);
+    }
+
+    private synchronized void scheduleFlush(long delayMillis) {
+        long when = System.currentTimeMillis() + delayMillis;
+        if (mScheduledFlush != null) {
+            if (mScheduledFlushMillis <= when) return;  // an earlier flush will pick it up
+            mScheduledFlush.cancel(false);
+        }
+        mScheduledFlushMillis = when;
+        mScheduledFlush = mExecutor.schedule(new Runnable() {
+            @Override public void run() {
+                flush();
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sends queued items in order until the queue is empty or a send fails.  Runs on the
+     * executor thread; package-private so that tests can call it directly.
+     */
+    void flush() {
+        synchronized (this) {
+            // Anything queued from now on needs a flush after this one.
+            mScheduledFlush = null;
+        }
+        try {
+            Item head;
+            while ((head = loadHead()) != null) {
+                long now = System.currentTimeMillis();
+                if (head.nextAttemptMillis > now) {
+                    scheduleFlush(head.nextAttemptMillis - now);
+                    return;
+                }
+                try {
+                    send(head);
+                } catch (IllegalStateException e) {
+                    // Retrying can't help with a payload we can't read, so don't block the queue.
+                    LOG.e(e, "Setting aside unreadable %s", head);
+                    reject(head, e);
+                } catch (SendException e) {
+                    if (e.permanent) {
+                        LOG.e(e, "Server rejected %s; setting it aside", head);
+                        reject(head, e);
+                    } else {
+                        LOG.w(e, "Failed to send %s; will retry", head);
+                        scheduleFlush(recordFailure(head, e));
+                        return;
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            LOG.e(e, "Unexpected error while sending queued writes");
+            scheduleFlush(MAX_BACKOFF_MILLIS);
+        }
+    }
+
+    private void send(Item item) throws SendException {
+        switch (item.kind) {
+            case ENCOUNTER:
+                sendEncounter(item);
+                break;
+            case ORDER:
+                sendOrder(item);
+                break;
+            case VOID_OBS:
+                RequestFuture<Void> voidFuture = RequestFuture.newFuture();
+                mServer.deleteObservation(item.localUuid, voidFuture, voidFuture);
+                await(voidFuture);
+                deleteItem(item);
+                break;
+            case XFORM:
+                RequestFuture<JSONObject> xformFuture = RequestFuture.newFuture();
+                String xml;
+                try {
+                    xml = new JSONObject(item.payload).getString("xml");
+                } catch (JSONException e) {
+                    throw new SendException(e, true);
+                }
+                new OpenMrsXformsConnection(mConnectionDetails).postXformInstance(
+                    item.patientUuid, xml, xformFuture, xformFuture);
+                await(xformFuture);
+                deleteItem(item);
+                break;
+        }
+    }
+
+    private void sendEncounter(Item item) throws SendException {
+        Encounter encounter = item.getEncounter(mGson);
+        RequestFuture<JsonEncounter> future = RequestFuture.newFuture();
+        // The server only needs the patient's UUID, which is also in the encounter.
+        mServer.addEncounter(Patient.builder().setUuid(encounter.patientUuid).build(),
+            encounter, future, future);
+        JsonEncounter result = await(future);
+        if (result.uuid == null) {
+            throw new SendException(
+                new IllegalStateException("Server returned no UUID for the encounter"), false);
+        }
+        // The cached observations stay in place until the next sync replaces them.
+        deleteItem(item);
+    }
+
+    private void sendOrder(Item item) throws SendException {
+        Order order = item.getOrder(mGson);
+        RequestFuture<JsonOrder> future = RequestFuture.newFuture();
+        mServer.saveOrder(order, future, future);
+        JsonOrder result = await(future);
+
+        synchronized (mItemsLock) {
+            // If the order was edited while this request was in flight, keep the edit queued.
+            boolean edited = mContentResolver.delete(OutboxItems.CONTENT_URI,
+                OutboxItems.ID + " = ? AND " + OutboxItems.PAYLOAD + " = ?",
+                new String[] {Long.toString(item.id), item.payload}) == 0;
+            if (order.uuid == null && result.uuid != null) {
+                replaceTemporaryOrderUuid(item.localUuid, result.uuid);
+            }
+            if (!edited) {
+                mContentResolver.insert(
+                    Orders.CONTENT_URI, Order.fromJson(result).toContentValues());
+            }
+        }
+    }
+
+    /**
+     * Replaces a new order's temporary UUID with the one assigned by the server, both in the
+     * local cache and in any queued writes that refer to it (e.g. recording its execution).
+     */
+    private void replaceTemporaryOrderUuid(String localUuid, String serverUuid) {
+        mContentResolver.delete(Orders.CONTENT_URI.buildUpon().appendPath(localUuid).build(),
+            null, null);
+        ContentValues obsValues = new ContentValues();
+        obsValues.put(Observations.VALUE, serverUuid);
+        mContentResolver.update(Observations.CONTENT_URI, obsValues,
+            Observations.VALUE + " = ? AND " + Observations.UUID + " IS NULL",
+            new String[] {localUuid});
+
+        try (Cursor c = mContentResolver.query(
+            OutboxItems.CONTENT_URI, ITEM_PROJECTION,
+            OutboxItems.LOCAL_UUID + " = ? OR " + OutboxItems.PAYLOAD + " LIKE ?",
+            new String[] {localUuid, "%" + localUuid + "%"}, null)) {
+            while (c.moveToNext()) {
+                Item item = new Item(c);
+                ContentValues values = new ContentValues();
+                if (item.kind == Kind.ORDER && localUuid.equals(item.localUuid)) {
+                    // An edit made while the order was being created; it's now an update.
+                    Order edited = withUuid(item.getOrder(mGson), serverUuid);
+                    values.put(OutboxItems.LOCAL_UUID, serverUuid);
+                    values.put(OutboxItems.PAYLOAD, mGson.toJson(edited));
+                    mContentResolver.insert(Orders.CONTENT_URI, edited.toContentValues());
+                } else {
+                    values.put(OutboxItems.PAYLOAD, item.payload.replace(localUuid, serverUuid));
+                }
+                updateItem(item.id, values);
+            }
+        }
+    }
+
+    /**
+     * Sets aside an item that the server rejected.  The item and its locally cached effects are
+     * kept, so the data isn't lost, but it is no longer sent; the failure is posted on the
+     * default event bus for the UI to report.
+     */
+    private void reject(Item item, Exception e) {
+        ContentValues values = new ContentValues();
+        values.put(OutboxItems.REJECTED, 1);
+        values.put(OutboxItems.LAST_ERROR, String.valueOf(getError(e)));
+        synchronized (mItemsLock) {
+            updateItem(item.id, values);
+        }
+        EventBus.getDefault().post(createFailedEvent(item.kind, getError(e)));
+    }
+
+    /** Creates the event that reports the failure of a write of the given kind. */
+    private static Object createFailedEvent(Kind kind, Exception error) {
+        switch (kind) {
+            case ENCOUNTER:
+                EncounterAddFailedEvent.Reason reason =
+                    EncounterAddFailedEvent.Reason.UNKNOWN_SERVER_ERROR;
+                String message = error.getMessage();
+                if (message != null) {
+                    if (message.contains("failed to validate")) {
+                        reason = EncounterAddFailedEvent.Reason.FAILED_TO_VALIDATE;
+                    } else if (message.contains("Privileges required")) {
+                        reason = EncounterAddFailedEvent.Reason.FAILED_TO_AUTHENTICATE;
+                    }
+                }
+                return new EncounterAddFailedEvent(reason, error);
+            case ORDER:
+                return new OrderSaveFailedEvent(
+                    OrderSaveFailedEvent.Reason.UNKNOWN_SERVER_ERROR, error);
+            case VOID_OBS:
+                return new VoidObsFailedEvent(
+                    VoidObsFailedEvent.Reason.UNKNOWN_SERVER_ERROR, error);
+            case XFORM:
+            default:
+                return new SubmitXformFailedEvent(SubmitXformFailedEvent.Reason.SERVER_ERROR, error);
+        }
+    }
+
+    /** Returns the underlying error of a failed send, skipping the wrappers added here. */
+    private static Exception getError(Exception e) {
+        Throwable error = e;
+        while ((error instanceof SendException || error instanceof ExecutionException)
+            && error.getCause() instanceof Exception) {
+            error = error.getCause();
+        }
+        return (Exception) error;
+    }
+
+    /** Records a failed attempt to send an item, returning how long to wait before retrying. */
+    private long recordFailure(Item item, Exception e) {
+        long backoff = Math.min(INITIAL_BACKOFF_MILLIS << Math.min(item.attempts, 16),
+            MAX_BACKOFF_MILLIS);
+        ContentValues values = new ContentValues();
+        values.put(OutboxItems.ATTEMPTS, item.attempts + 1);
+        values.put(OutboxItems.NEXT_ATTEMPT_MILLIS, System.currentTimeMillis() + backoff);
+        values.put(OutboxItems.LAST_ERROR, String.valueOf(getError(e)));
+        synchronized (mItemsLock) {
+            updateItem(item.id, values);
+        }
+        return backoff;
+    }
+
+    /** Returns the oldest queued item that hasn't been rejected, or null if there is none. */
+    private @Nullable Item loadHead() {
+        try (Cursor c = mContentResolver.query(
+            OutboxItems.CONTENT_URI, ITEM_PROJECTION, OutboxItems.REJECTED + " = 0", null,
+            OutboxItems.ID)) {
+            return c.moveToNext() ? new Item(c) : null;
+        }
+    }
+
+    private void insertItem(Kind kind, @Nullable String patientUuid, String localUuid,
+                            @Nullable String payload) {
+        ContentValues values = new ContentValues();
+        values.put(OutboxItems.KIND, kind.name());
+        values.put(OutboxItems.PATIENT_UUID, patientUuid);
+        values.put(OutboxItems.LOCAL_UUID, localUuid);
+        values.put(OutboxItems.PAYLOAD, payload);
+        values.put(OutboxItems.CREATED_MILLIS, System.currentTimeMillis());
+        mContentResolver.insert(OutboxItems.CONTENT_URI, values);
+    }
+
+    private void updateItem(long id, ContentValues values) {
+        mContentResolver.update(OutboxItems.CONTENT_URI, values,
+            OutboxItems.ID + " = ?", new String[] {Long.toString(id)});
+    }
+
+    private void deleteItem(Item item) {
+        synchronized (mItemsLock) {
+            mContentResolver.delete(OutboxItems.CONTENT_URI,
+                OutboxItems.ID + " = ?", new String[] {Long.toString(item.id)});
+        }
+    }
+
+    private static Order withUuid(Order order, @Nullable String uuid) {
+        return new Order(uuid, order.patientUuid, order.instructions, order.start, order.stop);
+    }
+
+    /** Waits for a request, sorting any failure into a permanent or a temporary one. */
+    private static <T> T await(RequestFuture<T> future) throws SendException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            throw new SendException(e, false);
+        } catch (ExecutionException e) {
+            throw new SendException(e, isRejection(e.getCause()));
+        }
+    }
+
+    /**
+     * Returns true if the server received the request and refused it in a way that retrying
+     * won't fix.  OpenMrsServer wraps its errors, so this looks through the chain of causes.
+     */
+    private static boolean isRejection(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof VolleyError && ((VolleyError) t).networkResponse != null) {
+                NetworkResponse response = ((VolleyError) t).networkResponse;
+                switch (response.statusCode) {
+                    case HttpURLConnection.HTTP_UNAUTHORIZED:
+                    case HttpURLConnection.HTTP_FORBIDDEN:
+                    case HttpURLConnection.HTTP_CLIENT_TIMEOUT:
+                    case 429:  // Too Many Requests
+                        return false;
+                    default:
+                        return response.statusCode >= 400 && response.statusCode < 500;
+                }
+            }
+        }
+        return false;
+    }
+
+    /** A queued write, as read from the outbox table. */
+    private static class Item {
+        final long id;
+        final Kind kind;
+        final String patientUuid;
+        final String localUuid;
+        final String payload;
+        final int attempts;
+        final long nextAttemptMillis;
+
+        Item(Cursor c) {
+            id = c.getLong(0);
+            kind = Kind.valueOf(c.getString(1));
+            patientUuid = c.getString(2);
+            localUuid = c.getString(3);
+            payload = c.getString(4);
+            attempts = c.getInt(5);
+            nextAttemptMillis = c.getLong(6);
+        }
+
+        Encounter getEncounter(Gson gson) {
+            try {
+                return gson.fromJson(payload, Encounter.class);
+            } catch (JsonParseException e) {
+                throw new IllegalStateException("Unreadable queued encounter " + id, e);
+            }
+        }
+
+        Order getOrder(Gson gson) {
+            try {
+                return gson.fromJson(payload, Order.class);
+            } catch (JsonParseException e) {
+                throw new IllegalStateException("Unreadable queued order " + id, e);
+            }
+        }
+
+        @Override public String toString() {
+            return kind + " #" + id + " (" + localUuid + ", attempt " + (attempts + 1) + ")";
+        }
+    }
+
+    /** A failure to send an item; permanent if the server rejected it outright. */
+    private static class SendException extends Exception {
+        final boolean permanent;
+
+        SendException(Throwable cause, boolean permanent) {
+            super(cause);
+            this.permanent = permanent;
+        }
+    }
+}
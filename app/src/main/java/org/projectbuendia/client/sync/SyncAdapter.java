@@ -46,8 +46,13 @@ import org.projectbuendia.client.sync.controllers.SyncPhaseRunnable;
 import org.projectbuendia.client.sync.controllers.UsersSyncPhaseRunnable;
 import org.projectbuendia.client.utils.Logger;
 
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CancellationException;
 
@@ -67,6 +72,9 @@ public class SyncAdapter extends AbstractThreadedSyncAdapter {
     /**
      * Keys in the extras bundle used to select which sync phases to do.
      * Select a phase by setting a boolean value of true for the appropriate key.
+     * <p>
+     * Phases without dependencies between them are run concurrently (see
+     * {@link SyncPhaseScheduler}).  A phase only ever depends on phases declared before it.
      */
     public enum SyncPhase {
         SYNC_USERS(R.string.syncing_users, new UsersSyncPhaseRunnable()),
@@ -74,17 +82,22 @@ public class SyncAdapter extends AbstractThreadedSyncAdapter {
         SYNC_CHART_ITEMS(R.string.syncing_charts, new ChartsSyncPhaseRunnable()),
         SYNC_CONCEPTS(R.string.syncing_concepts, new ConceptsSyncPhaseRunnable()),
         SYNC_PATIENTS(R.string.syncing_patients, new PatientsSyncPhaseRunnable()),
-        SYNC_OBSERVATIONS(R.string.syncing_observations, new ObservationsSyncPhaseRunnable()),
-        SYNC_ORDERS(R.string.syncing_orders, new OrdersSyncPhaseRunnable()),
+        SYNC_OBSERVATIONS(R.string.syncing_observations, new ObservationsSyncPhaseRunnable(),
+            SYNC_CONCEPTS, SYNC_PATIENTS),
+        SYNC_ORDERS(R.string.syncing_orders, new OrdersSyncPhaseRunnable(),
+            SYNC_PATIENTS),
         SYNC_FORMS(R.string.syncing_forms, new FormsSyncPhaseRunnable());
 
         @StringRes
         public final int message;
         public final SyncPhaseRunnable runnable;
+        /** Phases that must finish before this one starts, if they are part of the same sync. */
+        public final List<SyncPhase> dependencies;
 
-        SyncPhase(int message, SyncPhaseRunnable runnable) {
+        SyncPhase(int message, SyncPhaseRunnable runnable, SyncPhase... dependencies) {
             this.message = message;
             this.runnable = runnable;
+            this.dependencies = Arrays.asList(dependencies);
         }
     }
 
@@ -108,8 +121,13 @@ public class SyncAdapter extends AbstractThreadedSyncAdapter {
     }
 
     @Override public void onSyncCanceled() {
-        mIsSyncCanceled = true;
+        synchronized (this) {
+            mIsSyncCanceled = true;
+        }
         LOG.i("Detecting a sync cancellation, canceling sync soon.");
+        // Interrupts the sync thread, so that a phase blocked waiting for the network (or, when
+        // pipelined, for the next prefetched page) stops waiting right away.
+        super.onSyncCanceled();
     }
 
     /** Not thread-safe but, by default, this will never be called multiple times in parallel. */
@@ -166,14 +184,18 @@ public class SyncAdapter extends AbstractThreadedSyncAdapter {
         LOG.i("Requested phases are: %s", phases);
         reportProgress(0, R.string.sync_in_progress);
 
+        final SyncMetrics metrics = App.getSyncMetrics();
+        metrics.startSync();
+
         BuendiaProvider buendiaProvider =
             (BuendiaProvider) (provider.getLocalContentProvider());
         SQLiteDatabaseTransactionHelper dbTransactionHelper =
             buendiaProvider.getDbTransactionHelper();
         LOG.i("Setting savepoint %s", SYNC_SAVEPOINT_NAME);
-        dbTransactionHelper.startNamedTransaction(SYNC_SAVEPOINT_NAME);
+        dbTransactionHelper.startSharedTransaction(SYNC_SAVEPOINT_NAME);
+        final long savepointStartNanos = System.nanoTime();
 
-        TimingLogger timings = new TimingLogger(LOG.tag, "onPerformSync");
+        final TimingLogger timings = new TimingLogger(LOG.tag, "onPerformSync");
 
         try {
             if (fullSync) {
@@ -182,21 +204,37 @@ public class SyncAdapter extends AbstractThreadedSyncAdapter {
                 storeFullSyncStartTime(provider, syncStartTime);
             }
 
-            float progressIncrement = 100.0f/phases.size();
-            int completedPhases = 0;
-            for (SyncPhase phase : SyncPhase.values()) {
-                if (!phases.contains(phase)) {
-                    continue;
-                }
-                checkCancellation("before " + phase);
-                LOG.i("--- Begin %s ---", phase);
-                reportProgress((int) (completedPhases * progressIncrement), phase.message);
-
-                phase.runnable.sync(mContentResolver, syncResult, provider);
-
-                timings.addSplit(phase.name() + " phase completed");
-                completedPhases++;
-            }
+            final float progressIncrement = 100.0f/phases.size();
+            new SyncPhaseScheduler(mContentResolver, provider, dbTransactionHelper).run(
+                phases, syncResult, new SyncPhaseScheduler.Listener() {
+                    /** Phases currently running, in the order they were started. */
+                    private final Set<SyncPhase> mRunning = new LinkedHashSet<>();
+                    /** The times at which running phases were started, for {@link SyncMetrics}. */
+                    private final Map<SyncPhase, Long> mStartNanos = new EnumMap<>(SyncPhase.class);
+                    private int mCompletedPhases = 0;
+
+                    @Override public void onPhaseStarted(SyncPhase phase) {
+                        checkCancellation("before " + phase);
+                        mRunning.add(phase);
+                        mStartNanos.put(phase, System.nanoTime());
+                        reportProgress((int) (mCompletedPhases * progressIncrement), phase.message);
+                    }
+
+                    @Override public void onPhaseFinished(SyncPhase phase) {
+                        timings.addSplit(phase.name() + " phase completed");
+                        SyncMetrics.Record record =
+                            metrics.newRecord(phase.name(), SyncMetrics.NO_PAGE);
+                        record.totalNanos = System.nanoTime() - mStartNanos.remove(phase);
+                        metrics.add(record);
+                        mRunning.remove(phase);
+                        mCompletedPhases++;
+                        // While phases overlap, keep showing the label of the oldest one running.
+                        if (!mRunning.isEmpty()) {
+                            reportProgress((int) (mCompletedPhases * progressIncrement),
+                                mRunning.iterator().next().message);
+                        }
+                    }
+                });
             reportProgress(100, R.string.completing_sync);
 
             if (fullSync) {
@@ -204,9 +242,10 @@ public class SyncAdapter extends AbstractThreadedSyncAdapter {
                 LOG.i("Recording full sync end time: " + syncEndTime);
                 storeFullSyncEndTime(provider, syncEndTime);
             }
-        } catch (CancellationException e) {
+        } catch (CancellationException | InterruptedException e) {
             rollbackSavepoint(dbTransactionHelper);
             // Reset canceled state so that it doesn't interfere with next sync.
+            resetCancellation();
             LOG.i(e, "Sync canceled");
             getContext().sendBroadcast(syncCanceledIntent);
             return;
@@ -224,8 +263,11 @@ public class SyncAdapter extends AbstractThreadedSyncAdapter {
             return;
         } finally {
             LOG.i("Releasing savepoint %s", SYNC_SAVEPOINT_NAME);
-            dbTransactionHelper.releaseNamedTransaction(SYNC_SAVEPOINT_NAME);
-            dbTransactionHelper.close();
+            dbTransactionHelper.releaseSharedTransaction();
+            SyncMetrics.Record record =
+                metrics.newRecord(SyncMetrics.WHOLE_SYNC, SyncMetrics.NO_PAGE);
+            record.totalNanos = System.nanoTime() - savepointStartNanos;
+            metrics.add(record);
         }
         timings.dumpToLog();
 
@@ -248,6 +290,10 @@ public class SyncAdapter extends AbstractThreadedSyncAdapter {
         }
     }
 
+    private synchronized void resetCancellation() {
+        mIsSyncCanceled = false;
+    }
+
     private void reportProgress(int progress, @StringRes int message) {
         String label = getContext().getResources().getString(message);
         Intent syncProgressIntent =
@@ -274,7 +320,7 @@ public class SyncAdapter extends AbstractThreadedSyncAdapter {
 
     private void rollbackSavepoint(SQLiteDatabaseTransactionHelper dbTransactionHelper) {
         LOG.i("Rolling back savepoint %s", SYNC_SAVEPOINT_NAME);
-        dbTransactionHelper.rollbackNamedTransaction(SYNC_SAVEPOINT_NAME);
+        dbTransactionHelper.rollbackSharedTransaction();
     }
 
     /** Returns the server timestamp corresponding to the last observation sync. */
@@ -0,0 +1,285 @@
+// Copyright 2015 The Project Buendia Authors
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not
+// use this file except in compliance with the License.  You may obtain a copy
+// of the License at: http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distrib-
+// uted under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+// OR CONDITIONS OF ANY KIND, either express or implied.  See the License for
+// specific language governing permissions and limitations under the License.
+
+package org.projectbuendia.client.sync;
+
+import android.os.Build;
+
+import com.google.common.base.Charsets;
+
+import org.projectbuendia.client.sync.SyncAdapter.SyncPhase;
+import org.projectbuendia.client.sync.controllers.SyncPhaseRunnable;
+import org.projectbuendia.client.utils.Logger;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * A rolling on-disk log of how long each part of a sync takes, so that a slow sync can be
+ * pinned on the network, JSON decoding or database writes, and tablets can be compared.
+ * <p>
+ * There is one {@link Record} per page of each incremental phase, one per phase, and one for
+ * the sync as a whole (whose total is the time spent inside the sync savepoint).  Records are
+ * appended to a CSV file that keeps only the most recent {@link #MAX_RECORDS}; the file is
+ * kept outside the app db so that records of failed (rolled back) syncs survive.
+ */
+public class SyncMetrics {
+    private static final Logger LOG = Logger.create();
+
+    /** The number of records kept; older ones are discarded. */
+    private static final int MAX_RECORDS = 2000;
+
+    /** The phase name used for the record that covers the whole sync. */
+    public static final String WHOLE_SYNC = "ALL";
+
+    /** The page number used for records that cover a whole phase or sync. */
+    public static final int NO_PAGE = -1;
+
+    static final String CSV_HEADER = "time,sync_start,phase,page,"
+        + "request_ms,bytes,decode_ms,rows,apply_ms,txn_ms,total_ms";
+
+    /**
+     * Measurements for one page of a phase, or the totals for a phase or sync.  Times are in
+     * nanoseconds; any measurement that doesn't apply is left at zero.
+     */
+    public static final class Record {
+        public final long syncStartMillis;
+        public final String phase;
+        public final int page;
+        /** Time from sending the request to having the whole response. */
+        public long requestNanos;
+        public long bytes;
+        /** Time spent decoding JSON into records. */
+        public long decodeNanos;
+        public long rows;
+        /** Time spent writing records or applying operations to the db. */
+        public long applyNanos;
+        /** Time from starting to committing the db transaction for the page. */
+        public long txnNanos;
+        public long totalNanos;
+
+        public Record(long syncStartMillis, String phase, int page) {
+            this.syncStartMillis = syncStartMillis;
+            this.phase = phase;
+            this.page = page;
+        }
+
+        String toCsv(long timeMillis) {
+            return String.format(Locale.US, "%d,%d,%s,%s,%.1f,%d,%.1f,%d,%.1f,%.1f,%.1f",
+                timeMillis, syncStartMillis, phase, page == NO_PAGE ? "" : "" + page,
+                toMillis(requestNanos), bytes, toMillis(decodeNanos), rows,
+                toMillis(applyNanos), toMillis(txnNanos), toMillis(totalNanos));
+        }
+
+        static @Nullable Record fromCsv(String line) {
+            String[] fields = line.split(",", -1);
+            if (fields.length != 11) return null;
+            try {
+                Record record = new Record(Long.parseLong(fields[1]), fields[2],
+                    fields[3].isEmpty() ? NO_PAGE : Integer.parseInt(fields[3]));
+                record.requestNanos = toNanos(fields[4]);
+                record.bytes = Long.parseLong(fields[5]);
+                record.decodeNanos = toNanos(fields[6]);
+                record.rows = Long.parseLong(fields[7]);
+                record.applyNanos = toNanos(fields[8]);
+                record.txnNanos = toNanos(fields[9]);
+                record.totalNanos = toNanos(fields[10]);
+                return record;
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+
+    private final File mFile;
+    private volatile long mSyncStartMillis;
+
+    // Guarded by this.  The number of records in the file, or -1 if not yet counted.
+    private int mRecordCount = -1;
+
+    public SyncMetrics(File file) {
+        mFile = file;
+    }
+
+    /** Marks the start of a sync; records created after this are attributed to it. */
+    public void startSync() {
+        mSyncStartMillis = System.currentTimeMillis();
+    }
+
+    /** Returns the phase that a runnable belongs to, for labelling its records. */
+    public static String getPhaseName(SyncPhaseRunnable runnable) {
+        for (SyncPhase phase : SyncPhase.values()) {
+            if (phase.runnable == runnable) return phase.name();
+        }
+        return runnable.getClass().getSimpleName();
+    }
+
+    /** Creates a record for the current sync; fill it in and pass it to {@link #add}. */
+    public Record newRecord(String phase, int page) {
+        return new Record(mSyncStartMillis, phase, page);
+    }
+
+    /** Appends a record to the log, discarding the oldest records if the log is full. */
+    public synchronized void add(Record record) {
+        if (mRecordCount < 0) {
+            mRecordCount = readLines().size();
+        }
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+            new FileOutputStream(mFile, true), Charsets.UTF_8))) {
+            writer.write(record.toCsv(System.currentTimeMillis()));
+            writer.write('\n');
+            mRecordCount++;
+        } catch (IOException e) {
+            LOG.w(e, "Failed to record sync metrics");
+            return;
+        }
+        // Trim in chunks, so that the file isn't rewritten on every record.
+        if (mRecordCount > MAX_RECORDS + MAX_RECORDS / 4) {
+            List<String> lines = readLines();
+            writeLines(lines.subList(Math.max(0, lines.size() - MAX_RECORDS), lines.size()));
+        }
+    }
+
+    /** Returns all the records in the log, oldest first. */
+    public synchronized List<Record> getRecords() {
+        List<Record> records = new ArrayList<>();
+        for (String line : readLines()) {
+            Record record = Record.fromCsv(line);
+            if (record != null) {
+                records.add(record);
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Returns a human-readable summary of the most recent sync: for each phase, its total time
+     * and the sums over its pages.  Reads the log file, so call this off the UI thread.
+     */
+    public String summarizeLastSync() {
+        List<Record> records = getRecords();
+        if (records.isEmpty()) return "";
+        long syncStart = records.get(records.size() - 1).syncStartMillis;
+
+        Map<String, Record> totals = new LinkedHashMap<>();
+        Map<String, Integer> pageCounts = new LinkedHashMap<>();
+        for (Record r : records) {
+            if (r.syncStartMillis != syncStart) continue;
+            Record total = totals.get(r.phase);
+            if (total == null) {
+                total = new Record(syncStart, r.phase, NO_PAGE);
+                totals.put(r.phase, total);
+                pageCounts.put(r.phase, 0);
+            }
+            if (r.page == NO_PAGE) {
+                total.totalNanos = r.totalNanos;
+            } else {
+                pageCounts.put(r.phase, pageCounts.get(r.phase) + 1);
+                total.requestNanos += r.requestNanos;
+                total.bytes += r.bytes;
+                total.decodeNanos += r.decodeNanos;
+                total.rows += r.rows;
+                total.applyNanos += r.applyNanos;
+                total.txnNanos += r.txnNanos;
+            }
+        }
+
+        StringBuilder summary = new StringBuilder();
+        for (Record t : totals.values()) {
+            summary.append(String.format(
+                Locale.US, "%s: %.0f ms", t.phase, toMillis(t.totalNanos)));
+            int pages = pageCounts.get(t.phase);
+            if (pages > 0) {
+                summary.append(String.format(Locale.US,
+                    "\n    %d pages, %d rows, %d bytes"
+                        + "\n    request %.0f ms, decode %.0f ms, apply %.0f ms, txn %.0f ms",
+                    pages, t.rows, t.bytes, toMillis(t.requestNanos), toMillis(t.decodeNanos),
+                    toMillis(t.applyNanos), toMillis(t.txnNanos)));
+            }
+            summary.append('\n');
+        }
+        return summary.toString();
+    }
+
+    /**
+     * Returns the whole log as CSV, labelled with this device's make and model, for sending
+     * elsewhere.  Reads the log file, so call this off the UI thread.
+     */
+    public synchronized String exportCsv() {
+        StringBuilder csv = new StringBuilder()
+            .append("# device: ").append(Build.MANUFACTURER)
+            .append(' ').append(Build.MODEL).append('\n')
+            .append(CSV_HEADER).append('\n');
+        for (String line : readLines()) {
+            csv.append(line).append('\n');
+        }
+        return csv.toString();
+    }
+
+    private List<String> readLines() {
+        List<String> lines = new ArrayList<>();
+        if (!mFile.exists()) return lines;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+            new FileInputStream(mFile), Charsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty()) {
+                    lines.add(line);
+                }
+            }
+        } catch (IOException e) {
+            LOG.w(e, "Failed to read sync metrics");
+        }
+        return lines;
+    }
+
+    private void writeLines(List<String> lines) {
+        File temp = new File(mFile.getPath() + ".tmp");
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+            new FileOutputStream(temp), Charsets.UTF_8))) {
+            for (String line : lines) {
+                writer.write(line);
+                writer.write('\n');
+            }
+        } catch (IOException e) {
+            LOG.w(e, "Failed to trim sync metrics");
+            temp.delete();
+            return;
+        }
+        if (temp.renameTo(mFile)) {
+            mRecordCount = lines.size();
+        } else {
+            temp.delete();
+        }
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    private static long toNanos(String millis) {
+        return (long) (Double.parseDouble(millis) * 1e6);
+    }
+}
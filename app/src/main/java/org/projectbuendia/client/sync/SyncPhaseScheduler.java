@@ -0,0 +1,210 @@
+// Copyright 2015 The Project Buendia Authors
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not
+// use this file except in compliance with the License.  You may obtain a copy
+// of the License at: http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distrib-
+// uted under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+// OR CONDITIONS OF ANY KIND, either express or implied.  See the License for
+// specific language governing permissions and limitations under the License.
+
+package org.projectbuendia.client.sync;
+
+import android.content.ContentProviderClient;
+import android.content.ContentResolver;
+import android.content.SyncResult;
+
+import org.projectbuendia.client.providers.SQLiteDatabaseTransactionHelper;
+import org.projectbuendia.client.sync.SyncAdapter.SyncPhase;
+import org.projectbuendia.client.utils.Logger;
+
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a set of sync phases, letting phases that don't depend on each other run at the same time.
+ * A phase is started only once every selected phase in its {@link SyncPhase#dependencies} has
+ * finished.  All phases share the caller's {@link ContentProviderClient}, and each phase's worker
+ * thread joins the caller's shared transaction (see
+ * {@link SQLiteDatabaseTransactionHelper#startSharedTransaction}) while it runs.  The phases'
+ * reads and writes thus all go through the provider's one writable connection, inside the
+ * caller's savepoint, and rolling that back undoes the work of every phase.
+ * <p>
+ * Each phase counts its work in a {@link SyncResult} of its own, which is merged into the
+ * caller's {@link SyncResult} on the calling thread once the phase finishes.  If any phase fails,
+ * the remaining phases are interrupted and the failure is rethrown to the caller, but only after
+ * the interrupted phases have stopped (or {@link #PHASE_STOP_TIMEOUT_MILLIS} has passed), so that
+ * no phase is still writing once the caller starts cleaning up.
+ */
+class SyncPhaseScheduler {
+    private static final Logger LOG = Logger.create();
+
+    /** Maximum number of phases that may be running at once. */
+    private static final int MAX_CONCURRENT_PHASES = 3;
+
+    /** How long to wait for interrupted phases to stop before giving up on them. */
+    private static final long PHASE_STOP_TIMEOUT_MILLIS = 30000;
+
+    /** Receives notifications about phases, always on the thread that called {@link #run}. */
+    interface Listener {
+        /** Called just before a phase is started.  May throw to abort the sync. */
+        void onPhaseStarted(SyncPhase phase);
+
+        /** Called after a phase has finished successfully. */
+        void onPhaseFinished(SyncPhase phase);
+    }
+
+    private final ContentResolver mContentResolver;
+    private final ContentProviderClient mProviderClient;
+    private final SQLiteDatabaseTransactionHelper mTransactionHelper;
+
+    /**
+     * Creates a scheduler whose phases join the shared transaction that the caller has started
+     * on {@code transactionHelper}.
+     */
+    SyncPhaseScheduler(ContentResolver contentResolver, ContentProviderClient providerClient,
+        SQLiteDatabaseTransactionHelper transactionHelper) {
+        mContentResolver = contentResolver;
+        mProviderClient = providerClient;
+        mTransactionHelper = transactionHelper;
+    }
+
+    /** Runs all the given phases, returning when they have all finished. */
+    void run(Set<SyncPhase> phases, SyncResult syncResult, Listener listener) throws Throwable {
+        Set<SyncPhase> pending = EnumSet.copyOf(phases);
+        Set<SyncPhase> finished = EnumSet.noneOf(SyncPhase.class);
+        int running = 0;
+
+        ExecutorService executor = Executors.newFixedThreadPool(MAX_CONCURRENT_PHASES);
+        CompletionService<PhaseOutcome> completion = new ExecutorCompletionService<>(executor);
+        try {
+            while (!pending.isEmpty() || running > 0) {
+                for (Iterator<SyncPhase> it = pending.iterator(); it.hasNext(); ) {
+                    SyncPhase phase = it.next();
+                    if (isReady(phase, phases, finished)) {
+                        it.remove();
+                        listener.onPhaseStarted(phase);
+                        completion.submit(new PhaseTask(phase));
+                        running++;
+                    }
+                }
+                if (running == 0) {
+                    throw new IllegalStateException("Circular dependency among " + pending);
+                }
+
+                PhaseOutcome outcome;
+                try {
+                    outcome = completion.take().get();
+                } catch (ExecutionException e) {
+                    throw e.getCause();
+                }
+                running--;
+                mergeStats(outcome.result, syncResult);
+                finished.add(outcome.phase);
+                listener.onPhaseFinished(outcome.phase);
+            }
+        } finally {
+            // Interrupts any phases still running if we're bailing out early, and waits for
+            // them to stop so they don't keep writing after the caller has given up on the sync.
+            executor.shutdownNow();
+            if (!awaitTermination(executor)) {
+                LOG.e("Sync phases still running %d ms after being interrupted",
+                    PHASE_STOP_TIMEOUT_MILLIS);
+            }
+        }
+    }
+
+    /**
+     * Waits up to {@link #PHASE_STOP_TIMEOUT_MILLIS} for the executor's phases to stop, even if
+     * the calling thread is interrupted meanwhile (its interrupt status is restored afterwards).
+     * Returns true if every phase has stopped.
+     */
+    private static boolean awaitTermination(ExecutorService executor) {
+        long deadline = System.currentTimeMillis() + PHASE_STOP_TIMEOUT_MILLIS;
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return executor.awaitTermination(
+                        Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /** Returns true if all of the phase's selected dependencies have finished. */
+    private static boolean isReady(
+        SyncPhase phase, Set<SyncPhase> selected, Set<SyncPhase> finished) {
+        for (SyncPhase dependency : phase.dependencies) {
+            if (selected.contains(dependency) && !finished.contains(dependency)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void mergeStats(SyncResult from, SyncResult to) {
+        to.stats.numInserts += from.stats.numInserts;
+        to.stats.numUpdates += from.stats.numUpdates;
+        to.stats.numDeletes += from.stats.numDeletes;
+        to.stats.numEntries += from.stats.numEntries;
+        to.stats.numSkippedEntries += from.stats.numSkippedEntries;
+        to.stats.numIoExceptions += from.stats.numIoExceptions;
+        to.stats.numParseExceptions += from.stats.numParseExceptions;
+        to.stats.numAuthExceptions += from.stats.numAuthExceptions;
+        to.stats.numConflictDetectedExceptions += from.stats.numConflictDetectedExceptions;
+        to.databaseError |= from.databaseError;
+    }
+
+    /** The result of a phase that has finished. */
+    private static class PhaseOutcome {
+        final SyncPhase phase;
+        final SyncResult result;
+
+        PhaseOutcome(SyncPhase phase, SyncResult result) {
+            this.phase = phase;
+            this.result = result;
+        }
+    }
+
+    /** Runs a single phase on a worker thread. */
+    private class PhaseTask implements Callable<PhaseOutcome> {
+        private final SyncPhase mPhase;
+
+        PhaseTask(SyncPhase phase) {
+            mPhase = phase;
+        }
+
+        @Override public PhaseOutcome call() throws Exception {
+            LOG.i("--- Begin %s ---", mPhase);
+            SyncResult result = new SyncResult();
+            mTransactionHelper.joinSharedTransaction();
+            try {
+                mPhase.runnable.sync(mContentResolver, result, mProviderClient);
+            } catch (Exception | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new ExecutionException(t);
+            } finally {
+                mTransactionHelper.leaveSharedTransaction();
+            }
+            LOG.i("--- End %s ---", mPhase);
+            return new PhaseOutcome(mPhase, result);
+        }
+    }
+}
@@ -1,8 +1,8 @@
 package org.projectbuendia.client.sync.controllers;
 
 import android.content.ContentProviderClient;
-import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
+import android.content.ContentValues;
 import android.content.SyncResult;
 
 import com.android.volley.toolbox.RequestFuture;
@@ -14,18 +14,25 @@ import org.projectbuendia.client.json.JsonChartItem;
 import org.projectbuendia.client.json.JsonChartSection;
 import org.projectbuendia.client.models.AppModel;
 import org.projectbuendia.client.net.OpenMrsChartServer;
-import org.projectbuendia.client.providers.Contracts;
+import org.projectbuendia.client.providers.BuendiaProvider;
+import org.projectbuendia.client.providers.BulkWriter;
+import org.projectbuendia.client.providers.Contracts.ChartItems;
+import org.projectbuendia.client.providers.Contracts.Table;
 import org.projectbuendia.client.utils.Logger;
 import org.projectbuendia.client.utils.Utils;
 
-import java.util.ArrayList;
-
 /**
  * Handles syncing charts. Always fetches everything. This is okay because the full set of chart
  * layouts is usually fairly small in size.
  */
 public class ChartsSyncPhaseRunnable implements SyncPhaseRunnable {
     private static final Logger LOG = Logger.create();
+    private static final String[] CHART_ITEM_COLUMNS = {
+            ChartItems.ROWID, ChartItems.CHART_UUID, ChartItems.WEIGHT, ChartItems.SECTION_TYPE,
+            ChartItems.PARENT_ROWID, ChartItems.LABEL, ChartItems.TYPE, ChartItems.REQUIRED,
+            ChartItems.CONCEPT_UUIDS, ChartItems.FORMAT, ChartItems.CAPTION_FORMAT,
+            ChartItems.CSS_CLASS, ChartItems.CSS_STYLE, ChartItems.SCRIPT
+    };
 
     @Override
     public void sync(ContentResolver contentResolver, SyncResult syncResult,
@@ -37,31 +44,41 @@ public class ChartsSyncPhaseRunnable implements SyncPhaseRunnable {
         chartServer.getChartStructure(AppModel.CHART_UUID, future, future);
         final JsonChart chart = future.get();
 
-        // When we do a chart update, delete everything first, then insert all the new rows.
-        providerClient.delete(Contracts.ChartItems.CONTENT_URI, null, null);
-        syncResult.stats.numDeletes++;
-        providerClient.applyBatch(getChartUpdateOps(chart, syncResult));
+        BuendiaProvider provider = (BuendiaProvider) providerClient.getLocalContentProvider();
+        BulkWriter writer = provider.openBulkWriter();
+        try {
+            writer.begin();
+            try {
+                // When we do a chart update, delete everything first, then insert all the new rows.
+                writer.deleteAll(Table.CHART_ITEMS);
+                syncResult.stats.numDeletes++;
+                writeChartItems(chart, writer, syncResult);
+                writer.commit();
+            } catch (Throwable t) {
+                writer.abort();
+                throw t;
+            }
+        } finally {
+            writer.close();
+        }
+        writer.notifyChanges();
     }
 
-    /** Converts a JsonChart response into appropriate inserts in the chart table. */
-    private static ArrayList<ContentProviderOperation> getChartUpdateOps(
-            JsonChart response, SyncResult syncResult) {
+    /** Converts a JsonChart response into rows in the chart table. */
+    private static void writeChartItems(
+            JsonChart response, BulkWriter writer, SyncResult syncResult) {
         if (response.uuid == null) {
             LOG.e("null chart uuid when fetching chart structure");
         }
 
-        ArrayList<ContentProviderOperation> ops = new ArrayList<>();
         int nextId = 1;
         int nextWeight = 1;
         for (JsonChartSection section : response.sections) {
             int parentId = nextId;
-            ops.add(ContentProviderOperation.newInsert(Contracts.ChartItems.CONTENT_URI)
-                    .withValue("rowid", nextId++)
-                    .withValue(Contracts.ChartItems.CHART_UUID, response.uuid)
-                    .withValue(Contracts.ChartItems.WEIGHT, nextWeight++)
-                    .withValue(Contracts.ChartItems.SECTION_TYPE, section.type == null ? null : section.type.name())
-                    .withValue(Contracts.ChartItems.LABEL, section.label)
-                    .build());
+            ContentValues values = newChartRow(nextId++, response.uuid, nextWeight++);
+            values.put(ChartItems.SECTION_TYPE, section.type == null ? null : section.type.name());
+            values.put(ChartItems.LABEL, section.label);
+            writer.upsert(Table.CHART_ITEMS, values);
             syncResult.stats.numInserts++;
 
             for (JsonChartItem item : section.items) {
@@ -69,24 +86,35 @@ public class ChartsSyncPhaseRunnable implements SyncPhaseRunnable {
                 for (int i = 0; i < conceptUuids.length; i++) {
                     conceptUuids[i] = Utils.expandUuid(item.concepts[i]);
                 }
-                ops.add(ContentProviderOperation.newInsert(Contracts.ChartItems.CONTENT_URI)
-                        .withValue("rowid", nextId++)
-                        .withValue(Contracts.ChartItems.CHART_UUID, response.uuid)
-                        .withValue(Contracts.ChartItems.WEIGHT, nextWeight++)
-                        .withValue(Contracts.ChartItems.PARENT_ROWID, parentId)
-                        .withValue(Contracts.ChartItems.LABEL, item.label)
-                        .withValue(Contracts.ChartItems.TYPE, item.type)
-                        .withValue(Contracts.ChartItems.REQUIRED, item.required ? 1 : 0)
-                        .withValue(Contracts.ChartItems.CONCEPT_UUIDS, Joiner.on(",").join(conceptUuids))
-                        .withValue(Contracts.ChartItems.FORMAT, item.format)
-                        .withValue(Contracts.ChartItems.CAPTION_FORMAT, item.caption_format)
-                        .withValue(Contracts.ChartItems.CSS_CLASS, item.css_class)
-                        .withValue(Contracts.ChartItems.CSS_STYLE, item.css_style)
-                        .withValue(Contracts.ChartItems.SCRIPT, item.script)
-                        .build());
+                values = newChartRow(nextId++, response.uuid, nextWeight++);
+                values.put(ChartItems.PARENT_ROWID, parentId);
+                values.put(ChartItems.LABEL, item.label);
+                values.put(ChartItems.TYPE, item.type);
+                values.put(ChartItems.REQUIRED, item.required ? 1 : 0);
+                values.put(ChartItems.CONCEPT_UUIDS, Joiner.on(",").join(conceptUuids));
+                values.put(ChartItems.FORMAT, item.format);
+                values.put(ChartItems.CAPTION_FORMAT, item.caption_format);
+                values.put(ChartItems.CSS_CLASS, item.css_class);
+                values.put(ChartItems.CSS_STYLE, item.css_style);
+                values.put(ChartItems.SCRIPT, item.script);
+                writer.upsert(Table.CHART_ITEMS, values);
                 syncResult.stats.numInserts++;
             }
         }
-        return ops;
+    }
+
+    /**
+     * Returns values for a chart row with every column present (mostly null), so that section
+     * rows and item rows can share one compiled statement.
+     */
+    private static ContentValues newChartRow(int rowid, String chartUuid, int weight) {
+        ContentValues values = new ContentValues();
+        for (String column : CHART_ITEM_COLUMNS) {
+            values.putNull(column);
+        }
+        values.put(ChartItems.ROWID, rowid);
+        values.put(ChartItems.CHART_UUID, chartUuid);
+        values.put(ChartItems.WEIGHT, weight);
+        return values;
     }
 }
@@ -12,7 +12,6 @@ import org.projectbuendia.client.json.JsonConcept;
 import org.projectbuendia.client.json.JsonConceptResponse;
 import org.projectbuendia.client.net.OpenMrsChartServer;
 import org.projectbuendia.client.providers.Contracts;
-import org.projectbuendia.client.sync.ChartDataHelper;
 import org.projectbuendia.client.utils.Logger;
 
 import java.util.ArrayList;
@@ -34,7 +33,8 @@ public class ConceptsSyncPhaseRunnable implements SyncPhaseRunnable {
         chartServer.getConcepts(future, future); // errors handled by caller
         ArrayList<ContentValues> conceptInserts = new ArrayList<>();
         ArrayList<ContentValues> conceptNameInserts = new ArrayList<>();
-        for (JsonConcept concept : future.get().results) {
+        JsonConcept[] concepts = future.get().results;
+        for (JsonConcept concept : concepts) {
             // This is safe because we have implemented insert on the content provider
             // with replace.
             ContentValues conceptInsert = new ContentValues();
@@ -67,6 +67,8 @@ public class ConceptsSyncPhaseRunnable implements SyncPhaseRunnable {
         providerClient.bulkInsert(Contracts.ConceptNames.CONTENT_URI,
                 conceptNameInserts.toArray(new ContentValues[conceptNameInserts.size()]));
 
-        ChartDataHelper.invalidateLoadedConceptData();
+        // Now that the new data is in the db, rebuild the in-memory dictionary from it,
+        // rather than discarding the dictionary and reloading everything from the db.
+        App.getConceptDictionary().rebuild(concepts);
     }
 }
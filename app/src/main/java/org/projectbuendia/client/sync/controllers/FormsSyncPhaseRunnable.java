@@ -3,7 +3,6 @@ package org.projectbuendia.client.sync.controllers;
 import android.content.ContentProviderClient;
 import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
-import android.content.ContentValues;
 import android.content.SyncResult;
 import android.database.Cursor;
 import android.net.Uri;
@@ -16,12 +15,12 @@ import org.projectbuendia.client.models.Form;
 import org.projectbuendia.client.providers.Contracts;
 import org.projectbuendia.client.ui.OdkActivityLauncher;
 import org.projectbuendia.client.utils.Logger;
-import org.projectbuendia.client.utils.Utils;
 
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.ExecutionException;
 
 /**
@@ -30,6 +29,7 @@ import java.util.concurrent.ExecutionException;
  */
 public class FormsSyncPhaseRunnable implements SyncPhaseRunnable {
     private static final Logger LOG = Logger.create();
+    private static final Form.Loader FORM_LOADER = new Form.Loader();
 
     @Override
     public void sync(ContentResolver contentResolver, SyncResult syncResult,
@@ -37,9 +37,11 @@ public class FormsSyncPhaseRunnable implements SyncPhaseRunnable {
             throws Throwable {
         ArrayList<ContentProviderOperation> ops = new ArrayList<>();
         ops.addAll(getFormUpdateOps(syncResult));
-        providerClient.applyBatch(ops);
+        if (!ops.isEmpty()) {
+            providerClient.applyBatch(ops);
+            contentResolver.notifyChange(Contracts.Forms.CONTENT_URI, null, false);
+        }
         LOG.i("Finished updating forms (" + ops.size() + " db ops)");
-        contentResolver.notifyChange(Contracts.Forms.CONTENT_URI, null, false);
 
         OdkActivityLauncher.fetchAndCacheAllXforms();
     }
@@ -49,30 +51,42 @@ public class FormsSyncPhaseRunnable implements SyncPhaseRunnable {
         LOG.i("Listing all forms on server");
         RequestFuture<List<JsonForm>> future = RequestFuture.newFuture();
         App.getServer().listForms(future, future);
-        Map<String, ContentValues> cvs = new HashMap<>();
+        Map<String, Form> serverForms = new HashMap<>();
         for (JsonForm form : future.get()) {
-            cvs.put(form.id, Form.fromJson(form).toContentValues());
+            serverForms.put(form.uuid, Form.fromJson(form));
         }
 
         ArrayList<ContentProviderOperation> ops = new ArrayList<>();
         final ContentResolver resolver = App.getInstance().getContentResolver();
-        Cursor c = resolver.query(Contracts.Forms.CONTENT_URI, new String[] {Contracts.Forms.UUID},
-                null, null, null);
-        LOG.i("Examining forms: " + c.getCount() + " local, " + cvs.size() + " from server");
-        try {
-            while (c.moveToNext()) {
-                String uuid = Utils.getString(c, Contracts.Forms.UUID);
-                Uri uri = Contracts.Forms.CONTENT_URI.buildUpon().appendPath(uuid).build();
-                LOG.i("  - will delete form " + uuid);
+        List<Form> localForms;
+        try (Cursor c = resolver.query(
+                Contracts.Forms.CONTENT_URI, FORM_LOADER.getProjection(), null, null, null)) {
+            localForms = FORM_LOADER.mapAll(c);
+        }
+        LOG.i("Examining forms: " + localForms.size() + " local, "
+                + serverForms.size() + " from server");
+
+        // Only touch the rows that differ, so that an unchanged form list costs no writes.
+        for (Form local : localForms) {
+            Uri uri = Contracts.Forms.CONTENT_URI.buildUpon().appendPath(local.uuid).build();
+            Form form = serverForms.remove(local.uuid);
+            if (form == null) {
+                LOG.i("  - will delete form " + local.uuid);
                 ops.add(ContentProviderOperation.newDelete(uri).build());
+                syncResult.stats.numDeletes++;
+            } else if (!Objects.equals(form.name, local.name)
+                    || !Objects.equals(form.version, local.version)) {
+                LOG.i("  - will update form " + local.uuid);
+                ops.add(ContentProviderOperation.newUpdate(uri)
+                        .withValues(form.toContentValues()).build());
+                syncResult.stats.numUpdates++;
             }
-        } finally {
-            c.close();
         }
 
-        for (ContentValues values : cvs.values()) {  // server has a new record
-            LOG.i("  - will insert form " + values.getAsString(Contracts.Forms.UUID));
-            ops.add(ContentProviderOperation.newInsert(Contracts.Forms.CONTENT_URI).withValues(values).build());
+        for (Form form : serverForms.values()) {  // server has a new record
+            LOG.i("  - will insert form " + form.uuid);
+            ops.add(ContentProviderOperation.newInsert(Contracts.Forms.CONTENT_URI)
+                    .withValues(form.toContentValues()).build());
             syncResult.stats.numInserts++;
         }
         return ops;
@@ -14,7 +14,6 @@
 package org.projectbuendia.client.sync.controllers;
 
 import android.content.ContentProviderClient;
-import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
 import android.content.SyncResult;
 import android.net.Uri;
@@ -23,21 +22,35 @@ import android.support.annotation.Nullable;
 import com.android.volley.DefaultRetryPolicy;
 import com.android.volley.Response;
 import com.android.volley.toolbox.RequestFuture;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonReader;
 
 import org.projectbuendia.client.App;
 import org.projectbuendia.client.json.IncrementalSyncResponse;
 import org.projectbuendia.client.json.Serializers;
+import org.projectbuendia.client.net.ByteArrayRequest;
 import org.projectbuendia.client.net.Common;
-import org.projectbuendia.client.net.GsonRequest;
 import org.projectbuendia.client.net.OpenMrsConnectionDetails;
+import org.projectbuendia.client.providers.BuendiaProvider;
+import org.projectbuendia.client.providers.BulkWriter;
 import org.projectbuendia.client.providers.Contracts;
 import org.projectbuendia.client.sync.SyncAdapter;
+import org.projectbuendia.client.sync.SyncMetrics;
 import org.projectbuendia.client.utils.Logger;
 
-import java.lang.reflect.ParameterizedType;
-import java.lang.reflect.Type;
-import java.util.ArrayList;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
 import java.util.HashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.projectbuendia.client.net.OpenMrsServer.wrapErrorListener;
 
@@ -46,17 +59,32 @@ import static org.projectbuendia.client.net.OpenMrsServer.wrapErrorListener;
  * <p>
  * To implement an incremental sync phase, create a subclass, supply the appropriate arguments to
  * {@link IncrementalSyncPhaseRunnable}'s constructor from the subclasses' public, no-arg
- * constructor, and then implement the {@link #getUpdateOps(Object[], SyncResult)} method.
+ * constructor, and then implement the {@link #createRecordWriter(BulkWriter)} method.
  * <p>
  * Note: you may also wish to undertake an action at the start and end of the sync phase - hooks are
  * provided for this. See {@link #beforeSyncStarted(ContentResolver, SyncResult,
  * ContentProviderClient)} and {@link #afterSyncFinished(ContentResolver, SyncResult,
  * ContentProviderClient)}.
+ * <p>
+ * Pages are decoded with a {@link JsonReader} one record at a time and written straight into the
+ * database through a {@link BulkWriter}, so memory use doesn't grow with the size of the page,
+ * and observers get one change notification per table at the end of the phase rather than one
+ * per row.  When {@link org.projectbuendia.client.AppSettings#getPipelinedSync()} is set, the
+ * next page is requested as soon as the current page's sync token is known, and fetched pages
+ * wait in a small bounded queue until the database writer is ready for them.
+ * <p>
+ * The request, decoding and database times for every page are recorded in {@link SyncMetrics}.
  */
 public abstract class IncrementalSyncPhaseRunnable<T> implements SyncPhaseRunnable {
 
     private static final Logger LOG = Logger.create();
 
+    /** Number of fetched pages that may wait to be written while the next page is fetched. */
+    private static final int PREFETCH_QUEUE_CAPACITY = 2;
+
+    /** How often the writer checks whether the prefetch thread has died, in milliseconds. */
+    private static final int PREFETCH_POLL_MILLIS = 500;
+
     private final String resourceType;
     private final Contracts.Table dbTable;
     private final Class<T> clazz;
@@ -90,34 +118,243 @@ public abstract class IncrementalSyncPhaseRunnable<T> implements SyncPhaseRunnab
         String syncToken = SyncAdapter.getLastSyncToken(providerClient, dbTable);
         LOG.i("Using sync token `%s`", syncToken);
 
-        IncrementalSyncResponse<T> response;
+        BuendiaProvider provider = (BuendiaProvider) providerClient.getLocalContentProvider();
+        BulkWriter bulkWriter = provider.openBulkWriter();
+        try {
+            StreamingRecordWriter<T> writer = createRecordWriter(bulkWriter);
+            if (App.getSettings().getPipelinedSync()) {
+                syncToken = syncPipelined(syncToken, writer, syncResult);
+            } else {
+                syncToken = syncStreaming(syncToken, writer, syncResult);
+            }
+        } finally {
+            bulkWriter.close();
+        }
+        bulkWriter.notifyChanges();
+
+        LOG.i("Saving new sync token `%s`", syncToken);
+        SyncAdapter.storeSyncToken(providerClient, dbTable, syncToken);
+
+        afterSyncFinished(contentResolver, syncResult, providerClient);
+    }
 
+    /**
+     * Fetches all pages, handing each record to {@code writer} as soon as it has been decoded.
+     * Each page is written in its own transaction.  Returns the sync token from the last page.
+     */
+    private String syncStreaming(String syncToken, StreamingRecordWriter<T> writer,
+        SyncResult syncResult) throws Throwable {
+        Gson gson = createGson();
+        IncrementalSyncResponse<T> response;
+        int page = 0;
         do {
-            RequestFuture<IncrementalSyncResponse<T>> future = RequestFuture.newFuture();
-            createRequest(syncToken, future, future);
-            response = future.get();
-            ArrayList<ContentProviderOperation> ops =
-                    getUpdateOps(response.results, syncResult);
-            providerClient.applyBatch(ops);
-            LOG.i("Updated page of %s (%d db ops)", resourceType, ops.size());
+            SyncMetrics.Record metrics = newPageRecord(page++);
+            long start = System.nanoTime();
+            byte[] body = fetchPage(syncToken);
+            metrics.requestNanos = System.nanoTime() - start;
+            response = writePage(body, gson, writer, syncResult, metrics);
+            metrics.totalNanos = System.nanoTime() - start;
+            App.getSyncMetrics().add(metrics);
 
             // Update sync token
             syncToken = response.syncToken;
         } while (response.more);
+        return syncToken;
+    }
 
-        LOG.i("Saving new sync token `%s`", syncToken);
-        SyncAdapter.storeSyncToken(providerClient, dbTable, response.syncToken);
+    /**
+     * Like {@link #syncStreaming}, but fetches pages on a separate thread.  The fetcher reads
+     * only the sync token and "more" flag from each page before requesting the next one, and
+     * hands the page body to this thread through a bounded queue, so that network round-trips
+     * overlap with database writes.  Returns the sync token from the last page.
+     */
+    private String syncPipelined(final String initialSyncToken,
+        StreamingRecordWriter<T> writer, SyncResult syncResult) throws Throwable {
+        final BlockingQueue<FetchedPage> queue = new ArrayBlockingQueue<>(PREFETCH_QUEUE_CAPACITY);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<Void> fetcher = executor.submit(new Callable<Void>() {
+            @Override public Void call() throws Exception {
+                String syncToken = initialSyncToken;
+                FetchedPage page;
+                do {
+                    long start = System.nanoTime();
+                    byte[] body = fetchPage(syncToken);
+                    page = readPageTrailer(body, System.nanoTime() - start);
+                    queue.put(page);
+                    syncToken = page.syncToken;
+                } while (page.more);
+                return null;
+            }
+        });
 
-        afterSyncFinished(contentResolver, syncResult, providerClient);
+        try {
+            Gson gson = createGson();
+            String syncToken = initialSyncToken;
+            FetchedPage page;
+            int pageNumber = 0;
+            do {
+                page = takePage(queue, fetcher);
+                SyncMetrics.Record metrics = newPageRecord(pageNumber++);
+                long start = System.nanoTime();
+                writePage(page.body, gson, writer, syncResult, metrics);
+                // The fetch overlapped with earlier writes, so it isn't part of the total.
+                metrics.requestNanos = page.requestNanos;
+                metrics.totalNanos = System.nanoTime() - start;
+                App.getSyncMetrics().add(metrics);
+                syncToken = page.syncToken;
+            } while (page.more);
+            return syncToken;
+        } finally {
+            // Stops the fetcher if we bailed out early, e.g. because the sync was canceled.
+            fetcher.cancel(true);
+            executor.shutdownNow();
+        }
     }
 
-    // Mandatory callback
+    /**
+     * Waits for the next fetched page.  If the fetcher fails instead, rethrows its exception.
+     */
+    private FetchedPage takePage(BlockingQueue<FetchedPage> queue, Future<Void> fetcher)
+        throws Throwable {
+        while (true) {
+            FetchedPage page = queue.poll(PREFETCH_POLL_MILLIS, TimeUnit.MILLISECONDS);
+            if (page != null) {
+                return page;
+            }
+            if (fetcher.isDone()) {
+                try {
+                    fetcher.get();
+                } catch (ExecutionException e) {
+                    throw e.getCause();
+                }
+                // The fetcher may have queued its last page just after our poll timed out.
+                page = queue.poll();
+                if (page != null) {
+                    return page;
+                }
+                throw new IllegalStateException("Prefetch of " + resourceType + " ended early");
+            }
+        }
+    }
+
+    /** Fetches the raw body of one page of results, blocking until it arrives. */
+    private byte[] fetchPage(@Nullable String syncToken) throws Exception {
+        RequestFuture<byte[]> future = RequestFuture.newFuture();
+        createStreamingRequest(syncToken, future, future);
+        return future.get();
+    }
 
     /**
-     * Produces a list of the operations needed to bring the local database in sync with the server.
+     * Decodes one page body and writes its records in a single transaction, adding the
+     * decoding and writing times to {@code metrics}.
      */
-    protected abstract ArrayList<ContentProviderOperation> getUpdateOps(
-            T[] list, SyncResult syncResult);
+    private IncrementalSyncResponse<T> writePage(byte[] body, Gson gson,
+        StreamingRecordWriter<T> writer, SyncResult syncResult, SyncMetrics.Record metrics)
+        throws Throwable {
+        IncrementalSyncResponse<T> response;
+        long start = System.nanoTime();
+        writer.beginPage();
+        try {
+            response = readPage(body, gson, writer, syncResult, metrics);
+            writer.endPage();
+        } catch (Throwable t) {
+            writer.abortPage();
+            throw t;
+        }
+        metrics.txnNanos = System.nanoTime() - start;
+        metrics.bytes = body.length;
+        LOG.i("Updated page of %s (%d bytes streamed)", resourceType, body.length);
+        return response;
+    }
+
+    private static Gson createGson() {
+        GsonBuilder gsonBuilder = new GsonBuilder();
+        Serializers.registerTo(gsonBuilder);
+        return gsonBuilder.create();
+    }
+
+    /**
+     * Reads the sync token and "more" flag from a page body, skipping over the results without
+     * decoding them.
+     */
+    private static FetchedPage readPageTrailer(byte[] body, long requestNanos)
+            throws IOException {
+        String syncToken = null;
+        boolean more = false;
+        try (JsonReader reader = new JsonReader(
+                new InputStreamReader(new ByteArrayInputStream(body), "UTF-8"))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "syncToken":
+                        syncToken = reader.nextString();
+                        break;
+                    case "more":
+                        more = reader.nextBoolean();
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        return new FetchedPage(body, syncToken, more, requestNanos);
+    }
+
+    /**
+     * Decodes one page of results, passing each record to {@code writer} as it is read.  The
+     * returned response carries the page's sync token and "more" flag; its results are null.
+     * Time spent decoding and time spent in the writer are added up separately in
+     * {@code metrics}.
+     */
+    private IncrementalSyncResponse<T> readPage(byte[] body, Gson gson,
+        StreamingRecordWriter<T> writer, SyncResult syncResult, SyncMetrics.Record metrics)
+        throws IOException {
+        IncrementalSyncResponse<T> response = new IncrementalSyncResponse<>();
+        int count = 0;
+        try (JsonReader reader = new JsonReader(
+                new InputStreamReader(new ByteArrayInputStream(body), "UTF-8"))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "results":
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            long start = System.nanoTime();
+                            T record = gson.fromJson(reader, clazz);
+                            long decoded = System.nanoTime();
+                            writer.write(record, syncResult);
+                            metrics.decodeNanos += decoded - start;
+                            metrics.applyNanos += System.nanoTime() - decoded;
+                            count++;
+                        }
+                        reader.endArray();
+                        break;
+                    case "syncToken":
+                        response.syncToken = reader.nextString();
+                        break;
+                    case "more":
+                        response.more = reader.nextBoolean();
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        LOG.d("Streamed %d %s records", count, resourceType);
+        metrics.rows = count;
+        return response;
+    }
+
+    private SyncMetrics.Record newPageRecord(int page) {
+        return App.getSyncMetrics().newRecord(SyncMetrics.getPhaseName(this), page);
+    }
+
+    // Mandatory callback
+
+    /** Returns a writer that stores records through {@code bulkWriter} as they are decoded. */
+    protected abstract StreamingRecordWriter<T> createRecordWriter(BulkWriter bulkWriter);
 
     // Optional callbacks
 
@@ -136,9 +373,9 @@ public abstract class IncrementalSyncPhaseRunnable<T> implements SyncPhaseRunnab
             SyncResult syncResult,
             ContentProviderClient providerClient) throws Throwable {}
 
-    private void createRequest(
+    private void createStreamingRequest(
             @Nullable String lastSyncToken,
-            Response.Listener<IncrementalSyncResponse<T>> successListener,
+            Response.Listener<byte[]> successListener,
             final Response.ErrorListener errorListener) {
         OpenMrsConnectionDetails connectionDetails = App.getConnectionDetails();
         Uri.Builder url = Uri.parse(connectionDetails.getBuendiaApiUrl()).buildUpon();
@@ -146,39 +383,28 @@ public abstract class IncrementalSyncPhaseRunnable<T> implements SyncPhaseRunnab
         if (lastSyncToken != null) {
             url.appendQueryParameter("since", lastSyncToken);
         }
-        GsonRequest<IncrementalSyncResponse<T>> request = new GsonRequest<>(
+        ByteArrayRequest request = new ByteArrayRequest(
                 url.build().toString(),
-                new IncrementalSyncResponseType(clazz),
                 connectionDetails.addAuthHeader(new HashMap<String, String>()),
                 successListener,
                 wrapErrorListener(errorListener));
-        Serializers.registerTo(request.getGson());
         request.setRetryPolicy(
                 new DefaultRetryPolicy(Common.REQUEST_TIMEOUT_MS_MEDIUM, 1, 1f));
         connectionDetails.getVolley().addToRequestQueue(request);
     }
 
-    private static class IncrementalSyncResponseType implements ParameterizedType {
-
-        private final Type[] typeArgs;
-
-        public IncrementalSyncResponseType(Type innerType) {
-            typeArgs = new Type[] { innerType };
-        }
-
-        @Override
-        public Type[] getActualTypeArguments() {
-            return typeArgs;
-        }
-
-        @Override
-        public Type getOwnerType() {
-            return null;
-        }
+    /** A page body that has been fetched but not yet written, with its paging metadata. */
+    private static class FetchedPage {
+        final byte[] body;
+        final String syncToken;
+        final boolean more;
+        final long requestNanos;
 
-        @Override
-        public Type getRawType() {
-            return IncrementalSyncResponse.class;
+        FetchedPage(byte[] body, String syncToken, boolean more, long requestNanos) {
+            this.body = body;
+            this.syncToken = syncToken;
+            this.more = more;
+            this.requestNanos = requestNanos;
         }
     }
 }
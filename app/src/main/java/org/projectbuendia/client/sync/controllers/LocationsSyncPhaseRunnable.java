@@ -1,8 +1,8 @@
 package org.projectbuendia.client.sync.controllers;
 
 import android.content.ContentProviderClient;
-import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
+import android.content.ContentValues;
 import android.content.SyncResult;
 import android.database.Cursor;
 import android.net.Uri;
@@ -11,11 +11,13 @@ import com.android.volley.toolbox.RequestFuture;
 
 import org.projectbuendia.client.App;
 import org.projectbuendia.client.json.JsonLocation;
+import org.projectbuendia.client.providers.BuendiaProvider;
+import org.projectbuendia.client.providers.BulkWriter;
+import org.projectbuendia.client.providers.Contracts.Table;
 import org.projectbuendia.client.providers.Contracts.LocationNames;
 import org.projectbuendia.client.providers.Contracts.Locations;
 import org.projectbuendia.client.utils.Logger;
 
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -32,17 +34,28 @@ public class LocationsSyncPhaseRunnable implements SyncPhaseRunnable {
     public void sync(ContentResolver contentResolver, SyncResult syncResult,
             ContentProviderClient providerClient)
             throws Throwable {
-        ArrayList<ContentProviderOperation> ops = getLocationUpdateOps(syncResult);
-        providerClient.applyBatch(ops);
-        contentResolver.notifyChange(Locations.CONTENT_URI, null, false);
-        contentResolver.notifyChange(LocationNames.CONTENT_URI, null, false);
+        BuendiaProvider provider = (BuendiaProvider) providerClient.getLocalContentProvider();
+        BulkWriter writer = provider.openBulkWriter();
+        try {
+            writer.begin();
+            try {
+                writeLocationUpdates(writer, syncResult);
+                writer.commit();
+            } catch (Throwable t) {
+                writer.abort();
+                throw t;
+            }
+        } finally {
+            writer.close();
+        }
+        writer.notifyChanges();
     }
 
     /**
-     * Requests locations from the server and transforms the response into an {@link ArrayList} of
-     * {@link ContentProviderOperation}s for updating the database.
+     * Requests locations from the server and writes the differences between the response and
+     * the database through {@code writer}.
      */
-    private static ArrayList<ContentProviderOperation> getLocationUpdateOps(SyncResult syncResult)
+    private static void writeLocationUpdates(BulkWriter writer, SyncResult syncResult)
             throws ExecutionException, InterruptedException {
         final ContentResolver contentResolver = App.getInstance().getContentResolver();
 
@@ -64,7 +77,6 @@ public class LocationsSyncPhaseRunnable implements SyncPhaseRunnable {
         // background thread
         List<JsonLocation> locations = future.get();
         LOG.d("After network call");
-        ArrayList<ContentProviderOperation> batch = new ArrayList<>();
 
         Map<String, JsonLocation> locationsByUuid = new HashMap<>();
         for (JsonLocation location : locations) {
@@ -85,13 +97,13 @@ public class LocationsSyncPhaseRunnable implements SyncPhaseRunnable {
 
         // Build map of location names from the database.
         Map<String, Map<String, String>> dbLocationNames = new HashMap<>();
+        int locationUuidColumn = namesCur.getColumnIndex(LocationNames.LOCATION_UUID);
+        int localeColumn = namesCur.getColumnIndex(LocationNames.LOCALE);
+        int nameColumn = namesCur.getColumnIndex(LocationNames.NAME);
         while (namesCur.moveToNext()) {
-            String locationUuid = namesCur.getString(
-                    namesCur.getColumnIndex(LocationNames.LOCATION_UUID));
-            String locale = namesCur.getString(
-                    namesCur.getColumnIndex(LocationNames.LOCALE));
-            String name = namesCur.getString(
-                    namesCur.getColumnIndex(LocationNames.NAME));
+            String locationUuid = namesCur.getString(locationUuidColumn);
+            String locale = namesCur.getString(localeColumn);
+            String name = namesCur.getString(nameColumn);
             if (locationUuid == null || locale == null || name == null) continue;
 
             if (!dbLocationNames.containsKey(locationUuid)) {
@@ -103,11 +115,13 @@ public class LocationsSyncPhaseRunnable implements SyncPhaseRunnable {
         namesCur.close();
 
         // Iterate through the list of locations
+        int uuidColumn = c.getColumnIndex(Locations.UUID);
+        int parentUuidColumn = c.getColumnIndex(Locations.PARENT_UUID);
         while (c.moveToNext()) {
             syncResult.stats.numEntries++;
 
-            uuid = c.getString(c.getColumnIndex(Locations.UUID));
-            parentUuid = c.getString(c.getColumnIndex(Locations.PARENT_UUID));
+            uuid = c.getString(uuidColumn);
+            parentUuid = c.getString(parentUuidColumn);
 
             JsonLocation location = locationsByUuid.get(uuid);
             if (location != null) {
@@ -118,44 +132,27 @@ public class LocationsSyncPhaseRunnable implements SyncPhaseRunnable {
                 Map<String, String> locationNames = dbLocationNames.get(uuid);
 
                 // Check to see if the entry needs to be updated
-                Uri existingUri = uri.buildUpon().appendPath(String.valueOf(uuid)).build();
-
                 if (location.parent_uuid != null && !location.parent_uuid.equals(parentUuid)) {
                     // Update existing record
                     LOG.i("  - will update location " + uuid);
-                    batch.add(ContentProviderOperation.newUpdate(existingUri)
-                            .withValue(Locations.UUID, uuid)
-                            .withValue(Locations.PARENT_UUID, parentUuid)
-                            .build());
+                    writer.upsert(Table.LOCATIONS, getLocationValues(location));
                     syncResult.stats.numUpdates++;
                 }
 
                 if (location.names != null
                         && (locationNames == null || !location.names.equals(locationNames))) {
-                    Uri existingNamesUri = namesUri.buildUpon().appendPath(
-                            String.valueOf(uuid)).build();
                     // Update location names by deleting any existing location names and
                     // repopulating.
-                    batch.add(ContentProviderOperation.newDelete(existingNamesUri).build());
+                    writer.delete(Table.LOCATION_NAMES, LocationNames.LOCATION_UUID, uuid);
                     syncResult.stats.numDeletes++;
-                    for (String locale : location.names.keySet()) {
-
-                        batch.add(ContentProviderOperation.newInsert(existingNamesUri)
-                                .withValue(LocationNames.LOCATION_UUID, uuid)
-                                .withValue(LocationNames.LOCALE, locale)
-                                .withValue(LocationNames.NAME, location.names.get(locale))
-                                .build());
-                        syncResult.stats.numInserts++;
-                    }
+                    writeLocationNames(writer, location, syncResult);
                 }
             } else {
                 // Entry doesn't exist. Remove it from the database.
                 LOG.i("  - will delete location " + uuid);
-                Uri deleteUri = uri.buildUpon().appendPath(uuid).build();
-                batch.add(ContentProviderOperation.newDelete(deleteUri).build());
+                writer.delete(Table.LOCATIONS, Locations.UUID, uuid);
                 syncResult.stats.numDeletes++;
-                Uri namesDeleteUri = namesUri.buildUpon().appendPath(uuid).build();
-                batch.add(ContentProviderOperation.newDelete(namesDeleteUri).build());
+                writer.delete(Table.LOCATION_NAMES, LocationNames.LOCATION_UUID, uuid);
                 syncResult.stats.numDeletes++;
             }
         }
@@ -163,26 +160,29 @@ public class LocationsSyncPhaseRunnable implements SyncPhaseRunnable {
 
         for (JsonLocation location : locationsByUuid.values()) {
             LOG.i("  - will insert location " + location.uuid);
-            batch.add(ContentProviderOperation.newInsert(Locations.CONTENT_URI)
-                    .withValue(Locations.UUID, location.uuid)
-                    .withValue(Locations.PARENT_UUID, location.parent_uuid)
-                    .build());
+            writer.upsert(Table.LOCATIONS, getLocationValues(location));
             syncResult.stats.numInserts++;
-
-            if (location.names != null) {
-                for (String locale : location.names.keySet()) {
-                    Uri existingNamesUri = namesUri.buildUpon().appendPath(
-                            String.valueOf(location.uuid)).build();
-                    batch.add(ContentProviderOperation.newInsert(existingNamesUri)
-                            .withValue(LocationNames.LOCATION_UUID, location.uuid)
-                            .withValue(LocationNames.LOCALE, locale)
-                            .withValue(LocationNames.NAME, location.names.get(locale))
-                            .build());
-                    syncResult.stats.numInserts++;
-                }
-            }
+            writeLocationNames(writer, location, syncResult);
         }
+    }
+
+    private static ContentValues getLocationValues(JsonLocation location) {
+        ContentValues values = new ContentValues();
+        values.put(Locations.UUID, location.uuid);
+        values.put(Locations.PARENT_UUID, location.parent_uuid);
+        return values;
+    }
 
-        return batch;
+    private static void writeLocationNames(
+            BulkWriter writer, JsonLocation location, SyncResult syncResult) {
+        if (location.names == null) return;
+        for (String locale : location.names.keySet()) {
+            ContentValues values = new ContentValues();
+            values.put(LocationNames.LOCATION_UUID, location.uuid);
+            values.put(LocationNames.LOCALE, locale);
+            values.put(LocationNames.NAME, location.names.get(locale));
+            writer.upsert(Table.LOCATION_NAMES, values);
+            syncResult.stats.numInserts++;
+        }
     }
 }
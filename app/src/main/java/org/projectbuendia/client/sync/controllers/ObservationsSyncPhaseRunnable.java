@@ -14,27 +14,21 @@
 package org.projectbuendia.client.sync.controllers;
 
 import android.content.ContentProviderClient;
-import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.SyncResult;
-import android.net.Uri;
 import android.os.RemoteException;
 
 import org.projectbuendia.client.json.JsonObservation;
+import org.projectbuendia.client.providers.BulkWriter;
 import org.projectbuendia.client.providers.Contracts;
 import org.projectbuendia.client.providers.Contracts.Observations;
-import org.projectbuendia.client.utils.Logger;
-
-import java.util.ArrayList;
 
 /**
  * Handles syncing observations. Uses an incremental sync mechanism - see
  * {@link IncrementalSyncPhaseRunnable} for details.
  */
 public class ObservationsSyncPhaseRunnable extends IncrementalSyncPhaseRunnable<JsonObservation> {
-    private static final Logger LOG = Logger.create();
-
     public ObservationsSyncPhaseRunnable() {
         super(
                 "observations",
@@ -43,26 +37,19 @@ public class ObservationsSyncPhaseRunnable extends IncrementalSyncPhaseRunnable<
     }
 
     @Override
-    protected ArrayList<ContentProviderOperation> getUpdateOps(
-            JsonObservation[] list, SyncResult syncResult) {
-        int deletes = 0;
-        int inserts = 0;
-        ArrayList<ContentProviderOperation> ops = new ArrayList<>();
-        for (JsonObservation observation: list) {
-            if (observation.voided) {
-                Uri uri = Observations.CONTENT_URI.buildUpon().appendPath(observation.uuid).build();
-                ops.add(ContentProviderOperation.newDelete(uri).build());
-                deletes++;
-            } else {
-                ops.add(ContentProviderOperation.newInsert(Observations.CONTENT_URI)
-                        .withValues(getObsValuesToInsert(observation)).build());
-                inserts++;
+    protected StreamingRecordWriter<JsonObservation> createRecordWriter(BulkWriter bulkWriter) {
+        return new StreamingRecordWriter<JsonObservation>(
+                bulkWriter, Contracts.Table.OBSERVATIONS, Observations.UUID) {
+            @Override protected void write(JsonObservation observation, SyncResult syncResult) {
+                if (observation.voided) {
+                    delete(observation.uuid);
+                    syncResult.stats.numDeletes++;
+                } else {
+                    upsert(getObsValuesToInsert(observation));
+                    syncResult.stats.numInserts++;
+                }
             }
-        }
-        LOG.d("Observations processed! Inserts: %d, Deletes: %d", inserts, deletes);
-        syncResult.stats.numInserts += inserts;
-        syncResult.stats.numDeletes += deletes;
-        return ops;
+        };
     }
 
     /** Converts an encounter data response into appropriate inserts in the encounters table. */
@@ -84,9 +71,15 @@ public class ObservationsSyncPhaseRunnable extends IncrementalSyncPhaseRunnable<
             ContentResolver contentResolver,
             SyncResult syncResult,
             ContentProviderClient providerClient) throws RemoteException {
-        // Remove all temporary observations now we have the real ones
+        // Remove all temporary observations now we have the real ones, except those for
+        // writes still waiting in the outbox, which the server doesn't know about yet.
         providerClient.delete(Observations.CONTENT_URI,
-                Observations.UUID + " IS NULL",
+                Observations.UUID + " IS NULL AND " + Observations.ENCOUNTER_UUID
+                        + " NOT IN (SELECT " + Contracts.OutboxItems.LOCAL_UUID
+                        + " FROM " + Contracts.Table.OUTBOX
+                        + " WHERE " + Contracts.OutboxItems.LOCAL_UUID + " IS NOT NULL)",
                 new String[0]);
+        // latest_observations is kept up to date by triggers, which don't notify observers.
+        contentResolver.notifyChange(Contracts.LatestObservations.CONTENT_URI, null, false);
     }
 }
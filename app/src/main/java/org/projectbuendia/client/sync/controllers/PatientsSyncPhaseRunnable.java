@@ -13,18 +13,13 @@
 
 package org.projectbuendia.client.sync.controllers;
 
-import android.content.ContentProviderClient;
-import android.content.ContentProviderOperation;
-import android.content.ContentResolver;
 import android.content.SyncResult;
-import android.net.Uri;
 
 import org.projectbuendia.client.json.JsonPatient;
 import org.projectbuendia.client.models.Patient;
+import org.projectbuendia.client.providers.BulkWriter;
 import org.projectbuendia.client.providers.Contracts;
 
-import java.util.ArrayList;
-
 /**
  * Handles syncing patients. Uses an incremental sync mechanism - see
  * {@link IncrementalSyncPhaseRunnable} for details.
@@ -39,37 +34,18 @@ public class PatientsSyncPhaseRunnable extends IncrementalSyncPhaseRunnable<Json
     }
 
     @Override
-    protected ArrayList<ContentProviderOperation> getUpdateOps(
-            JsonPatient[] list, SyncResult syncResult) {
-        ArrayList<ContentProviderOperation> ops = new ArrayList<>();
-        for (JsonPatient patient : list) {
-            if (patient.voided) {
-                syncResult.stats.numDeletes++;
-                ops.add(makeDeleteOpForPatientUuid(patient.uuid));
-            } else {
-                syncResult.stats.numInserts++;
-                ops.add(makeInsertOpForPatient(patient));
+    protected StreamingRecordWriter<JsonPatient> createRecordWriter(BulkWriter bulkWriter) {
+        return new StreamingRecordWriter<JsonPatient>(
+                bulkWriter, Contracts.Table.PATIENTS, Contracts.Patients.UUID) {
+            @Override protected void write(JsonPatient patient, SyncResult syncResult) {
+                if (patient.voided) {
+                    syncResult.stats.numDeletes++;
+                    delete(patient.uuid);
+                } else {
+                    syncResult.stats.numInserts++;
+                    upsert(Patient.fromJson(patient).toContentValues());
+                }
             }
-        }
-
-        return ops;
-    }
-
-    private static ContentProviderOperation makeInsertOpForPatient(JsonPatient patient) {
-        return ContentProviderOperation.newInsert(Contracts.Patients.CONTENT_URI)
-                .withValues(Patient.fromJson(patient).toContentValues()).build();
-    }
-
-    private static ContentProviderOperation makeDeleteOpForPatientUuid(String uuid) {
-        Uri uri = Contracts.Patients.CONTENT_URI.buildUpon().appendPath(uuid).build();
-        return ContentProviderOperation.newDelete(uri).build();
-    }
-
-    @Override
-    protected void afterSyncFinished(
-            ContentResolver contentResolver,
-            SyncResult syncResult,
-            ContentProviderClient providerClient) throws Throwable {
-        contentResolver.notifyChange(Contracts.Patients.CONTENT_URI, null, false);
+        };
     }
 }
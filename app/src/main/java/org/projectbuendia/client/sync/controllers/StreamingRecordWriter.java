@@ -0,0 +1,74 @@
+/*
+ * Copyright 2015 The Project Buendia Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at: http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distrib-
+ * uted under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied.  See the License for
+ * specific language governing permissions and limitations under the License.
+ */
+
+package org.projectbuendia.client.sync.controllers;
+
+import android.content.ContentValues;
+import android.content.SyncResult;
+
+import org.projectbuendia.client.providers.BulkWriter;
+import org.projectbuendia.client.providers.Contracts;
+
+/**
+ * Writes records into a single table as they are decoded from an incremental sync page, so
+ * that a page never has to be held in memory as a whole.  Rows go through a {@link BulkWriter},
+ * which rebinds the same compiled statements for each record.
+ * <p>
+ * Subclasses implement {@link #write(Object, SyncResult)} in terms of {@link #upsert} and
+ * {@link #delete}.  See {@link IncrementalSyncPhaseRunnable#createRecordWriter(BulkWriter)}.
+ */
+public abstract class StreamingRecordWriter<T> {
+    private final BulkWriter mBulkWriter;
+    private final Contracts.Table mTable;
+    private final String mKeyColumn;
+
+    /**
+     * @param bulkWriter the writer to write rows through
+     * @param table      the table that records are written into
+     * @param keyColumn  the column that {@link #delete(String)} matches against
+     */
+    protected StreamingRecordWriter(
+            BulkWriter bulkWriter, Contracts.Table table, String keyColumn) {
+        mBulkWriter = bulkWriter;
+        mTable = table;
+        mKeyColumn = keyColumn;
+    }
+
+    /** Applies a single decoded record to the database. */
+    protected abstract void write(T record, SyncResult syncResult);
+
+    /** Starts a transaction covering the records of one page. */
+    void beginPage() {
+        mBulkWriter.begin();
+    }
+
+    /** Commits the records written since {@link #beginPage()}. */
+    void endPage() {
+        mBulkWriter.commit();
+    }
+
+    /** Discards the records written since {@link #beginPage()}. */
+    void abortPage() {
+        mBulkWriter.abort();
+    }
+
+    /** Inserts or replaces a row with the given column values. */
+    protected void upsert(ContentValues values) {
+        mBulkWriter.upsert(mTable, values);
+    }
+
+    /** Deletes the row whose key column matches {@code key}. */
+    protected void delete(String key) {
+        mBulkWriter.delete(mTable, mKeyColumn, key);
+    }
+}
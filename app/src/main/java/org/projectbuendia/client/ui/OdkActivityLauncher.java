@@ -24,20 +24,13 @@ import com.android.volley.Response;
 import com.android.volley.TimeoutError;
 import com.android.volley.VolleyError;
 import com.google.common.base.Charsets;
-import com.google.common.base.Joiner;
 
-import org.javarosa.core.model.data.IAnswerData;
-import org.javarosa.core.model.instance.TreeElement;
-import org.javarosa.xform.parse.XFormParser;
-import org.joda.time.DateTime;
-import org.joda.time.format.ISODateTimeFormat;
 import org.json.JSONObject;
 import org.odk.collect.android.activities.FormEntryActivity;
 import org.odk.collect.android.application.Collect;
 import org.odk.collect.android.model.Preset;
 import org.odk.collect.android.provider.FormsProviderAPI;
 import org.odk.collect.android.tasks.DeleteInstancesTask;
-import org.odk.collect.android.utilities.FileUtils;
 import org.projectbuendia.client.App;
 import org.projectbuendia.client.AppSettings;
 import org.projectbuendia.client.events.FetchXformFailedEvent;
@@ -49,22 +42,14 @@ import org.projectbuendia.client.net.OdkXformSyncTask;
 import org.projectbuendia.client.net.OpenMrsXformIndexEntry;
 import org.projectbuendia.client.net.OpenMrsXformsConnection;
 import org.projectbuendia.client.providers.Contracts;
+import org.projectbuendia.client.sync.ConceptDictionary;
 import org.projectbuendia.client.utils.Logger;
 import org.projectbuendia.client.utils.Utils;
 
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.net.HttpURLConnection;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
-import java.util.UUID;
 
 import javax.annotation.Nullable;
 
@@ -82,16 +67,14 @@ public class OdkActivityLauncher {
     private static final Logger LOG = Logger.create();
 
     /**
-     * Fetches all xforms from the server and caches them. If any error occurs during fetching,
-     * a failed event is triggered.
+     * Fetches all xforms that have changed on the server and caches them. If any error occurs
+     * during fetching, a failed event is triggered.
      */
     public static void fetchAndCacheAllXforms() {
         new OpenMrsXformsConnection(App.getConnectionDetails()).listXforms(
             new Response.Listener<List<OpenMrsXformIndexEntry>>() {
                 @Override public void onResponse(final List<OpenMrsXformIndexEntry> response) {
-                    for (OpenMrsXformIndexEntry formEntry : response) {
-                        fetchAndCacheXForm(formEntry);
-                    }
+                    OdkXformSyncTask.cacheXforms(response);
                 }
             }, new Response.ErrorListener() {
                 @Override public void onErrorResponse(VolleyError error) {
@@ -100,16 +83,6 @@ public class OdkActivityLauncher {
             });
     }
 
-    /**
-     * Fetches the xform specified by the form uuid.
-     *
-     * @param formEntry the {@link OpenMrsXformIndexEntry} object containing the uuid form
-     */
-    public static void fetchAndCacheXForm(OpenMrsXformIndexEntry formEntry) {
-        new OdkXformSyncTask(null).fetchAndAddXFormToDb(formEntry.uuid,
-            formEntry.makeFileForForm());
-    }
-
     /**
      * Loads the xform from the cache and launches ODK using it. If the cache is not available,
      * the app tries to fetch it from the server. If no form is got, it is triggered a failed event.
@@ -220,9 +193,11 @@ public class OdkActivityLauncher {
         Cursor c = resolver.query(Contracts.Forms.CONTENT_URI, new String[] {Contracts.Forms.UUID,
             Contracts.Forms.NAME}, null, null, null);
         try {
+            int uuidColumn = c.getColumnIndex(Contracts.Forms.UUID);
+            int nameColumn = c.getColumnIndex(Contracts.Forms.NAME);
             while (c.moveToNext()) {
-                String uuid = Utils.getString(c, Contracts.Forms.UUID);
-                String name = Utils.getString(c, Contracts.Forms.NAME);
+                String uuid = c.getString(uuidColumn);
+                String name = c.getString(nameColumn);
                 long date = 0; // date is not important here
                 entries.add(new OpenMrsXformIndexEntry(uuid, name, date));
             }
@@ -310,25 +285,34 @@ public class OdkActivityLauncher {
                 throw new ValidationException("No id to delete for after upload: " + uri);
             }
 
-            // Temporary code for messing about with xform instance, reading values.
-            byte[] fileBytes = FileUtils.getFileAsBytes(new File(filePath));
-
-            // get the root of the saved and template instances
-            final TreeElement savedRoot = XFormParser.restoreDataModel(fileBytes, null).getRoot();
-
-            final String xml = readFromPath(filePath);
-            if(!validateXml(xml)) {
-                throw new ValidationException("Xml form is not valid for uri: " + uri);
+            // Read the instance once; the same copy is parsed for the chart and submitted.
+            final XformInstance instance;
+            try {
+                instance = XformInstance.read(filePath);
+            } catch (IOException e) {
+                throw new ValidationException("Failed to read form instance for uri: " + uri, e);
+            }
+            final String xml = instance.xml;
+
+            if (patientUuid != null) {
+                // The outbox keeps its own copy of the xml and sends it when the server is
+                // reachable; meanwhile the chart shows the observations cached here.
+                String encounterUuid = App.getOutbox().submitXform(patientUuid, xml);
+                updateObservationCache(
+                    patientUuid, encounterUuid, instance, context.getContentResolver());
+                if (!settings.getKeepFormInstancesLocally()) {
+                    deleteLocalFormInstances(formIdToDelete);
+                }
+                EventBus.getDefault().post(new SubmitXformSucceededEvent());
+                return;
             }
 
-            sendFormToServer(patientUuid, xml,
+            // A new patient has nothing to show until the server has created it, so the
+            // form is submitted directly.
+            sendFormToServer(null, xml,
                 new Response.Listener<JSONObject>() {
                     @Override public void onResponse(JSONObject response) {
-                        LOG.i("Created new encounter successfully on server" + response.toString());
-                        // Only locally cache new observations, not new patients.
-                        if (patientUuid != null) {
-                            updateObservationCache(patientUuid, savedRoot, context.getContentResolver());
-                        }
+                        LOG.i("Created new patient successfully on server" + response.toString());
                         if (!settings.getKeepFormInstancesLocally()) {
                             deleteLocalFormInstances(formIdToDelete);
                         }
@@ -377,13 +361,6 @@ public class OdkActivityLauncher {
         return id != null;
     }
 
-    /**
-     * Validates the xml. Returns {@code true} if it is valid. Otherwise, returns {@code false}
-     */
-    private static boolean validateXml(String xml) {
-        return xml != null;
-    }
-
     private static void deleteLocalFormInstances(Long formIdToDelete) {
         //Code largely copied from InstanceUploaderTask to delete on upload
         DeleteInstancesTask dit = new DeleteInstancesTask();
@@ -529,189 +506,39 @@ public class OdkActivityLauncher {
         EventBus.getDefault().post(new FetchXformFailedEvent(reason, error));
     }
 
-    /**
-     * Returns the xml form as a String from the path. If for any reason, the file couldn't be read,
-     * it returns <code>null</code>
-     * @param path      the path to be read
-     */
-    private static String readFromPath(String path) {
-        try {
-            StringBuilder sb = new StringBuilder();
-            BufferedReader reader = new BufferedReader(new FileReader(path));
-            String line;
-            while ((line = reader.readLine()) != null) {
-                sb.append(line).append("\n");
-            }
-            return sb.toString();
-        } catch (IOException e) {
-            LOG.e(e, format("Failed to read xml form into a String. FilePath=  ", path));
-            return null;
-        }
-    }
-
     /**
      * Caches the observation changes locally for a given patient.
      */
-    private static void updateObservationCache(String patientUuid, TreeElement savedRoot,
-                                               ContentResolver resolver) {
+    private static void updateObservationCache(String patientUuid, String encounterUuid,
+                                               XformInstance instance, ContentResolver resolver) {
+        if (instance.encounterTime == null) return;
+
         ContentValues common = new ContentValues();
         // It's critical that UUID is {@code null} for temporary observations, so we make it
         // explicit here. See {@link Contracts.Observations.UUID} for details.
         common.put(Contracts.Observations.UUID, (String) null);
         common.put(Contracts.Observations.PATIENT_UUID, patientUuid);
-
-        final DateTime encounterTime = getEncounterAnswerDateTime(savedRoot);
-        if(encounterTime == null) return;
-        common.put(Contracts.Observations.ENCOUNTER_MILLIS, encounterTime.getMillis());
-        common.put(Contracts.Observations.ENCOUNTER_UUID, UUID.randomUUID().toString());
-
-        Set<Integer> xformConceptIds = new HashSet<>();
-        List<ContentValues> toInsert = getAnsweredObservations(common, savedRoot, xformConceptIds);
-        Map<String, String> xformIdToUuid = mapFormConceptIdToUuid(xformConceptIds, resolver);
-
-        // Remap concept ids to uuids, skipping anything we can't remap.
-        for (Iterator<ContentValues> i = toInsert.iterator(); i.hasNext(); ) {
-            ContentValues values = i.next();
-            if (!mapIdToUuid(xformIdToUuid, values, Contracts.Observations.CONCEPT_UUID)) {
-                i.remove();
+        common.put(Contracts.Observations.ENCOUNTER_MILLIS, instance.encounterTime.getMillis());
+        common.put(Contracts.Observations.ENCOUNTER_UUID, encounterUuid);
+
+        // Map xform concept ids to uuids, skipping any question we can't map.
+        ConceptDictionary dictionary = App.getConceptDictionary();
+        List<ContentValues> toInsert = new ArrayList<>();
+        for (XformInstance.Answer answer : instance.answers) {
+            String conceptUuid = dictionary.getUuidForXformId(answer.conceptId);
+            if (conceptUuid == null) continue;
+            String value = answer.value;
+            if (answer.coded) {
+                value = Utils.valueOrDefault(
+                    dictionary.getUuidForXformId(Integer.parseInt(value)), value);
             }
-            mapIdToUuid(xformIdToUuid, values, Contracts.Observations.VALUE);
+            ContentValues observation = new ContentValues(common);
+            observation.put(Contracts.Observations.CONCEPT_UUID, conceptUuid);
+            observation.put(Contracts.Observations.VALUE, value);
+            toInsert.add(observation);
         }
 
         resolver.bulkInsert(Contracts.Observations.CONTENT_URI,
             toInsert.toArray(new ContentValues[toInsert.size()]));
     }
-
-    /** Get a map from XForm ids to UUIDs from our local concept database. */
-    private static Map<String, String> mapFormConceptIdToUuid(Set<Integer> xformConceptIds,
-                                                              ContentResolver resolver) {
-        String inClause = Joiner.on(",").join(xformConceptIds);
-
-        HashMap<String, String> xformIdToUuid = new HashMap<>();
-        Cursor cursor = resolver.query(Contracts.Concepts.CONTENT_URI,
-            new String[] {Contracts.Concepts.UUID, Contracts.Concepts.XFORM_ID},
-            Contracts.Concepts.XFORM_ID + " IN (" + inClause + ")",
-            null, null);
-
-        try {
-            while (cursor.moveToNext()) {
-                xformIdToUuid.put(Utils.getString(cursor, Contracts.Concepts.XFORM_ID),
-                    Utils.getString(cursor, Contracts.Concepts.UUID));
-            }
-        } finally {
-            cursor.close();
-        }
-
-        return xformIdToUuid;
-    }
-
-    /**
-     * Returns a {@link ContentValues} list containing the id concept and the answer valeu from
-     * all answered observations. Returns a empty {@link List} if no observation was answered.
-     *
-     * @param common                        the current content values.
-     * @param savedRoot                     the root tree form element
-     * @param xformConceptIdsAccumulator    the set to store the form concept ids found
-     */
-    private static List<ContentValues> getAnsweredObservations(ContentValues common,
-                                                                    TreeElement savedRoot,
-                                                                    Set<Integer> xformConceptIdsAccumulator) {
-        List<ContentValues> answeredObservations = new ArrayList<>();
-        for (int i = 0; i < savedRoot.getNumChildren(); i++) {
-            TreeElement group = savedRoot.getChildAt(i);
-            if (group.getNumChildren() == 0) continue;
-            for (int j = 0; j < group.getNumChildren(); j++) {
-                TreeElement question = group.getChildAt(j);
-                TreeElement openmrsConcept = question.getAttribute(null, "openmrs_concept");
-                TreeElement openmrsDatatype = question.getAttribute(null, "openmrs_datatype");
-                if (openmrsConcept == null || openmrsDatatype == null) continue;
-
-                // Get the concept for the question.
-                // eg "5088^Temperature (C)^99DCT"
-                String encodedConcept = (String) openmrsConcept.getValue().getValue();
-                Integer id = getConceptId(xformConceptIdsAccumulator, encodedConcept);
-                if (id == null) continue;
-
-                // Also get for the answer if a coded question
-                TreeElement valueChild = question.getChild("value", 0);
-                IAnswerData answer = valueChild.getValue();
-                if (answer == null || answer.getValue() == null) continue;
-
-                Object answerObject = answer.getValue();
-                String value;
-                if ("CWE".equals(openmrsDatatype.getValue().getValue())) {
-                    value = getConceptId(xformConceptIdsAccumulator, answerObject.toString()).toString();
-                } else {
-                    value = answerObject.toString();
-                }
-
-                ContentValues observation = new ContentValues(common);
-                // Set to the id for now, we'll replace with uuid later
-                observation.put(Contracts.Observations.CONCEPT_UUID, id.toString());
-                observation.put(Contracts.Observations.VALUE, value);
-
-                answeredObservations.add(observation);
-            }
-        }
-        return answeredObservations;
-    }
-
-    /**
-     * Returns the encounter's answer date time. Returns <code>null</code> if it cannot be retrieved.
-     */
-    private static DateTime getEncounterAnswerDateTime(TreeElement root) {
-        TreeElement encounter = root.getChild("encounter", 0);
-        if (encounter == null) {
-            LOG.e("No encounter found in instance");
-            return null;
-        }
-
-        TreeElement encounterDatetime =
-            encounter.getChild("encounter.encounter_datetime", 0);
-        if (encounterDatetime == null) {
-            LOG.e("No encounter date time found in instance");
-            return null;
-        }
-
-        IAnswerData dateTimeValue = encounterDatetime.getValue();
-        try {
-         return  ISODateTimeFormat.dateTime().parseDateTime((String) dateTimeValue.getValue());
-        } catch (IllegalArgumentException e) {
-            LOG.e("Could not parse datetime" + dateTimeValue.getValue());
-            return null;
-        }
-    }
-
-    private static Integer getConceptId(Set<Integer> accumulator, String encodedConcept) {
-        Integer id = getConceptId(encodedConcept);
-        if (id != null) {
-            accumulator.add(id);
-        }
-        return id;
-    }
-
-    private static boolean mapIdToUuid(
-        Map<String, String> idToUuid, ContentValues values, String key) {
-        String id = (String) values.get(key);
-        String uuid = idToUuid.get(id);
-        if (uuid == null) {
-            return false;
-        }
-        values.put(key, uuid);
-        return true;
-    }
-
-    private static Integer getConceptId(String encodedConcept) {
-        int idEnd = encodedConcept.indexOf('^');
-        if (idEnd == -1) {
-            return null;
-        }
-        String idString = encodedConcept.substring(0, idEnd);
-        try {
-            return Integer.parseInt(idString);
-        } catch (NumberFormatException ex) {
-            LOG.w("Strangely formatted id String " + idString);
-            return null;
-        }
-    }
 }
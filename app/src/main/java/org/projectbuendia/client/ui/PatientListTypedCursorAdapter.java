@@ -21,6 +21,8 @@ import android.widget.ExpandableListView;
 import android.widget.ImageView;
 import android.widget.TextView;
 
+import com.google.common.base.Objects;
+
 import org.projectbuendia.client.R;
 import org.projectbuendia.client.models.ConceptUuids;
 import org.projectbuendia.client.models.Location;
@@ -28,6 +30,7 @@ import org.projectbuendia.client.models.LocationComparator;
 import org.projectbuendia.client.models.LocationTree;
 import org.projectbuendia.client.models.Patient;
 import org.projectbuendia.client.models.TypedCursor;
+import org.projectbuendia.client.providers.Contracts.Patients;
 import org.projectbuendia.client.resolvables.ResStatus;
 import org.projectbuendia.client.sync.ChartDataHelper;
 import org.projectbuendia.client.models.Obs;
@@ -37,7 +40,7 @@ import org.projectbuendia.client.utils.Utils;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -49,17 +52,21 @@ import butterknife.InjectView;
  * A {@link BaseExpandableListAdapter} that wraps a {@link TypedCursor} of {@link Patient}'s,
  * displaying these patients grouped by location and filtered by a specified
  * {@link org.projectbuendia.client.filter.db.SimpleSelectionFilter}.
+ * <p>
+ * The adapter only keeps cursor positions; each {@link Patient} is loaded from the cursor when
+ * its row is displayed, so the cursor must stay open while the adapter is in use.
  */
 public class PatientListTypedCursorAdapter extends BaseExpandableListAdapter {
     protected final Context mContext;
 
-    private final HashMap<Location, List<Patient>> mPatientsByLocation;
     private final LocationTree mLocationTree;
     private final ChartDataHelper mChartDataHelper;
     private static final Logger LOG = Logger.create();
     private static final String EN_DASH = "\u2013";
 
-    private Location[] mLocations;
+    private TypedCursor<Patient> mPatients;
+    private Location[] mLocations = new Location[0];
+    private int[][] mPositionsByGroup = new int[0][];  // cursor positions, parallel to mLocations
     private Map<String, Obs> mPregnancyObs = new HashMap<>();
     private Map<String, Obs> mConditionObs = new HashMap<>();
 
@@ -69,19 +76,12 @@ public class PatientListTypedCursorAdapter extends BaseExpandableListAdapter {
      */
     public PatientListTypedCursorAdapter(Context context, LocationTree locationTree) {
         mContext = context;
-
-        mPatientsByLocation = new HashMap<Location, List<Patient>>();
-
         mLocationTree = locationTree;
         mChartDataHelper = new ChartDataHelper(context.getContentResolver());
     }
 
     @Override public int getGroupCount() {
-        if (mPatientsByLocation == null) {
-            return 0;
-        }
-
-        return mPatientsByLocation.size();
+        return mLocations.length;
     }
 
     @Override public long getGroupId(int groupPosition) {
@@ -121,12 +121,7 @@ public class PatientListTypedCursorAdapter extends BaseExpandableListAdapter {
     }
 
     @Override public int getChildrenCount(int groupPosition) {
-        Object patientsForLocation = getGroup(groupPosition);
-        if (mPatientsByLocation == null || patientsForLocation == null) {
-            return 0;
-        }
-
-        return mPatientsByLocation.get(patientsForLocation).size();
+        return mPositionsByGroup[groupPosition].length;
     }
 
     protected View newGroupView() {
@@ -137,6 +132,13 @@ public class PatientListTypedCursorAdapter extends BaseExpandableListAdapter {
         int groupPosition, int childPosition, boolean isLastChild, View convertView,
         ViewGroup parent) {
         Patient patient = (Patient) getChild(groupPosition, childPosition);
+        if (convertView == null) {
+            convertView = newChildView();
+        }
+        if (patient == null) {
+            // The cursor has been closed; fresh results will replace this row shortly.
+            return convertView;
+        }
 
         // Show pregnancy status and condition, if the data for these has been loaded.
         Obs obs = mPregnancyObs.get(patient.uuid);
@@ -145,10 +147,6 @@ public class PatientListTypedCursorAdapter extends BaseExpandableListAdapter {
         obs = mConditionObs.get(patient.uuid);
         String condition = obs == null ? null : obs.value;
 
-        if (convertView == null) {
-            convertView = newChildView();
-        }
-
         ResStatus.Resolved status =
             ConceptUuids.getResStatus(condition).resolve(mContext.getResources());
 
@@ -195,7 +193,7 @@ public class PatientListTypedCursorAdapter extends BaseExpandableListAdapter {
     }
 
     @Override public Object getChild(int groupPosition, int childPosition) {
-        return mPatientsByLocation.get(getGroup(groupPosition)).get(childPosition);
+        return mPatients.get(mPositionsByGroup[groupPosition][childPosition]);
     }
 
     private View newChildView() {
@@ -215,39 +213,62 @@ public class PatientListTypedCursorAdapter extends BaseExpandableListAdapter {
      * take ownership; the original owner remains responsible for closing it.)
      */
     public void setPatients(TypedCursor<Patient> cursor) {
-        mPatientsByLocation.clear();
-
-        // Add all patients from cursor.
-        int count = cursor.getCount();
-        for (int i = 0; i < count; i++) {
-            addPatient(cursor.get(i));
+        // Group the rows by location and sort each group by patient ID, reading just those two
+        // columns.  The cursor is ordered by location_uuid, so each location's rows come in one
+        // run and each location is looked up only once.
+        Map<Location, List<Integer>> positionsByLocation = new HashMap<>();
+        final String[] ids = new String[cursor.getCount()];
+        String runLocationUuid = null;
+        List<Integer> run = null;
+        for (int i = 0; i < ids.length; i++) {
+            String locationUuid = cursor.getString(i, Patients.LOCATION_UUID);
+            if (i == 0 || !Objects.equal(locationUuid, runLocationUuid)) {
+                runLocationUuid = locationUuid;
+                Location location = mLocationTree.findByUuid(locationUuid);
+                run = null;
+                if (location != null) {  // shouldn't be null, but better to be safe
+                    run = positionsByLocation.get(location);
+                    if (run == null) {
+                        run = new ArrayList<>();
+                        positionsByLocation.put(location, run);
+                    }
+                }
+            }
+            if (run != null) {
+                ids[i] = cursor.getString(i, Patients.ID);
+                run.add(i);
+            }
         }
 
         // Produce a sorted list of all the locations that have patients.
-        mLocations = new Location[mPatientsByLocation.size()];
-        mPatientsByLocation.keySet().toArray(mLocations);
-        Arrays.sort(mLocations, new LocationComparator(mLocationTree));
-
-        // Sort the patient lists within each location using the default comparator.
-        for (List<Patient> patients : mPatientsByLocation.values()) {
-            Collections.sort(patients);
+        Location[] locations = new Location[positionsByLocation.size()];
+        positionsByLocation.keySet().toArray(locations);
+        Arrays.sort(locations, new LocationComparator(mLocationTree));
+
+        // Sort the patients within each location in the same order as Patient.compareTo().
+        Comparator<Integer> byId = new Comparator<Integer>() {
+            @Override public int compare(Integer a, Integer b) {
+                return Utils.alphanumericComparator.compare(ids[a], ids[b]);
+            }
+        };
+        int[][] positionsByGroup = new int[locations.length][];
+        for (int g = 0; g < locations.length; g++) {
+            Integer[] positions = positionsByLocation.get(locations[g]).toArray(new Integer[0]);
+            Arrays.sort(positions, byId);
+            positionsByGroup[g] = new int[positions.length];
+            for (int c = 0; c < positions.length; c++) {
+                positionsByGroup[g][c] = positions[c];
+            }
         }
 
+        mPatients = cursor;
+        mLocations = locations;
+        mPositionsByGroup = positionsByGroup;
+
         new FetchObservationsTask().execute();
         notifyDataSetChanged();
     }
 
-    // Add a single patient to relevant data structures.
-    private void addPatient(Patient patient) {
-        Location location = mLocationTree.findByUuid(patient.locationUuid);
-        if (location != null) {  // shouldn't be null, but better to be safe
-            if (!mPatientsByLocation.containsKey(location)) {
-                mPatientsByLocation.put(location, new ArrayList<Patient>());
-            }
-            mPatientsByLocation.get(location).add(patient);
-        }
-    }
-
     private class FetchObservationsTask extends AsyncTask<String, Void, Void> {
         @Override protected Void doInBackground(String... params) {
             mPregnancyObs = mChartDataHelper.getLatestObservationsForConcept(ConceptUuids.PREGNANCY_UUID, "en");
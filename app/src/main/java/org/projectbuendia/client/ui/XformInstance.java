@@ -0,0 +1,176 @@
+// Copyright 2015 The Project Buendia Authors
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not
+// use this file except in compliance with the License.  You may obtain a copy
+// of the License at: http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distrib-
+// uted under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+// OR CONDITIONS OF ANY KIND, either express or implied.  See the License for
+// specific language governing permissions and limitations under the License.
+
+package org.projectbuendia.client.ui;
+
+import android.util.Xml;
+
+import com.google.common.base.Charsets;
+
+import org.joda.time.DateTime;
+import org.joda.time.format.ISODateTimeFormat;
+import org.odk.collect.android.utilities.FileUtils;
+import org.projectbuendia.client.utils.Logger;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+/**
+ * A saved xform instance, read from disk once.  The xml is kept for submission to the server,
+ * and the encounter time and answered questions are pulled out of it in a single streaming
+ * pass, without building a JavaRosa data model.
+ */
+final class XformInstance {
+    private static final Logger LOG = Logger.create();
+
+    private static final String ENCOUNTER_GROUP = "encounter";
+    private static final String ENCOUNTER_DATETIME = "encounter.encounter_datetime";
+    private static final String CONCEPT_ATTRIBUTE = "openmrs_concept";
+    private static final String DATATYPE_ATTRIBUTE = "openmrs_datatype";
+    private static final String CODED_DATATYPE = "CWE";
+    private static final String VALUE_ELEMENT = "value";
+
+    /** An answered question.  Concepts are identified by their xform IDs, not UUIDs. */
+    static final class Answer {
+        final int conceptId;
+        /** The answer as it appears in the instance, or the answer's xform ID if coded. */
+        final String value;
+        final boolean coded;
+
+        Answer(int conceptId, String value, boolean coded) {
+            this.conceptId = conceptId;
+            this.value = value;
+            this.coded = coded;
+        }
+    }
+
+    final String xml;
+    final @Nullable DateTime encounterTime;
+    final List<Answer> answers;
+
+    private XformInstance(String xml, @Nullable DateTime encounterTime, List<Answer> answers) {
+        this.xml = xml;
+        this.encounterTime = encounterTime;
+        this.answers = answers;
+    }
+
+    /**
+     * Reads and parses the instance at the given path.  If the xml can't be parsed, the
+     * instance is still returned (the server may yet accept it), but with no answers.
+     */
+    static XformInstance read(String path) throws IOException {
+        byte[] bytes = FileUtils.getFileAsBytes(new File(path));
+        if (bytes == null) {
+            throw new IOException("Failed to read form instance: " + path);
+        }
+        String xml = new String(bytes, Charsets.UTF_8);
+        try {
+            return parse(xml);
+        } catch (XmlPullParserException e) {
+            LOG.e(e, "Failed to parse form instance: " + path);
+            return new XformInstance(xml, null, Collections.<Answer>emptyList());
+        }
+    }
+
+    private static XformInstance parse(String xml) throws XmlPullParserException, IOException {
+        XmlPullParser parser = Xml.newPullParser();
+        parser.setInput(new StringReader(xml));
+
+        DateTime encounterTime = null;
+        List<Answer> answers = new ArrayList<>();
+        List<String> path = new ArrayList<>();  // names of the elements enclosing the current one
+        int questionDepth = -1;  // depth of the question being read, or -1 if none
+        Integer conceptId = null;  // the concept of the question being read, if known
+        boolean coded = false;
+
+        // Questions are found by their openmrs_concept attribute rather than by their depth, so
+        // that a form that nests its questions in extra groups doesn't lose its answers.
+        for (int event = parser.next(); event != XmlPullParser.END_DOCUMENT;
+             event = parser.next()) {
+            if (event != XmlPullParser.START_TAG) continue;
+            String name = parser.getName();
+            int depth = parser.getDepth();
+            while (path.size() >= depth) {
+                path.remove(path.size() - 1);
+            }
+            String parent = path.isEmpty() ? null : path.get(path.size() - 1);
+            path.add(name);
+
+            if (depth <= questionDepth) {
+                // We've left the previous question.
+                questionDepth = -1;
+                conceptId = null;
+            }
+            if (questionDepth >= 0) {
+                if (depth != questionDepth + 1 || conceptId == null
+                    || !VALUE_ELEMENT.equals(name)) continue;
+                String value = parser.nextText().trim();
+                if (coded) {
+                    Integer answerId = getConceptId(value);
+                    value = answerId == null ? "" : answerId.toString();
+                }
+                if (!value.isEmpty()) {
+                    answers.add(new Answer(conceptId, value, coded));
+                }
+                conceptId = null;  // only the first value counts
+                continue;
+            }
+            if (ENCOUNTER_GROUP.equals(parent) && ENCOUNTER_DATETIME.equals(name)) {
+                encounterTime = parseDateTime(parser.nextText());
+                continue;
+            }
+            String concept = parser.getAttributeValue(null, CONCEPT_ATTRIBUTE);
+            String datatype = parser.getAttributeValue(null, DATATYPE_ATTRIBUTE);
+            if (concept != null && datatype != null) {
+                // eg "5088^Temperature (C)^99DCT"
+                questionDepth = depth;
+                conceptId = getConceptId(concept);
+                coded = CODED_DATATYPE.equals(datatype);
+            }
+        }
+        if (encounterTime == null) {
+            LOG.e("No encounter date time found in instance");
+        }
+        return new XformInstance(xml, encounterTime, answers);
+    }
+
+    private static @Nullable DateTime parseDateTime(String text) {
+        try {
+            return ISODateTimeFormat.dateTime().parseDateTime(text.trim());
+        } catch (IllegalArgumentException e) {
+            LOG.e("Could not parse datetime " + text);
+            return null;
+        }
+    }
+
+    /** Gets the xform ID out of an encoded concept like "5088^Temperature (C)^99DCT". */
+    private static @Nullable Integer getConceptId(String encodedConcept) {
+        int idEnd = encodedConcept.indexOf('^');
+        if (idEnd == -1) {
+            return null;
+        }
+        String idString = encodedConcept.substring(0, idEnd);
+        try {
+            return Integer.parseInt(idString);
+        } catch (NumberFormatException ex) {
+            LOG.w("Strangely formatted id String " + idString);
+            return null;
+        }
+    }
+}
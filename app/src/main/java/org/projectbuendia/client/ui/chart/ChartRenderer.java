@@ -2,9 +2,11 @@ package org.projectbuendia.client.ui.chart;
 
 import android.content.res.Resources;
 import android.util.DisplayMetrics;
+import android.webkit.ValueCallback;
 import android.webkit.WebChromeClient;
 import android.webkit.WebView;
 
+import com.google.common.base.Objects;
 import com.google.common.collect.Lists;
 import com.mitchellbosecke.pebble.PebbleEngine;
 
@@ -32,6 +34,7 @@ import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -42,6 +45,8 @@ import java.util.SortedSet;
 import java.util.TreeMap;
 import java.util.TreeSet;
 
+import javax.annotation.Nullable;
+
 /** Renders a patient's chart to HTML displayed in a WebView. */
 public class ChartRenderer {
     static PebbleEngine sEngine;
@@ -51,6 +56,7 @@ public class ChartRenderer {
     Resources mResources;  // resources used for localizing the rendering
     private List<Obs> mLastRenderedObs;  // last set of observations rendered
     private List<Order> mLastRenderedOrders;  // last set of orders rendered
+    private GridHtmlGenerator mLastGenerator;  // generator for the page currently displayed
     private Chronology chronology = ISOChronology.getInstance(DateTimeZone.getDefault());
     private String lastChart = "";
 
@@ -86,8 +92,35 @@ public class ChartRenderer {
             && (lastChart.equals(chart.name))){
             return;  // nothing has changed; no need to render again
         }
+        final GridHtmlGenerator generator = new GridHtmlGenerator(
+            chart, latestObservations, observations, orders, admissionDate, firstSymptomsDate);
+        String patchScript = chart.name.equals(lastChart) && mLastGenerator != null
+            ? generator.getPatchScript(mLastGenerator) : null;
         lastChart = chart.name;
+        mLastGenerator = generator;
+        mLastRenderedObs = observations;
+        mLastRenderedOrders = orders;
+
+        if (patchScript == null) {
+            loadPage(generator, controllerInterface);
+            return;
+        }
+        // The page is already showing this chart with the same columns and orders, so only
+        // the tiles and cells whose values changed need to be updated.  If the page turns
+        // out not to be ready for patching (e.g. it is still loading), reload it instead.
+        final GridJsInterface jsInterface = controllerInterface;
+        mView.evaluateJavascript(patchScript, new ValueCallback<String>() {
+            @Override public void onReceiveValue(String result) {
+                if (!"true".equals(result) && generator == mLastGenerator) {
+                    LOG.w("Chart patch failed; reloading the whole chart");
+                    loadPage(generator, jsInterface);
+                }
+            }
+        });
+    }
 
+    /** Replaces the contents of the WebView with a fully rendered chart. */
+    private void loadPage(GridHtmlGenerator generator, GridJsInterface controllerInterface) {
         // setDefaultFontSize is supposed to take a size in sp, but in practice
         // the fonts don't change size when the user font size preference changes.
         // So, we apply the scaling factor explicitly, defining 1 em to be 10 sp.
@@ -98,14 +131,10 @@ public class ChartRenderer {
         mView.getSettings().setJavaScriptEnabled(true);
         mView.addJavascriptInterface(controllerInterface, "controller");
         mView.setWebChromeClient(new WebChromeClient());
-        String html = new GridHtmlGenerator(chart, latestObservations, observations, orders,
-                                            admissionDate, firstSymptomsDate).getHtml();
+        String html = generator.getHtml();
         mView.loadDataWithBaseURL("file:///android_asset/", html,
             "text/html; charset=utf-8", "utf-8", null);
         mView.setWebContentsDebuggingEnabled(true);
-
-        mLastRenderedObs = observations;
-        mLastRenderedOrders = orders;
     }
 
     class GridHtmlGenerator {
@@ -257,6 +286,80 @@ public class ChartRenderer {
             return renderTemplate("assets/chart.html", context);
         }
 
+        /**
+         * Returns a script that updates a page rendered from {@code previous} to show the data
+         * in this generator, by replacing only the tiles and cells whose values have changed.
+         * Returns null if the page has to be rendered again from scratch: that is, if the
+         * columns, orders, or order executions differ, or if any changed concept is used by
+         * a tile or row script (since scripts draw on the data for the whole chart).
+         */
+        @Nullable String getPatchScript(GridHtmlGenerator previous) {
+            if (!mColumnsByStartMillis.keySet().equals(previous.mColumnsByStartMillis.keySet())
+                || !mNowColumn.start.equals(previous.mNowColumn.start)
+                || !Objects.equal(mAdmissionDate, previous.mAdmissionDate)
+                || !mOrders.equals(previous.mOrders)
+                || mTileRows.size() != previous.mTileRows.size()
+                || mRows.size() != previous.mRows.size()) {
+                return null;
+            }
+            Set<String> changedConceptUuids = new HashSet<>();
+            for (Column column : mColumnsByStartMillis.values()) {
+                Column previousColumn =
+                    previous.mColumnsByStartMillis.get(column.start.getMillis());
+                if (!column.executionCountsByOrderUuid.equals(
+                    previousColumn.executionCountsByOrderUuid)) {
+                    return null;
+                }
+                Set<String> conceptUuids = new HashSet<>(column.pointSetByConceptUuid.keySet());
+                conceptUuids.addAll(previousColumn.pointSetByConceptUuid.keySet());
+                for (String uuid : conceptUuids) {
+                    if (!Objects.equal(column.pointSetByConceptUuid.get(uuid),
+                        previousColumn.pointSetByConceptUuid.get(uuid))) {
+                        changedConceptUuids.add(uuid);
+                    }
+                }
+            }
+            if (!Collections.disjoint(changedConceptUuids, mConceptsToDump)) {
+                return null;
+            }
+
+            JSONArray patches = new JSONArray();
+            for (int r = 0; r < mTileRows.size(); r++) {
+                List<Tile> tileRow = mTileRows.get(r);
+                List<Tile> previousTileRow = previous.mTileRows.get(r);
+                for (int t = 0; t < tileRow.size(); t++) {
+                    Tile tile = tileRow.get(t);
+                    if (!Arrays.equals(tile.points, previousTileRow.get(t).points)) {
+                        Map<String, Object> context = new HashMap<>();
+                        context.put("tile", tile);
+                        context.put("tileRow", tileRow);
+                        patches.put(new JSONArray(Arrays.asList(
+                            "tile-" + tile.item.conceptIds.get(0),
+                            renderTemplate("assets/chart_tile.html", context))));
+                    }
+                }
+            }
+            for (Row row : mRows) {
+                String uuid = row.item.conceptUuids[0];
+                if (!changedConceptUuids.contains(uuid)) continue;
+                for (Column column : mColumnsByStartMillis.values()) {
+                    long startMillis = column.start.getMillis();
+                    Column previousColumn = previous.mColumnsByStartMillis.get(startMillis);
+                    if (!Objects.equal(column.pointSetByConceptUuid.get(uuid),
+                        previousColumn.pointSetByConceptUuid.get(uuid))) {
+                        Map<String, Object> context = new HashMap<>();
+                        context.put("row", row);
+                        context.put("column", column);
+                        context.put("nowColumnStart", mNowColumn.start);
+                        patches.put(new JSONArray(Arrays.asList(
+                            "cell-" + row.item.conceptIds.get(0) + "-" + startMillis,
+                            renderTemplate("assets/chart_cell.html", context))));
+                    }
+                }
+            }
+            return "patchElements(" + patches + ")";
+        }
+
         /**
          * Inserts empty columns to fill in the gaps between the existing columns, wherever
          * the gap can be filled by inserting fewer than 3 adjacent empty columns.
@@ -40,7 +40,9 @@ import org.projectbuendia.client.events.data.AppLocationTreeFetchedEvent;
 import org.projectbuendia.client.events.data.EncounterAddFailedEvent;
 import org.projectbuendia.client.events.data.ItemDeletedEvent;
 import org.projectbuendia.client.events.data.ItemFetchedEvent;
+import org.projectbuendia.client.events.data.OrderSaveFailedEvent;
 import org.projectbuendia.client.events.data.PatientUpdateFailedEvent;
+import org.projectbuendia.client.events.data.VoidObsFailedEvent;
 import org.projectbuendia.client.events.sync.SyncSucceededEvent;
 import org.projectbuendia.client.json.JsonUser;
 import org.projectbuendia.client.models.AppModel;
@@ -67,6 +69,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
 import javax.annotation.Nullable;
 
@@ -104,12 +107,15 @@ final class PatientChartController implements ChartRenderer.GridJsInterface {
     private Patient mPatient = Patient.builder().build();
     private LocationTree mLocationTree;
     private String mPatientUuid = "";
-    private Map<String, Order> mOrdersByUuid;
-    private List<Obs> mObservations;
+    private Map<String, Order> mOrdersByUuid = new HashMap<>();
+    private List<Obs> mObservations = new ArrayList<>();
 
     // This value is incremented whenever the controller is activated or suspended.
     // A "phase" is a period of time between such transition points.
-    private int mCurrentPhaseId = 0;
+    private volatile int mCurrentPhaseId = 0;
+    // This value is incremented whenever a chart data load is started, so that a load
+    // can tell when a newer one has superseded it.
+    private volatile int mLoadGeneration = 0;
     private final EventBusRegistrationInterface mDefaultEventBus;
     private final CrudEventBus mCrudEventBus;
     private final OdkResultSender mOdkResultSender;
@@ -119,6 +125,7 @@ final class PatientChartController implements ChartRenderer.GridJsInterface {
     private final EventSubscriber mEventBusSubscriber = new EventSubscriber();
     private final SyncManager mSyncManager;
     private final MinimalHandler mMainThreadHandler;
+    private final Executor mBackgroundExecutor;
     private AssignLocationDialog mAssignLocationDialog;
     private AssignGeneralConditionDialog mAssignGeneralConditionDialog;
     private List<Chart> mCharts;
@@ -209,7 +216,8 @@ final class PatientChartController implements ChartRenderer.GridJsInterface {
         ChartDataHelper chartHelper,
         @Nullable Bundle savedState,
         SyncManager syncManager,
-        MinimalHandler mainThreadHandler) {
+        MinimalHandler mainThreadHandler,
+        Executor backgroundExecutor) {
         mAppModel = appModel;
         mDefaultEventBus = defaultEventBus;
         mCrudEventBus = crudEventBus;
@@ -224,6 +232,7 @@ final class PatientChartController implements ChartRenderer.GridJsInterface {
         }
         mSyncManager = syncManager;
         mMainThreadHandler = mainThreadHandler;
+        mBackgroundExecutor = backgroundExecutor;
         mLastScrollPosition = new Point(Integer.MAX_VALUE, 0);
         mCharts = mChartHelper.getCharts(AppModel.CHART_UUID);
     }
@@ -526,21 +535,63 @@ final class PatientChartController implements ChartRenderer.GridJsInterface {
         mAssignLocationDialog.show();
     }
 
-    /** Gets the latest observation values and displays them on the UI. */
-    public synchronized void updatePatientObsUi(int chartNum) {
-        // Get the observations and orders
-        // TODO: Background thread this, or make this call async-like.
-        mObservations = mChartHelper.getObservations(mPatientUuid);
-        Map<String, Obs> latestObservations =
-            new HashMap<>(mChartHelper.getLatestObservations(mPatientUuid));
-        List<Order> orders = mChartHelper.getOrders(mPatientUuid);
+    /**
+     * Loads the patient's observations and orders on a background thread and then displays them
+     * on the UI.  If another load is started, or the controller is suspended, before this one
+     * finishes, its results are discarded.
+     */
+    public void updatePatientObsUi(final int chartNum) {
+        final int generation = ++mLoadGeneration;
+        final int phaseId = mCurrentPhaseId;
+        lastChartIndex = chartNum;
+        mBackgroundExecutor.execute(new Runnable() {
+            @Override public void run() {
+                // Skip the query entirely if a newer load was queued behind this one.
+                if (isStale(generation, phaseId)) return;
+                final ChartData data;
+                try {
+                    data = loadChartData();
+                } catch (RuntimeException e) {
+                    LOG.e(e, "Failed to load chart data for patient " + mPatientUuid);
+                    return;
+                }
+                mMainThreadHandler.post(new Runnable() {
+                    @Override public void run() {
+                        if (!isStale(generation, phaseId)) {
+                            showChartData(chartNum, data);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private boolean isStale(int generation, int phaseId) {
+        return generation != mLoadGeneration || phaseId != mCurrentPhaseId;
+    }
+
+    /** Queries the observations and orders for the patient.  Runs on a background thread. */
+    private ChartData loadChartData() {
+        // The latest values are picked out of the full list rather than queried separately,
+        // so that each observation row is read only once.
+        List<Obs> observations = mChartHelper.getObservations(mPatientUuid);
+        return new ChartData(
+            observations,
+            ChartDataHelper.getLatestObservations(observations),
+            mChartHelper.getOrders(mPatientUuid));
+    }
+
+    /** Displays loaded observations and orders on the UI.  Runs on the main thread. */
+    private void showChartData(int chartNum, ChartData data) {
+        mObservations = data.observations;
         mOrdersByUuid = new HashMap<>();
-        for (Order order : orders) {
+        for (Order order : data.orders) {
             mOrdersByUuid.put(order.uuid, order);
         }
-        LOG.d("Showing " + mObservations.size() + " observations and "
-            + orders.size() + " orders");
+        LOG.d("Showing " + data.observations.size() + " observations and "
+            + data.orders.size() + " orders");
 
+        Map<String, Obs> latestObservations = data.latestObservations;
         LocalDate admissionDate = getObservedDate(
             latestObservations, ConceptUuids.ADMISSION_DATE_UUID);
         LocalDate firstSymptomsDate = getObservedDate(
@@ -549,10 +600,9 @@ final class PatientChartController implements ChartRenderer.GridJsInterface {
         mUi.updateEbolaPcrTestResultUi(latestObservations);
         mUi.updatePregnancyAndIvStatusUi(latestObservations);
 
-        lastChartIndex = chartNum;
         mUi.updateTilesAndGrid(
             mCharts.get(chartNum),
-            latestObservations, mObservations, orders,
+            latestObservations, data.observations, data.orders,
             admissionDate, firstSymptomsDate);
     }
 
@@ -573,6 +623,20 @@ final class PatientChartController implements ChartRenderer.GridJsInterface {
         }
     }
 
+    /** The observations and orders for a patient, as loaded by {@link #loadChartData()}. */
+    private static final class ChartData {
+        final List<Obs> observations;
+        final Map<String, Obs> latestObservations;
+        final List<Order> orders;
+
+        ChartData(List<Obs> observations, Map<String, Obs> latestObservations,
+                  List<Order> orders) {
+            this.observations = observations;
+            this.latestObservations = latestObservations;
+            this.orders = orders;
+        }
+    }
+
     /** Represents an instance of a form being opened by the user. */
     class FormRequest {
         public final String formUuid;
@@ -668,27 +732,13 @@ final class PatientChartController implements ChartRenderer.GridJsInterface {
                 // below updates all the parts of the UI that use observation data.
             }
 
-            // TODO: Displaying the observations part of the UI takes a lot of main-thread time.
-            // This delays rendering of the rest of UI. To allow the rest of the UI to be displayed
-            // before we attempt to populate the observations, we delay the observation update
-            // slightly. We need this hack because we load observations on the main thread. We
-            // should change this to use a background thread. Either an async task or using
-            // CrudEventBus events.
-            mMainThreadHandler.post(new Runnable() {
-                @Override
-                public void run() {
-                    updatePatientObsUi(0);
-                }
-            });
+            // Observations are loaded in the background, so the rest of the UI can be
+            // rendered while they are being fetched.
+            updatePatientObsUi(0);
         }
 
         public void onEventMainThread(ItemDeletedEvent event) {
-            mMainThreadHandler.post(new Runnable() {
-                @Override
-                public void run() {
-                    updatePatientObsUi(lastChartIndex);
-                }
-            });
+            updatePatientObsUi(lastChartIndex);
         }
 
         public void onEventMainThread(PatientUpdateFailedEvent event) {
@@ -696,14 +746,19 @@ final class PatientChartController implements ChartRenderer.GridJsInterface {
             LOG.e(event.exception, "Patient update failed.");
         }
 
+        public void onEventMainThread(OrderSaveFailedEvent event) {
+            LOG.e(event.exception, "Order save failed.");
+            mUi.showError(R.string.order_save_failed);
+        }
+
+        public void onEventMainThread(VoidObsFailedEvent event) {
+            LOG.e(event.exception, "Observation void failed.");
+            mUi.showError(R.string.void_obs_failed);
+        }
+
         public void onEventMainThread(SubmitXformSucceededEvent event) {
-            mMainThreadHandler.post(new Runnable() {
-                @Override
-                public void run() {
-                    updatePatientObsUi(lastChartIndex);
-                    mUi.showFormSubmissionDialog(false);
-                }
-            });
+            updatePatientObsUi(lastChartIndex);
+            mUi.showFormSubmissionDialog(false);
         }
 
         public void onEventMainThread(SubmitXformFailedEvent event) {
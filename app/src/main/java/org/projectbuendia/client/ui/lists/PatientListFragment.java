@@ -158,6 +158,9 @@ public class PatientListFragment extends ProgressFragment implements
         int childPosition,
         long id) {
         Patient patient = (Patient) mPatientAdapter.getChild(groupPosition, childPosition);
+        if (patient == null) {
+            return true;
+        }
         Utils.logUserAction("patient_pressed", "patient_uuid", patient.uuid);
         mController.onPatientSelected(patient);
         return true;
@@ -26,10 +26,7 @@ import org.projectbuendia.client.filter.db.SimpleSelectionFilterGroup;
 import org.projectbuendia.client.filter.db.patient.LocationUuidFilter;
 import org.projectbuendia.client.filter.db.patient.PatientDbFilters;
 import org.projectbuendia.client.filter.matchers.FilteredCursorWrapper;
-import org.projectbuendia.client.filter.matchers.MatchingFilter;
-import org.projectbuendia.client.filter.matchers.MatchingFilterGroup;
-import org.projectbuendia.client.filter.matchers.patient.IdFilter;
-import org.projectbuendia.client.filter.matchers.patient.NameFilter;
+import org.projectbuendia.client.filter.matchers.patient.PatientSearchIndex;
 import org.projectbuendia.client.models.AppModel;
 import org.projectbuendia.client.models.LocationTree;
 import org.projectbuendia.client.models.Patient;
@@ -43,8 +40,6 @@ import java.util.Set;
 
 import de.greenrobot.event.EventBus;
 
-import static org.projectbuendia.client.filter.matchers.MatchingFilterGroup.FilterType.OR;
-
 /** Controller for {@link BaseSearchablePatientListActivity}. */
 public class PatientSearchController {
 
@@ -65,8 +60,8 @@ public class PatientSearchController {
     private final Object mFilterSubscriberLock = new Object();
     private final LocationTreeUpdatedSubscriber mLocationTreeUpdatedSubscriber;
     private boolean mWaitingOnLocationTree = false;
-    private final MatchingFilter<Patient> mSearchFilter =
-        new MatchingFilterGroup<Patient>(OR, new IdFilter(), new NameFilter());
+    /** Index over mPatientsCursor, rebuilt whenever a new cursor arrives. */
+    private final PatientSearchIndex mSearchIndex = new PatientSearchIndex();
     private TypedCursor<Patient> mPatientsCursor;
     private final SyncSubscriber mSyncSubscriber;
     private final CreationSubscriber mCreationSubscriber;
@@ -157,10 +152,7 @@ public class PatientSearchController {
         }
 
         if (mPatientsCursor != null) {
-            FilteredCursorWrapper<Patient> filteredCursorWrapper =
-                new FilteredCursorWrapper<Patient>(
-                    mPatientsCursor, mSearchFilter, mFilterQueryTerm);
-            fragmentUi.setPatients(filteredCursorWrapper);
+            fragmentUi.setPatients(getSearchResults());
         }
 
         // If all data is loaded, no need for a spinner.
@@ -208,10 +200,13 @@ public class PatientSearchController {
         loadSearchResults(true); // By default, show spinner.
     }
 
+    private FilteredCursorWrapper<Patient> getSearchResults() {
+        return new FilteredCursorWrapper<Patient>(
+            mPatientsCursor, mSearchIndex.search(mFilterQueryTerm));
+    }
+
     private void updatePatients() {
-        FilteredCursorWrapper<Patient> filteredCursorWrapper =
-            new FilteredCursorWrapper<Patient>(
-                mPatientsCursor, mSearchFilter, mFilterQueryTerm);
+        FilteredCursorWrapper<Patient> filteredCursorWrapper = getSearchResults();
         mUi.setPatients(filteredCursorWrapper);
         for (FragmentUi fragmentUi : mFragmentUis) {
             fragmentUi.setPatients(filteredCursorWrapper);
@@ -346,6 +341,7 @@ public class PatientSearchController {
 
             // Replace the patient cursor with the newly-fetched results.
             mPatientsCursor = event.cursor;
+            mSearchIndex.rebuild(mPatientsCursor);
             updatePatients();
         }
     }
@@ -158,7 +158,6 @@ public class UserStore {
         } finally {
             LOG.d("Releasing savepoint %s", USER_SYNC_SAVEPOINT_NAME);
             dbTransactionHelper.releaseNamedTransaction(USER_SYNC_SAVEPOINT_NAME);
-            dbTransactionHelper.close();
             client.release();
         }
     }
@@ -30,6 +30,7 @@ public class EditAndClearDataPreference extends EditTextPreference {
         super.onDialogClosed(positive);
         if (positive) {
             new Database(App.getInstance().getApplicationContext()).clear();
+            App.getConceptDictionary().clear();
             App.getUserManager().reset();
         }
     }
@@ -0,0 +1,87 @@
+// Copyright 2015 The Project Buendia Authors
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not
+// use this file except in compliance with the License.  You may obtain a copy
+// of the License at: http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distrib-
+// uted under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+// OR CONDITIONS OF ANY KIND, either express or implied.  See the License for
+// specific language governing permissions and limitations under the License.
+
+package org.projectbuendia.client.widgets;
+
+import android.app.AlertDialog;
+import android.app.Dialog;
+import android.content.Context;
+import android.content.Intent;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.preference.DialogPreference;
+import android.util.AttributeSet;
+
+import org.projectbuendia.client.App;
+import org.projectbuendia.client.R;
+
+/**
+ * Custom Android preference widget that shows the timings of the last sync, and can export
+ * the whole sync metrics log as CSV (e.g. by email) for comparison across tablets.  The log
+ * is read on a background thread, both for the summary and for the export.
+ */
+public class SyncMetricsPreference extends DialogPreference {
+    public SyncMetricsPreference(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        setPositiveButtonText(R.string.sync_metrics_export);
+        setNegativeButtonText(R.string.cancel);
+    }
+
+    @Override protected void onPrepareDialogBuilder(AlertDialog.Builder builder) {
+        super.onPrepareDialogBuilder(builder);
+        // Replaced by the summary once it has been loaded.
+        builder.setMessage(getContext().getString(R.string.loading));
+    }
+
+    @Override protected void showDialog(Bundle state) {
+        super.showDialog(state);
+        new LoadSummaryTask().execute();
+    }
+
+    @Override protected void onDialogClosed(boolean positive) {
+        super.onDialogClosed(positive);
+        if (positive) {
+            new ExportTask().execute();
+        }
+    }
+
+    /** Reads the summary of the last sync and shows it in the dialog, if it's still open. */
+    private class LoadSummaryTask extends AsyncTask<Void, Void, String> {
+        @Override protected String doInBackground(Void... params) {
+            return App.getSyncMetrics().summarizeLastSync();
+        }
+
+        @Override protected void onPostExecute(String summary) {
+            Dialog dialog = getDialog();
+            if (dialog instanceof AlertDialog && dialog.isShowing()) {
+                ((AlertDialog) dialog).setMessage(summary.isEmpty()
+                    ? getContext().getString(R.string.sync_metrics_empty) : summary);
+            }
+        }
+    }
+
+    /** Reads the whole log as CSV and offers to send it. */
+    private class ExportTask extends AsyncTask<Void, Void, String> {
+        @Override protected String doInBackground(Void... params) {
+            return App.getSyncMetrics().exportCsv();
+        }
+
+        @Override protected void onPostExecute(String csv) {
+            Context context = getContext();
+            Intent intent = new Intent(Intent.ACTION_SEND)
+                .setType("text/plain")
+                .putExtra(Intent.EXTRA_SUBJECT, context.getString(R.string.pref_title_sync_metrics))
+                .putExtra(Intent.EXTRA_TEXT, csv);
+            context.startActivity(Intent.createChooser(
+                intent, context.getString(R.string.sync_metrics_export)));
+        }
+    }
+}
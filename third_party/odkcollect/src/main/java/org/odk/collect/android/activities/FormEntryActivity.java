@@ -69,6 +69,7 @@ import org.odk.collect.android.preferences.PreferencesActivity;
 import org.odk.collect.android.provider.FormsProviderAPI.FormsColumns;
 import org.odk.collect.android.provider.InstanceProviderAPI.InstanceColumns;
 import org.odk.collect.android.tasks.FormLoaderTask;
+import org.odk.collect.android.tasks.SavePointJournal;
 import org.odk.collect.android.tasks.SavePointTask;
 import org.odk.collect.android.tasks.SaveResult;
 import org.odk.collect.android.tasks.SaveToDiskTask;
@@ -614,11 +615,12 @@ public class FormEntryActivity
             View child = mQuestionHolder.getChildAt(i);
             edges.add(child.getTop());
             if (child instanceof ODKView) {
-                List<QuestionWidget> widgets = ((ODKView) child).getWidgets();
+                // In windowed mode, a question's widget may not exist, but its place does.
+                List<View> questions = ((ODKView) child).getQuestionViews();
                 // Skip the first widget: it's better to land above the group title
                 // than between the group title and the first question widget.
-                for (int j = 1; j < widgets.size(); j++) {
-                    edges.add(child.getTop() + widgets.get(j).getTop());
+                for (int j = 1; j < questions.size(); j++) {
+                    edges.add(child.getTop() + questions.get(j).getTop());
                 }
             }
         }
@@ -1468,12 +1470,16 @@ public class FormEntryActivity
                 return createView(event, advancingPage, preset);
             }
 
-			// Makes a "clear answer" menu pop up on long-click
-			for (QuestionWidget qw : odkv.getWidgets()) {
-				if (!qw.getPrompt().isReadOnly()) {
-					registerForContextMenu(qw);
+			// Makes a "clear answer" menu pop up on long-click, including on widgets
+			// that the view only creates later as the user scrolls
+			odkv.setOnWidgetCreatedListener(new ODKView.OnWidgetCreatedListener() {
+				@Override
+				public void onWidgetCreated(QuestionWidget qw) {
+					if (!qw.getPrompt().isReadOnly()) {
+						registerForContextMenu(qw);
+					}
 				}
-			}
+			});
 			return odkv;
 		default:
             return null;
@@ -2039,12 +2045,8 @@ public class FormEntryActivity
 		FormController formController = Collect.getInstance()
 				.getFormController();
 
-		// attempt to remove any scratch file
-		File temp = SaveToDiskTask.savepointFile(formController
-				.getInstancePath());
-		if (temp.exists()) {
-			temp.delete();
-		}
+		// attempt to remove any scratch file and its journal
+		SavePointJournal.deleteSavepoint(formController.getInstancePath());
 
 		String selection = InstanceColumns.INSTANCE_FILE_PATH + "=?";
 		String[] selectionArgs = { formController.getInstancePath()
@@ -53,6 +53,7 @@ public final class ExternalDataUtil {
 
     public static final String LOGGER_NAME = "ExternalData";
     public static final String EXTERNAL_DATA_TABLE_NAME = "externalData";
+    public static final String FULL_TEXT_TABLE_NAME = EXTERNAL_DATA_TABLE_NAME + "_fts";
     public static final String SORT_COLUMN_NAME = "c_sortby";
 
     private static final Pattern SEARCH_FUNCTION_REGEX = Pattern.compile("search\\(.+\\)");
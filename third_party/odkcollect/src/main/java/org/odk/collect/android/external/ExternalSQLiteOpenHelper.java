@@ -18,9 +18,12 @@
 
 package org.odk.collect.android.external;
 
-import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.util.Log;
+import android.util.LruCache;
 
 import org.odk.collect.android.R;
 import org.odk.collect.android.application.Collect;
@@ -51,10 +54,24 @@ public class ExternalSQLiteOpenHelper extends ODKSQLiteOpenHelper {
     private static final char QUOTE_CHAR = "\"".charAt(0);
     private static final char ESCAPE_CHAR = "\0".charAt(0);
 
+    // how many rows to import between progress updates.
+    private static final int PROGRESS_INTERVAL_ROWS = 200;
+
+    // the most rows of search() results to keep around, summed over all the cached queries.
+    private static final int SEARCH_CACHE_MAX_ROWS = 20000;
+
     private File dataSetFile;
     private ExternalDataReader externalDataReader;
     private FormLoaderTask formLoaderTask;
 
+    private Boolean hasFullTextIndex;
+    private final LruCache<String, List<String[]>> searchCache = new LruCache<String, List<String[]>>(SEARCH_CACHE_MAX_ROWS) {
+        @Override
+        protected int sizeOf(String key, List<String[]> rows) {
+            return Math.max(1, rows.size());
+        }
+    };
+
     public ExternalSQLiteOpenHelper(File dbFile) {
         super(dbFile.getParentFile().getAbsolutePath(), dbFile.getName(), null, VERSION);
     }
@@ -97,7 +114,8 @@ public class ExternalSQLiteOpenHelper extends ODKSQLiteOpenHelper {
 
         CSVReader reader = null;
         try {
-            reader = new CSVReader(new InputStreamReader(new FileInputStream(dataSetFile), "UTF-8"), DELIMITING_CHAR, QUOTE_CHAR, ESCAPE_CHAR);
+            FileInputStream input = new FileInputStream(dataSetFile);
+            reader = new CSVReader(new InputStreamReader(input, "UTF-8"), DELIMITING_CHAR, QUOTE_CHAR, ESCAPE_CHAR);
             String[] headerRow = reader.readNext();
 
             if (!ExternalDataUtil.containsAnyData(headerRow)) {
@@ -159,52 +177,106 @@ public class ExternalSQLiteOpenHelper extends ODKSQLiteOpenHelper {
                 }
             }
 
-            // populate the database
-            String[] row = reader.readNext();
-            int rowCount = 0;
-            while (row != null && !formLoaderTask.isCancelled()) {
-                // SCTO-894 - first we should make sure that this is not an empty line
-                if (!ExternalDataUtil.containsAnyData(row)) {
-                    // yes, that is an empty row, ignore it
-                    row = reader.readNext();
-                    continue;
-                }
-
-                // SCTO-894 - then check if the row contains less values than the header
-                // we should not ignore the existing values in the row,
-                // we will just fill up the rest with empty strings
-                if (row.length < headerRow.length) {
-                    row = ExternalDataUtil.fillUpNullValues(row, headerRow);
+            // populate the database.
+            // onCreate runs inside the transaction opened by getWritableDatabase(), so all the
+            // rows are committed at once; compiling the insert once and rebinding it for each
+            // row saves building a ContentValues and an INSERT statement per row.
+            List<String> insertColumns = new ArrayList<String>();
+            List<String> textColumns = new ArrayList<String>();
+            int[] bindIndexes = new int[headerRow.length];
+            int sortColumnCsvIndex = -1;
+            for (int i = 0; i < headerRow.length; i++) {
+                String columnName = headerRow[i].trim();
+                if (columnName.length() == 0) {
+                    continue;  // bind index 0 means the column is skipped
                 }
-
-                ContentValues values = new ContentValues();
-                if (!sortColumnAlreadyPresent) {
-                    values.put(ExternalDataUtil.SORT_COLUMN_NAME, rowCount + 1);
+                String safeColumnName = ExternalDataUtil.toSafeColumnName(columnName, columnNamesCache);
+                if (safeColumnName.equals(ExternalDataUtil.SORT_COLUMN_NAME)) {
+                    sortColumnCsvIndex = i;
+                } else {
+                    textColumns.add(safeColumnName);
                 }
+                insertColumns.add(safeColumnName);
+                bindIndexes[i] = insertColumns.size();
+            }
+            int sortBindIndex = 0;
+            if (!sortColumnAlreadyPresent) {
+                insertColumns.add(ExternalDataUtil.SORT_COLUMN_NAME);
+                sortBindIndex = insertColumns.size();
+            }
 
-                for (int i = 0; i < row.length && i < headerRow.length; i++) {
-                    String columnName = headerRow[i].trim();
-                    String columnValue = row[i];
-                    if (columnName.length() == 0) {
+            StringBuilder insertSql = new StringBuilder();
+            insertSql.append("INSERT INTO ").append(tableName).append(" (");
+            for (int i = 0; i < insertColumns.size(); i++) {
+                insertSql.append(i == 0 ? "" : ", ").append(insertColumns.get(i));
+            }
+            insertSql.append(") VALUES (");
+            for (int i = 0; i < insertColumns.size(); i++) {
+                insertSql.append(i == 0 ? "?" : ", ?");
+            }
+            insertSql.append(")");
+
+            SQLiteStatement insert = db.compileStatement(insertSql.toString());
+            try {
+                long totalBytes = Math.max(1, dataSetFile.length());
+                int lastPercent = -1;
+                String[] row = reader.readNext();
+                int rowCount = 0;
+                while (row != null && !formLoaderTask.isCancelled()) {
+                    // SCTO-894 - first we should make sure that this is not an empty line
+                    if (!ExternalDataUtil.containsAnyData(row)) {
+                        // yes, that is an empty row, ignore it
+                        row = reader.readNext();
                         continue;
                     }
-                    String safeColumnName = ExternalDataUtil.toSafeColumnName(columnName, columnNamesCache);
-                    if (safeColumnName.equals(ExternalDataUtil.SORT_COLUMN_NAME)) {
-                        try {
-                            values.put(safeColumnName, Double.parseDouble(columnValue));
-                        } catch (NumberFormatException e) {
-                            throw new ExternalDataException(Collect.getInstance().getApplication().getString(R.string.ext_sortBy_numeric_error, columnValue));
+
+                    // SCTO-894 - then check if the row contains less values than the header
+                    // we should not ignore the existing values in the row,
+                    // we will just fill up the rest with empty strings
+                    if (row.length < headerRow.length) {
+                        row = ExternalDataUtil.fillUpNullValues(row, headerRow);
+                    }
+
+                    insert.clearBindings();
+                    if (sortBindIndex != 0) {
+                        insert.bindLong(sortBindIndex, rowCount + 1);
+                    }
+
+                    for (int i = 0; i < row.length && i < headerRow.length; i++) {
+                        if (bindIndexes[i] == 0) {
+                            continue;
+                        }
+                        String columnValue = row[i];
+                        if (i == sortColumnCsvIndex) {
+                            try {
+                                insert.bindDouble(bindIndexes[i], Double.parseDouble(columnValue));
+                            } catch (NumberFormatException e) {
+                                throw new ExternalDataException(Collect.getInstance().getApplication().getString(R.string.ext_sortBy_numeric_error, columnValue));
+                            }
+                        } else if (columnValue == null) {
+                            insert.bindNull(bindIndexes[i]);
+                        } else {
+                            insert.bindString(bindIndexes[i], columnValue);
                         }
-                    } else {
-                        values.put(safeColumnName, columnValue);
+                    }
+                    insert.executeInsert();
+                    row = reader.readNext();
+                    rowCount++;
+
+                    // getting the file position is a system call, so only check it now and then.
+                    if (rowCount % PROGRESS_INTERVAL_ROWS != 0) {
+                        continue;
+                    }
+                    // report how far through the file we are, rather than just a row count;
+                    // the position runs a buffer ahead of the parser, which is close enough.
+                    int percent = (int) (100 * input.getChannel().position() / totalBytes);
+                    if (percent != lastPercent) {
+                        lastPercent = percent;
+                        onProgress(Collect.getInstance().getApplication().getString(R.string.ext_import_progress_message, dataSetFile.getName(), " (" + Math.min(percent, 100) + "%, " + rowCount + " records so far)"));
                     }
                 }
-                db.insertOrThrow(tableName, null, values);
-                row = reader.readNext();
-                rowCount++;
-                if (rowCount % 100 == 0) {
-                    onProgress(Collect.getInstance().getApplication().getString(R.string.ext_import_progress_message, dataSetFile.getName(), " (" + rowCount + " records so far)"));
-                }
+            } finally {
+                insert.close();
             }
 
             if (formLoaderTask.isCancelled()) {
@@ -219,6 +291,7 @@ public class ExternalSQLiteOpenHelper extends ODKSQLiteOpenHelper {
                     Log.w(ExternalDataUtil.LOGGER_NAME, createIndexCommand);
                     db.execSQL(createIndexCommand);
                 }
+                createFullTextIndex(db, tableName, textColumns);
 
                 Log.w(ExternalDataUtil.LOGGER_NAME, "Read all data from " + dataSetFile);
                 onProgress(Collect.getInstance().getApplication().getString(R.string.ext_import_completed_message));
@@ -234,6 +307,70 @@ public class ExternalSQLiteOpenHelper extends ODKSQLiteOpenHelper {
         }
     }
 
+    /**
+     * Creates a full-text index over the text columns, for search() to narrow down its
+     * "contains"/"startsWith"/"endsWith" queries with instead of scanning the whole table.
+     * The index only finds words by their prefix, so it can't help with a single-word
+     * "contains" or "endsWith" query (see ExternalDataSearchType#constructFullTextQuery).
+     * The index takes its content from the table itself, so it only stores the tokens.
+     */
+    private void createFullTextIndex(SQLiteDatabase db, String tableName, List<String> textColumns) {
+        if (textColumns.isEmpty()) {
+            return;
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append("CREATE VIRTUAL TABLE ").append(ExternalDataUtil.FULL_TEXT_TABLE_NAME);
+        sb.append(" USING fts4(content=\"").append(tableName).append("\"");
+        for (String textColumn : textColumns) {
+            sb.append(", ").append(textColumn);
+        }
+        sb.append(");");
+        try {
+            Log.w(ExternalDataUtil.LOGGER_NAME, sb.toString());
+            db.execSQL(sb.toString());
+            db.execSQL("INSERT INTO " + ExternalDataUtil.FULL_TEXT_TABLE_NAME + "(" + ExternalDataUtil.FULL_TEXT_TABLE_NAME + ") VALUES('rebuild');");
+        } catch (SQLException e) {
+            // search() falls back to LIKE queries without the index, so this is not fatal.
+            Log.e(ExternalDataUtil.LOGGER_NAME, "Could not create the full-text index for " + dataSetFile, e);
+            db.execSQL("DROP TABLE IF EXISTS " + ExternalDataUtil.FULL_TEXT_TABLE_NAME + ";");
+        }
+    }
+
+    /**
+     * Returns true if the database has a full-text index, which databases imported by older
+     * versions do not.
+     */
+    public synchronized boolean hasFullTextIndex() {
+        if (hasFullTextIndex == null) {
+            Cursor c = getReadableDatabase().query("sqlite_master", new String[]{"name"}, "type = 'table' AND name = ?", new String[]{ExternalDataUtil.FULL_TEXT_TABLE_NAME}, null, null, null);
+            try {
+                hasFullTextIndex = c.getCount() > 0;
+            } finally {
+                c.close();
+            }
+        }
+        return hasFullTextIndex;
+    }
+
+    /**
+     * Returns the rows cached for a search() query by {@link #putSearchResult}, or null.
+     * The data never changes once imported, so the results stay valid until the form is closed.
+     */
+    public List<String[]> getSearchResult(String queryKey) {
+        return searchCache.get(queryKey);
+    }
+
+    public void putSearchResult(String queryKey, List<String[]> rows) {
+        searchCache.put(queryKey, rows);
+    }
+
+    @Override
+    public synchronized void close() {
+        searchCache.evictAll();
+        hasFullTextIndex = null;
+        super.close();
+    }
+
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
     }
@@ -19,7 +19,9 @@
 package org.odk.collect.android.external.handler;
 
 import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.text.TextUtils;
 
 import org.javarosa.core.model.SelectChoice;
 import org.javarosa.core.model.condition.EvaluationContext;
@@ -33,6 +35,7 @@ import org.odk.collect.android.external.ExternalSQLiteOpenHelper;
 import org.odk.collect.android.external.ExternalSelectChoice;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -136,7 +139,6 @@ public class ExternalDataHandlerSearch extends ExternalDataHandlerBase {
         try {
             ExternalSQLiteOpenHelper sqLiteOpenHelper = getExternalDataManager().getDatabase(dataSetName, true);
 
-            SQLiteDatabase db = sqLiteOpenHelper.getReadableDatabase();
             LinkedHashMap<String, String> selectColumnMap = ExternalDataUtil.createMapWithDisplayingColumns(getValueColumn(), getDisplayColumns());
 
             List<String> columnsToFetch = new ArrayList<String>(selectColumnMap.keySet());
@@ -148,33 +150,50 @@ public class ExternalDataHandlerSearch extends ExternalDataHandlerBase {
 
             String[] sqlColumns = columnsToFetch.toArray(new String[columnsToFetch.size()]);
 
-            String selection;
-            String[] selectionArgs;
-
-            if (searchRows && useFilter) {
-                selection = "( " + createLikeExpression(queriedColumns) + " ) AND " + ExternalDataUtil.toSafeColumnName(filterColumn) + "=? ";
-                String[] likeArgs = externalDataSearchType.constructLikeArguments(queriedValue, queriedColumns.size());
-                selectionArgs = new String[likeArgs.length + 1];
-                System.arraycopy(likeArgs, 0, selectionArgs, 0, likeArgs.length);
-                selectionArgs[selectionArgs.length - 1] = filterValue;
-            } else if (searchRows) {
-                selection = createLikeExpression(queriedColumns);
-                selectionArgs = externalDataSearchType.constructLikeArguments(queriedValue, queriedColumns.size());
-            } else if (useFilter) {
-                selection = ExternalDataUtil.toSafeColumnName(filterColumn) + "=? ";
-                selectionArgs = new String[]{filterValue};
-            } else {
-                selection = null;
-                selectionArgs = null;
+            List<String> selectionParts = new ArrayList<String>();
+            List<String> selectionArgList = new ArrayList<String>();
+
+            if (searchRows) {
+                // the full-text index only narrows down the rows; the LIKE expression still
+                // decides which of them match, so the results are the same either way.
+                String fullTextQuery = externalDataSearchType.constructFullTextQuery(queriedValue);
+                if (fullTextQuery != null && !queriedColumns.contains(ExternalDataUtil.SORT_COLUMN_NAME) && sqLiteOpenHelper.hasFullTextIndex()) {
+                    selectionParts.add("rowid IN ( " + createFullTextExpression(queriedColumns) + " )");
+                    for (int i = 0; i < queriedColumns.size(); i++) {
+                        selectionArgList.add(fullTextQuery);
+                    }
+                }
+                selectionParts.add("( " + createLikeExpression(queriedColumns) + " )");
+                selectionArgList.addAll(Arrays.asList(externalDataSearchType.constructLikeArguments(queriedValue, queriedColumns.size())));
+            }
+            if (useFilter) {
+                selectionParts.add(ExternalDataUtil.toSafeColumnName(filterColumn) + "=? ");
+                selectionArgList.add(filterValue);
             }
 
-            try {
-                c = db.query(ExternalDataUtil.EXTERNAL_DATA_TABLE_NAME, sqlColumns, selection, selectionArgs, null, null, ExternalDataUtil.SORT_COLUMN_NAME);
-            } catch (Exception e) {
-                c = db.query(ExternalDataUtil.EXTERNAL_DATA_TABLE_NAME, sqlColumns, selection, selectionArgs, null, null, null);
+            String selection = selectionParts.isEmpty() ? null : TextUtils.join(" AND ", selectionParts);
+            String[] selectionArgs = selectionArgList.isEmpty() ? null : selectionArgList.toArray(new String[selectionArgList.size()]);
+
+            // the form re-evaluates search() every time it redraws the question, so remember
+            // the rows fetched for each query.
+            String queryKey = createQueryKey(sqlColumns, selection, selectionArgs);
+            List<String[]> rows = sqLiteOpenHelper.getSearchResult(queryKey);
+            if (rows == null) {
+                SQLiteDatabase db = sqLiteOpenHelper.getReadableDatabase();
+                try {
+                    c = db.query(ExternalDataUtil.EXTERNAL_DATA_TABLE_NAME, sqlColumns, selection, selectionArgs, null, null, ExternalDataUtil.SORT_COLUMN_NAME);
+                } catch (Exception e) {
+                    c = db.query(ExternalDataUtil.EXTERNAL_DATA_TABLE_NAME, sqlColumns, selection, selectionArgs, null, null, null);
+                }
+                rows = readRows(c);
+                sqLiteOpenHelper.putSearchResult(queryKey, rows);
             }
 
-            return createDynamicSelectChoices(c, selectColumnMap, safeImageColumn);
+            MatrixCursor resultCursor = new MatrixCursor(sqlColumns, rows.size());
+            for (String[] row : rows) {
+                resultCursor.addRow(row);
+            }
+            return createDynamicSelectChoices(resultCursor, selectColumnMap, safeImageColumn);
         } finally {
             if (c != null) {
                 c.close();
@@ -182,6 +201,30 @@ public class ExternalDataHandlerSearch extends ExternalDataHandlerBase {
         }
     }
 
+    protected List<String[]> readRows(Cursor c) {
+        List<String[]> rows = new ArrayList<String[]>(c.getCount());
+        c.moveToPosition(-1);
+        while (c.moveToNext()) {
+            String[] row = new String[c.getColumnCount()];
+            for (int i = 0; i < row.length; i++) {
+                row[i] = c.getString(i);
+            }
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    protected String createQueryKey(String[] sqlColumns, String selection, String[] selectionArgs) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(Arrays.toString(sqlColumns)).append('\0').append(selection).append('\0');
+        if (selectionArgs != null) {
+            for (String selectionArg : selectionArgs) {
+                sb.append(selectionArg.length()).append(':').append(selectionArg);
+            }
+        }
+        return sb.toString();
+    }
+
     protected Vector<SelectChoice> createDynamicSelectChoices(Cursor c, LinkedHashMap<String, String> selectColumnMap, String safeImageColumn) {
         List<String> columnsToExcludeFromLabels = new ArrayList<String>();
         if (safeImageColumn != null) {
@@ -226,6 +269,17 @@ public class ExternalDataHandlerSearch extends ExternalDataHandlerBase {
         return selectChoices;
     }
 
+    protected String createFullTextExpression(List<String> queriedColumns) {
+        StringBuilder sb = new StringBuilder();
+        for (String queriedColumn : queriedColumns) {
+            if (sb.length() > 0) {
+                sb.append(" UNION ");
+            }
+            sb.append("SELECT docid FROM ").append(ExternalDataUtil.FULL_TEXT_TABLE_NAME).append(" WHERE ").append(queriedColumn).append(" MATCH ?");
+        }
+        return sb.toString();
+    }
+
     protected String createLikeExpression(List<String> queriedColumns) {
         StringBuilder sb = new StringBuilder();
         for (String queriedColumn : queriedColumns) {
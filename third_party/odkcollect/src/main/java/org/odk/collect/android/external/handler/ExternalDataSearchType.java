@@ -84,5 +84,51 @@ enum ExternalDataSearchType {
         return args;
     }
 
+    /**
+     * Returns a full-text query that matches at least every value this search type matches,
+     * so that the index can narrow down the rows to check with LIKE, or null if the index can't
+     * help with this value.
+     * <p/>
+     * The full-text index splits values into words at every ASCII character that is not a
+     * letter or digit, and can only find words by their prefix.  Each word of the queried value
+     * is then a prefix of a word in any value that matches, except the first when the value may
+     * match in the middle of a word.  So for "contains" and "endsWith", only the words after the
+     * first narrow the search, and a single-word value gets no full-text query at all: search()
+     * then scans the table with LIKE, as it did before the index existed.
+     */
+    public String constructFullTextQuery(String queriedValue) {
+        if (queriedValue == null || queriedValue.indexOf('%') >= 0 || queriedValue.indexOf('_') >= 0) {
+            // these are wildcards to LIKE
+            return null;
+        }
+        boolean anchoredAtStart = this == MATCHES || this == STARTS;
+        StringBuilder sb = new StringBuilder();
+        int length = queriedValue.length();
+        int start = 0;
+        while (start < length) {
+            if (isWordSeparator(queriedValue.charAt(start))) {
+                start++;
+                continue;
+            }
+            int end = start;
+            while (end < length && !isWordSeparator(queriedValue.charAt(end))) {
+                end++;
+            }
+            if (start > 0 || anchoredAtStart) {
+                if (sb.length() > 0) {
+                    sb.append(' ');
+                }
+                // quoted, so that words like "OR" are not taken for operators
+                sb.append('"').append(queriedValue, start, end).append("*\"");
+            }
+            start = end;
+        }
+        return sb.length() == 0 ? null : sb.toString();
+    }
+
+    private static boolean isWordSeparator(char c) {
+        return c < 128 && !Character.isLetterOrDigit(c);
+    }
+
     protected abstract String getSingleLikeArgument(String queriedValue);
 }
@@ -49,6 +49,8 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.Vector;
 
 /**
@@ -156,6 +158,13 @@ public class FormController {
     private FormEntryController mFormEntryController;
     private FormIndex mIndexWaitingForData = null;
 
+    // Answers saved into the data model since the last savepoint, by reference, for
+    // SavePointJournal.  Guarded by itself.
+    private final LinkedHashMap<String, IAnswerData> mAnswerChanges =
+            new LinkedHashMap<String, IAnswerData>();
+    // Whether a repeat has been added or deleted since the last savepoint snapshot.
+    private final AtomicBoolean mRepeatsChanged = new AtomicBoolean(false);
+
     public FormController(File mediaFolder, FormEntryController fec, File instancePath) {
     	mMediaFolder = mediaFolder;
         mFormEntryController = fec;
@@ -468,7 +477,11 @@ public class FormController {
      * @return
      */
     private int answerQuestion(IAnswerData data) {
-        return mFormEntryController.answerQuestion(data);
+        int status = mFormEntryController.answerQuestion(data);
+        if (status == FormEntryController.ANSWER_OK) {
+            recordAnswerChange(getFormIndex(), data);
+        }
+        return status;
     }
 
 
@@ -480,11 +493,16 @@ public class FormController {
      * @return
      */
     public int answerQuestion(FormIndex index, IAnswerData data) throws JavaRosaException {
+        int status;
         try {
-            return mFormEntryController.answerQuestion(index, data);
+            status = mFormEntryController.answerQuestion(index, data);
         } catch (Exception e) {
            throw new JavaRosaException(e);
         }
+        if (status == FormEntryController.ANSWER_OK) {
+            recordAnswerChange(index, data);
+        }
+        return status;
     }
 
     /**
@@ -537,11 +555,16 @@ public class FormController {
      * @return true if saved successfully, false otherwise.
      */
     public boolean saveAnswer(FormIndex index, IAnswerData data) throws JavaRosaException {
+        boolean saved;
         try {
-            return mFormEntryController.saveAnswer(index, data);
+            saved = mFormEntryController.saveAnswer(index, data);
         } catch (Exception e) {
             throw new JavaRosaException(e);
         }
+        if (saved) {
+            recordAnswerChange(index, data);
+        }
+        return saved;
     }
 
 
@@ -554,11 +577,60 @@ public class FormController {
      * @return true if saved successfully, false otherwise.
      */
     public boolean saveAnswer(IAnswerData data) throws JavaRosaException {
+        boolean saved;
         try {
-            return mFormEntryController.saveAnswer(data);
+            saved = mFormEntryController.saveAnswer(data);
         } catch (Exception e) {
             throw new JavaRosaException(e);
         }
+        if (saved) {
+            recordAnswerChange(getFormIndex(), data);
+        }
+        return saved;
+    }
+
+    private void recordAnswerChange(FormIndex index, IAnswerData data) {
+        synchronized (mAnswerChanges) {
+            mAnswerChanges.put(index.getReference().toString(), data);
+        }
+    }
+
+    /**
+     * Returns the answers saved into the data model since the last call, keyed by the string
+     * form of their references, and forgets them.
+     */
+    public Map<String, IAnswerData> takeAnswerChanges() {
+        synchronized (mAnswerChanges) {
+            Map<String, IAnswerData> changes = new LinkedHashMap<String, IAnswerData>(mAnswerChanges);
+            mAnswerChanges.clear();
+            return changes;
+        }
+    }
+
+    /**
+     * Returns true if a repeat has been added or deleted since the last call, so that the
+     * savepoint journal's references may no longer line up with a snapshot.
+     */
+    public boolean takeRepeatsChanged() {
+        return mRepeatsChanged.getAndSet(false);
+    }
+
+    /** Puts back a change reported by {@link #takeRepeatsChanged()} that was not snapshotted. */
+    public void restoreRepeatsChanged() {
+        mRepeatsChanged.set(true);
+    }
+
+    /**
+     * Puts back changes from {@link #takeAnswerChanges()} that could not be recorded, so that
+     * the next call returns them again; answers saved since then take precedence.
+     */
+    public void restoreAnswerChanges(Map<String, IAnswerData> changes) {
+        synchronized (mAnswerChanges) {
+            Map<String, IAnswerData> newer = new LinkedHashMap<String, IAnswerData>(mAnswerChanges);
+            mAnswerChanges.clear();
+            mAnswerChanges.putAll(changes);
+            mAnswerChanges.putAll(newer);
+        }
     }
 
 
@@ -876,6 +948,7 @@ public class FormController {
      */
     public void newRepeat() {
         mFormEntryController.newRepeat();
+        mRepeatsChanged.set(true);
     }
 
 
@@ -887,6 +960,7 @@ public class FormController {
     public void deleteRepeat() {
         FormIndex fi = mFormEntryController.deleteRepeat();
         mFormEntryController.jumpToIndex(fi);
+        mRepeatsChanged.set(true);
     }
 
 
@@ -19,7 +19,6 @@ import android.database.Cursor;
 import android.os.AsyncTask;
 import android.util.Log;
 
-import org.apache.commons.io.IOUtils;
 import org.javarosa.core.model.FormDef;
 import org.javarosa.core.model.FormIndex;
 import org.javarosa.core.model.condition.EvaluationContext;
@@ -29,13 +28,10 @@ import org.javarosa.core.model.instance.TreeReference;
 import org.javarosa.core.model.instance.utils.DefaultAnswerResolver;
 import org.javarosa.core.reference.ReferenceManager;
 import org.javarosa.core.reference.RootTranslator;
-import org.javarosa.core.util.externalizable.DeserializationException;
-import org.javarosa.core.util.externalizable.ExtUtil;
 import org.javarosa.form.api.FormEntryController;
 import org.javarosa.form.api.FormEntryModel;
 import org.javarosa.xform.parse.XFormParseException;
 import org.javarosa.xform.parse.XFormParser;
-import org.javarosa.xform.util.XFormUtils;
 import org.javarosa.xpath.XPathTypeMismatchException;
 import org.odk.collect.android.R;
 import org.odk.collect.android.application.Collect;
@@ -51,15 +47,12 @@ import org.odk.collect.android.listeners.FormLoaderListener;
 import org.odk.collect.android.logic.FileReferenceFactory;
 import org.odk.collect.android.logic.FormController;
 import org.odk.collect.android.utilities.FileUtils;
+import org.odk.collect.android.utilities.FormDefCache;
 import org.odk.collect.android.utilities.ZipUtils;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileFilter;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.HashMap;
@@ -128,14 +121,14 @@ public class FormLoaderTask extends AsyncTask<String, String, FormLoaderTask.FEC
     protected FECWrapper doInBackground(String... path) {
         FormEntryController fec = null;
         FormDef fd = null;
-        FileInputStream fis = null;
         mErrorMsg = null;
 
         String formPath = path[0];
 
         File formXml = new File(formPath);
-        String formHash = FileUtils.getMd5Hash(formXml);
-        File formBin = new File(Collect.getInstance().getCachePath() + File.separator + formHash + ".formdef");
+        // The hash index spares us an MD5 pass over the form on every open.
+        String formHash = FormDefCache.getHash(formXml);
+        File formBin = FormDefCache.getFormDefFile(formHash);
 
         publishProgress(Collect.getInstance().getApplication().getString(R.string.survey_loading_reading_form_message));
 
@@ -158,12 +151,10 @@ public class FormLoaderTask extends AsyncTask<String, String, FormLoaderTask.FEC
             // no binary, read from xml
             try {
                 Log.i(t, "Attempting to load from: " + formXml.getAbsolutePath());
-                fis = new FileInputStream(formXml);
-                fd = XFormUtils.getFormFromInputStream(fis);
+                // Waits for, and then reuses, any background build of the same form.
+                fd = FormDefCache.load(formXml, formHash);
                 if (fd == null) {
                     mErrorMsg = "Error reading XForm file";
-                } else {
-                    serializeFormDef(fd, formPath);
                 }
             } catch (FileNotFoundException e) {
                 e.printStackTrace();
@@ -174,8 +165,6 @@ public class FormLoaderTask extends AsyncTask<String, String, FormLoaderTask.FEC
             } catch (Exception e) {
                 mErrorMsg = e.getMessage();
                 e.printStackTrace();
-            } finally {
-                IOUtils.closeQuietly(fis);
             }
         }
 
@@ -324,13 +313,23 @@ public class FormLoaderTask extends AsyncTask<String, String, FormLoaderTask.FEC
             new RootTranslator("jr://video/", "jr://file/forms/" + formFileName + "-media/"));
 
         // clean up vars
-        fis = null;
         fd = null;
         formBin = null;
         formXml = null;
         formPath = null;
 
         FormController fc = new FormController(formMediaDir, fec, mInstancePath == null ? null : new File(mInstancePath));
+        if (usedSavepoint) {
+            // The snapshot may be followed by a journal of answers changed since.
+            try {
+                int replayed = new SavePointJournal(new File(mInstancePath)).replay(fc);
+                if (replayed > 0) {
+                    Log.i(t, "Replayed " + replayed + " answers from the savepoint journal");
+                }
+            } catch (IOException e) {
+                Log.e(t, "Could not replay the savepoint journal", e);
+            }
+        }
         if ( mXPath != null ) {
         	// we are resuming after having terminated -- set index to this position...
         	FormIndex idx = fc.getIndexFromXPath(mXPath);
@@ -456,35 +455,7 @@ public class FormLoaderTask extends AsyncTask<String, String, FormLoaderTask.FEC
      * @return {@link FormDef} object
      */
     public FormDef deserializeFormDef(File formDef) {
-
-        // TODO: any way to remove reliance on jrsp?
-        FileInputStream fis = null;
-        FormDef fd = null;
-        try {
-            // create new form def
-            fd = new FormDef();
-            fis = new FileInputStream(formDef);
-            DataInputStream dis = new DataInputStream(fis);
-
-            // read serialized formdef into new formdef
-            fd.readExternal(dis, ExtUtil.defaultPrototypes());
-            dis.close();
-
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-            fd = null;
-        } catch (IOException e) {
-            e.printStackTrace();
-            fd = null;
-        } catch (DeserializationException e) {
-            e.printStackTrace();
-            fd = null;
-        } catch (Exception e) {
-            e.printStackTrace();
-            fd = null;
-        }
-
-        return fd;
+        return FormDefCache.read(formDef);
     }
 
 
@@ -494,25 +465,7 @@ public class FormLoaderTask extends AsyncTask<String, String, FormLoaderTask.FEC
      * @param filepath path to the form file
      */
     public void serializeFormDef(FormDef fd, String filepath) {
-        // calculate unique md5 identifier
-        String hash = FileUtils.getMd5Hash(new File(filepath));
-        File formDef = new File(Collect.getInstance().getCachePath() + File.separator + hash + ".formdef");
-
-        // formdef does not exist, create one.
-        if (!formDef.exists()) {
-            FileOutputStream fos;
-            try {
-                fos = new FileOutputStream(formDef);
-                DataOutputStream dos = new DataOutputStream(fos);
-                fd.writeExternal(dos);
-                dos.flush();
-                dos.close();
-            } catch (FileNotFoundException e) {
-                e.printStackTrace();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        }
+        FormDefCache.write(fd, FormDefCache.getHash(new File(filepath)));
     }
 
     @Override
@@ -0,0 +1,296 @@
+// Copyright 2015 The Project Buendia Authors
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not
+// use this file except in compliance with the License.  You may obtain a copy
+// of the License at: http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distrib-
+// uted under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+// OR CONDITIONS OF ANY KIND, either express or implied.  See the License for
+// specific language governing permissions and limitations under the License.
+
+package org.odk.collect.android.tasks;
+
+import android.util.Log;
+
+import org.javarosa.core.model.FormIndex;
+import org.javarosa.core.model.data.IAnswerData;
+import org.javarosa.core.services.transport.payload.ByteArrayPayload;
+import org.javarosa.core.util.externalizable.DeserializationException;
+import org.javarosa.core.util.externalizable.ExtUtil;
+import org.javarosa.core.util.externalizable.ExtWrapTagged;
+import org.javarosa.form.api.FormEntryController;
+import org.odk.collect.android.exception.JavaRosaException;
+import org.odk.collect.android.logic.FormController;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+/**
+ * An append-only log of the answers changed since the last full savepoint.
+ * <p>
+ * Writing the whole instance for every savepoint costs time in proportion to the size of the
+ * form, however little has changed.  Instead, {@link SavePointTask} writes the full instance
+ * (the snapshot, see {@link SaveToDiskTask#savepointFile}) only when there is none yet, the
+ * repeats in the form have changed, or the journal has grown past
+ * {@link #COMPACTION_THRESHOLD_BYTES}; otherwise it appends just the answers saved into the data
+ * model since the last savepoint.  On recovery, the {@link FormLoaderTask} loads the snapshot and
+ * then replays the journal over it.
+ * <p>
+ * The journal starts with a CRC32 of the snapshot it belongs to, followed by a sequence of
+ * batches, one per savepoint.  Each batch is its length, then the (reference, answer) entries,
+ * then a CRC32 of the entries; reading stops at the first batch that is incomplete or fails its
+ * check, which is where a crash during an append would leave it.  A new snapshot is written to a
+ * temporary file and renamed into place before a new journal replaces the old one, so a crash
+ * at any point leaves either the old snapshot with its journal, or the new snapshot with a
+ * journal that is ignored because its checksum belongs to the old one.
+ */
+public class SavePointJournal {
+    private final static String t = "SavePointJournal";
+
+    /** The journal size beyond which the next savepoint writes a fresh snapshot instead. */
+    static final long COMPACTION_THRESHOLD_BYTES = 64 * 1024;
+
+    private static final int MAGIC = 0x4a524e31;  // "JRN1"
+
+    private final File mSnapshot;
+    private final File mFile;
+
+    public SavePointJournal(File instancePath) {
+        mSnapshot = SaveToDiskTask.savepointFile(instancePath);
+        mFile = new File(mSnapshot.getPath() + ".journal");
+    }
+
+    /** Deletes the savepoint snapshot and journal for an instance, if they exist. */
+    public static void deleteSavepoint(File instancePath) {
+        File snapshot = SaveToDiskTask.savepointFile(instancePath);
+        if (snapshot.exists()) {
+            snapshot.delete();
+        }
+        new SavePointJournal(instancePath).clear();
+    }
+
+    /** Returns true if the journal is big enough that a new snapshot should be written. */
+    public boolean needsCompaction() {
+        return mFile.length() >= COMPACTION_THRESHOLD_BYTES;
+    }
+
+    /**
+     * Replaces the snapshot with the given instance, and starts a new, empty journal for it.
+     */
+    public void writeSnapshot(ByteArrayPayload payload) throws IOException {
+        File temp = new File(mSnapshot.getPath() + ".tmp");
+        CheckedInputStream in = new CheckedInputStream(payload.getPayloadStream(), new CRC32());
+        FileOutputStream fos = new FileOutputStream(temp);
+        try {
+            byte[] buffer = new byte[8192];
+            int len;
+            while ((len = in.read(buffer)) != -1) {
+                fos.write(buffer, 0, len);
+            }
+            fos.getFD().sync();
+        } finally {
+            fos.close();
+        }
+        rename(temp, mSnapshot);
+        startJournal(in.getChecksum().getValue());
+    }
+
+    /** Replaces the journal with an empty one for the snapshot with the given checksum. */
+    private void startJournal(long snapshotChecksum) throws IOException {
+        File temp = new File(mFile.getPath() + ".tmp");
+        FileOutputStream fos = new FileOutputStream(temp);
+        try {
+            DataOutputStream out = new DataOutputStream(fos);
+            out.writeInt(MAGIC);
+            out.writeLong(snapshotChecksum);
+            out.flush();
+            fos.getFD().sync();
+        } finally {
+            fos.close();
+        }
+        rename(temp, mFile);
+    }
+
+    private static void rename(File from, File to) throws IOException {
+        if (!from.renameTo(to)) {
+            from.delete();
+            throw new IOException("Could not rename " + from + " to " + to);
+        }
+    }
+
+    /** Returns the CRC32 of the snapshot file's contents. */
+    private long getSnapshotChecksum() throws IOException {
+        CheckedInputStream in = new CheckedInputStream(new FileInputStream(mSnapshot), new CRC32());
+        try {
+            byte[] buffer = new byte[8192];
+            while (in.read(buffer) != -1) {
+                // just computing the checksum
+            }
+            return in.getChecksum().getValue();
+        } finally {
+            in.close();
+        }
+    }
+
+    /** Appends a batch of answer changes, keyed by reference, and syncs it to disk. */
+    public void append(Map<String, IAnswerData> changes) throws IOException {
+        if (changes.isEmpty()) {
+            return;
+        }
+        if (!mFile.exists()) {
+            // e.g. a snapshot written before there were journals
+            startJournal(getSnapshotChecksum());
+        }
+        ByteArrayOutputStream entries = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(entries);
+        out.writeInt(changes.size());
+        for (Map.Entry<String, IAnswerData> change : changes.entrySet()) {
+            out.writeUTF(change.getKey());
+            out.writeBoolean(change.getValue() != null);
+            if (change.getValue() != null) {
+                ExtUtil.write(out, new ExtWrapTagged(change.getValue()));
+            }
+        }
+        out.flush();
+        byte[] bytes = entries.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+
+        FileOutputStream fos = new FileOutputStream(mFile, true);
+        try {
+            DataOutputStream batch = new DataOutputStream(fos);
+            batch.writeInt(bytes.length);
+            batch.write(bytes);
+            batch.writeLong(crc.getValue());
+            batch.flush();
+            fos.getFD().sync();
+        } finally {
+            fos.close();
+        }
+    }
+
+    /** Discards the journal, e.g. once a new snapshot has been written. */
+    public void clear() {
+        if (mFile.exists() && !mFile.delete()) {
+            Log.w(t, "Could not delete " + mFile);
+        }
+    }
+
+    /**
+     * Reads all the intact batches in the journal, returning the latest answer for each
+     * reference, in the order of their latest changes.  Returns nothing if the journal belongs
+     * to a snapshot other than the one with the given checksum.
+     */
+    Map<String, IAnswerData> read(long snapshotChecksum) throws IOException {
+        Map<String, IAnswerData> answers = new LinkedHashMap<String, IAnswerData>();
+        if (!mFile.exists()) {
+            return answers;
+        }
+        DataInputStream in = new DataInputStream(new FileInputStream(mFile));
+        try {
+            try {
+                if (in.readInt() != MAGIC || in.readLong() != snapshotChecksum) {
+                    Log.w(t, "Ignoring journal for a different snapshot: " + mFile);
+                    return answers;
+                }
+            } catch (EOFException e) {
+                return answers;
+            }
+            while (true) {
+                byte[] bytes;
+                try {
+                    int length = in.readInt();
+                    if (length < 0 || length > mFile.length()) {
+                        Log.w(t, "Ignoring journal batch with a bad length in " + mFile);
+                        break;
+                    }
+                    bytes = new byte[length];
+                    in.readFully(bytes);
+                    CRC32 crc = new CRC32();
+                    crc.update(bytes);
+                    if (in.readLong() != crc.getValue()) {
+                        Log.w(t, "Ignoring journal batch with a bad checksum in " + mFile);
+                        break;
+                    }
+                } catch (EOFException e) {
+                    break;  // end of journal, or a batch cut short by a crash
+                }
+                DataInputStream entries = new DataInputStream(new ByteArrayInputStream(bytes));
+                int count = entries.readInt();
+                for (int i = 0; i < count; i++) {
+                    String reference = entries.readUTF();
+                    IAnswerData answer = null;
+                    if (entries.readBoolean()) {
+                        answer = (IAnswerData) ExtUtil.read(
+                                entries, new ExtWrapTagged(), ExtUtil.defaultPrototypes());
+                    }
+                    answers.remove(reference);  // keep the order of the latest change
+                    answers.put(reference, answer);
+                }
+            }
+        } catch (DeserializationException e) {
+            throw new IOException("Could not read journal " + mFile, e);
+        } finally {
+            in.close();
+        }
+        return answers;
+    }
+
+    /**
+     * Saves the journalled answers into the form model, which should have been loaded from the
+     * snapshot.  Adding or deleting a repeat forces a new snapshot, so every journalled answer
+     * should have a question to go to; any that don't are logged and skipped.
+     *
+     * @return the number of answers replayed
+     */
+    public int replay(FormController formController) throws IOException {
+        if (!mSnapshot.exists()) {
+            return 0;
+        }
+        Map<String, IAnswerData> answers = read(getSnapshotChecksum());
+        if (answers.isEmpty()) {
+            return 0;
+        }
+        int replayed = 0;
+        FormIndex saved = formController.getFormIndex();
+        try {
+            formController.jumpToIndex(FormIndex.createBeginningOfFormIndex());
+            int event = formController.stepToNextEvent(FormController.STEP_INTO_GROUP);
+            while (event != FormEntryController.EVENT_END_OF_FORM && !answers.isEmpty()) {
+                if (event == FormEntryController.EVENT_QUESTION) {
+                    FormIndex index = formController.getFormIndex();
+                    String reference = index.getReference().toString();
+                    if (answers.containsKey(reference)) {
+                        try {
+                            formController.saveAnswer(index, answers.remove(reference));
+                            replayed++;
+                        } catch (JavaRosaException e) {
+                            Log.w(t, "Could not replay answer for " + reference, e);
+                        }
+                    }
+                }
+                event = formController.stepToNextEvent(FormController.STEP_INTO_GROUP);
+            }
+        } finally {
+            formController.jumpToIndex(saved);
+        }
+        if (!answers.isEmpty()) {
+            Log.w(t, "Skipped " + answers.size() + " journalled answers for missing questions");
+        }
+        // These answers are already in the journal; there's no need to journal them again.
+        formController.takeAnswerChanges();
+        return replayed;
+    }
+}
@@ -21,12 +21,15 @@ package org.odk.collect.android.tasks;
 import android.os.AsyncTask;
 import android.util.Log;
 
+import org.javarosa.core.model.data.IAnswerData;
 import org.javarosa.core.services.transport.payload.ByteArrayPayload;
 import org.odk.collect.android.application.Collect;
 import org.odk.collect.android.listeners.SavePointListener;
 import org.odk.collect.android.logic.FormController;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.Map;
 
 /**
  * Author: Meletis Margaritis
@@ -60,15 +63,54 @@ public class SavePointTask extends AsyncTask<Void, Void, String> {
             try {
                 FormController formController = Collect.getInstance().getFormController();
                 File temp = SaveToDiskTask.savepointFile(formController.getInstancePath());
+                SavePointJournal journal = new SavePointJournal(formController.getInstancePath());
+
+                // If there is a snapshot, just journal the answers that changed since the
+                // last savepoint, until the journal is big enough to be worth compacting.
+                // (A snapshot older than the instance is left over and won't be loaded.)
+                // Adding or deleting a repeat shifts the references of the questions in it,
+                // so that needs a new snapshot too.
+                File instance = formController.getInstancePath();
+                boolean repeatsChanged = formController.takeRepeatsChanged();
+                if (!repeatsChanged && temp.exists()
+                        && temp.lastModified() >= instance.lastModified()
+                        && !journal.needsCompaction()) {
+                    Map<String, IAnswerData> changes = formController.takeAnswerChanges();
+                    try {
+                        journal.append(changes);
+                        long end = System.currentTimeMillis();
+                        Log.i(t, "Savepoint ms: " + Long.toString(end - start) + " for "
+                                + changes.size() + " changes to journal for " + temp);
+                        return null;
+                    } catch (IOException e) {
+                        Log.w(t, "Could not append to savepoint journal; writing a snapshot", e);
+                        formController.restoreAnswerChanges(changes);
+                    }
+                }
+
+                // Everything taken here is in the snapshot, which starts a new journal.
+                Map<String, IAnswerData> changes = formController.takeAnswerChanges();
                 ByteArrayPayload payload = formController.getFilledInFormXml();
 
                 if (priority < lastPriorityUsed) {
                     Log.w(t, "Savepoint thread (p=" + priority + ") was cancelled (b) because another one is waiting (p=" + lastPriorityUsed + ")");
+                    formController.restoreAnswerChanges(changes);
+                    if (repeatsChanged) {
+                        formController.restoreRepeatsChanged();
+                    }
                     return null;
                 }
 
                 // write out xml
-                SaveToDiskTask.exportXmlFile(payload, temp.getAbsolutePath());
+                try {
+                    journal.writeSnapshot(payload);
+                } catch (IOException e) {
+                    formController.restoreAnswerChanges(changes);
+                    if (repeatsChanged) {
+                        formController.restoreRepeatsChanged();
+                    }
+                    throw e;
+                }
 
                 long end = System.currentTimeMillis();
                 Log.i(t, "Savepoint ms: " + Long.toString(end - start) + " to " + temp);
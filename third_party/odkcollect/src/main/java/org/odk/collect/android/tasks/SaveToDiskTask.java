@@ -36,9 +36,9 @@ import org.odk.collect.android.utilities.EncryptionUtils.EncryptedFormInformatio
 import org.odk.collect.android.utilities.FileUtils;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.RandomAccessFile;
 
 /**
  * Background task for savig a form to disk.
@@ -129,6 +129,7 @@ public class SaveToDiskTask extends AsyncTask<Void, String, SaveResult> {
             if (shadowInstance.exists()) {
                 FileUtils.deleteAndReport(shadowInstance);
             }
+            new SavePointJournal(formController.getInstancePath()).clear();
 
             saveResult.setSaveResult(mSave ? SAVED_AND_EXIT : SAVED);
         } catch (Exception e) {
@@ -275,17 +276,12 @@ public class SaveToDiskTask extends AsyncTask<Void, String, SaveResult> {
             File instanceXml = formController.getInstancePath();
             File submissionXml = new File(instanceXml.getParentFile(), "submission.xml");
 
-            payload = formController.getSubmissionXml();
-
-            // write out submission.xml -- the data to actually submit to aggregate
-
-            publishProgress(Collect.getInstance().getApplication().getString(R.string.survey_saving_finalizing_message));
-
-            exportXmlFile(payload, submissionXml.getAbsolutePath());
-
             // see if the form is encrypted and we can encrypt it...
             EncryptedFormInformation formInfo = EncryptionUtils.getEncryptedFormInformation(mUri,
             		formController.getSubmissionMetadata());
+
+            publishProgress(Collect.getInstance().getApplication().getString(R.string.survey_saving_finalizing_message));
+
             if ( formInfo != null ) {
                 // if we are encrypting, the form cannot be reopened afterward
                 canEditAfterCompleted = false;
@@ -293,14 +289,25 @@ public class SaveToDiskTask extends AsyncTask<Void, String, SaveResult> {
 
                 publishProgress(Collect.getInstance().getApplication().getString(R.string.survey_saving_encrypting_message));
 
-                EncryptionUtils.generateEncryptedSubmission(instanceXml, submissionXml, formInfo);
+                // The serialized submission goes straight into the cipher; only the
+                // manifest is written to submission.xml.
+                payload = formController.getSubmissionXml();
+                EncryptionUtils.generateEncryptedSubmission(
+                        instanceXml, submissionXml, payload.getPayloadStream(), formInfo);
                 isEncrypted = true;
+            } else if ( !canEditAfterCompleted ) {
+                // write out submission.xml -- the data to actually submit to aggregate
+                payload = formController.getSubmissionXml();
+                exportXmlFile(payload, submissionXml.getAbsolutePath());
             }
+            // Otherwise the submission is the entire form, which is already on disk as the
+            // instanceXml, so there is no need to build or write it a second time.
 
             // At this point, we have:
             // 1. the saved original instanceXml,
             // 2. all the plaintext attachments
-            // 2. the submission.xml that is the completed xml (whether encrypting or not)
+            // 2. the submission.xml: the manifest if encrypting, the partial xml if only
+            //    part of the form is submitted, or nothing if the instanceXml is the submission
             // 3. all the encrypted attachments if encrypting (isEncrypted = true).
             //
             // NEXT:
@@ -334,9 +341,9 @@ public class SaveToDiskTask extends AsyncTask<Void, String, SaveResult> {
                     Log.e(t, msg);
 	                throw new IOException(msg);
 	            }
-	        } else {
-	        	// try to delete the submissionXml file, since it is
-	        	// identical to the existing instanceXml file
+	        } else if ( submissionXml.exists() ) {
+	        	// try to delete any submissionXml file left over from an
+	        	// earlier save, since the instanceXml is the submission
 	        	// (we don't need to delete and rename anything).
 	            if ( !submissionXml.delete() ) {
                     String msg = "Error deleting " + submissionXml.getAbsolutePath()
@@ -357,7 +364,8 @@ public class SaveToDiskTask extends AsyncTask<Void, String, SaveResult> {
 
 
     /**
-     * This method actually writes the xml to disk.
+     * This method actually writes the xml to disk, streaming it from the payload
+     * rather than copying it into another buffer first.
      * @param payload
      * @param path
      * @return
@@ -368,39 +376,23 @@ public class SaveToDiskTask extends AsyncTask<Void, String, SaveResult> {
             throw new IOException("Cannot overwrite " + path + ". Perhaps the file is locked?");
         }
 
-        // create data stream
         InputStream is = payload.getPayloadStream();
-        int len = (int) payload.getLength();
-
-        // read from data stream
-        byte[] data = new byte[len];
-//        try {
-            int read = is.read(data, 0, len);
-            if (read > 0) {
-                // write xml file
-                RandomAccessFile randomAccessFile = null;
-                try {
-                    // String filename = path + File.separator +
-                    // path.substring(path.lastIndexOf(File.separator) + 1) + ".xml";
-                    randomAccessFile = new RandomAccessFile(file, "rws");
-                    randomAccessFile.write(data);
-                } finally {
-                    if (randomAccessFile != null) {
-                        try {
-                            randomAccessFile.close();
-                        } catch (IOException e) {
-                            Log.e(t, "Error closing RandomAccessFile: " + path, e);
-                        }
-                    }
-                }
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            byte[] buffer = new byte[8192];
+            int len;
+            while ((len = is.read(buffer)) != -1) {
+                fos.write(buffer, 0, len);
+            }
+            // Make sure the file is on disk before the instance database says it is.
+            fos.getFD().sync();
+        } finally {
+            try {
+                fos.close();
+            } catch (IOException e) {
+                Log.e(t, "Error closing FileOutputStream: " + path, e);
             }
-//        } catch (IOException e) {
-//            Log.e(t, "Error reading from payload data stream");
-//            e.printStackTrace();
-//            return false;
-//        }
-//
-//        return false;
+        }
     }
 
     @Override
@@ -39,12 +39,14 @@ import java.io.InputStream;
 import java.io.OutputStreamWriter;
 import java.io.RandomAccessFile;
 import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.KeyFactory;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
+import java.security.DigestInputStream;
 import java.security.PublicKey;
 import java.security.SecureRandom;
 import java.security.spec.InvalidKeySpecException;
@@ -510,8 +512,63 @@ public class EncryptionUtils {
 		return allSuccessful;
 	}
 
+    /**
+     * Encrypts a stream into encryptedFile, taking the md5 hash for the element signature as the
+     * data goes by, so that the plaintext never has to be written out or read twice.
+     */
+    private static void encryptStream(InputStream in, String name, File encryptedFile,
+            EncryptedFormInformation formInfo) throws IOException, EncryptionException {
+        if (encryptedFile.exists() && !encryptedFile.delete()) {
+            throw new IOException("Cannot overwrite " + encryptedFile.getAbsolutePath() + ". Perhaps the file is locked?");
+        }
+
+        FileOutputStream fout = null;
+        CipherOutputStream cipherOutputStream = null;
+        try {
+            MessageDigest md = MessageDigest.getInstance("MD5");
+            DigestInputStream din = new DigestInputStream(in, md);
+            fout = new FileOutputStream(encryptedFile);
+            cipherOutputStream = new CipherOutputStream(fout, formInfo.getCipher());
+            byte[] buffer = new byte[8192];
+            int len = din.read(buffer);
+            while (len != -1) {
+                cipherOutputStream.write(buffer, 0, len);
+                len = din.read(buffer);
+            }
+            cipherOutputStream.flush();
+            // Closing the cipher stream writes the final block and closes fout.
+            cipherOutputStream.close();
+            cipherOutputStream = null;
+
+            String md5 = new BigInteger(1, md.digest()).toString(16);
+            while (md5.length() < 32) {
+                md5 = "0" + md5;
+            }
+            formInfo.appendElementSignatureSource(name + "::" + md5);
+
+            Log.i(t, "Encrypted: " + name + " -> " + encryptedFile.getName());
+        } catch (Exception e) {
+            String msg = "Error encrypting: " + name + " -> " + encryptedFile.getName();
+            Log.e(t, msg, e);
+            throw new EncryptionException(msg, e);
+        } finally {
+            IOUtils.closeQuietly(cipherOutputStream);
+            IOUtils.closeQuietly(fout);
+        }
+    }
+
 	private static List<File> encryptSubmissionFiles(File instanceXml,
 			File submissionXml, EncryptedFormInformation formInfo) throws IOException, EncryptionException {
+		List<File> mediaFiles = encryptMediaFiles(instanceXml, submissionXml, formInfo);
+
+		// encrypt the submission.xml as the last file...
+	    encryptFile(submissionXml, formInfo);
+
+        return mediaFiles;
+	}
+
+	private static List<File> encryptMediaFiles(File instanceXml,
+			File submissionXml, EncryptedFormInformation formInfo) throws IOException, EncryptionException {
 		// NOTE: assume the directory containing the instanceXml contains ONLY
 		// files related to this one instance.
 		File instanceDir = instanceXml.getParentFile();
@@ -540,9 +597,6 @@ public class EncryptionUtils {
 		    encryptFile(f, formInfo);
         }
 
-		// encrypt the submission.xml as the last file...
-	    encryptFile(submissionXml, formInfo);
-
         return filesToProcess;
 	}
 
@@ -575,6 +629,25 @@ public class EncryptionUtils {
 		writeSubmissionManifest(formInfo, submissionXml, mediaFiles);
 	}
 	
+	/**
+	 * Like {@link #generateEncryptedSubmission(File, File, EncryptedFormInformation)}, but
+	 * encrypts the submission straight from its serialized bytes instead of from a plaintext
+	 * submission.xml, so the submission is never written out in the clear or read back in.
+	 * submissionXml need not exist; it is written with the manifest.
+	 */
+	public static void generateEncryptedSubmission(File instanceXml, File submissionXml,
+			InputStream submission, EncryptedFormInformation formInfo)
+			throws IOException, EncryptionException {
+		// Step 1: encrypt the media files, then the submission itself...
+		List<File> mediaFiles = encryptMediaFiles(instanceXml, submissionXml, formInfo);
+		encryptStream(submission, submissionXml.getName(),
+				new File(submissionXml.getParentFile(), submissionXml.getName() + ".enc"),
+				formInfo);
+
+		// Step 2: build the encrypted-submission manifest...
+		writeSubmissionManifest(formInfo, submissionXml, mediaFiles);
+	}
+
 	private static void writeSubmissionManifest(
 			EncryptedFormInformation formInfo,
 			File submissionXml, List<File> mediaFiles) throws EncryptionException {
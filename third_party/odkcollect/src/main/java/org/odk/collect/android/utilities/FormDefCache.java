@@ -0,0 +1,302 @@
+// Copyright 2015 The Project Buendia Authors
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not
+// use this file except in compliance with the License.  You may obtain a copy
+// of the License at: http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distrib-
+// uted under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+// OR CONDITIONS OF ANY KIND, either express or implied.  See the License for
+// specific language governing permissions and limitations under the License.
+
+package org.odk.collect.android.utilities;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.apache.commons.io.IOUtils;
+import org.javarosa.core.model.FormDef;
+import org.javarosa.core.util.externalizable.ExtUtil;
+import org.javarosa.xform.util.XFormUtils;
+import org.odk.collect.android.application.Collect;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.util.Properties;
+import java.util.zip.CRC32;
+
+/**
+ * The cache of serialized {@link FormDef}s, stored as [md5].formdef in the cache directory.
+ * <p>
+ * Finding a form's cache file needs the MD5 hash of the form's xml.  To avoid reading the whole
+ * form on every open, hashes are kept in a small index on disk, keyed by the form's path and
+ * checked against its size, its modification time and a checksum of its first and last few
+ * kilobytes (as a file can be rewritten without its size or coarse-grained mtime changing).
+ * <p>
+ * Parsing an xform can take several seconds, so {@link #warm} lets a form be parsed and cached
+ * in the background (e.g. right after it is downloaded) before anyone opens it.  JavaRosa's
+ * parser keeps global state, so only one form is parsed at a time.  A form being opened goes
+ * ahead of any warm-ups waiting to parse, which wait their turn rather than being dropped; a
+ * thread that waited while another built the same form reads that result instead of parsing.
+ */
+public class FormDefCache {
+    private static final String t = "FormDefCache";
+    private static final String INDEX_FILE_NAME = "formdef-hashes.properties";
+    // How much of each end of a form goes into the checksum stored in the hash index.
+    private static final int SAMPLE_BYTES = 4096;
+
+    // Guards sParsing and sWaitingLoads, and is notified when the parser is released.
+    private static final Object sParseLock = new Object();
+    // Whether a thread is using the parser.
+    private static boolean sParsing;
+    // The number of load() calls waiting for the parser, which go ahead of warm-ups.
+    private static int sWaitingLoads;
+    private static final Object sIndexLock = new Object();
+
+    // Guarded by sIndexLock.  Maps form paths to "size:mtime:sample:md5"; loaded on first use.
+    private static Properties sIndex;
+
+    /**
+     * Returns the MD5 hash of a form file, reading the file only if it has changed since it was
+     * last hashed.  Returns null if the file can't be read.
+     */
+    public static String getHash(File formXml) {
+        String key = formXml.getAbsolutePath();
+        long sample = getSampleChecksum(formXml);
+        if (sample < 0) return null;
+        String stamp = formXml.length() + ":" + formXml.lastModified() + ":" + sample + ":";
+        synchronized (sIndexLock) {
+            String entry = getIndex().getProperty(key);
+            if (entry != null && entry.startsWith(stamp)) {
+                return entry.substring(stamp.length());
+            }
+        }
+        String hash = FileUtils.getMd5Hash(formXml);
+        if (hash != null) {
+            synchronized (sIndexLock) {
+                getIndex().setProperty(key, stamp + hash);
+                saveIndex();
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Returns a CRC32 of the first and last {@link #SAMPLE_BYTES} of a file, which is cheap to
+     * compute even for a large form.  Returns -1 if the file can't be read.
+     */
+    private static long getSampleChecksum(File file) {
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            long length = raf.length();
+            byte[] buffer = new byte[(int) Math.min(length, SAMPLE_BYTES)];
+            CRC32 crc = new CRC32();
+            raf.readFully(buffer);
+            crc.update(buffer);
+            if (length > SAMPLE_BYTES) {
+                long tailStart = Math.max(SAMPLE_BYTES, length - SAMPLE_BYTES);
+                int tailLength = (int) (length - tailStart);
+                raf.seek(tailStart);
+                raf.readFully(buffer, 0, tailLength);
+                crc.update(buffer, 0, tailLength);
+            }
+            return crc.getValue();
+        } catch (IOException e) {
+            Log.w(t, "Failed to read " + file.getAbsolutePath(), e);
+            return -1;
+        } finally {
+            IOUtils.closeQuietly(raf);
+        }
+    }
+
+    /** Returns the file that holds (or would hold) the serialized FormDef for a form hash. */
+    public static File getFormDefFile(String hash) {
+        return new File(Collect.getInstance().getCachePath() + File.separator + hash + ".formdef");
+    }
+
+    /** Reads a serialized {@link FormDef}, returning null if it is missing or unreadable. */
+    public static FormDef read(File formDef) {
+        DataInputStream dis = null;
+        try {
+            FormDef fd = new FormDef();
+            dis = new DataInputStream(new FileInputStream(formDef));
+            fd.readExternal(dis, ExtUtil.defaultPrototypes());
+            return fd;
+        } catch (Exception e) {
+            Log.w(t, "Failed to read " + formDef.getAbsolutePath(), e);
+            return null;
+        } finally {
+            IOUtils.closeQuietly(dis);
+        }
+    }
+
+    /**
+     * Writes a {@link FormDef} to the cache file for the given hash, unless one is already
+     * there.  The file is written under a temporary name and then renamed, so a reader never
+     * sees a partly written file.
+     */
+    public static void write(FormDef fd, String hash) {
+        File formDef = getFormDefFile(hash);
+        if (formDef.exists()) return;
+        File temp = new File(formDef.getPath() + ".tmp");
+        DataOutputStream dos = null;
+        try {
+            dos = new DataOutputStream(new FileOutputStream(temp));
+            fd.writeExternal(dos);
+            dos.close();
+            dos = null;
+            if (!temp.renameTo(formDef)) {
+                Log.w(t, "Failed to rename " + temp.getAbsolutePath());
+            }
+        } catch (IOException e) {
+            Log.w(t, "Failed to write " + formDef.getAbsolutePath(), e);
+        } finally {
+            IOUtils.closeQuietly(dos);
+            temp.delete();
+        }
+    }
+
+    /**
+     * Returns the {@link FormDef} for a form, parsing the xml and caching the result if it
+     * isn't cached yet.  Parse errors are thrown; null means JavaRosa produced no form.
+     */
+    public static FormDef load(File formXml, String hash) throws IOException {
+        return build(formXml, hash, true);
+    }
+
+    /**
+     * Waits for the parser to be free and takes it.  A foreground load waits only for the
+     * parse in progress, if any; a warm-up also waits for every foreground load that is waiting.
+     */
+    private static void acquireParser(boolean foreground) throws InterruptedIOException {
+        synchronized (sParseLock) {
+            if (foreground) sWaitingLoads++;
+            try {
+                while (sParsing || (!foreground && sWaitingLoads > 0)) {
+                    sParseLock.wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting to parse a form");
+            } finally {
+                if (foreground) sWaitingLoads--;
+            }
+            sParsing = true;
+        }
+    }
+
+    private static void releaseParser() {
+        synchronized (sParseLock) {
+            sParsing = false;
+            sParseLock.notifyAll();
+        }
+    }
+
+    private static FormDef build(File formXml, String hash, boolean foreground)
+        throws IOException {
+        // Reading a form that is already cached doesn't need the parser.
+        FormDef cached = readCached(hash);
+        if (cached != null) return cached;
+
+        acquireParser(foreground);
+        try {
+            // Another thread may have built this form while we waited for the parser.
+            cached = readCached(hash);
+            if (cached != null) return cached;
+
+            Log.i(t, "Parsing " + formXml.getAbsolutePath());
+            long start = SystemClock.elapsedRealtime();
+            FileInputStream fis = new FileInputStream(formXml);
+            FormDef fd;
+            try {
+                fd = XFormUtils.getFormFromInputStream(fis);
+            } finally {
+                IOUtils.closeQuietly(fis);
+            }
+            if (fd != null) {
+                write(fd, hash);
+                Log.i(t, "Parsed and cached " + formXml.getName() + " in "
+                    + (SystemClock.elapsedRealtime() - start) + " ms");
+            }
+            return fd;
+        } finally {
+            releaseParser();
+        }
+    }
+
+    /** Reads the cached FormDef for a hash, deleting the cache file if it is unreadable. */
+    private static FormDef readCached(String hash) {
+        File formDef = getFormDefFile(hash);
+        if (!formDef.exists()) return null;
+        FormDef fd = read(formDef);
+        if (fd == null) formDef.delete();
+        return fd;
+    }
+
+    /**
+     * Makes sure the serialized {@link FormDef} for a form is in the cache, building it if
+     * necessary.  This can take seconds, or longer while forms are being opened, as those are
+     * parsed first; so call it on a background thread.
+     */
+    public static void warm(File formXml) {
+        try {
+            String hash = getHash(formXml);
+            if (hash == null || getFormDefFile(hash).exists()) return;
+            build(formXml, hash, false);
+        } catch (Exception e) {
+            // Not fatal: the form will be parsed again when it is opened.
+            Log.w(t, "Failed to prepare " + formXml.getAbsolutePath(), e);
+        }
+    }
+
+    private static Properties getIndex() {
+        if (sIndex == null) {
+            sIndex = new Properties();
+            File file = getIndexFile();
+            if (file.exists()) {
+                FileInputStream fis = null;
+                try {
+                    fis = new FileInputStream(file);
+                    sIndex.load(fis);
+                } catch (IOException e) {
+                    Log.w(t, "Failed to read form hash index; starting afresh", e);
+                    sIndex.clear();
+                } finally {
+                    IOUtils.closeQuietly(fis);
+                }
+            }
+        }
+        return sIndex;
+    }
+
+    private static void saveIndex() {
+        File file = getIndexFile();
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream fos = null;
+        try {
+            fos = new FileOutputStream(temp);
+            sIndex.store(fos, null);
+            fos.close();
+            fos = null;
+            if (!temp.renameTo(file)) {
+                Log.w(t, "Failed to rename " + temp.getAbsolutePath());
+            }
+        } catch (IOException e) {
+            Log.w(t, "Failed to write form hash index", e);
+        } finally {
+            IOUtils.closeQuietly(fos);
+            temp.delete();
+        }
+    }
+
+    private static File getIndexFile() {
+        return new File(Collect.getInstance().getCachePath() + File.separator + INDEX_FILE_NAME);
+    }
+}
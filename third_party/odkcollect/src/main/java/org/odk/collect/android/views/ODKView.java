@@ -19,6 +19,7 @@ import android.content.ActivityNotFoundException;
 import android.content.Context;
 import android.content.Intent;
 import android.os.Bundle;
+import android.graphics.Rect;
 import android.os.Handler;
 import android.util.Log;
 import android.util.TypedValue;
@@ -26,7 +27,9 @@ import android.view.Gravity;
 import android.view.LayoutInflater;
 import android.view.MotionEvent;
 import android.view.View;
+import android.view.ViewTreeObserver;
 import android.widget.Button;
+import android.widget.FrameLayout;
 import android.widget.LinearLayout;
 import android.widget.TableLayout;
 import android.widget.TextView;
@@ -59,6 +62,7 @@ import org.odk.collect.android.widgets2.group.WidgetGroupBuilder;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -83,6 +87,73 @@ public class ODKView extends LinearLayout {
     
     public final static String FIELD_LIST = "field-list";
 
+    // Windowed mode: a field-list with at least this many questions gets a QuestionSlot per
+    // question, and only the slots near the visible part of the screen hold widgets.
+    private static final int WINDOWED_MIN_QUESTIONS = 20;
+    // The number of slots that get widgets up front, before the view has been laid out.
+    private static final int INITIAL_WINDOW = 8;
+    // The height given to slots whose widgets have never been created.
+    private static final int ESTIMATED_SLOT_HEIGHT_DP = 96;
+
+    private List<QuestionSlot> mSlots;  // null unless in windowed mode
+    private OnFocusChangeListener mFocusChangeListener;
+    private OnWidgetCreatedListener mWidgetCreatedListener;
+    private boolean mWindowUpdatePending;
+    private final Rect mVisibleRect = new Rect();
+
+    /**
+     * Holds the place of one question in windowed mode.  While the slot is far from the screen,
+     * its widget is discarded and the slot keeps the widget's last height, so that the layout
+     * doesn't jump; the answer is parked in the form model (which is what a widget reads when it
+     * is created), so it reappears when the widget is created again.
+     */
+    private final class QuestionSlot extends FrameLayout {
+        final FormEntryPrompt prompt;
+        final int widgetId;
+        QuestionWidget widget;  // null while unbound
+        boolean pinned;  // true for widgets that are hidden and never unbound
+
+        QuestionSlot(Context context, FormEntryPrompt prompt, int widgetId) {
+            super(context);
+            this.prompt = prompt;
+            this.widgetId = widgetId;
+            setMinimumHeight((int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP,
+                    ESTIMATED_SLOT_HEIGHT_DP, getResources().getDisplayMetrics()));
+        }
+    }
+
+    /**
+     * Told about each question widget this view creates, including the ones created later as the
+     * user scrolls in windowed mode.
+     */
+    public interface OnWidgetCreatedListener {
+        void onWidgetCreated(QuestionWidget qw);
+    }
+
+    private final ViewTreeObserver.OnScrollChangedListener mScrollListener =
+            new ViewTreeObserver.OnScrollChangedListener() {
+                @Override
+                public void onScrollChanged() {
+                    scheduleWindowUpdate();
+                }
+            };
+
+    private final ViewTreeObserver.OnGlobalLayoutListener mLayoutListener =
+            new ViewTreeObserver.OnGlobalLayoutListener() {
+                @Override
+                public void onGlobalLayout() {
+                    scheduleWindowUpdate();
+                }
+            };
+
+    private final Runnable mUpdateWindow = new Runnable() {
+        @Override
+        public void run() {
+            mWindowUpdatePending = false;
+            updateWindow();
+        }
+    };
+
     public ODKView(Context context, final FormEntryPrompt[] questionPrompts,
             FormEntryCaption[] groups, boolean advancingPage) {
         this(context, questionPrompts, groups, advancingPage, null /*fields*/);
@@ -214,6 +285,11 @@ public class ODKView extends LinearLayout {
             }
         }
 
+        boolean windowed = !readOnlyOverride && questionPrompts.length >= WINDOWED_MIN_QUESTIONS;
+        if (windowed) {
+            mSlots = new ArrayList<QuestionSlot>();
+        }
+
         boolean first = true;
         int id = 0;
         for (FormEntryPrompt p : questionPrompts) {
@@ -231,40 +307,35 @@ public class ODKView extends LinearLayout {
                 first = false;
             }
 
-            // if question or answer type is not supported, use text widget
-            QuestionWidget qw =
-                    Widget2Factory.INSTANCE.create(getContext(), p, readOnlyOverride);
-            if (qw == null) {
-                qw = WidgetFactory.createWidgetFromPrompt(p, getContext(), readOnlyOverride);
+            if (windowed) {
+                QuestionSlot slot = new QuestionSlot(getContext(), p, VIEW_ID + id++);
+                mSlots.add(slot);
+                // Presets need the widget, but only a few questions can take them.
+                if ((fields != null && isPresetQuestion(p)) || mSlots.size() <= INITIAL_WINDOW) {
+                    bind(slot);
+                    if (applyPreset(slot.widget, fields)) {
+                        slot.removeView(slot.widget);
+                        slot.pinned = true;
+                        continue;
+                    }
+                }
+                mView.addView(slot, mLayout);
+                continue;
             }
 
-            qw.setId(VIEW_ID + id++);
+            QuestionWidget qw = createWidget(p, readOnlyOverride, VIEW_ID + id++);
 
             mWidgets.add(qw);
 
-            String questionText = p.getQuestionText().toLowerCase();
-            if (fields != null && questionText != null) {
-                if (questionText.contains("date and time of encounter")
-                        && qw.forceSetAnswer(fields.encounterTime)) {
-                    continue;
-                }
-                if (questionText.equals("location")
-                        && qw.forceSetAnswer(fields.locationName)) {
-                    continue;
-                }
-                // Because of a unicode encoding bug, clinician names may not always match up,
-                // causing the list of clinicians to appear in the xform, which is a confusing
-                // user experience. To avoid this issue, if the logged-in clinician is not found,
-                // select "Guest User" by default.
-                if (questionText.equals("clinician")
-                        && (qw.forceSetAnswer(fields.clinicianName)
-                        || qw.forceSetAnswer(GUEST_USER_NAME))) {
-                    continue;
-                }
+            if (applyPreset(qw, fields)) {
+                continue;
             }
 
             mView.addView(qw, mLayout);
         }
+        if (windowed) {
+            updateWidgetList();
+        }
 
         addView(mView);
 
@@ -288,6 +359,195 @@ public class ODKView extends LinearLayout {
         }
     }
 
+    private QuestionWidget createWidget(FormEntryPrompt p, boolean readOnlyOverride, int id) {
+        // if question or answer type is not supported, use text widget
+        QuestionWidget qw =
+                Widget2Factory.INSTANCE.create(getContext(), p, readOnlyOverride);
+        if (qw == null) {
+            qw = WidgetFactory.createWidgetFromPrompt(p, getContext(), readOnlyOverride);
+        }
+
+        qw.setId(id);
+        return qw;
+    }
+
+    private static boolean isPresetQuestion(FormEntryPrompt p) {
+        String questionText = p.getQuestionText().toLowerCase();
+        return questionText.contains("date and time of encounter")
+                || questionText.equals("location") || questionText.equals("clinician");
+    }
+
+    /**
+     * Fills in the widget's answer from the preset, if it has one for this question.
+     *
+     * @return true if the answer was set, in which case the widget shouldn't be shown
+     */
+    private boolean applyPreset(QuestionWidget qw, Preset fields) {
+        String questionText = qw.getPrompt().getQuestionText().toLowerCase();
+        if (fields != null && questionText != null) {
+            if (questionText.contains("date and time of encounter")
+                    && qw.forceSetAnswer(fields.encounterTime)) {
+                return true;
+            }
+            if (questionText.equals("location")
+                    && qw.forceSetAnswer(fields.locationName)) {
+                return true;
+            }
+            // Because of a unicode encoding bug, clinician names may not always match up,
+            // causing the list of clinicians to appear in the xform, which is a confusing
+            // user experience. To avoid this issue, if the logged-in clinician is not found,
+            // select "Guest User" by default.
+            if (questionText.equals("clinician")
+                    && (qw.forceSetAnswer(fields.clinicianName)
+                    || qw.forceSetAnswer(GUEST_USER_NAME))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        if (mSlots != null) {
+            getViewTreeObserver().addOnScrollChangedListener(mScrollListener);
+            getViewTreeObserver().addOnGlobalLayoutListener(mLayoutListener);
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        if (mSlots != null) {
+            getViewTreeObserver().removeOnScrollChangedListener(mScrollListener);
+            getViewTreeObserver().removeOnGlobalLayoutListener(mLayoutListener);
+            removeCallbacks(mUpdateWindow);
+            mWindowUpdatePending = false;
+        }
+        super.onDetachedFromWindow();
+    }
+
+    private void scheduleWindowUpdate() {
+        if (!mWindowUpdatePending) {
+            mWindowUpdatePending = true;
+            post(mUpdateWindow);
+        }
+    }
+
+    /**
+     * Creates the widgets for the slots within a screen's height of the visible part of this
+     * view, and discards those more than two screens' height away.  The gap between the two
+     * keeps widgets from being created and discarded repeatedly as the user scrolls back and
+     * forth.
+     */
+    private void updateWindow() {
+        boolean shown = getLocalVisibleRect(mVisibleRect);
+        int screenHeight = getRootView().getHeight();
+        boolean changed = false;
+        for (QuestionSlot slot : mSlots) {
+            if (slot.pinned) {
+                continue;
+            }
+            int top = mView.getTop() + slot.getTop();
+            int bottom = top + slot.getHeight();
+            int distance = !shown ? Integer.MAX_VALUE
+                    : bottom < mVisibleRect.top ? mVisibleRect.top - bottom
+                    : top > mVisibleRect.bottom ? top - mVisibleRect.bottom
+                    : 0;
+            if (slot.widget == null && distance <= screenHeight) {
+                bind(slot);
+                changed = true;
+            } else if (slot.widget != null && distance > 2 * screenHeight) {
+                changed |= unbind(slot);
+            }
+        }
+        if (changed) {
+            updateWidgetList();
+        }
+    }
+
+    private void bind(QuestionSlot slot) {
+        slot.widget = createWidget(slot.prompt, false, slot.widgetId);
+        if (mFocusChangeListener != null) {
+            slot.widget.setOnFocusChangeListener(mFocusChangeListener);
+        }
+        if (mWidgetCreatedListener != null) {
+            mWidgetCreatedListener.onWidgetCreated(slot.widget);
+        }
+        slot.setMinimumHeight(0);
+        slot.addView(slot.widget, new FrameLayout.LayoutParams(
+                FrameLayout.LayoutParams.MATCH_PARENT, FrameLayout.LayoutParams.WRAP_CONTENT));
+    }
+
+    /**
+     * Parks the slot's answer in the form model and discards its widget, unless the widget is
+     * in use.
+     *
+     * @return true if the widget was discarded
+     */
+    private boolean unbind(QuestionSlot slot) {
+        QuestionWidget qw = slot.widget;
+        if (qw.hasFocus() || (qw instanceof IBinaryWidget
+                && ((IBinaryWidget) qw).isWaitingForBinaryData())) {
+            return false;
+        }
+        if (!slot.prompt.isReadOnly()) {
+            try {
+                Collect.getInstance().getFormController()
+                        .saveAnswer(slot.prompt.getIndex(), qw.getAnswer());
+            } catch (JavaRosaException e) {
+                Log.w(t, "Keeping widget for " + slot.prompt.getIndex(), e);
+                return false;
+            }
+        }
+        slot.setMinimumHeight(slot.getHeight());
+        slot.removeView(qw);
+        slot.widget = null;
+        return true;
+    }
+
+    /**
+     * Creates the widget for the slot whose question is waiting for data from another activity,
+     * if it has been discarded (for example, because this view was recreated meanwhile).
+     */
+    private void bindSlotWaitingForData() {
+        if (mSlots == null) {
+            return;
+        }
+        FormIndex waiting = Collect.getInstance().getFormController().getIndexWaitingForData();
+        for (QuestionSlot slot : mSlots) {
+            if (slot.widget == null && slot.prompt.getIndex().equals(waiting)) {
+                bind(slot);
+                updateWidgetList();
+                return;
+            }
+        }
+    }
+
+    /** Returns the prompts for all the questions in this view, whether or not they have widgets. */
+    private List<FormEntryPrompt> getPrompts() {
+        List<FormEntryPrompt> prompts = new ArrayList<FormEntryPrompt>();
+        if (mSlots != null) {
+            for (QuestionSlot slot : mSlots) {
+                prompts.add(slot.prompt);
+            }
+        } else {
+            for (QuestionWidget qw : mWidgets) {
+                prompts.add(qw.getPrompt());
+            }
+        }
+        return prompts;
+    }
+
+    /** Makes mWidgets hold the widgets that currently exist, in question order. */
+    private void updateWidgetList() {
+        mWidgets.clear();
+        for (QuestionSlot slot : mSlots) {
+            if (slot.widget != null) {
+                mWidgets.add(slot.widget);
+            }
+        }
+    }
+
     /**
      * http://code.google.com/p/android/issues/detail?id=8488
      */
@@ -309,6 +569,15 @@ public class ODKView extends LinearLayout {
     public LinkedHashMap<FormIndex, IAnswerData> getAnswers() {
         LinkedHashMap<FormIndex, IAnswerData> answers = new LinkedHashMap<FormIndex, IAnswerData>();
 
+        if (mSlots != null) {
+            // Slots without widgets have their answers in the form model.
+            for (QuestionSlot slot : mSlots) {
+                answers.put(slot.prompt.getIndex(), slot.widget != null
+                        ? slot.widget.getAnswer() : slot.prompt.getAnswerValue());
+            }
+            return answers;
+        }
+
         for (QuestionWidget widget : mWidgetGroup != null ? mWidgetGroup.getWidgets() : mWidgets) {
             FormEntryPrompt p = widget.getPrompt();
             answers.put(p.getIndex(), widget.getAnswer());
@@ -381,6 +650,7 @@ public class ODKView extends LinearLayout {
      * @param answer
      */
     public void setBinaryData(Object answer) {
+        bindSlotWaitingForData();
         boolean set = false;
         for (QuestionWidget q : mWidgets) {
             if (q instanceof IBinaryWidget) {
@@ -409,8 +679,7 @@ public class ODKView extends LinearLayout {
         FormController formController = Collect.getInstance().getFormController();
         Set<String> keys = bundle.keySet();
         for (String key : keys) {
-            for (QuestionWidget questionWidget : mWidgets) {
-                FormEntryPrompt prompt = questionWidget.getPrompt();
+            for (FormEntryPrompt prompt : getPrompts()) {
                 TreeReference treeReference = (TreeReference) prompt.getFormElement().getBind().getReference();
                 if (treeReference.getNameLast().equals(key)) {
 
@@ -435,6 +704,7 @@ public class ODKView extends LinearLayout {
     }
     
     public void cancelWaitingForBinaryData() {
+        bindSlotWaitingForData();
         int count = 0;
         for (QuestionWidget q : mWidgets) {
             if (q instanceof IBinaryWidget) {
@@ -463,9 +733,11 @@ public class ODKView extends LinearLayout {
      * @return true if the answer was cleared, false otherwise.
      */
     public boolean clearAnswer() {
-        // If there's only one widget, clear the answer.
+        // If there's only one question, clear the answer.
         // If there are more, then force a long-press to clear the answer.
-        if (mWidgets.size() == 1 && !mWidgets.get(0).getPrompt().isReadOnly()) {
+        // (Windowed mode always has many questions, even if few of them have widgets.)
+        if (mSlots == null && mWidgets.size() == 1
+                && !mWidgets.get(0).getPrompt().isReadOnly()) {
             mWidgets.get(0).clearAnswer();
             return true;
         } else {
@@ -474,19 +746,53 @@ public class ODKView extends LinearLayout {
     }
 
 
+    /**
+     * Returns the widgets that currently exist.  In windowed mode, these are only the widgets
+     * near the visible part of the screen (and any hidden preset widgets).
+     */
     public ArrayList<QuestionWidget> getWidgets() {
         return mWidgets;
     }
 
+    /**
+     * Returns the view that holds the place of each question shown on the screen, whether or not
+     * its widget currently exists, in order.
+     */
+    public List<View> getQuestionViews() {
+        List<View> views = new ArrayList<View>();
+        if (mSlots != null) {
+            for (QuestionSlot slot : mSlots) {
+                if (!slot.pinned) {
+                    views.add(slot);
+                }
+            }
+        } else {
+            views.addAll(mWidgets);
+        }
+        return views;
+    }
+
 
     @Override
     public void setOnFocusChangeListener(OnFocusChangeListener l) {
+        mFocusChangeListener = l;
         for (int i = 0; i < mWidgets.size(); i++) {
             QuestionWidget qw = mWidgets.get(i);
             qw.setOnFocusChangeListener(l);
         }
     }
 
+    /**
+     * Sets the listener told about each widget this view creates, and tells it about the widgets
+     * that already exist.
+     */
+    public void setOnWidgetCreatedListener(OnWidgetCreatedListener l) {
+        mWidgetCreatedListener = l;
+        for (QuestionWidget qw : mWidgets) {
+            l.onWidgetCreated(qw);
+        }
+    }
+
     @Override
     public void cancelLongPress() {
         super.cancelLongPress();